@@ -0,0 +1,671 @@
+package tieteMonitor.client;
+
+import java.io.*;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Gerador de carga sem interface: simula inspetores falando o mesmo protocolo do
+ * ClienteMonitoramento (login com nome e local, ASSINAR, CHAT:PARA privado e para Todos,
+ * CHAT:ALERTA, ACK da sessão e conexões à parte para LISTAR_ARQUIVOS, ARQUIVO e DOWNLOAD).
+ * Cada mensagem de chat leva o instante do envio (#c&lt;nanos&gt;), e quem a recebe registra a
+ * latência de entrega; as operações de arquivo registram o tempo de resposta. No fim mostra
+ * vazão, percentis 50/99/99,9 por tipo e o uso de recursos do servidor, lido do endpoint de
+ * métricas (porta + 3000).
+ *
+ * Parâmetros chave=valor (padrão entre parênteses): host (127.0.0.1), porta (12345),
+ * inspetores (200), rampa em s (10), perfil linear|degraus (linear), duracao em s depois da
+ * rampa (30), taxa de operações por s por inspetor (0.5), mix
+ * (privada=35,todos=30,alerta=5,lista=10,upload=5,download=15), arquivoKb (64),
+ * assinatura local|todos (local), metricas porta do endpoint (porta + 3000, 0 desliga),
+ * rastreamento fração das mensagens de chat e alertas enviadas com RASTRO (0); os destinatários
+ * respondem RASTRO_FIM na hora, e o relatório traz as etapas medidas pelo servidor no período.
+ * Com -Dtiete.tls=true todas as conexões usam TLS (ConexaoServidor): porta passa a ser a porta
+ * TLS do servidor, e metricas deve ser informada.
+ */
+public class GeradorCarga {
+    private static final String[] LOCAIS = {
+        "Nascente - Salesópolis", "Mogi das Cruzes", "Suzano", "Poá", "Itaquaquecetuba", "Guarulhos", "São Paulo - Capital"
+    };
+    private static final String[] TIPOS = {"privada", "todos", "alerta", "lista", "upload", "download"};
+    private static final String[] ETAPAS_RASTRO = {"rede_envio", "processamento", "fila", "escrita", "rede_entrega", "interface", "total"};
+    private static final String BALDE_RASTRO = "tiete_rastro_segundos_bucket{etapa=\"";
+    private static final int MENSAGENS_POR_CONFIRMACAO = 50;
+    private static final long INTERVALO_RELATORIO_MS = 5000;
+
+    /**
+     * Histograma de latências em microssegundos com baldes log-lineares (erro relativo de até 1/32)
+     */
+    static class Histograma {
+        private static final int SUBBALDES = 32;
+        private final AtomicLongArray baldes = new AtomicLongArray(SUBBALDES * 40);
+        private final AtomicLong maximo = new AtomicLong();
+
+        void registrar(long nanos) {
+            long micros = Math.max(0, nanos / 1000);
+            baldes.incrementAndGet(indice(micros));
+            maximo.accumulateAndGet(micros, Math::max);
+        }
+
+        private static int indice(long micros) {
+            if (micros < SUBBALDES) {
+                return (int) micros;
+            }
+            int expoente = 63 - Long.numberOfLeadingZeros(micros) - 4;
+            return Math.min(SUBBALDES * 40 - 1, expoente * SUBBALDES + (int) (micros >> (expoente - 1)) - SUBBALDES);
+        }
+
+        private static long limite(int indice) {
+            if (indice < SUBBALDES) {
+                return indice;
+            }
+            int expoente = indice / SUBBALDES;
+            return ((long) (indice % SUBBALDES) + SUBBALDES + 1 << (expoente - 1)) - 1;
+        }
+
+        long quantidade() {
+            long total = 0;
+            for (int i = 0; i < baldes.length(); i++) {
+                total += baldes.get(i);
+            }
+            return total;
+        }
+
+        /**
+         * @return Percentil em microssegundos (limite superior do balde)
+         */
+        long percentil(double percentil) {
+            long alvo = Math.max(1, (long) Math.ceil(quantidade() * percentil));
+            long acumulado = 0;
+            for (int i = 0; i < baldes.length(); i++) {
+                acumulado += baldes.get(i);
+                if (acumulado >= alvo) {
+                    return Math.min(limite(i), maximo.get());
+                }
+            }
+            return maximo.get();
+        }
+    }
+
+    private final String host;
+    private final int porta;
+    private final int quantidade;
+    private final long rampaMs;
+    private final boolean degraus;
+    private final long duracaoMs;
+    private final double taxa;
+    private final double[] mixAcumulado = new double[TIPOS.length];
+    private final byte[] conteudoArquivo;
+    private final boolean assinarLocal;
+    private final int portaMetricas;
+    private final double fracaoRastreada;
+    private final String prefixo = "carga" + Long.toString(System.currentTimeMillis() % 100000, 36);
+
+    private final Map<String, Histograma> latencias = new ConcurrentHashMap<>();
+    private volatile Map<String, Histograma> latenciasIntervalo = new ConcurrentHashMap<>();
+    private final AtomicLong operacoes = new AtomicLong();
+    private final AtomicLong entregas = new AtomicLong();
+    private final AtomicLong recebidas = new AtomicLong();
+    private final AtomicLong erros = new AtomicLong();
+    private final AtomicInteger conectados = new AtomicInteger();
+    private final List<Inspetor> ativos = new CopyOnWriteArrayList<>();
+    // Substituída por inteiro a cada lista recebida
+    private volatile List<String> arquivosConhecidos = Collections.emptyList();
+    private final ScheduledExecutorService agendador;
+    private final ExecutorService conexoes = Executors.newFixedThreadPool(32, r -> {
+        Thread t = new Thread(r, "carga-conexoes");
+        t.setDaemon(true);
+        return t;
+    });
+    private volatile boolean parando;
+
+    GeradorCarga(Map<String, String> parametros) {
+        host = parametros.getOrDefault("host", "127.0.0.1");
+        porta = Integer.parseInt(parametros.getOrDefault("porta", "12345"));
+        quantidade = Integer.parseInt(parametros.getOrDefault("inspetores", "200"));
+        rampaMs = (long) (Double.parseDouble(parametros.getOrDefault("rampa", "10")) * 1000);
+        degraus = parametros.getOrDefault("perfil", "linear").equals("degraus");
+        duracaoMs = (long) (Double.parseDouble(parametros.getOrDefault("duracao", "30")) * 1000);
+        taxa = Double.parseDouble(parametros.getOrDefault("taxa", "0.5"));
+        conteudoArquivo = new byte[Integer.parseInt(parametros.getOrDefault("arquivoKb", "64")) * 1024];
+        new Random(1).nextBytes(conteudoArquivo);
+        assinarLocal = parametros.getOrDefault("assinatura", "local").equals("local");
+        portaMetricas = Integer.parseInt(parametros.getOrDefault("metricas", String.valueOf(porta + 3000)));
+        fracaoRastreada = Double.parseDouble(parametros.getOrDefault("rastreamento", "0"));
+        Map<String, Double> pesos = new HashMap<>();
+        for (String item : parametros.getOrDefault("mix", "privada=35,todos=30,alerta=5,lista=10,upload=5,download=15").split(",")) {
+            String[] partes = item.split("=");
+            pesos.put(partes[0].trim(), Double.parseDouble(partes[1]));
+        }
+        double total = 0;
+        for (String tipo : TIPOS) {
+            total += pesos.getOrDefault(tipo, 0.0);
+        }
+        double acumulado = 0;
+        for (int i = 0; i < TIPOS.length; i++) {
+            acumulado += pesos.getOrDefault(TIPOS[i], 0.0) / total;
+            mixAcumulado[i] = acumulado;
+        }
+        agendador = Executors.newScheduledThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors()), r -> {
+            Thread t = new Thread(r, "carga-agendador");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> parametros = new HashMap<>();
+        for (String arg : args) {
+            int igual = arg.indexOf('=');
+            if (igual < 0) {
+                System.err.println("Parâmetro ignorado (use chave=valor): " + arg);
+                continue;
+            }
+            parametros.put(arg.substring(0, igual), arg.substring(igual + 1));
+        }
+        new GeradorCarga(parametros).executar();
+        System.exit(0);
+    }
+
+    /**
+     * Uma conexão de sessão, com a thread que lê, confirma e mede as mensagens recebidas
+     */
+    private class Inspetor {
+        private final String nome;
+        private final String local;
+        private Socket socket;
+        private DataOutputStream saida;
+        private long recebidasSessao;
+        private long confirmadas;
+
+        Inspetor(int numero) {
+            nome = prefixo + "_" + numero;
+            local = LOCAIS[numero % LOCAIS.length];
+        }
+
+        void entrar() {
+            long inicio = System.nanoTime();
+            try {
+                socket = conectar();
+                socket.setTcpNoDelay(true);
+                DataInputStream entrada = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                saida = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                saida.writeUTF(nome);
+                saida.writeUTF(local);
+                saida.flush();
+                String resposta;
+                while (!(resposta = entrada.readUTF()).startsWith("BEMVINDO:")) {
+                    if (resposta.startsWith("CHAT:MSG_DE:Sistema:")) {
+                        throw new IOException(resposta.substring(20));
+                    }
+                }
+                registrar("login", System.nanoTime() - inicio);
+                if (assinarLocal) {
+                    enviar("ASSINAR:" + local);
+                }
+                Thread leitor = new Thread(null, () -> receber(entrada), "carga-" + nome, 256 * 1024);
+                leitor.setDaemon(true);
+                leitor.start();
+                conectados.incrementAndGet();
+                ativos.add(this);
+                agendarProxima();
+            } catch (IOException e) {
+                falhou("login de " + nome, e);
+                fechar();
+            }
+        }
+
+        private void receber(DataInputStream entrada) {
+            boolean contando = false;
+            try {
+                while (true) {
+                    String mensagem = entrada.readUTF();
+                    if (mensagem.startsWith("SESSAO:")) {
+                        contando = true;
+                        continue;
+                    } else if (mensagem.equals("BATIMENTO")) {
+                        confirmar();
+                        continue;
+                    } else if (mensagem.startsWith("LOCAL:")) {
+                        continue;
+                    }
+                    recebidas.incrementAndGet();
+                    if (mensagem.startsWith("RASTRO:")) {
+                        // RASTRO:id:despachoMs:mensagem; sem interface, a exibição é imediata
+                        int fimId = mensagem.indexOf(':', 7);
+                        int fimDespacho = mensagem.indexOf(':', fimId + 1);
+                        enviar("RASTRO_FIM:" + mensagem.substring(7, fimId) + ":" + System.currentTimeMillis() + ":0");
+                        mensagem = mensagem.substring(fimDespacho + 1);
+                    }
+                    medirEntrega(mensagem);
+                    if (contando && ++recebidasSessao - confirmadas >= MENSAGENS_POR_CONFIRMACAO) {
+                        confirmar();
+                    }
+                }
+            } catch (IOException e) {
+                if (!parando) {
+                    falhou("conexão de " + nome, e);
+                }
+            } finally {
+                if (ativos.remove(this)) {
+                    conectados.decrementAndGet();
+                }
+            }
+        }
+
+        private void confirmar() throws IOException {
+            enviar("ACK:" + recebidasSessao);
+            confirmadas = recebidasSessao;
+        }
+
+        synchronized void enviar(String mensagem) throws IOException {
+            saida.writeUTF(mensagem);
+            saida.flush();
+        }
+
+        private void agendarProxima() {
+            if (parando) {
+                return;
+            }
+            // Chegadas de Poisson: intervalos exponenciais com média 1/taxa
+            long atrasoMicros = (long) (-Math.log(1 - ThreadLocalRandom.current().nextDouble()) / taxa * 1e6);
+            agendador.schedule(() -> {
+                operar();
+                agendarProxima();
+            }, atrasoMicros, TimeUnit.MICROSECONDS);
+        }
+
+        private void operar() {
+            if (parando) {
+                return;
+            }
+            String tipo = sortearTipo();
+            operacoes.incrementAndGet();
+            try {
+                switch (tipo) {
+                    case "privada":
+                        enviar(rastrear("CHAT:PARA:" + outroInspetor(this) + ":#c" + System.nanoTime() + " mensagem privada de carga"));
+                        break;
+                    case "todos":
+                        enviar(rastrear("CHAT:PARA:Todos:#c" + System.nanoTime() + " mensagem de carga para o local"));
+                        break;
+                    case "alerta":
+                        // O instante torna o texto único: alertas equivalentes seriam agregados
+                        enviar(rastrear("CHAT:ALERTA:#c" + System.nanoTime() + " nivel acima do normal"));
+                        break;
+                    default:
+                        conexoes.execute(() -> operarArquivo(tipo, this));
+                }
+            } catch (IOException e) {
+                falhou(tipo + " de " + nome, e);
+            }
+        }
+
+        private String rastrear(String comando) {
+            ThreadLocalRandom aleatorio = ThreadLocalRandom.current();
+            if (fracaoRastreada <= 0 || aleatorio.nextDouble() >= fracaoRastreada) {
+                return comando;
+            }
+            return "RASTRO:" + Long.toHexString(aleatorio.nextLong()) + ":" + System.currentTimeMillis() + ":" + comando;
+        }
+
+        void fechar() {
+            try {
+                if (saida != null) {
+                    enviar("SAIR");
+                }
+            } catch (IOException e) {
+                // Já desconectado
+            }
+            try {
+                if (socket != null) {
+                    socket.close();
+                }
+            } catch (IOException e) {
+                // Ignorado no encerramento
+            }
+        }
+    }
+
+    private void executar() throws Exception {
+        Map<String, Long> recursosInicio = lerMetricasServidor();
+        semearArquivo();
+        System.err.printf("%d inspetores em %s:%d, rampa %s de %d s, %d s de carga, %.2f operações/s por inspetor%n",
+                quantidade, host, porta, degraus ? "em degraus" : "linear", rampaMs / 1000, duracaoMs / 1000, taxa);
+        long inicio = System.nanoTime();
+        ExecutorService logins = Executors.newFixedThreadPool(16);
+        for (int i = 0; i < quantidade; i++) {
+            Inspetor inspetor = new Inspetor(i);
+            long atraso = degraus ? rampaMs * (i * 5L / quantidade) / 5 : rampaMs * i / Math.max(1, quantidade);
+            agendador.schedule(() -> logins.execute(inspetor::entrar), atraso, TimeUnit.MILLISECONDS);
+        }
+        long fim = inicio + (rampaMs + duracaoMs) * 1000000;
+        long ultimasOperacoes = 0;
+        long ultimasEntregas = 0;
+        long inicioMedicao = 0;
+        long operacoesNaRampa = 0;
+        long entregasNaRampa = 0;
+        while (System.nanoTime() < fim) {
+            Thread.sleep(Math.min(INTERVALO_RELATORIO_MS, Math.max(1, (fim - System.nanoTime()) / 1000000)));
+            Map<String, Histograma> intervalo = latenciasIntervalo;
+            latenciasIntervalo = new ConcurrentHashMap<>();
+            long agora = System.nanoTime();
+            long operacoesAgora = operacoes.get();
+            long entregasAgora = entregas.get();
+            double segundos = INTERVALO_RELATORIO_MS / 1000.0;
+            Histograma todos = intervalo.getOrDefault("todos", new Histograma());
+            System.err.printf("[%3.0f s] conectados %d, %.0f operações/s, %.0f entregas/s, entrega p50 %.1f ms p99 %.1f ms, erros %d%n",
+                    (agora - inicio) / 1e9, conectados.get(), (operacoesAgora - ultimasOperacoes) / segundos,
+                    (entregasAgora - ultimasEntregas) / segundos, todos.percentil(0.5) / 1000.0,
+                    todos.percentil(0.99) / 1000.0, erros.get());
+            ultimasOperacoes = operacoesAgora;
+            ultimasEntregas = entregasAgora;
+            if (inicioMedicao == 0 && agora - inicio >= rampaMs * 1000000) {
+                // A vazão final considera só o período de carga plena
+                inicioMedicao = agora;
+                operacoesNaRampa = operacoesAgora;
+                entregasNaRampa = entregasAgora;
+            }
+        }
+        parando = true;
+        double segundosPlenos = inicioMedicao > 0 ? (System.nanoTime() - inicioMedicao) / 1e9 : 0;
+        long operacoesPlenas = operacoes.get() - operacoesNaRampa;
+        long entregasPlenas = entregas.get() - entregasNaRampa;
+        // Tempo para as entregas em trânsito chegarem
+        Thread.sleep(2000);
+        Map<String, Long> recursosFim = lerMetricasServidor();
+        relatar(segundosPlenos, operacoesPlenas, entregasPlenas, recursosInicio, recursosFim);
+        logins.shutdownNow();
+        for (Inspetor inspetor : ativos) {
+            inspetor.fechar();
+        }
+    }
+
+    private void relatar(double segundos, long operacoesPlenas, long entregasPlenas,
+                         Map<String, Long> recursosInicio, Map<String, Long> recursosFim) {
+        System.err.println();
+        System.err.printf("Carga plena: %.1f s, %.0f operações/s, %.0f entregas/s; %d mensagens recebidas, %d erro(s), %d de %d conectados%n",
+                segundos, segundos > 0 ? operacoesPlenas / segundos : 0, segundos > 0 ? entregasPlenas / segundos : 0,
+                recebidas.get(), erros.get(), conectados.get(), quantidade);
+        System.err.printf("%-9s %10s %10s %10s %10s %10s%n", "tipo", "amostras", "p50 ms", "p99 ms", "p99,9 ms", "máx ms");
+        for (String tipo : new String[]{"todos", "privada", "alerta", "lista", "upload", "download", "login"}) {
+            Histograma histograma = latencias.get(tipo);
+            if (histograma == null) {
+                continue;
+            }
+            System.err.printf("%-9s %10d %10.2f %10.2f %10.2f %10.2f%n", tipo, histograma.quantidade(),
+                    histograma.percentil(0.5) / 1000.0, histograma.percentil(0.99) / 1000.0,
+                    histograma.percentil(0.999) / 1000.0, histograma.maximo.get() / 1000.0);
+        }
+        if (recursosFim.isEmpty()) {
+            System.err.println("Métricas do servidor indisponíveis (endpoint desligado ou em outra porta)");
+            return;
+        }
+        Long cpuInicio = recursosInicio.get("tiete_processo_cpu_ms");
+        Long cpuFim = recursosFim.get("tiete_processo_cpu_ms");
+        Long relogioInicio = recursosInicio.get("relogio_ms");
+        if (cpuInicio != null && cpuFim != null && relogioInicio != null) {
+            System.err.printf("Servidor: CPU %.0f%% de um núcleo em média", 100.0 * (cpuFim - cpuInicio)
+                    / Math.max(1, recursosFim.get("relogio_ms") - relogioInicio));
+        } else {
+            System.err.print("Servidor:");
+        }
+        System.err.printf(", heap %d MB, %d threads, fila de saída máxima %d, log pendente %d%n",
+                recursosFim.getOrDefault("tiete_heap_usado_bytes", 0L) >> 20, recursosFim.getOrDefault("tiete_threads", 0L),
+                recursosFim.getOrDefault("tiete_fila_saida_maxima", 0L), recursosFim.getOrDefault("tiete_log_pendente", 0L));
+        if (fracaoRastreada > 0) {
+            relatarEtapas(recursosInicio, recursosFim);
+        }
+    }
+
+    /**
+     * Percentis de cada etapa dos rastros, pela diferença entre os histogramas do servidor no
+     * início e no fim; os baldes são potências de 2 em µs, e o valor mostrado é o limite do balde
+     */
+    private void relatarEtapas(Map<String, Long> inicio, Map<String, Long> fim) {
+        Map<String, TreeMap<Double, Long>> baldesInicio = baldesRastro(inicio);
+        Map<String, TreeMap<Double, Long>> baldesFim = baldesRastro(fim);
+        System.err.printf("%-13s %10s %10s %10s%n", "etapa", "amostras", "p50 ms", "p99 ms");
+        for (String etapa : ETAPAS_RASTRO) {
+            TreeMap<Double, Long> depois = baldesFim.get(etapa);
+            if (depois == null) {
+                continue;
+            }
+            TreeMap<Double, Long> antes = baldesInicio.getOrDefault(etapa, new TreeMap<>());
+            // Acumulados do período; no início um balde ausente tem o acumulado do anterior
+            TreeMap<Double, Long> periodo = new TreeMap<>();
+            for (Map.Entry<Double, Long> balde : depois.entrySet()) {
+                Map.Entry<Double, Long> anterior = antes.floorEntry(balde.getKey());
+                periodo.put(balde.getKey(), balde.getValue() - (anterior != null ? anterior.getValue() : 0));
+            }
+            long total = periodo.lastEntry().getValue();
+            if (total == 0) {
+                continue;
+            }
+            System.err.printf("%-13s %10d %10.3f %10.3f%n", etapa, total,
+                    limiteDoPercentil(periodo, total, 0.5) * 1000, limiteDoPercentil(periodo, total, 0.99) * 1000);
+        }
+    }
+
+    private static Map<String, TreeMap<Double, Long>> baldesRastro(Map<String, Long> metricas) {
+        Map<String, TreeMap<Double, Long>> etapas = new HashMap<>();
+        for (Map.Entry<String, Long> metrica : metricas.entrySet()) {
+            String chave = metrica.getKey();
+            if (!chave.startsWith(BALDE_RASTRO)) {
+                continue;
+            }
+            String etapa = chave.substring(BALDE_RASTRO.length(), chave.indexOf('"', BALDE_RASTRO.length()));
+            String limite = chave.substring(chave.indexOf("le=\"") + 4, chave.length() - 2);
+            etapas.computeIfAbsent(etapa, e -> new TreeMap<>()).put(
+                    limite.equals("+Inf") ? Double.POSITIVE_INFINITY : Double.parseDouble(limite), metrica.getValue());
+        }
+        return etapas;
+    }
+
+    private static double limiteDoPercentil(TreeMap<Double, Long> acumulados, long total, double percentil) {
+        long alvo = Math.max(1, (long) Math.ceil(total * percentil));
+        for (Map.Entry<Double, Long> balde : acumulados.entrySet()) {
+            if (balde.getValue() >= alvo) {
+                return balde.getKey();
+            }
+        }
+        return Double.POSITIVE_INFINITY;
+    }
+
+    private void medirEntrega(String mensagem) {
+        String tipo;
+        if (mensagem.startsWith("CHAT:MSG_DE:")) {
+            tipo = mensagem.endsWith(" [PRIVADO]") ? "privada" : "todos";
+        } else if (mensagem.startsWith("CHAT:ALERTA:") && !mensagem.contains(" relatos em ")) {
+            tipo = "alerta";
+        } else {
+            return;
+        }
+        int marca = mensagem.indexOf("#c");
+        if (marca < 0) {
+            return;
+        }
+        int fim = mensagem.indexOf(' ', marca);
+        try {
+            long enviado = Long.parseLong(mensagem.substring(marca + 2, fim < 0 ? mensagem.length() : fim));
+            registrar(tipo, System.nanoTime() - enviado);
+            entregas.incrementAndGet();
+        } catch (NumberFormatException e) {
+            // Mensagem de outro cliente com "#c" no texto
+        }
+    }
+
+    private void operarArquivo(String tipo, Inspetor inspetor) {
+        long inicio = System.nanoTime();
+        try (Socket conexao = conectar()) {
+            DataOutputStream saida = new DataOutputStream(new BufferedOutputStream(conexao.getOutputStream()));
+            DataInputStream entrada = new DataInputStream(new BufferedInputStream(conexao.getInputStream()));
+            if (tipo.equals("lista")) {
+                saida.writeUTF("LISTAR_ARQUIVOS");
+                saida.flush();
+                lembrarArquivos(entrada.readUTF());
+            } else if (tipo.equals("upload")) {
+                saida.writeUTF("ARQUIVO:carga.bin:" + outroInspetor(inspetor) + ":" + inspetor.nome);
+                saida.writeLong(conteudoArquivo.length);
+                saida.write(conteudoArquivo);
+                saida.flush();
+                if (!entrada.readUTF().equals("ARQUIVO_RECEBIDO")) {
+                    throw new IOException("upload não confirmado");
+                }
+            } else {
+                List<String> conhecidos = arquivosConhecidos;
+                String nomeUnico = conhecidos.get(ThreadLocalRandom.current().nextInt(conhecidos.size()));
+                saida.writeUTF("DOWNLOAD:" + nomeUnico);
+                saida.flush();
+                if (!entrada.readUTF().equals("INICIANDO_DOWNLOAD")) {
+                    throw new IOException("download recusado");
+                }
+                long restantes = entrada.readLong();
+                if (restantes == 0) {
+                    throw new IOException("arquivo não encontrado: " + nomeUnico);
+                }
+                byte[] buffer = new byte[64 * 1024];
+                while (restantes > 0) {
+                    int lidos = entrada.read(buffer, 0, (int) Math.min(buffer.length, restantes));
+                    if (lidos < 0) {
+                        throw new EOFException("download incompleto");
+                    }
+                    restantes -= lidos;
+                }
+                saida.writeUTF("ARQUIVO_RECEBIDO");
+                saida.flush();
+            }
+            registrar(tipo, System.nanoTime() - inicio);
+        } catch (IOException e) {
+            falhou(tipo + " de " + inspetor.nome, e);
+        }
+    }
+
+    /**
+     * @return Conexão com o servidor, por TLS se -Dtiete.tls=true
+     */
+    private Socket conectar() throws IOException {
+        Socket conexao = new Socket();
+        try {
+            conexao.connect(new InetSocketAddress(host, porta), 10000);
+            return ConexaoServidor.proteger(conexao, host, porta);
+        } catch (IOException e) {
+            conexao.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Um arquivo de carga no catálogo, para os downloads terem o que baixar desde o início
+     */
+    private void semearArquivo() throws IOException {
+        try (Socket conexao = ConexaoServidor.abrir(host, porta)) {
+            DataOutputStream saida = new DataOutputStream(new BufferedOutputStream(conexao.getOutputStream()));
+            DataInputStream entrada = new DataInputStream(conexao.getInputStream());
+            saida.writeUTF("ARQUIVO:carga.bin:Central:" + prefixo);
+            saida.writeLong(conteudoArquivo.length);
+            saida.write(conteudoArquivo);
+            saida.flush();
+            entrada.readUTF();
+        }
+        try (Socket conexao = ConexaoServidor.abrir(host, porta)) {
+            DataOutputStream saida = new DataOutputStream(conexao.getOutputStream());
+            saida.writeUTF("LISTAR_ARQUIVOS");
+            saida.flush();
+            lembrarArquivos(new DataInputStream(conexao.getInputStream()).readUTF());
+        }
+    }
+
+    private void lembrarArquivos(String lista) {
+        Set<String> nomes = new LinkedHashSet<>();
+        for (String arquivo : lista.split(";")) {
+            String[] partes = arquivo.split("\\|");
+            if (partes.length >= 3 && partes[1].equals("carga.bin")) {
+                nomes.add(partes[0]);
+            }
+        }
+        // Mantém só os mais recentes, para não crescer sem limite
+        List<String> recentes = new ArrayList<>(nomes);
+        if (recentes.size() > 50) {
+            recentes = recentes.subList(recentes.size() - 50, recentes.size());
+        }
+        if (!recentes.isEmpty()) {
+            arquivosConhecidos = new ArrayList<>(recentes);
+        }
+    }
+
+    private String outroInspetor(Inspetor remetente) {
+        Object[] candidatos = ativos.toArray();
+        for (int tentativa = 0; tentativa < 3 && candidatos.length > 1; tentativa++) {
+            Inspetor escolhido = (Inspetor) candidatos[ThreadLocalRandom.current().nextInt(candidatos.length)];
+            if (escolhido != remetente) {
+                return escolhido.nome;
+            }
+        }
+        return "Central";
+    }
+
+    private String sortearTipo() {
+        double sorteio = ThreadLocalRandom.current().nextDouble();
+        for (int i = 0; i < TIPOS.length; i++) {
+            if (sorteio < mixAcumulado[i]) {
+                return TIPOS[i].equals("download") && arquivosConhecidos.isEmpty() ? "upload" : TIPOS[i];
+            }
+        }
+        return TIPOS[TIPOS.length - 1];
+    }
+
+    private void registrar(String tipo, long nanos) {
+        latencias.computeIfAbsent(tipo, t -> new Histograma()).registrar(nanos);
+        latenciasIntervalo.computeIfAbsent(tipo, t -> new Histograma()).registrar(nanos);
+    }
+
+    private void falhou(String operacao, IOException e) {
+        // Só os primeiros erros são mostrados; os demais entram na contagem
+        if (erros.incrementAndGet() <= 10) {
+            System.err.println("Erro em " + operacao + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return Métricas do endpoint de texto do servidor (com os rótulos no nome), mais o relógio
+     * local (relogio_ms); vazio se indisponível
+     */
+    private Map<String, Long> lerMetricasServidor() {
+        Map<String, Long> valores = new HashMap<>();
+        if (portaMetricas <= 0) {
+            return valores;
+        }
+        try {
+            HttpURLConnection conexao = (HttpURLConnection) new URL("http://" + host + ":" + portaMetricas + "/").openConnection();
+            conexao.setConnectTimeout(2000);
+            conexao.setReadTimeout(5000);
+            valores.put("relogio_ms", System.nanoTime() / 1000000);
+            try (BufferedReader leitor = new BufferedReader(new InputStreamReader(conexao.getInputStream(), StandardCharsets.UTF_8))) {
+                String linha;
+                while ((linha = leitor.readLine()) != null) {
+                    int espaco = linha.lastIndexOf(' ');
+                    if (linha.startsWith("#") || espaco < 0) {
+                        continue;
+                    }
+                    try {
+                        valores.put(linha.substring(0, espaco), (long) Double.parseDouble(linha.substring(espaco + 1)));
+                    } catch (NumberFormatException e) {
+                        // Linha fora do formato esperado
+                    }
+                }
+            }
+        } catch (IOException e) {
+            valores.clear();
+        }
+        return valores;
+    }
+}
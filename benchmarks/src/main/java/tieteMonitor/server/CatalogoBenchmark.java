@@ -0,0 +1,61 @@
+package tieteMonitor.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Montagem da resposta de LISTAR_ARQUIVOS (ServidorMonitoramento.serializarCatalogo) para
+ * catálogos de tamanhos diferentes; metade dos arquivos são fotos com variantes prontas, que
+ * são consultadas no disco
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CatalogoBenchmark {
+    @Param({"100", "1000", "5000"})
+    private int arquivos;
+
+    private File pasta;
+    private GeradorMiniaturas miniaturas;
+    private final Map<String, String> catalogo = new HashMap<>();
+
+    @Setup
+    public void preparar() throws IOException {
+        pasta = Files.createTempDirectory("catalogo-bench").toFile();
+        miniaturas = new GeradorMiniaturas(pasta, 1);
+        for (int i = 0; i < arquivos; i++) {
+            String nomeOriginal = i % 2 == 0 ? "foto_margem_" + i + ".jpg" : "relatorio_semanal_" + i + ".pdf";
+            String nomeUnico = (1718000000000L + i) + "_" + nomeOriginal;
+            catalogo.put(nomeUnico, nomeOriginal + "|insp" + (i % 40));
+            if (i % 2 == 0) {
+                Files.write(new File(pasta, GeradorMiniaturas.nomeVariante(nomeUnico, GeradorMiniaturas.MINIATURA)).toPath(), new byte[1024]);
+                Files.write(new File(pasta, GeradorMiniaturas.nomeVariante(nomeUnico, GeradorMiniaturas.REDUZIDA)).toPath(), new byte[4096]);
+            }
+        }
+    }
+
+    @TearDown
+    public void limpar() {
+        miniaturas.fechar();
+        File[] conteudo = pasta.listFiles();
+        if (conteudo != null) {
+            for (File arquivo : conteudo) {
+                arquivo.delete();
+            }
+        }
+        pasta.delete();
+    }
+
+    @Benchmark
+    public String serializar() {
+        return ServidorMonitoramento.serializarCatalogo(catalogo, miniaturas);
+    }
+}
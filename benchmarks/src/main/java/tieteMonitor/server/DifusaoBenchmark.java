@@ -0,0 +1,91 @@
+package tieteMonitor.server;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Difusão de uma mensagem para 10 a 10.000 destinatários. Cada destinatário toma os bloqueios de
+ * ClienteHandler.enviarMensagem e chama a mesma ServidorMonitoramento.entregar (guarda na sessão
+ * e escreve o quadro), com a escrita num fluxo descartável: mede o percurso no servidor, não a rede.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DifusaoBenchmark {
+    private static final String MENSAGEM = "CHAT:ALERTA:insp7:Mancha de óleo perto da captação, verificar a jusante";
+
+    /**
+     * Cliente conectado, no lugar de ClienteHandler
+     */
+    static class Destinatario {
+        private final ReentrantLock escrita = new ReentrantLock();
+        private final SessaoCliente sessao = new SessaoCliente();
+        private final DataOutputStream saida = new DataOutputStream(OutputStream.nullOutputStream());
+
+        void enviarMensagem(String mensagem) throws IOException {
+            escrita.lock();
+            try {
+                SessaoCliente atual;
+                DataOutputStream conexao;
+                synchronized (this) {
+                    atual = sessao;
+                    conexao = saida;
+                }
+                ServidorMonitoramento.entregar(atual, conexao, mensagem);
+            } finally {
+                escrita.unlock();
+            }
+        }
+    }
+
+    @Param({"10", "100", "1000", "10000"})
+    private int destinatarios;
+
+    private final List<Destinatario> clientes = new ArrayList<>();
+    private final RoteadorTopicos<Destinatario> roteador = new RoteadorTopicos<>();
+
+    @Setup
+    public void preparar() {
+        // Metade acompanha Suzano, um décimo a central e o resto outro local
+        for (int i = 0; i < destinatarios; i++) {
+            Destinatario destinatario = new Destinatario();
+            clientes.add(destinatario);
+            roteador.conectar(destinatario);
+            roteador.assinar(destinatario, Collections.singleton(
+                    i % 10 == 0 ? RoteadorTopicos.CENTRAL : i % 2 == 0 ? "suzano" : "mogi"));
+        }
+    }
+
+    /**
+     * Como publicarLocal de um alerta: assinantes do local e da central
+     */
+    @Benchmark
+    public int porTopico() throws IOException {
+        List<Destinatario> assinantes = roteador.assinantes("suzano", RoteadorTopicos.CENTRAL);
+        for (Destinatario destinatario : assinantes) {
+            destinatario.enviarMensagem(MENSAGEM);
+        }
+        return assinantes.size();
+    }
+
+    /**
+     * Como difundirPresenca: toda a lista de clientes, sob o bloqueio dela
+     */
+    @Benchmark
+    public int todosOsClientes() throws IOException {
+        synchronized (clientes) {
+            for (Destinatario destinatario : clientes) {
+                destinatario.enviarMensagem(MENSAGEM);
+            }
+            return clientes.size();
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package tieteMonitor.server;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Leituras por segundo avaliadas por MotorAlertasMedicoes.avaliar. Cada thread manda leituras
+ * de pH de um local, uma a cada segundo de medição, com um valor fora do limite a cada 512
+ * (o que dispara um alerta a cada 5 minutos de medição). Com emissor=lento cada alerta leva
+ * 1 ms para ser emitido, como uma escrita a um destinatário lento; avaliarConcorrente mostra
+ * se isso atrasa as leituras das outras threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MotorAlertasBenchmark {
+    private static final List<String> LOCAIS = Arrays.asList("salesopolis", "mogi", "suzano", "poa",
+            "itaquaquecetuba", "guarulhos", "saopaulo");
+
+    @Param({"imediato", "lento"})
+    private String emissor;
+
+    private MotorAlertasMedicoes motor;
+    private final AtomicInteger proximoLocal = new AtomicInteger();
+
+    @Setup
+    public void preparar() {
+        boolean lento = emissor.equals("lento");
+        motor = new MotorAlertasMedicoes(LOCAIS, (local, mensagem, jusante) -> {
+            if (lento) {
+                LockSupport.parkNanos(1_000_000);
+            }
+        });
+    }
+
+    @State(Scope.Thread)
+    public static class Leituras {
+        private final double[] valores = new double[4096];
+        private String local;
+        private long instante;
+        private int posicao;
+
+        @Setup
+        public void preparar(MotorAlertasBenchmark benchmark) {
+            local = LOCAIS.get(benchmark.proximoLocal.getAndIncrement() % LOCAIS.size());
+            for (int i = 0; i < valores.length; i++) {
+                valores[i] = i % 512 == 511 ? 9.8 : 7.0 + 0.05 * Math.sin(i);
+            }
+        }
+    }
+
+    @Benchmark
+    public void avaliar(Leituras leituras) {
+        avaliarProxima(leituras);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void avaliarConcorrente(Leituras leituras) {
+        avaliarProxima(leituras);
+    }
+
+    private void avaliarProxima(Leituras leituras) {
+        leituras.instante += 1000;
+        motor.avaliar(leituras.local, "ph", leituras.instante, leituras.valores[leituras.posicao++ & 4095]);
+    }
+}
@@ -0,0 +1,80 @@
+package tieteMonitor.server;
+
+import java.io.*;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Custo por mensagem do protocolo de texto: decodificação do quadro (readUTF) e contagem do
+ * comando com os prefixos do servidor, separação de CHAT:PARA (ServidorMonitoramento.separarPara)
+ * e codificação (writeUTF) do quadro CHAT:MSG_DE repassado aos destinatários
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProtocoloBenchmark {
+    // Mistura aproximada do tráfego de um inspetor: confirmações, chat, medições e presença
+    private static final String[] MENSAGENS = {
+        "ACK:1842", "CHAT:PARA:Todos:%s", "ACK:1843", "MEDICAO:suzano:1718000000000:ph=7.1;turbidez=35",
+        "CHAT:PARA:Central:%s", "ACK:1844", "CHAT:PRESENCA_DESDE:318", "CHAT:ALERTA:%s"
+    };
+
+    @Param({"ascii", "acentuado"})
+    private String texto;
+
+    private MetricasServidor metricas;
+    private byte[] quadros;
+    private String quadroPara;
+    private String conteudo;
+    private ByteArrayOutputStream buffer;
+    private DataOutputStream saida;
+
+    @Setup
+    public void preparar() throws IOException {
+        metricas = new MetricasServidor("tiete_mensagens_recebidas_total", ServidorMonitoramento.COMANDOS_CONTADOS);
+        conteudo = texto.equals("ascii")
+                ? "Nivel do rio subindo na ponte, equipe a caminho para coleta"
+                : "Nível do rio subindo na ponte, equipe a caminho para coleta — espuma à jusante";
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream quadrosSaida = new DataOutputStream(bytes);
+        for (String mensagem : MENSAGENS) {
+            quadrosSaida.writeUTF(String.format(mensagem, conteudo));
+        }
+        quadros = bytes.toByteArray();
+        quadroPara = "Todos:" + conteudo;
+        buffer = new ByteArrayOutputStream(512);
+        saida = new DataOutputStream(buffer);
+    }
+
+    /**
+     * Lê e classifica os quadros de {@link #MENSAGENS}; o tempo é de um lote de 8 mensagens
+     */
+    @Benchmark
+    public void decodificarEClassificar(Blackhole buraco) throws IOException {
+        DataInputStream entrada = new DataInputStream(new ByteArrayInputStream(quadros));
+        for (int i = 0; i < MENSAGENS.length; i++) {
+            String mensagem = entrada.readUTF();
+            metricas.contarComando(mensagem);
+            buraco.consume(mensagem);
+        }
+    }
+
+    /**
+     * O que segue CHAT:PARA: em destinatário e texto
+     */
+    @Benchmark
+    public String[] separarPara() {
+        return ServidorMonitoramento.separarPara(quadroPara);
+    }
+
+    @Benchmark
+    public int codificarQuadroChat() throws IOException {
+        buffer.reset();
+        saida.writeUTF("CHAT:MSG_DE:insp42:" + conteudo);
+        return buffer.size();
+    }
+}
@@ -0,0 +1,133 @@
+package tieteMonitor.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Latência das buscas de RepositorioRelatorios (índice invertido, filtro de local e intervalo
+ * por busca binária) com até um milhão de relatórios. Os textos seguem o modelo do cliente,
+ * com palavras sorteadas de um vocabulário em que poucas são muito frequentes (distribuição
+ * de Zipf), como em texto real. O repositório é montado uma vez por adicionar, com o índice
+ * em memória, e cada busca lê do disco os até 20 relatórios devolvidos.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xmx2g"})
+public class RelatoriosBenchmark {
+    private static final String[] LOCAIS = {"salesopolis", "mogi", "suzano", "poa", "itaquaquecetuba", "guarulhos", "saopaulo"};
+    private static final int VOCABULARIO = 5000;
+    private static final int LIMITE = 20;
+
+    @Param({"100000", "1000000"})
+    private int relatorios;
+
+    private File pasta;
+    private RepositorioRelatorios repositorio;
+    private long metadeDoPeriodo;
+
+    @Setup
+    public void preparar() throws IOException {
+        pasta = Files.createTempDirectory("relatorios-bench").toFile();
+        repositorio = new RepositorioRelatorios(pasta);
+        Random sorteio = new Random(42);
+        double[] acumulada = zipf(VOCABULARIO);
+        long inicio = System.currentTimeMillis();
+        for (int i = 0; i < relatorios; i++) {
+            StringBuilder descricao = new StringBuilder();
+            for (int p = 0; p < 12; p++) {
+                descricao.append(palavra(sortear(acumulada, sorteio))).append(' ');
+            }
+            String local = LOCAIS[i % LOCAIS.length];
+            String texto = "Local de Monitoramento: " + local + "\nData: 2024-06-" + (1 + i % 28)
+                    + "\nInspetor: insp" + (i % 200) + "\nDescrição da Ocorrência:\n" + descricao
+                    + "\nImpacto Ambiental:\n" + palavra(sortear(acumulada, sorteio))
+                    + "\nMedidas Tomadas:\n" + palavra(sortear(acumulada, sorteio));
+            repositorio.adicionar(local, RepositorioRelatorios.Relatorio.interpretar(texto, "insp" + (i % 200), local));
+            if (i == relatorios / 2) {
+                metadeDoPeriodo = System.currentTimeMillis();
+            }
+        }
+        System.out.printf("%n%d relatórios indexados em %.1f s%n", relatorios, (System.currentTimeMillis() - inicio) / 1000.0);
+    }
+
+    @TearDown
+    public void limpar() {
+        repositorio.fechar();
+        File[] conteudo = pasta.listFiles();
+        if (conteudo != null) {
+            for (File arquivo : conteudo) {
+                arquivo.delete();
+            }
+        }
+        pasta.delete();
+    }
+
+    /**
+     * Palavra mais frequente: a lista inteira é decodificada, mas só os 20 últimos são lidos
+     */
+    @Benchmark
+    public int termoComum() throws IOException {
+        return repositorio.buscar(palavra(0), null, Long.MIN_VALUE, Long.MAX_VALUE, LIMITE).size();
+    }
+
+    @Benchmark
+    public int termoRaro() throws IOException {
+        return repositorio.buscar(palavra(VOCABULARIO - 1), null, Long.MIN_VALUE, Long.MAX_VALUE, LIMITE).size();
+    }
+
+    /**
+     * Interseção de duas palavras de frequência média
+     */
+    @Benchmark
+    public int doisTermos() throws IOException {
+        return repositorio.buscar(palavra(20) + " " + palavra(40), null, Long.MIN_VALUE, Long.MAX_VALUE, LIMITE).size();
+    }
+
+    @Benchmark
+    public int termoLocalEIntervalo() throws IOException {
+        return repositorio.buscar(palavra(5), "suzano", Long.MIN_VALUE, metadeDoPeriodo, LIMITE).size();
+    }
+
+    /**
+     * Só local, sem palavras: a lista do local tem um sétimo dos relatórios
+     */
+    @Benchmark
+    public int soLocal() throws IOException {
+        return repositorio.buscar("", "mogi", Long.MIN_VALUE, Long.MAX_VALUE, LIMITE).size();
+    }
+
+    private static String palavra(int posicao) {
+        StringBuilder palavra = new StringBuilder("p");
+        for (int n = posicao; ; n /= 26) {
+            palavra.append((char) ('a' + n % 26));
+            if (n < 26) {
+                return palavra.toString();
+            }
+        }
+    }
+
+    private static double[] zipf(int quantidade) {
+        double[] acumulada = new double[quantidade];
+        double soma = 0;
+        for (int i = 0; i < quantidade; i++) {
+            soma += 1.0 / (i + 1);
+            acumulada[i] = soma;
+        }
+        for (int i = 0; i < quantidade; i++) {
+            acumulada[i] /= soma;
+        }
+        return acumulada;
+    }
+
+    private static int sortear(double[] acumulada, Random sorteio) {
+        int posicao = Arrays.binarySearch(acumulada, sorteio.nextDouble());
+        return posicao >= 0 ? posicao : Math.min(-posicao - 1, acumulada.length - 1);
+    }
+}
@@ -0,0 +1,180 @@
+package tieteMonitor.server;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.KeyStore;
+import java.util.concurrent.TimeUnit;
+import javax.net.ssl.*;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Conexões pelo AceitadorTls comparadas com a porta em texto claro (ServerSocket e uma thread
+ * por conexão, como em ServidorMonitoramento.iniciar). conectar mede a taxa de conexões novas,
+ * cada uma com uma ida e volta de 16 bytes; tls_completo usa um nome de servidor diferente a
+ * cada conexão, para que o cliente não encontre sessão a retomar. enviar mede blocos de 1 MB
+ * por uma conexão já aberta (operações/s = MB/s). Cliente e servidor dividem a mesma JVM; o
+ * certificado é gerado no início com o keytool da própria JVM.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TlsBenchmark {
+    private static final int BLOCO = 1024 * 1024;
+    private static final char[] SENHA = "bench123".toCharArray();
+
+    /**
+     * Servidor em texto claro e AceitadorTls, ambos com uma thread por conexão que responde
+     * cada quadro (tamanho e bytes) com o tamanho recebido
+     */
+    @State(Scope.Benchmark)
+    public static class Servidores {
+        private File pasta;
+        private ServerSocket escutaPlana;
+        private AceitadorTls aceitador;
+        private SSLContext contextoCliente;
+
+        @Setup
+        public void preparar() throws Exception {
+            pasta = Files.createTempDirectory("tls-bench").toFile();
+            File chaves = new File(pasta, "servidor.p12");
+            Process keytool = new ProcessBuilder(Paths.get(System.getProperty("java.home"), "bin", "keytool").toString(),
+                    "-genkeypair", "-alias", "tiete", "-keyalg", "EC", "-groupname", "secp256r1",
+                    "-dname", "CN=localhost", "-validity", "2", "-storetype", "PKCS12",
+                    "-keystore", chaves.getPath(), "-storepass", new String(SENHA))
+                    .redirectErrorStream(true).redirectOutput(new File(pasta, "keytool.log")).start();
+            if (keytool.waitFor() != 0) {
+                throw new IOException("keytool falhou; ver " + new File(pasta, "keytool.log"));
+            }
+            KeyStore repositorio = KeyStore.getInstance("PKCS12");
+            try (InputStream entrada = new FileInputStream(chaves)) {
+                repositorio.load(entrada, SENHA);
+            }
+            KeyManagerFactory chavesServidor = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+            chavesServidor.init(repositorio, SENHA);
+            TrustManagerFactory confianca = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+            confianca.init(repositorio);
+            SSLContext contextoServidor = SSLContext.getInstance("TLS");
+            contextoServidor.init(chavesServidor.getKeyManagers(), null, null);
+            contextoCliente = SSLContext.getInstance("TLS");
+            contextoCliente.init(null, confianca.getTrustManagers(), null);
+            // Os nomes únicos de tls_completo não precisam ficar no cache
+            contextoCliente.getClientSessionContext().setSessionCacheSize(100);
+
+            escutaPlana = new ServerSocket(0, 512, InetAddress.getLoopbackAddress());
+            Thread aceitacao = new Thread(() -> {
+                try {
+                    while (true) {
+                        atender(escutaPlana.accept());
+                    }
+                } catch (IOException e) {
+                    // Escuta fechada no fim
+                }
+            }, "bench-aceitacao");
+            aceitacao.setDaemon(true);
+            aceitacao.start();
+            aceitador = new AceitadorTls(0, contextoServidor, new MetricasServidor("tiete_bench"), TlsBenchmark::atender);
+            aceitador.iniciar();
+        }
+
+        @TearDown
+        public void limpar() throws IOException {
+            escutaPlana.close();
+            aceitador.fechar();
+            for (File arquivo : pasta.listFiles()) {
+                arquivo.delete();
+            }
+            pasta.delete();
+        }
+
+        Socket abrir(String modo, String nomeServidor) throws IOException {
+            if (modo.equals("plano")) {
+                return new Socket(InetAddress.getLoopbackAddress(), escutaPlana.getLocalPort());
+            }
+            Socket conexao = new Socket(InetAddress.getLoopbackAddress(), aceitador.getPorta());
+            // Como em ConexaoServidor.proteger
+            conexao.setTcpNoDelay(true);
+            SSLSocket segura = (SSLSocket) contextoCliente.getSocketFactory()
+                    .createSocket(conexao, nomeServidor, aceitador.getPorta(), true);
+            segura.startHandshake();
+            return segura;
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Conexoes {
+        @Param({"plano", "tls_completo", "tls_retomado"})
+        private String modo;
+        private int sequencia;
+    }
+
+    @State(Scope.Thread)
+    public static class Transferencia {
+        @Param({"plano", "tls"})
+        private String modo;
+        private Socket conexao;
+        private final byte[] bloco = new byte[BLOCO];
+
+        @Setup
+        public void abrir(Servidores servidores) throws IOException {
+            conexao = servidores.abrir(modo, "localhost");
+        }
+
+        @TearDown
+        public void fechar() throws IOException {
+            conexao.close();
+        }
+    }
+
+    @Benchmark
+    public int conectar(Servidores servidores, Conexoes estado) throws IOException {
+        String nome = estado.modo.equals("tls_completo") ? "servidor" + estado.sequencia++ : "localhost";
+        try (Socket conexao = servidores.abrir(estado.modo, nome)) {
+            return idaEVolta(conexao, new byte[16], 16);
+        }
+    }
+
+    @Benchmark
+    public int enviar(Transferencia estado) throws IOException {
+        return idaEVolta(estado.conexao, estado.bloco, BLOCO);
+    }
+
+    private static int idaEVolta(Socket conexao, byte[] dados, int tamanho) throws IOException {
+        // Um quadro pequeno numa só escrita, sem esperar o ACK atrasado por causa de Nagle
+        DataOutputStream saida = new DataOutputStream(new BufferedOutputStream(conexao.getOutputStream(), 64 * 1024));
+        saida.writeInt(tamanho);
+        saida.write(dados, 0, tamanho);
+        saida.flush();
+        return new DataInputStream(conexao.getInputStream()).readInt();
+    }
+
+    private static void atender(Socket conexao) {
+        Thread thread = new Thread(() -> {
+            byte[] buffer = new byte[64 * 1024];
+            try (Socket fechar = conexao) {
+                DataInputStream entrada = new DataInputStream(conexao.getInputStream());
+                DataOutputStream saida = new DataOutputStream(conexao.getOutputStream());
+                while (true) {
+                    int tamanho = entrada.readInt();
+                    for (int restantes = tamanho; restantes > 0; ) {
+                        int lidos = entrada.read(buffer, 0, Math.min(buffer.length, restantes));
+                        if (lidos < 0) {
+                            throw new EOFException();
+                        }
+                        restantes -= lidos;
+                    }
+                    saida.writeInt(tamanho);
+                }
+            } catch (IOException e) {
+                // Cliente fechou a conexão
+            }
+        }, "bench-conexao");
+        thread.setDaemon(true);
+        thread.start();
+    }
+}
@@ -0,0 +1,66 @@
+package tieteMonitor.util;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Download completo (enviarArquivoParaCliente de um lado, receberArquivo do outro) por uma
+ * conexão local mantida aberta entre as operações. As mensagens de progresso dos dois laços
+ * vão para um System.out descartável: o custo de montá-las continua sendo medido.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TransferenciaBenchmark {
+    @Param({"65536", "4194304"})
+    private int tamanho;
+
+    private File pasta;
+    private Socket servidor;
+    private Socket cliente;
+    private ExecutorService remetente;
+    private PrintStream saidaOriginal;
+
+    @Setup
+    public void preparar() throws IOException {
+        pasta = Files.createTempDirectory("transferencia-bench").toFile();
+        byte[] conteudo = new byte[tamanho];
+        new Random(1).nextBytes(conteudo);
+        Files.write(new File(pasta, "origem.bin").toPath(), conteudo);
+        try (ServerSocket escuta = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            cliente = new Socket(InetAddress.getLoopbackAddress(), escuta.getLocalPort());
+            servidor = escuta.accept();
+        }
+        remetente = Executors.newSingleThreadExecutor();
+        saidaOriginal = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    @TearDown
+    public void limpar() throws IOException {
+        System.setOut(saidaOriginal);
+        remetente.shutdownNow();
+        cliente.close();
+        servidor.close();
+        new File(pasta, "origem.bin").delete();
+        new File(pasta, "destino.bin").delete();
+        pasta.delete();
+    }
+
+    @Benchmark
+    public boolean baixar() throws Exception {
+        Future<Boolean> envio = remetente.submit(() ->
+                TransferenciaArquivos.enviarArquivoParaCliente(servidor, "origem.bin", pasta.getPath()));
+        boolean recebido = TransferenciaArquivos.receberArquivo(cliente, "destino.bin", pasta.getPath());
+        return envio.get() && recebido;
+    }
+}
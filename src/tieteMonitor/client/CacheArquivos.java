@@ -0,0 +1,246 @@
+package tieteMonitor.client;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * Cache local dos arquivos baixados do servidor, pelo nome único do catálogo (que não muda de
+ * conteúdo). O tamanho total é limitado (256 MB por padrão, -Dtiete.cache.arquivos.mb) e, passado
+ * o limite, saem os arquivos usados há mais tempo. O índice (nome, tamanho e SHA-256, do menos ao
+ * mais recente) fica gravado na pasta do cache e é relido ao abrir; a cópia para o destino confere
+ * o SHA-256 e descarta a entrada se o arquivo em cache foi alterado.
+ */
+public class CacheArquivos {
+    public static final long LIMITE_PADRAO_MB = 256;
+    private static final String INDICE = "indice.dat";
+
+    /**
+     * Arquivo guardado no cache
+     */
+    private static class Entrada {
+        private final String arquivo;
+        private final long tamanho;
+        private final String sha256;
+
+        Entrada(String arquivo, long tamanho, String sha256) {
+            this.arquivo = arquivo;
+            this.tamanho = tamanho;
+            this.sha256 = sha256;
+        }
+    }
+
+    private final File pasta;
+    private final long limiteBytes;
+    // Nome único -> entrada, do uso mais antigo ao mais recente
+    private final LinkedHashMap<String, Entrada> entradas = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+    private long acertos;
+    private long faltas;
+
+    public CacheArquivos(File pasta) throws IOException {
+        this(pasta, Long.getLong("tiete.cache.arquivos.mb", LIMITE_PADRAO_MB) * 1024 * 1024);
+    }
+
+    /**
+     * @param pasta Pasta do cache; as entradas do índice cujo arquivo sumiu ou mudou de tamanho são descartadas
+     * @param limiteBytes Tamanho máximo da soma dos arquivos guardados
+     */
+    public CacheArquivos(File pasta, long limiteBytes) throws IOException {
+        this.pasta = pasta;
+        this.limiteBytes = limiteBytes;
+        if (!pasta.isDirectory() && !pasta.mkdirs()) {
+            throw new IOException("Não foi possível criar a pasta do cache: " + pasta.getAbsolutePath());
+        }
+        carregarIndice();
+        removerArquivosSemEntrada();
+        reduzirAte(limiteBytes);
+        gravarIndice();
+    }
+
+    /**
+     * Copia o arquivo do cache para o destino, conferindo o conteúdo
+     * @param nomeUnico Nome único do arquivo no servidor
+     * @param destino Arquivo de destino
+     * @return false se o arquivo não está no cache (ou estava corrompido): é preciso baixá-lo
+     */
+    public boolean copiar(String nomeUnico, File destino) throws IOException {
+        Entrada entrada;
+        synchronized (this) {
+            entrada = entradas.get(nomeUnico);
+            if (entrada == null) {
+                faltas++;
+                return false;
+            }
+        }
+        File guardado = new File(pasta, entrada.arquivo);
+        String sha256;
+        try (InputStream in = new FileInputStream(guardado)) {
+            sha256 = copiarCalculando(in, destino);
+        } catch (FileNotFoundException e) {
+            sha256 = null;
+        }
+        synchronized (this) {
+            if (!entrada.sha256.equals(sha256)) {
+                System.err.println("Arquivo em cache alterado ou ausente, descartado: " + nomeUnico);
+                destino.delete();
+                if (entradas.get(nomeUnico) == entrada) {
+                    remover(nomeUnico);
+                    gravarIndice();
+                }
+                faltas++;
+                return false;
+            }
+            acertos++;
+            // O acesso já moveu a entrada para o fim; o índice registra a nova ordem
+            gravarIndice();
+        }
+        return true;
+    }
+
+    /**
+     * Guarda uma cópia do arquivo baixado
+     * @param nomeUnico Nome único do arquivo no servidor
+     * @param baixado Arquivo recém-baixado
+     */
+    public void guardar(String nomeUnico, File baixado) throws IOException {
+        if (baixado.length() > limiteBytes) {
+            return;
+        }
+        String nomeArquivo = nomeUnico.replaceAll("[^a-zA-Z0-9\\.\\-_]", "_");
+        File temporario = File.createTempFile("cache-", ".tmp", pasta);
+        String sha256;
+        try (InputStream in = new FileInputStream(baixado)) {
+            sha256 = copiarCalculando(in, temporario);
+        } catch (IOException e) {
+            temporario.delete();
+            throw e;
+        }
+        long tamanho = temporario.length();
+        synchronized (this) {
+            remover(nomeUnico);
+            Files.move(temporario.toPath(), new File(pasta, nomeArquivo).toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            entradas.put(nomeUnico, new Entrada(nomeArquivo, tamanho, sha256));
+            totalBytes += tamanho;
+            reduzirAte(limiteBytes);
+            gravarIndice();
+        }
+    }
+
+    public synchronized boolean contem(String nomeUnico) {
+        return entradas.containsKey(nomeUnico);
+    }
+
+    /**
+     * @return Arquivos e bytes guardados, acertos e faltas desde a abertura
+     */
+    public synchronized String getEstatisticas() {
+        return entradas.size() + " arquivo(s), " + totalBytes / 1024 + " KB de " + limiteBytes / 1024 + " KB, "
+                + acertos + " acerto(s), " + faltas + " falta(s)";
+    }
+
+    private void remover(String nomeUnico) {
+        Entrada entrada = entradas.remove(nomeUnico);
+        if (entrada != null) {
+            totalBytes -= entrada.tamanho;
+            new File(pasta, entrada.arquivo).delete();
+        }
+    }
+
+    private void reduzirAte(long limite) {
+        Iterator<Map.Entry<String, Entrada>> iterador = entradas.entrySet().iterator();
+        while (totalBytes > limite && iterador.hasNext()) {
+            Entrada entrada = iterador.next().getValue();
+            iterador.remove();
+            totalBytes -= entrada.tamanho;
+            new File(pasta, entrada.arquivo).delete();
+        }
+    }
+
+    private static String copiarCalculando(InputStream origem, File destino) throws IOException {
+        MessageDigest sha256;
+        try {
+            sha256 = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        try (InputStream in = new DigestInputStream(origem, sha256);
+             OutputStream out = new FileOutputStream(destino)) {
+            byte[] buffer = new byte[64 * 1024];
+            int lidos;
+            while ((lidos = in.read(buffer)) != -1) {
+                out.write(buffer, 0, lidos);
+            }
+        }
+        StringBuilder hex = new StringBuilder();
+        for (byte b : sha256.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    private void carregarIndice() {
+        File indice = new File(pasta, INDICE);
+        if (!indice.isFile()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indice)))) {
+            int quantidade = in.readInt();
+            for (int i = 0; i < quantidade; i++) {
+                String nomeUnico = in.readUTF();
+                Entrada entrada = new Entrada(in.readUTF(), in.readLong(), in.readUTF());
+                if (new File(pasta, entrada.arquivo).length() == entrada.tamanho) {
+                    entradas.put(nomeUnico, entrada);
+                    totalBytes += entrada.tamanho;
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Índice do cache de arquivos ilegível, cache reiniciado: " + e.getMessage());
+            entradas.clear();
+            totalBytes = 0;
+        }
+    }
+
+    private void removerArquivosSemEntrada() {
+        Set<String> guardados = new HashSet<>();
+        for (Entrada entrada : entradas.values()) {
+            guardados.add(entrada.arquivo);
+        }
+        File[] arquivos = pasta.listFiles();
+        if (arquivos == null) {
+            return;
+        }
+        for (File arquivo : arquivos) {
+            if (!arquivo.getName().equals(INDICE) && !guardados.contains(arquivo.getName())) {
+                arquivo.delete();
+            }
+        }
+    }
+
+    /**
+     * Regrava o índice inteiro, de forma atômica
+     */
+    private void gravarIndice() {
+        File temporario = new File(pasta, INDICE + ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporario)))) {
+                out.writeInt(entradas.size());
+                for (Map.Entry<String, Entrada> entrada : entradas.entrySet()) {
+                    out.writeUTF(entrada.getKey());
+                    out.writeUTF(entrada.getValue().arquivo);
+                    out.writeLong(entrada.getValue().tamanho);
+                    out.writeUTF(entrada.getValue().sha256);
+                }
+            }
+            Files.move(temporario.toPath(), new File(pasta, INDICE).toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("Erro ao gravar índice do cache de arquivos: " + e.getMessage());
+        }
+    }
+}
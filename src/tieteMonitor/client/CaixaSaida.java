@@ -0,0 +1,246 @@
+package tieteMonitor.client;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.SecureRandom;
+import java.util.*;
+import tieteMonitor.util.CodificacaoUTF;
+
+/**
+ * Caixa de saída do inspetor: mensagens, alertas, relatórios e arquivos ficam gravados num
+ * diário somente de acréscimo até o servidor confirmar o recebimento (ENVIADO:id), e assim
+ * sobrevivem à falta de conexão e ao fechamento do programa. Cada item tem um id único, que o
+ * servidor usa para descartar reenvios; por isso a caixa inteira pode ser reenviada a cada
+ * reconexão, num único lote, com os alertas na frente.
+ * Registros do diário: 'E' id prioridade tipo conteúdo destinatário (entrada) e 'C' id (confirmação).
+ */
+public class CaixaSaida {
+    public static final int PRIORIDADE_ALERTA = 0;
+    public static final int PRIORIDADE_NORMAL = 1;
+    private static final byte ENTRADA = 'E';
+    private static final byte CONFIRMACAO = 'C';
+    private static final byte COMANDO = 'C';
+    private static final byte ARQUIVO = 'A';
+    private static final SecureRandom ALEATORIO = new SecureRandom();
+
+    /**
+     * Item guardado na caixa de saída
+     */
+    public static class Item {
+        private final String id;
+        private final int prioridade;
+        private final boolean arquivo;
+        private final String conteudo;
+        private final String destinatario;
+        private final long ordem;
+
+        Item(String id, int prioridade, boolean arquivo, String conteudo, String destinatario, long ordem) {
+            this.id = id;
+            this.prioridade = prioridade;
+            this.arquivo = arquivo;
+            this.conteudo = conteudo;
+            this.destinatario = destinatario;
+            this.ordem = ordem;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public int getPrioridade() {
+            return prioridade;
+        }
+
+        public boolean isArquivo() {
+            return arquivo;
+        }
+
+        /**
+         * @return O comando a enviar ou, para arquivos, o caminho do arquivo
+         */
+        public String getConteudo() {
+            return conteudo;
+        }
+
+        /**
+         * @return Destinatário do arquivo ("" para comandos)
+         */
+        public String getDestinatario() {
+            return destinatario;
+        }
+
+        /**
+         * @return Comando no formato ENVIO:id:comando
+         */
+        public String getQuadro() {
+            return "ENVIO:" + id + ":" + conteudo;
+        }
+    }
+
+    private final File arquivo;
+    // Prefixo dos ids desta execução; o contador pode recomeçar a cada abertura
+    private final String prefixo = String.format("%08x", ALEATORIO.nextInt());
+    private final Map<String, Item> pendentes = new LinkedHashMap<>();
+    private DataOutputStream saida;
+    private long proximaOrdem;
+
+    /**
+     * @param arquivo Diário da caixa; os itens ainda não confirmados são recarregados
+     */
+    public CaixaSaida(File arquivo) throws IOException {
+        this.arquivo = arquivo;
+        File pasta = arquivo.getAbsoluteFile().getParentFile();
+        if (pasta != null && !pasta.exists()) {
+            pasta.mkdirs();
+        }
+        boolean haConfirmados = carregar();
+        if (haConfirmados) {
+            compactar();
+        }
+        saida = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(arquivo, true)));
+    }
+
+    /**
+     * @param comando Comando no formato do protocolo (CHAT:PARA:..., RELATORIO:..., ...)
+     * @param prioridade {@link #PRIORIDADE_ALERTA} ou {@link #PRIORIDADE_NORMAL}
+     */
+    public synchronized Item adicionarComando(String comando, int prioridade) throws IOException {
+        return adicionar(new Item(novoId(), prioridade, false, comando, "", proximaOrdem++));
+    }
+
+    /**
+     * O arquivo não é copiado: é lido do caminho original no momento do envio
+     * @param arquivoEnviado Arquivo a enviar
+     * @param destinatario Destinatário, como no comando ARQUIVO
+     */
+    public synchronized Item adicionarArquivo(File arquivoEnviado, String destinatario) throws IOException {
+        return adicionar(new Item(novoId(), PRIORIDADE_NORMAL, true, arquivoEnviado.getAbsolutePath(),
+                destinatario, proximaOrdem++));
+    }
+
+    private Item adicionar(Item item) throws IOException {
+        saida.writeByte(ENTRADA);
+        saida.writeUTF(item.id);
+        saida.writeByte(item.prioridade);
+        saida.writeByte(item.arquivo ? ARQUIVO : COMANDO);
+        saida.writeUTF(item.conteudo);
+        saida.writeUTF(item.destinatario);
+        saida.flush();
+        pendentes.put(item.id, item);
+        return item;
+    }
+
+    /**
+     * @param id Id confirmado pelo servidor
+     * @return false se o item não estava pendente (confirmação repetida)
+     */
+    public synchronized boolean confirmar(String id) throws IOException {
+        if (pendentes.remove(id) == null) {
+            return false;
+        }
+        if (pendentes.isEmpty()) {
+            // Nada pendente: o diário recomeça vazio
+            saida.close();
+            saida = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(arquivo, false)));
+        } else {
+            saida.writeByte(CONFIRMACAO);
+            saida.writeUTF(id);
+            saida.flush();
+        }
+        return true;
+    }
+
+    /**
+     * @return Itens pendentes, alertas primeiro e depois na ordem em que foram guardados
+     */
+    public synchronized List<Item> pendentes() {
+        List<Item> itens = new ArrayList<>(pendentes.values());
+        itens.sort(Comparator.comparingInt(Item::getPrioridade).thenComparingLong(item -> item.ordem));
+        return itens;
+    }
+
+    public synchronized int getQuantidade() {
+        return pendentes.size();
+    }
+
+    /**
+     * @param itens Comandos a enviar
+     * @return Os quadros ENVIO:id:comando concatenados como writeUTF, para uma única escrita no socket
+     */
+    public static byte[] montarLote(List<Item> itens) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream lote = new DataOutputStream(bytes);
+        for (Item item : itens) {
+            if (!item.isArquivo()) {
+                lote.writeUTF(item.getQuadro());
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    public synchronized void fechar() {
+        try {
+            saida.close();
+        } catch (IOException e) {
+            System.err.println("Erro ao fechar caixa de saída: " + e.getMessage());
+        }
+    }
+
+    private String novoId() {
+        return prefixo + "-" + proximaOrdem;
+    }
+
+    /**
+     * @return true se o diário contém itens já confirmados
+     */
+    private boolean carregar() throws IOException {
+        if (!arquivo.exists()) {
+            return false;
+        }
+        boolean haConfirmados = false;
+        long valido = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(arquivo)))) {
+            while (true) {
+                try {
+                    byte tipo = in.readByte();
+                    String id = in.readUTF();
+                    if (tipo == ENTRADA) {
+                        int prioridade = in.readByte();
+                        boolean ehArquivo = in.readByte() == ARQUIVO;
+                        String conteudo = in.readUTF();
+                        String destinatario = in.readUTF();
+                        pendentes.put(id, new Item(id, prioridade, ehArquivo, conteudo, destinatario, proximaOrdem++));
+                        valido += 3 + CodificacaoUTF.tamanho(id) + CodificacaoUTF.tamanho(conteudo) + CodificacaoUTF.tamanho(destinatario);
+                    } else {
+                        pendentes.remove(id);
+                        haConfirmados = true;
+                        valido += 1 + CodificacaoUTF.tamanho(id);
+                    }
+                } catch (EOFException e) {
+                    break;
+                }
+            }
+        }
+        // Registro incompleto no fim (queda durante a gravação): o item não chegou a ser aceito
+        return haConfirmados || valido < arquivo.length();
+    }
+
+    /**
+     * Reescreve o diário só com os itens pendentes
+     */
+    private void compactar() throws IOException {
+        File temporario = new File(arquivo.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporario)))) {
+            for (Item item : pendentes.values()) {
+                out.writeByte(ENTRADA);
+                out.writeUTF(item.id);
+                out.writeByte(item.prioridade);
+                out.writeByte(item.arquivo ? ARQUIVO : COMANDO);
+                out.writeUTF(item.conteudo);
+                out.writeUTF(item.destinatario);
+            }
+        }
+        Files.move(temporario.toPath(), arquivo.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -18,13 +18,20 @@ public class ChatInspetores {
     private DataOutputStream dataOut;
     private DataInputStream dataIn;
     private JFrame janela;
-    private JTextArea areaChat;
+    private ListaMensagens areaChat;
     private JTextField campoMensagem;
     private JComboBox<String> comboInspetores;
     private DefaultComboBoxModel<String> modeloInspetores;
     private JButton botaoEnviar;
     private List<String> listaInspetores;
     private String destinatarioAtual;
+    // Após um login completo a próxima lista é comparada com a atual e só as diferenças são avisadas
+    private boolean reconciliarPresenca;
+    // Texto do lote em tratamento pelo despacho da interface (somente no EDT)
+    private StringBuilder textoDoLote;
+    // Versão da presença já aplicada; -1 enquanto se espera o retrato enviado no login
+    private long versaoPresenca = -1;
+    private boolean presencaSolicitada;
 
     /**
      * @param cliente Referência ao cliente principal de monitoramento
@@ -38,13 +45,54 @@ public class ChatInspetores {
         this.dataIn = new DataInputStream(socket.getInputStream());
         this.listaInspetores = new ArrayList<>();
         configurarInterface();
-        solicitarListaInspetores();
     }
 
+    /**
+     * Passa a usar a nova conexão após uma queda. Numa sessão retomada a presença se acerta
+     * pelas mensagens reenviadas; num login completo a lista que o servidor envia é
+     * reconciliada com a atual em vez de substituí-la.
+     * @param socket Nova conexão com o servidor
+     * @param dataOut Canal de saída da nova conexão
+     * @param sessaoRetomada true se o servidor reenviou as mensagens perdidas
+     */
+    public void reconectado(Socket socket, DataOutputStream dataOut, boolean sessaoRetomada) {
+        this.socket = socket;
+        this.dataOut = dataOut;
+        if (!sessaoRetomada) {
+            reconciliarPresenca = true;
+            versaoPresenca = -1;
+        }
+    }
+
+    /**
+     * Início de um lote do despacho da interface: as mensagens recebidas até
+     * {@link #concluirLote()} entram na área de chat numa única inserção
+     */
+    public void iniciarLote() {
+        textoDoLote = new StringBuilder();
+    }
+
+    public void concluirLote() {
+        if (textoDoLote == null) {
+            return;
+        }
+        String texto = textoDoLote.toString();
+        textoDoLote = null;
+        if (!texto.isEmpty()) {
+            areaChat.adicionar(texto);
+        }
+    }
+
+    /**
+     * Pede as alterações de presença posteriores à versão atual; se nada mudou, o servidor não responde
+     */
     private void solicitarListaInspetores() {
         if (dataOut != null) {
             try {
-                dataOut.writeUTF("CHAT:LISTAR_INSPETORES");
+                synchronized (dataOut) {
+                    dataOut.writeUTF("CHAT:PRESENCA_DESDE:" + versaoPresenca);
+                }
+                presencaSolicitada = true;
             } catch (IOException e) {
                 e.printStackTrace();
             }
@@ -55,9 +103,7 @@ public class ChatInspetores {
         janela = new JFrame("Chat entre Inspetores - " + clientePrincipal.getNomeInspetor());
         janela.setSize(500, 400);
         janela.setDefaultCloseOperation(JFrame.HIDE_ON_CLOSE);
-        areaChat = new JTextArea();
-        areaChat.setEditable(false);
-        areaChat.setFont(new Font("SansSerif", Font.PLAIN, 14));
+        areaChat = new ListaMensagens(new Font("SansSerif", Font.PLAIN, 14));
         JScrollPane scrollPane = new JScrollPane(areaChat);
         JPanel painelDestinatario = new JPanel(new BorderLayout());
         painelDestinatario.setBorder(BorderFactory.createTitledBorder("Enviar para:"));
@@ -66,7 +112,7 @@ public class ChatInspetores {
         comboInspetores.addActionListener(e -> {
             destinatarioAtual = (String) comboInspetores.getSelectedItem();
             if (destinatarioAtual != null && !destinatarioAtual.equals("Todos")) {
-                areaChat.append("[Sistema] Mensagens agora serão enviadas para: " + destinatarioAtual + "\n");
+                areaChat.adicionar("[Sistema] Mensagens agora serão enviadas para: " + destinatarioAtual);
             }
         });
         JButton botaoAtualizar = new JButton("Atualizar");
@@ -140,15 +186,13 @@ public class ChatInspetores {
             }
             String mensagemParaEnviar = "CHAT:PARA:" + destinatario + ":" + mensagem;
             System.out.println("DEBUG CLIENTE: Enviando para o servidor: " + mensagemParaEnviar);
-            try {
-                dataOut.writeUTF(mensagemParaEnviar);
-            } catch (IOException e) {
-                e.printStackTrace();
+            if (!clientePrincipal.enviarPelaCaixaSaida(mensagemParaEnviar, CaixaSaida.PRIORIDADE_NORMAL)) {
+                areaChat.adicionar("[Sistema] Sem conexão: mensagem guardada na caixa de saída.");
             }
             SimpleDateFormat sdf = new SimpleDateFormat("HH:mm:ss");
             String timestamp = sdf.format(new Date());
             String destinatarioTexto = destinatario.equals("Todos") ? "Todos" : "Privado para " + destinatario;
-            areaChat.append("[" + timestamp + "] (" + destinatarioTexto + ") Você: " + mensagem + "\n");
+            areaChat.adicionar("[" + timestamp + "] (" + destinatarioTexto + ") Você: " + mensagem);
             campoMensagem.setText("");
         }
     }
@@ -159,21 +203,16 @@ public class ChatInspetores {
      */
     public boolean processarMensagem(String mensagem) {
         String conteudo = mensagem;
-        System.out.println("DEBUG CHAT CLIENTE: Processando mensagem: " + conteudo);
-        if (conteudo.startsWith("LISTA_INSPETORES:")) {
+        if (conteudo.startsWith("PRESENCA:")) {
+            aplicarRetratoPresenca(conteudo.substring("PRESENCA:".length()));
+            return true;
+        } else if (conteudo.startsWith("PRESENCA_DELTA:")) {
+            aplicarDeltaPresenca(conteudo.substring("PRESENCA_DELTA:".length()));
+            return true;
+        } else if (conteudo.startsWith("LISTA_INSPETORES:")) {
             String listaStr = conteudo.substring("LISTA_INSPETORES:".length());
             List<String> listaInspetoresRecebida = parseListaInspetores(listaStr);
-            SwingUtilities.invokeLater(() -> {
-                 this.listaInspetores.clear();
-                 for (String inspetor : listaInspetoresRecebida) {
-                     String nomeLimpo = inspetor.trim();
-                     if (!nomeLimpo.isEmpty()) {
-                         this.listaInspetores.add(nomeLimpo);
-                     }
-                 }
-                 Collections.sort(this.listaInspetores);
-                 this.atualizarListaInspetores();
-            });
+            SwingUtilities.invokeLater(() -> aplicarListaInspetores(listaInspetoresRecebida));
             return true;
         } else if (conteudo.startsWith("MSG_DE:")) {
             String dadosMensagem = conteudo.substring("MSG_DE:".length());
@@ -191,6 +230,100 @@ public class ChatInspetores {
         return false;
     }
 
+    /**
+     * Formato: versão:nomes separados por vírgula (executa no EDT)
+     */
+    private void aplicarRetratoPresenca(String dados) {
+        String[] partes = dados.split(":", 2);
+        try {
+            versaoPresenca = Long.parseLong(partes[0]);
+        } catch (NumberFormatException e) {
+            return;
+        }
+        presencaSolicitada = false;
+        aplicarListaInspetores(parseListaInspetores(partes.length == 2 ? partes[1] : ""));
+    }
+
+    /**
+     * Formato: versão anterior:nova versão:+nome,-nome,... Quadros já aplicados são ignorados;
+     * se faltou algum, pede ao servidor os quadros a partir da versão atual (executa no EDT)
+     */
+    private void aplicarDeltaPresenca(String dados) {
+        String[] partes = dados.split(":", 3);
+        long de;
+        long para;
+        try {
+            de = Long.parseLong(partes[0]);
+            para = Long.parseLong(partes[1]);
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            return;
+        }
+        if (versaoPresenca < 0 || para <= versaoPresenca) {
+            return;
+        }
+        if (de != versaoPresenca) {
+            if (!presencaSolicitada) {
+                reconciliarPresenca = true;
+                solicitarListaInspetores();
+            }
+            return;
+        }
+        versaoPresenca = para;
+        presencaSolicitada = false;
+        String horario = new SimpleDateFormat("HH:mm:ss").format(new Date());
+        boolean mostrar = janela != null && janela.isVisible();
+        boolean alterada = false;
+        for (String alteracao : parseListaInspetores(partes.length == 3 ? partes[2] : "")) {
+            String nome = alteracao.substring(1);
+            boolean entrou = alteracao.charAt(0) == '+';
+            if (entrou ? listaInspetores.contains(nome) : !listaInspetores.remove(nome)) {
+                continue;
+            }
+            if (entrou) {
+                listaInspetores.add(nome);
+            }
+            alterada = true;
+            if (mostrar && !nome.equals(clientePrincipal.getNomeInspetor())) {
+                anexarChat("[" + horario + "] [Sistema] Inspetor " + (entrou ? "conectado: " : "desconectado: ") + nome);
+            }
+        }
+        if (alterada) {
+            Collections.sort(listaInspetores);
+            atualizarListaInspetores();
+        }
+    }
+
+    /**
+     * Aplica a lista recebida como diferença da atual, preservando a seleção do destinatário
+     * (executa no EDT)
+     */
+    private void aplicarListaInspetores(List<String> recebida) {
+        Set<String> novos = new LinkedHashSet<>(recebida);
+        List<String> sairam = new ArrayList<>(this.listaInspetores);
+        sairam.removeAll(novos);
+        novos.removeAll(this.listaInspetores);
+        if (sairam.isEmpty() && novos.isEmpty()) {
+            reconciliarPresenca = false;
+            return;
+        }
+        this.listaInspetores.removeAll(sairam);
+        this.listaInspetores.addAll(novos);
+        Collections.sort(this.listaInspetores);
+        this.atualizarListaInspetores();
+        if (reconciliarPresenca && janela != null && janela.isVisible()) {
+            String horario = new SimpleDateFormat("HH:mm:ss").format(new Date());
+            for (String nome : novos) {
+                if (!nome.equals(clientePrincipal.getNomeInspetor())) {
+                    anexarChat("[" + horario + "] [Sistema] Inspetor conectado: " + nome);
+                }
+            }
+            for (String nome : sairam) {
+                anexarChat("[" + horario + "] [Sistema] Inspetor desconectado: " + nome);
+            }
+        }
+        reconciliarPresenca = false;
+    }
+
     private List<String> parseListaInspetores(String listaStr) {
         List<String> lista = new ArrayList<>();
         if (listaStr != null && !listaStr.trim().isEmpty()) {
@@ -209,8 +342,6 @@ public class ChatInspetores {
      * @param dados Dados da mensagem no formato "remetente:mensagem" (ou pode incluir [PRIVADO])
      */
     private void processarMensagemRecebida(String dados) {
-        System.out.println("DEBUG CHAT CLIENTE: Processando mensagem recebida: " + dados);
-        
         String[] partes = dados.split(":", 2);
         if (partes.length == 2) {
             String remetente = partes[0];
@@ -233,8 +364,18 @@ public class ChatInspetores {
                     mensagem);
             }
             
-            areaChat.append(mensagemFormatada + "\n");
-            areaChat.setCaretPosition(areaChat.getDocument().getLength());
+            anexarChat(mensagemFormatada);
+        }
+    }
+
+    /**
+     * Dentro de um lote do despacho a linha entra junto com as demais, na ordem de chegada
+     */
+    private void anexarChat(String linha) {
+        if (textoDoLote != null) {
+            textoDoLote.append(linha).append('\n');
+        } else {
+            areaChat.adicionar(linha);
         }
     }
     /**
@@ -249,7 +390,7 @@ public class ChatInspetores {
                 Collections.sort(this.listaInspetores);
                 this.atualizarListaInspetores();
                  if (janela != null && janela.isVisible()) {
-                     areaChat.append("[" + new SimpleDateFormat("HH:mm:ss").format(new Date()) + "] [Sistema] Inspetor conectado: " + nomeLimpo + "\n");
+                     areaChat.adicionar("[" + new SimpleDateFormat("HH:mm:ss").format(new Date()) + "] [Sistema] Inspetor conectado: " + nomeLimpo);
                  }
             }
         });
@@ -266,12 +407,21 @@ public class ChatInspetores {
             if (this.listaInspetores.remove(nomeLimpo)) {
                 this.atualizarListaInspetores();
                  if (janela != null && janela.isVisible()) {
-                     areaChat.append("[" + new SimpleDateFormat("HH:mm:ss").format(new Date()) + "] [Sistema] Inspetor desconectado: " + nomeLimpo + "\n");
+                     areaChat.adicionar("[" + new SimpleDateFormat("HH:mm:ss").format(new Date()) + "] [Sistema] Inspetor desconectado: " + nomeLimpo);
                  }
             }
         });
     }
 
+    /**
+     * Apaga o histórico em disco do chat, ao sair do cliente
+     */
+    public void fechar() {
+        if (areaChat != null) {
+            areaChat.getHistorico().fechar();
+        }
+    }
+
     public void toggle() {
         if (janela == null) {
             configurarInterface();
@@ -10,27 +10,33 @@ import javax.swing.*;
 import javax.swing.filechooser.FileNameExtensionFilter;
 import tieteMonitor.util.TransferenciaArquivos;
 import tieteMonitor.util.MulticastManager;
-import tieteMonitor.util.EmailSender;
+import tieteMonitor.util.ServicoEmail;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * Cliente para Sistema de Monitoramento Ambiental do Rio Tietê
  * Permite que inspetores se comuniquem com a central e entre si
  */
 public class ClienteMonitoramento {
-    private String SERVIDOR_IP;
-    private int SERVIDOR_PORTA;
-
-    private Socket socket;
-    private DataOutputStream dataOut;
-    private DataInputStream dataIn;
+    public static final double FRACAO_RASTREADA_PADRAO = 0.01;
+    private volatile String SERVIDOR_IP;
+    private volatile int SERVIDOR_PORTA;
+
+    private volatile Socket socket;
+    // Trocado pelo supervisor a cada reconexão
+    private volatile DataOutputStream dataOut;
+    private SupervisorConexao supervisor;
+    private volatile boolean conectado;
+    private CaixaSaida caixaSaida;
+    private CacheArquivos cacheArquivos;
     private String nomeInspetor;
     private String localMonitorado;
 
     // Componentes da interface gráfica
     private JFrame frame;
-    private JTextArea areaMensagens;
+    private ListaMensagens areaMensagens;
     private JTextField campoMensagem;
     private JButton botaoEnviar;
     private JButton botaoRelatorio;
@@ -41,6 +47,21 @@ public class ClienteMonitoramento {
     private JButton botaoEmoticons;
     private JButton botaoEmail;
     private MulticastManager multicastManager;
+    private ServicoEmail servicoEmail;
+    private String ultimaBuscaHistorico;
+    private ReceptorMulticast receptorMulticast;
+    // Último ASSINAR escolhido, repetido após um login completo ou se mudou sem conexão
+    private String ultimaAssinatura;
+    private boolean assinaturaPendente;
+    private final Object bloqueioAssinatura = new Object();
+    private final DespachoInterface despacho = new DespachoInterface(this::processarLote);
+    // Texto das mensagens do lote em tratamento, anexado de uma só vez no fim (somente no EDT)
+    private StringBuilder textoDoLote;
+    private boolean alertaNoLote;
+    // Fração do chat e dos alertas que segue com rastro de latência (ver RastreamentoMensagens no servidor)
+    private final double fracaoRastreada = lerFracaoRastreada();
+    // Id do rastro -> {recebimento em ms, recebimento em nanos}, até a mensagem ser exibida
+    private final Map<String, long[]> rastrosRecebidos = new java.util.concurrent.ConcurrentHashMap<>();
 
     // Componente de chat entre inspetores
     private ChatInspetores chatInspetores;
@@ -74,6 +95,15 @@ public class ClienteMonitoramento {
     }
 
     private void solicitarEnderecoServidor() {
+        // Tenta localizar automaticamente o servidor menos carregado na rede local
+        DescobertaServidores.ServidorAnunciado descoberto = DescobertaServidores.descobrirMenosCarregado();
+        if (descoberto != null) {
+            System.out.println("Servidor descoberto automaticamente: " + descoberto);
+            SERVIDOR_IP = descoberto.getIp();
+            SERVIDOR_PORTA = descoberto.getPorta();
+            return;
+        }
+
         String endereco = JOptionPane.showInputDialog(null,
                 "Digite o endereço do servidor (ex: 0.tcp.sa.ngrok.io:12345):",
                 "Conexão com Servidor",
@@ -177,9 +207,7 @@ public class ClienteMonitoramento {
         }
         
         // Área de mensagens com estilo melhorado
-        areaMensagens = new JTextArea();
-        areaMensagens.setEditable(false);
-        areaMensagens.setFont(new Font("SansSerif", Font.PLAIN, 14));
+        areaMensagens = new ListaMensagens(new Font("SansSerif", Font.PLAIN, 14));
         areaMensagens.setBorder(BorderFactory.createCompoundBorder(
             BorderFactory.createLineBorder(new Color(180, 180, 180)),
             BorderFactory.createEmptyBorder(8, 8, 8, 8)
@@ -241,6 +269,18 @@ public class ClienteMonitoramento {
         botaoChat.addActionListener(e -> abrirChatInspetores());
         painelBotoes.add(botaoChat);
 
+        JButton botaoBuscarRelatorios = new JButton("Buscar Relatórios");
+        botaoBuscarRelatorios.setIcon(new ImageIcon(new ImageIcon("src/resources/report.png").getImage().getScaledInstance(16, 16, Image.SCALE_SMOOTH)));
+        botaoBuscarRelatorios.setPreferredSize(new Dimension(150, 30));
+        botaoBuscarRelatorios.addActionListener(e -> abrirBuscaRelatorios());
+        painelBotoes.add(botaoBuscarRelatorios);
+
+        JButton botaoBuscarConversas = new JButton("Buscar Conversas");
+        botaoBuscarConversas.setIcon(new ImageIcon(new ImageIcon("src/resources/chat.png").getImage().getScaledInstance(16, 16, Image.SCALE_SMOOTH)));
+        botaoBuscarConversas.setPreferredSize(new Dimension(150, 30));
+        botaoBuscarConversas.addActionListener(e -> abrirBuscaHistorico());
+        painelBotoes.add(botaoBuscarConversas);
+
         JButton botaoEnviarArquivo = new JButton("Enviar Arquivo");
         botaoEnviarArquivo.setIcon(new ImageIcon(new ImageIcon("src/resources/file.png").getImage().getScaledInstance(16, 16, Image.SCALE_SMOOTH)));
         botaoEnviarArquivo.setPreferredSize(new Dimension(150, 30));
@@ -255,6 +295,8 @@ public class ClienteMonitoramento {
         menuArquivo.add(itemSair);
         menuBar.add(menuArquivo);
 
+        menuBar.add(criarMenuTopicos());
+
         JMenu menuAjuda = new JMenu("Ajuda");
         JMenuItem itemSobre = new JMenuItem("Sobre");
         itemSobre.addActionListener(e -> JOptionPane.showMessageDialog(frame, "Sistema de Monitoramento Ambiental do Rio Tietê\nVersão 1.0", "Sobre", JOptionPane.INFORMATION_MESSAGE));
@@ -289,116 +331,496 @@ public class ClienteMonitoramento {
             @Override
             public void windowClosing(WindowEvent e) {
                 desconectar();
+                fecharHistoricos();
+            }
+
+            @Override
+            public void windowClosed(WindowEvent e) {
+                // Sair pelo menu fecha a janela sem passar por windowClosing
+                fecharHistoricos();
             }
         });
     }
 
     private void conectarServidor() {
+        // Inicializa o gerenciador multicast
+        if (multicastPermitido()) {
+            try {
+                multicastManager = new MulticastManager(mensagem -> {
+                    if (mensagem.startsWith("ALERTA_MULTICAST:")) {
+                        String conteudoAlerta = mensagem.substring("ALERTA_MULTICAST:".length());
+                        SwingUtilities.invokeLater(() -> adicionarAlerta("[MULTICAST] " + conteudoAlerta));
+                    }
+                });
+                multicastManager.iniciarRecepcao();
+            } catch (IOException e) {
+                System.err.println("Alertas multicast indisponíveis: " + e.getMessage());
+            }
+        }
+
         try {
-            socket = new Socket(SERVIDOR_IP, SERVIDOR_PORTA);
-            dataOut = new DataOutputStream(socket.getOutputStream());
-            dataIn = new DataInputStream(socket.getInputStream());
-            dataOut.writeUTF(nomeInspetor);
-            dataOut.writeUTF(localMonitorado);
-    
-            // Aguarda as duas mensagens de boas-vindas do servidor
-            String msg1 = dataIn.readUTF();
-            String msg2 = dataIn.readUTF();
-            // Agora pode liberar o chat
-    
-            chatInspetores = new ChatInspetores(this, socket, dataOut);
-    
-            // Inicializa o gerenciador multicast
-            multicastManager = new MulticastManager(mensagem -> {
-                if (mensagem.startsWith("ALERTA_MULTICAST:")) {
-                    String conteudoAlerta = mensagem.substring("ALERTA_MULTICAST:".length());
-                    SwingUtilities.invokeLater(() -> adicionarAlerta("[MULTICAST] " + conteudoAlerta));
+            caixaSaida = new CaixaSaida(new File("caixa_saida", nomeInspetor.replaceAll("[^a-zA-Z0-9\\.\\-]", "_") + ".dat"));
+            if (caixaSaida.getQuantidade() > 0) {
+                adicionarMensagem(caixaSaida.getQuantidade() + " item(ns) da caixa de saída serão enviados ao conectar.");
+            }
+        } catch (IOException e) {
+            System.err.println("Caixa de saída indisponível, envios sem conexão serão perdidos: " + e.getMessage());
+        }
+        try {
+            cacheArquivos = new CacheArquivos(new File("cache_arquivos"));
+        } catch (IOException e) {
+            System.err.println("Cache de arquivos indisponível, todo download irá ao servidor: " + e.getMessage());
+        }
+
+        atualizarStatus("Conectando ao servidor...");
+        supervisor = new SupervisorConexao(SERVIDOR_IP, SERVIDOR_PORTA, nomeInspetor, localMonitorado,
+                new SupervisorConexao.Ouvinte() {
+                    @Override
+                    public void conectado(Socket novoSocket, DataOutputStream saida, boolean sessaoRetomada) {
+                        conexaoEstabelecida(novoSocket, saida, sessaoRetomada);
+                    }
+
+                    @Override
+                    public void mensagemRecebida(String mensagem) {
+                        receberMensagem(mensagem);
+                    }
+
+                    @Override
+                    public void desconectado(String motivo, int tentativa, long esperaMs) {
+                        conectado = false;
+                        System.err.println("Conexão com o servidor indisponível: " + motivo);
+                        String guardados = caixaSaida != null && caixaSaida.getQuantidade() > 0
+                                ? " | " + caixaSaida.getQuantidade() + " na caixa de saída" : "";
+                        atualizarStatus(String.format("Reconectando em %.1f s (tentativa %d): %s%s",
+                                esperaMs / 1000.0, tentativa, motivo, guardados));
+                    }
+                });
+        supervisor.iniciar();
+    }
+
+    /**
+     * Executa na thread do supervisor, antes da primeira mensagem da nova conexão
+     */
+    private void conexaoEstabelecida(Socket novoSocket, DataOutputStream saida, boolean sessaoRetomada) {
+        socket = novoSocket;
+        dataOut = saida;
+        SERVIDOR_IP = supervisor.getHost();
+        SERVIDOR_PORTA = supervisor.getPorta();
+        // O servidor envia os grupos de novo e a recepção recomeça do zero
+        if (receptorMulticast != null) {
+            receptorMulticast.fechar();
+            receptorMulticast = null;
+        }
+        // Antes do lote: um item guardado durante o esvaziamento sai direto (um reenvio a mais é descartado)
+        conectado = true;
+        // Depois de conectado: uma mudança de tópicos feita a partir daqui já sai direto pelo menu
+        synchronized (bloqueioAssinatura) {
+            if (ultimaAssinatura != null && (!sessaoRetomada || assinaturaPendente)) {
+                try {
+                    synchronized (saida) {
+                        saida.writeUTF(ultimaAssinatura);
+                    }
+                } catch (IOException e) {
+                    System.err.println("Erro ao repetir assinatura de tópicos: " + e.getMessage());
                 }
-            });
-            multicastManager.iniciarRecepcao();
-    
-            // Atualiza status
-            atualizarStatus("Conectado ao servidor");
-    
-            // Inicia thread para receber mensagens
-            new Thread(this::receberMensagens).start();
-    
+            }
+            assinaturaPendente = false;
+        }
+        esvaziarCaixaSaida(saida);
+        SwingUtilities.invokeLater(() -> {
+            if (chatInspetores == null) {
+                try {
+                    chatInspetores = new ChatInspetores(this, novoSocket, saida);
+                } catch (IOException e) {
+                    System.err.println("Erro ao iniciar chat de inspetores: " + e.getMessage());
+                }
+            } else {
+                chatInspetores.reconectado(novoSocket, saida, sessaoRetomada);
+            }
+            atualizarStatus(sessaoRetomada ? "Conectado ao servidor (sessão retomada)" : "Conectado ao servidor");
+        });
+    }
+
+    /**
+     * Executa na thread do supervisor, na ordem em que o servidor enviou
+     */
+    private void receberMensagem(String msg) {
+        if (msg.startsWith("ENVIADO:")) {
+            confirmarEnvio(msg.substring(8));
+            return;
+        }
+        if (tratarControleMulticast(msg)) {
+            return;
+        }
+        anotarRecebimento(msg);
+        despacho.publicar(msg);
+    }
+
+    /**
+     * Marca a chegada de uma mensagem rastreada (threads de rede); o rastro é concluído quando
+     * o lote que a contém termina de ser exibido
+     */
+    private void anotarRecebimento(String msg) {
+        if (!msg.startsWith("RASTRO:")) {
+            return;
+        }
+        int fim = msg.indexOf(':', 7);
+        if (fim > 7) {
+            rastrosRecebidos.put(msg.substring(7, fim), new long[] {System.currentTimeMillis(), System.nanoTime()});
+        }
+    }
+
+    /**
+     * Responde RASTRO_FIM:id:recebidoMs:interfaceMicros para cada mensagem rastreada do lote
+     */
+    private void concluirRastros(List<String> ids) {
+        DataOutputStream saida = dataOut;
+        long agora = System.nanoTime();
+        for (String id : ids) {
+            long[] recebimento = rastrosRecebidos.remove(id);
+            if (recebimento == null || saida == null) {
+                continue;
+            }
+            try {
+                synchronized (saida) {
+                    saida.writeUTF("RASTRO_FIM:" + id + ":" + recebimento[0] + ":" + (agora - recebimento[1]) / 1000);
+                }
+            } catch (IOException e) {
+                System.err.println("Erro ao concluir rastro: " + e.getMessage());
+                return;
+            }
+        }
+    }
+
+    /**
+     * Trata um lote do despacho (executa no EDT): o texto vai para a área de mensagens numa
+     * única inserção e o aviso sonoro de alerta toca no máximo uma vez por lote
+     */
+    private void processarLote(List<String> lote) {
+        textoDoLote = new StringBuilder();
+        alertaNoLote = false;
+        List<String> rastros = new ArrayList<>();
+        ChatInspetores chat = chatInspetores;
+        if (chat != null) {
+            chat.iniciarLote();
+        }
+        try {
+            for (String msg : lote) {
+                if (msg.startsWith("RASTRO:")) {
+                    // RASTRO:id:despachoMs:mensagem
+                    int fimId = msg.indexOf(':', 7);
+                    int fimDespacho = fimId > 0 ? msg.indexOf(':', fimId + 1) : -1;
+                    if (fimDespacho < 0) {
+                        continue;
+                    }
+                    rastros.add(msg.substring(7, fimId));
+                    msg = msg.substring(fimDespacho + 1);
+                }
+                processarMensagemServidor(msg);
+            }
+        } finally {
+            String texto = textoDoLote.toString();
+            textoDoLote = null;
+            if (!texto.isEmpty()) {
+                anexarTexto(texto);
+            }
+            if (alertaNoLote) {
+                Toolkit.getDefaultToolkit().beep();
+            }
+            if (chat != null) {
+                chat.concluirLote();
+            }
+            if (!rastros.isEmpty()) {
+                concluirRastros(rastros);
+            }
+        }
+    }
+
+    private void anexarTexto(String texto) {
+        if (textoDoLote != null) {
+            textoDoLote.append(texto);
+            return;
+        }
+        areaMensagens.adicionar(texto);
+    }
+
+    /**
+     * Cada mensagem rastreada custa a cada destinatário um RASTRO_FIM de volta e um registro no
+     * servidor, por isso só uma amostra é rastreada: -Dtiete.rastreamento=0.05 rastreia 5%,
+     * true todas e false nenhuma
+     * @return Fração entre 0 e 1 ({@link #FRACAO_RASTREADA_PADRAO} se ausente ou inválida)
+     */
+    private static double lerFracaoRastreada() {
+        String valor = System.getProperty("tiete.rastreamento");
+        if (valor == null) {
+            return FRACAO_RASTREADA_PADRAO;
+        } else if (valor.equalsIgnoreCase("true")) {
+            return 1;
+        } else if (valor.equalsIgnoreCase("false")) {
+            return 0;
+        }
+        try {
+            return Math.max(0, Math.min(1, Double.parseDouble(valor)));
+        } catch (NumberFormatException e) {
+            System.err.println("Valor inválido para tiete.rastreamento: " + valor);
+            return FRACAO_RASTREADA_PADRAO;
+        }
+    }
+
+    /**
+     * Guarda o comando na caixa de saída e o envia se houver conexão; sem conexão ele segue
+     * no lote enviado ao reconectar. Uma amostra do chat e dos alertas vai com o envelope de rastro
+     * (-Dtiete.rastreamento, ver {@link #lerFracaoRastreada()})
+     * @param comando Comando no formato do protocolo
+     * @param prioridade {@link CaixaSaida#PRIORIDADE_ALERTA} ou {@link CaixaSaida#PRIORIDADE_NORMAL}
+     * @return true se foi enviado agora
+     */
+    public boolean enviarPelaCaixaSaida(String comando, int prioridade) {
+        if (fracaoRastreada > 0 && (comando.startsWith("CHAT:ALERTA:") || comando.startsWith("CHAT:PARA:"))
+                && ThreadLocalRandom.current().nextDouble() < fracaoRastreada) {
+            // RASTRO:id:envioMs:comando; o id só precisa ser único entre os rastros em andamento
+            comando = "RASTRO:" + Long.toHexString(ThreadLocalRandom.current().nextLong())
+                    + ":" + System.currentTimeMillis() + ":" + comando;
+        }
+        String quadro = comando;
+        if (caixaSaida != null) {
+            try {
+                quadro = caixaSaida.adicionarComando(comando, prioridade).getQuadro();
+            } catch (IOException e) {
+                System.err.println("Erro ao gravar na caixa de saída: " + e.getMessage());
+            }
+        }
+        DataOutputStream saida = dataOut;
+        if (!conectado || saida == null) {
+            return false;
+        }
+        try {
+            synchronized (saida) {
+                saida.writeUTF(quadro);
+            }
+            return true;
         } catch (IOException e) {
-            JOptionPane.showMessageDialog(frame,
-                "Erro ao conectar ao servidor: " + e.getMessage(),
-                "Erro de Conexão",
-                JOptionPane.ERROR_MESSAGE);
-            System.exit(1);
+            System.err.println("Erro ao enviar, item fica na caixa de saída: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Envia um comando que não passa pela caixa de saída (buscas, tópicos, controle do multicast)
+     * @return false se não há conexão
+     */
+    private boolean enviarDireto(String comando) throws IOException {
+        DataOutputStream saida = dataOut;
+        if (!conectado || saida == null) {
+            return false;
+        }
+        synchronized (saida) {
+            saida.writeUTF(comando);
+        }
+        return true;
+    }
+
+    /**
+     * Reenvia a caixa de saída inteira numa única escrita, alertas primeiro; os arquivos seguem
+     * depois, um a um, numa thread própria. Executa na thread do supervisor, antes da primeira
+     * mensagem da nova conexão.
+     */
+    private void esvaziarCaixaSaida(DataOutputStream saida) {
+        if (caixaSaida == null) {
+            return;
+        }
+        List<CaixaSaida.Item> pendentes = caixaSaida.pendentes();
+        if (pendentes.isEmpty()) {
+            return;
+        }
+        try {
+            byte[] lote = CaixaSaida.montarLote(pendentes);
+            synchronized (saida) {
+                saida.write(lote);
+                saida.flush();
+            }
+        } catch (IOException e) {
+            System.err.println("Erro ao enviar a caixa de saída: " + e.getMessage());
+            return;
+        }
+        List<CaixaSaida.Item> arquivos = new ArrayList<>();
+        for (CaixaSaida.Item item : pendentes) {
+            if (item.isArquivo()) {
+                arquivos.add(item);
+            }
+        }
+        System.out.println("Caixa de saída: " + (pendentes.size() - arquivos.size()) + " comando(s) reenviado(s) em lote, "
+                + arquivos.size() + " arquivo(s) na fila");
+        if (!arquivos.isEmpty()) {
+            new Thread(() -> {
+                for (CaixaSaida.Item item : arquivos) {
+                    if (!enviarArquivoDaCaixa(item)) {
+                        break;
+                    }
+                }
+            }, "caixa-saida-arquivos").start();
         }
     }
 
-    private void receberMensagens() {
+    private void confirmarEnvio(String id) {
+        if (caixaSaida == null) {
+            return;
+        }
         try {
-            String mensagem;
-            while ((mensagem = dataIn.readUTF()) != null) {
-                final String msg = mensagem;
-                System.out.println("DEBUG CLIENTE RECEBEU: " + msg);
+            caixaSaida.confirmar(id);
+        } catch (IOException e) {
+            System.err.println("Erro ao registrar confirmação na caixa de saída: " + e.getMessage());
+        }
+    }
 
-                SwingUtilities.invokeLater(() -> {
-                    if (msg.startsWith("ALERTA:")) {
-                        adicionarAlerta(msg.substring(7));
-                    } else if (msg.startsWith("CHAT:")) {
-                        String conteudoChat = msg.substring(5);
-                        if (conteudoChat.startsWith("ALERTA:")) {
-                            String[] partesAlerta = conteudoChat.substring(7).split(":", 2);
-                            if (partesAlerta.length >= 2) {
-                                String remetenteAlerta = partesAlerta[0];
-                                String mensagemAlerta = partesAlerta[1];
-                                adicionarAlerta("[ALERTA DE INSPETOR] De " + remetenteAlerta + ": " + mensagemAlerta);
-                            } else {
-                                System.err.println("DEBUG CLIENTE: Mensagem CHAT:ALERTA: mal formada: " + msg);
-                            }
-                        } else if (chatInspetores != null && chatInspetores.processarMensagem(conteudoChat)) {
-                            System.out.println("DEBUG CLIENTE RECEBER: Mensagem CHAT processada por ChatInspetores.");
-                        } else {
-                            System.out.println("DEBUG CLIENTE RECEBER: Mensagem CHAT não processada pelo chat: " + msg);
+    /**
+     * Com TLS o multicast fica desligado, qualquer que seja -Dtiete.multicast: os datagramas
+     * seguem em texto claro e qualquer um na rede pode entrar nos grupos
+     */
+    private static boolean multicastPermitido() {
+        return !ConexaoServidor.isTls() && Boolean.parseBoolean(System.getProperty("tiete.multicast", "true"));
+    }
+
+    /**
+     * Mensagens de controle dos grupos multicast, tratadas na própria thread de recepção
+     * para que a confirmação de um grupo valha antes do próximo datagrama.
+     * Com -Dtiete.multicast=false ou TLS o cliente recebe tudo por TCP.
+     * @return true se a mensagem era somente de controle
+     */
+    private boolean tratarControleMulticast(String msg) {
+        if (msg.startsWith("GRUPOS_MULTICAST:")) {
+            if (receptorMulticast == null && multicastPermitido()) {
+                try {
+                    receptorMulticast = new ReceptorMulticast(msg.substring(17), nomeInspetor, new ReceptorMulticast.Ouvinte() {
+                        @Override
+                        public void mensagemRecebida(String mensagem) {
+                            anotarRecebimento(mensagem);
+                            despacho.publicar(mensagem);
                         }
-                    } else if (msg.startsWith("ARQUIVO:")) {
-                        String[] partes = msg.substring(8).split(":", 3); // Limita o split a 3 partes para garantir que o nomeOriginal não seja quebrado por ":"
-                        if (partes.length >= 3) {
-                            String nomeUnico = partes[0];
-                            String remetente = partes[1];
-                            String nomeOriginal = partes[2];
-                            if (!remetente.equals(nomeInspetor)) { 
-                                int opcao = JOptionPane.showConfirmDialog(
-                                    frame,
-                                    "Você recebeu um arquivo: " + nomeOriginal + "\nDe: " + remetente + "\n\nDeseja baixar?",
-                                    "Arquivo Recebido",
-                                    JOptionPane.YES_NO_OPTION
-                                );
-
-                                if (opcao == JOptionPane.YES_OPTION) {
-                                    iniciarDownloadArquivo(nomeUnico, nomeOriginal);
-                                }
+
+                        @Override
+                        public void enviarComando(String comando) {
+                            try {
+                                enviarDireto(comando);
+                            } catch (IOException e) {
+                                System.err.println("Erro ao enviar comando multicast: " + e.getMessage());
                             }
                         }
-                    } else {
-                        adicionarMensagem(msg);
-                    }
-                });
+                    });
+                    // Até escolher tópicos o servidor envia todos os locais
+                    receptorMulticast.atualizarTopicos(Arrays.asList("todos", "*"));
+                } catch (IOException | RuntimeException e) {
+                    System.err.println("Multicast indisponível, mensagens seguem por TCP: " + e.getMessage());
+                }
             }
-        } catch (IOException e) {
-            System.err.println("Erro ao receber mensagens: " + e.getMessage());
-            SwingUtilities.invokeLater(() -> {
-                atualizarStatus("Desconectado do servidor");
-                JOptionPane.showMessageDialog(frame,
-                    "Conexão com o servidor perdida: " + e.getMessage(),
-                    "Erro de Conexão",
-                    JOptionPane.ERROR_MESSAGE);
-            });
+            return true;
+        } else if (msg.startsWith("MULTICAST_CONFIRMADO:")) {
+            String[] partes = msg.substring(21).split(":");
+            if (receptorMulticast != null && partes.length == 2) {
+                receptorMulticast.confirmar(partes[0], Long.parseLong(partes[1]));
+            }
+            return true;
+        } else if (msg.startsWith("MULTICAST_REENVIO:")) {
+            if (receptorMulticast != null) {
+                receptorMulticast.reenviada(msg.substring(18));
+            }
+            return true;
+        } else if (msg.startsWith("MULTICAST_INATIVO:")) {
+            String[] partes = msg.substring(18).split(":");
+            if (receptorMulticast != null && partes.length == 2) {
+                receptorMulticast.desativar(partes[0], Long.parseLong(partes[1]));
+            }
+            return true;
+        } else if (msg.startsWith("TOPICOS_ASSINADOS:") && receptorMulticast != null) {
+            receptorMulticast.atualizarTopicos(Arrays.asList(msg.substring(18).split(",")));
+        }
+        return false;
+    }
+
+    /**
+     * Trata uma mensagem do servidor, recebida por TCP ou por multicast (executa no EDT, dentro
+     * de um lote do despacho; diálogos ficam para depois do lote)
+     */
+    private void processarMensagemServidor(String msg) {
+        if (msg.startsWith("ALERTA:")) {
+            adicionarAlerta(msg.substring(7));
+        } else if (msg.startsWith("CHAT:")) {
+            String conteudoChat = msg.substring(5);
+            if (conteudoChat.startsWith("ALERTA:")) {
+                String[] partesAlerta = conteudoChat.substring(7).split(":", 2);
+                if (partesAlerta.length >= 2) {
+                    String remetenteAlerta = partesAlerta[0];
+                    String mensagemAlerta = partesAlerta[1];
+                    adicionarAlerta("[ALERTA DE INSPETOR] De " + remetenteAlerta + ": " + mensagemAlerta);
+                } else {
+                    System.err.println("DEBUG CLIENTE: Mensagem CHAT:ALERTA: mal formada: " + msg);
+                }
+            } else if (chatInspetores != null) {
+                // Quadros CHAT que o chat não trata são ignorados
+                chatInspetores.processarMensagem(conteudoChat);
+            }
+        } else if (msg.startsWith("RELATORIOS_ENCONTRADOS:")) {
+            adicionarMensagem("🔎 Relatórios encontrados: " + msg.substring("RELATORIOS_ENCONTRADOS:".length()));
+        } else if (msg.startsWith("RELATORIO_ITEM:")) {
+            String[] partes = msg.substring("RELATORIO_ITEM:".length()).split("\\|", 5);
+            if (partes.length == 5) {
+                anexarTexto(String.format("---- Relatório #%s (%s) - %s - %s ----\n%s\n",
+                        partes[0], partes[1], partes[2], partes[3], partes[4]));
+            }
+        } else if (msg.startsWith("TOPICOS_ASSINADOS:")) {
+            adicionarMensagem("Tópicos assinados: " + msg.substring("TOPICOS_ASSINADOS:".length()));
+        } else if (msg.startsWith("HISTORICO_ITEM:")) {
+            String[] partes = msg.substring("HISTORICO_ITEM:".length()).split("\\|", 5);
+            if (partes.length == 5) {
+                String destino = partes[2].equals("Todos") ? "" : " para " + partes[2] + " [PRIVADO]";
+                anexarTexto(String.format("[%s] %s (%s)%s: %s\n",
+                        partes[0], partes[1], partes[3], destino, partes[4]));
+            }
+        } else if (msg.startsWith("HISTORICO_FIM:")) {
+            String[] partes = msg.substring("HISTORICO_FIM:".length()).split("\\|");
+            if (partes.length == 4) {
+                adicionarMensagem("🔎 Página " + (Integer.parseInt(partes[0]) + 1) + " do histórico: "
+                        + partes[1] + " mensagem(ns) em " + partes[3] + " µs");
+                if (partes[2].equals("1") && ultimaBuscaHistorico != null) {
+                    SwingUtilities.invokeLater(() -> {
+                        int opcao = JOptionPane.showConfirmDialog(frame, "Há mensagens mais antigas. Carregar a próxima página?",
+                                "Buscar Conversas", JOptionPane.YES_NO_OPTION);
+                        if (opcao == JOptionPane.YES_OPTION) {
+                            enviarBuscaHistorico(Integer.parseInt(partes[0]) + 1);
+                        }
+                    });
+                }
+            }
+        } else if (msg.startsWith("ARQUIVO:")) {
+            String[] partes = msg.substring(8).split(":", 3); // Limita o split a 3 partes para garantir que o nomeOriginal não seja quebrado por ":"
+            if (partes.length >= 3) {
+                String nomeUnico = partes[0];
+                String remetente = partes[1];
+                String nomeOriginal = partes[2];
+                if (!remetente.equals(nomeInspetor)) { 
+                    SwingUtilities.invokeLater(() -> {
+                        int opcao = JOptionPane.showConfirmDialog(
+                            frame,
+                            "Você recebeu um arquivo: " + nomeOriginal + "\nDe: " + remetente + "\n\nDeseja baixar?",
+                            "Arquivo Recebido",
+                            JOptionPane.YES_NO_OPTION
+                        );
+
+                        if (opcao == JOptionPane.YES_OPTION) {
+                            iniciarDownloadArquivo(nomeUnico, nomeOriginal);
+                        }
+                    });
+                }
+            }
+        } else {
+            adicionarMensagem(msg);
         }
     }
 
     private void adicionarMensagem(String mensagem) {
         SimpleDateFormat sdf = new SimpleDateFormat("HH:mm:ss");
         String timestamp = sdf.format(new Date());
-        areaMensagens.append(String.format("[%s] %s\n", timestamp, mensagem));
-        areaMensagens.setCaretPosition(areaMensagens.getDocument().getLength());
+        anexarTexto(String.format("[%s] %s\n", timestamp, mensagem));
     }
 
     private void adicionarAlerta(String mensagem) {
@@ -411,25 +833,23 @@ public class ClienteMonitoramento {
             "========================================\n" +
             "</font>",
             timestamp, mensagem);
-         areaMensagens.append("\n");
-         areaMensagens.append("========================================\n");
-         areaMensagens.append(String.format("[%s] 🚨 ALERTA: %s\n", timestamp, mensagem));
-         areaMensagens.append("========================================\n");
-         areaMensagens.append("\n");
-
-        areaMensagens.setCaretPosition(areaMensagens.getDocument().getLength());
-        Toolkit.getDefaultToolkit().beep();
+        anexarTexto("\n========================================\n"
+                + String.format("[%s] 🚨 ALERTA: %s\n", timestamp, mensagem)
+                + "========================================\n\n");
+        if (textoDoLote != null) {
+            alertaNoLote = true;
+        } else {
+            Toolkit.getDefaultToolkit().beep();
+        }
     }
 
     private void enviarMensagem() {
         String mensagem = campoMensagem.getText().trim();
         if (!mensagem.isEmpty()) {
-            try {
-                dataOut.writeUTF(mensagem);
-            campoMensagem.setText("");
-            } catch (IOException e) {
-                e.printStackTrace();
+            if (!enviarPelaCaixaSaida(mensagem, CaixaSaida.PRIORIDADE_NORMAL)) {
+                adicionarMensagem("Sem conexão: mensagem guardada na caixa de saída.");
             }
+            campoMensagem.setText("");
         }
     }
 
@@ -460,13 +880,11 @@ public class ClienteMonitoramento {
         botaoEnviar.addActionListener(e -> {
             String relatorio = areaRelatorio.getText().trim();
             if (!relatorio.isEmpty()) {
-                try {
-                    dataOut.writeUTF("RELATORIO:" + relatorio);
+                if (!enviarPelaCaixaSaida("RELATORIO:" + relatorio, CaixaSaida.PRIORIDADE_NORMAL)) {
+                    adicionarMensagem("Sem conexão: relatório guardado na caixa de saída.");
+                }
                 adicionarRelatorio(relatorio);
                 dialog.dispose();
-                } catch (IOException e1) {
-                    e1.printStackTrace();
-                }
             } else {
                 JOptionPane.showMessageDialog(dialog,
                         "Por favor, preencha o relatório.",
@@ -481,6 +899,127 @@ public class ClienteMonitoramento {
         dialog.add(panel);
         dialog.setVisible(true);
     }
+    private void abrirBuscaRelatorios() {
+        JTextField campoTermos = new JTextField(20);
+        JComboBox<String> comboLocal = new JComboBox<>(new String[]{
+                "Todos", "Salesópolis", "Mogi das Cruzes", "Suzano", "Poá",
+                "Itaquaquecetuba", "Guarulhos", "São Paulo"});
+        JTextField campoDe = new JTextField(10);
+        JTextField campoAte = new JTextField(10);
+        JPanel panel = new JPanel(new GridLayout(4, 2, 5, 5));
+        panel.add(new JLabel("Palavras-chave:"));
+        panel.add(campoTermos);
+        panel.add(new JLabel("Local:"));
+        panel.add(comboLocal);
+        panel.add(new JLabel("De (dd/MM/yyyy):"));
+        panel.add(campoDe);
+        panel.add(new JLabel("Até (dd/MM/yyyy):"));
+        panel.add(campoAte);
+        int opcao = JOptionPane.showConfirmDialog(frame, panel, "Buscar Relatórios", JOptionPane.OK_CANCEL_OPTION);
+        if (opcao != JOptionPane.OK_OPTION) {
+            return;
+        }
+        String local = comboLocal.getSelectedIndex() == 0 ? "" : (String) comboLocal.getSelectedItem();
+        String comando = "BUSCAR_RELATORIOS:" + campoTermos.getText().trim().replace("|", " ") + "|" + local
+                + "|" + campoDe.getText().trim() + "|" + campoAte.getText().trim() + "|50";
+        try {
+            if (!enviarDireto(comando)) {
+                adicionarMensagem("Sem conexão: busca de relatórios não enviada.");
+            }
+        } catch (IOException e) {
+            JOptionPane.showMessageDialog(frame, "Erro ao buscar relatórios: " + e.getMessage(),
+                    "Erro", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
+    /**
+     * Menu para escolher de quais locais receber alertas e mensagens para "Todos".
+     * Avisos gerais do servidor são sempre recebidos.
+     */
+    private JMenu criarMenuTopicos() {
+        JMenu menuTopicos = new JMenu("Tópicos");
+        String[] locais = {"Salesópolis", "Mogi das Cruzes", "Suzano", "Poá",
+                "Itaquaquecetuba", "Guarulhos", "São Paulo", "Central"};
+        JCheckBoxMenuItem itemTodosLocais = new JCheckBoxMenuItem("Todos os locais", true);
+        List<JCheckBoxMenuItem> itensLocais = new ArrayList<>();
+        Runnable enviarAssinaturas = () -> {
+            List<String> topicos = new ArrayList<>();
+            if (itemTodosLocais.isSelected()) {
+                topicos.add("*");
+            }
+            for (JCheckBoxMenuItem item : itensLocais) {
+                item.setEnabled(!itemTodosLocais.isSelected());
+                if (item.isSelected()) {
+                    topicos.add(item.getText());
+                }
+            }
+            try {
+                // Sem conexão, a escolha segue ao reconectar
+                synchronized (bloqueioAssinatura) {
+                    ultimaAssinatura = "ASSINAR:" + String.join(",", topicos);
+                    if (!enviarDireto(ultimaAssinatura)) {
+                        assinaturaPendente = true;
+                    }
+                }
+            } catch (IOException e) {
+                JOptionPane.showMessageDialog(frame, "Erro ao alterar tópicos: " + e.getMessage(),
+                        "Erro", JOptionPane.ERROR_MESSAGE);
+            }
+        };
+        itemTodosLocais.addActionListener(e -> enviarAssinaturas.run());
+        menuTopicos.add(itemTodosLocais);
+        menuTopicos.addSeparator();
+        for (String local : locais) {
+            // O próprio local começa marcado, para quando "Todos os locais" for desmarcado
+            JCheckBoxMenuItem item = new JCheckBoxMenuItem(local, local.equalsIgnoreCase(localMonitorado));
+            item.setEnabled(false);
+            item.addActionListener(e -> enviarAssinaturas.run());
+            itensLocais.add(item);
+            menuTopicos.add(item);
+        }
+        return menuTopicos;
+    }
+
+    private void abrirBuscaHistorico() {
+        JTextField campoTermos = new JTextField(20);
+        JComboBox<String> comboLocal = new JComboBox<>(new String[]{
+                "Todos", "Salesópolis", "Mogi das Cruzes", "Suzano", "Poá",
+                "Itaquaquecetuba", "Guarulhos", "São Paulo"});
+        comboLocal.setEditable(true);
+        SimpleDateFormat formatoData = new SimpleDateFormat("dd/MM/yyyy");
+        // Por padrão, a última semana
+        JTextField campoDe = new JTextField(formatoData.format(new Date(System.currentTimeMillis() - 7L * 24 * 60 * 60 * 1000)), 10);
+        JTextField campoAte = new JTextField(formatoData.format(new Date()), 10);
+        JPanel panel = new JPanel(new GridLayout(4, 2, 5, 5));
+        panel.add(new JLabel("Palavras-chave:"));
+        panel.add(campoTermos);
+        panel.add(new JLabel("Local do remetente:"));
+        panel.add(comboLocal);
+        panel.add(new JLabel("De (dd/MM/yyyy):"));
+        panel.add(campoDe);
+        panel.add(new JLabel("Até (dd/MM/yyyy):"));
+        panel.add(campoAte);
+        int opcao = JOptionPane.showConfirmDialog(frame, panel, "Buscar Conversas", JOptionPane.OK_CANCEL_OPTION);
+        if (opcao != JOptionPane.OK_OPTION) {
+            return;
+        }
+        String local = comboLocal.getSelectedIndex() == 0 ? "" : String.valueOf(comboLocal.getSelectedItem()).trim();
+        ultimaBuscaHistorico = campoTermos.getText().trim().replace("|", " ") + "|" + local.replace("|", " ")
+                + "|" + campoDe.getText().trim() + "|" + campoAte.getText().trim();
+        enviarBuscaHistorico(0);
+    }
+
+    private void enviarBuscaHistorico(int pagina) {
+        try {
+            if (!enviarDireto("BUSCAR_HISTORICO:" + ultimaBuscaHistorico + "|" + pagina)) {
+                adicionarMensagem("Sem conexão: busca de conversas não enviada.");
+            }
+        } catch (IOException e) {
+            JOptionPane.showMessageDialog(frame, "Erro ao buscar conversas: " + e.getMessage(),
+                    "Erro", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
     private void abrirJanelaAlerta() {
         JDialog dialog = new JDialog(frame, "Enviar Alerta Ambiental", true);
         dialog.setSize(500, 400);
@@ -499,15 +1038,12 @@ public class ClienteMonitoramento {
             String alerta = areaAlerta.getText().trim();
             if (!alerta.isEmpty()) {
                 String comandoAlerta = "CHAT:ALERTA:" + alerta;
-                try {
-                    dataOut.writeUTF(comandoAlerta);
+                if (enviarPelaCaixaSaida(comandoAlerta, CaixaSaida.PRIORIDADE_ALERTA)) {
                     adicionarMensagem("ALERTA ENVIADO: " + alerta);
-                dialog.dispose();
-                } catch (IOException e1) {
-                    JOptionPane.showMessageDialog(frame,
-                        "Erro ao enviar alerta: " + e1.getMessage(),
-                        "Erro", JOptionPane.ERROR_MESSAGE);
+                } else {
+                    adicionarMensagem("ALERTA GUARDADO (sem conexão, será enviado primeiro ao reconectar): " + alerta);
                 }
+                dialog.dispose();
             } else {
                 JOptionPane.showMessageDialog(dialog,
                         "Por favor, descreva o alerta ambiental.",
@@ -525,23 +1061,25 @@ public class ClienteMonitoramento {
     }
 
     private void desconectar() {
-        try {
-            if (dataOut != null) {
-                dataOut.writeUTF("SAIR");
-            }
-            if (socket != null && !socket.isClosed()) {
-                socket.close();
-            }
-        } catch (IOException e) {
-            System.err.println("Erro ao desconectar: " + e.getMessage());
+        if (supervisor != null) {
+            supervisor.encerrar();
+        }
+    }
+
+    /**
+     * Apaga os arquivos de transbordo das listas de mensagens
+     */
+    private void fecharHistoricos() {
+        areaMensagens.getHistorico().fechar();
+        if (chatInspetores != null) {
+            chatInspetores.fechar();
         }
     }
 
     private void adicionarRelatorio(String relatorio) {
         SimpleDateFormat sdf = new SimpleDateFormat("HH:mm:ss");
         String timestamp = sdf.format(new Date());
-        areaMensagens.append(String.format("[%s] 📝 RELATÓRIO ENVIADO:\n%s\n", timestamp, relatorio));
-        areaMensagens.setCaretPosition(areaMensagens.getDocument().getLength());
+        anexarTexto(String.format("[%s] 📝 RELATÓRIO ENVIADO:\n%s\n", timestamp, relatorio));
     }
 
     public String getNomeInspetor() {
@@ -596,23 +1134,27 @@ public class ClienteMonitoramento {
             // Substitua "SEU_EMAIL_GMAIL@gmail.com" pelo seu email
             // Substitua "SUA_SENHA_DE_APP" pela senha de app gerada ou senha de acesso menos seguro
             String remetente = "SEU_EMAIL_GMAIL";
-            String senha = "SUA_SENHA_DE_APP"
+            String senha = "SUA_SENHA_DE_APP";
             if (remetente.equals("SEU_EMAIL_GMAIL@gmail.com") || senha.equals("SUA_SENHA_DE_APP")) {
                  JOptionPane.showMessageDialog(dialog,
                         "Por favor, atualize seu email e senha no código (EmailSender).", "Erro de Configuração", JOptionPane.ERROR_MESSAGE);
                 return;
             }
-            boolean sucesso = EmailSender.enviarEmail(remetente, senha, destinatario, assunto, corpo);
-            if (sucesso) {
-                JOptionPane.showMessageDialog(dialog,
-                        "E-mail enviado com sucesso!",
-                        "Sucesso", JOptionPane.INFORMATION_MESSAGE);
-                dialog.dispose();
-            } else {
-                JOptionPane.showMessageDialog(dialog,
-                        "Erro ao enviar e-mail. Verifique as credenciais ou as configurações de segurança da sua conta Google.",
-                        "Erro", JOptionPane.ERROR_MESSAGE);
+            if (servicoEmail == null) {
+                servicoEmail = new ServicoEmail(remetente, senha);
             }
+            // O envio ocorre fora da thread da interface; o resultado é mostrado quando concluir
+            servicoEmail.enviar(destinatario, assunto, corpo).thenAccept(sucesso -> SwingUtilities.invokeLater(() -> {
+                if (sucesso) {
+                    adicionarMensagem("E-mail enviado com sucesso para " + destinatario);
+                } else {
+                    JOptionPane.showMessageDialog(frame,
+                            "Erro ao enviar e-mail. Verifique as credenciais ou as configurações de segurança da sua conta Google.",
+                            "Erro", JOptionPane.ERROR_MESSAGE);
+                }
+            }));
+            adicionarMensagem("E-mail para " + destinatario + " colocado na fila de envio.");
+            dialog.dispose();
         });
 
         botaoCancelar.addActionListener(e -> dialog.dispose());
@@ -708,7 +1250,7 @@ public class ClienteMonitoramento {
     private void abrirListaArquivos() {
         new Thread(() -> {
             try {
-                Socket socketArquivos = new Socket(SERVIDOR_IP, SERVIDOR_PORTA);
+                Socket socketArquivos = ConexaoServidor.abrir(SERVIDOR_IP, SERVIDOR_PORTA);
                 DataOutputStream out = new DataOutputStream(socketArquivos.getOutputStream());
                 DataInputStream in = new DataInputStream(socketArquivos.getInputStream());
                 out.writeUTF("LISTAR_ARQUIVOS");
@@ -733,8 +1275,20 @@ public class ClienteMonitoramento {
                             String nomeOriginal = partes[1];
                             String remetente = partes[2];
                             String exibicao = nomeOriginal + " (de " + remetente + ")";
+                            // Quarto campo, de servidores que geram variantes de fotos: variante:bytes,...
+                            String tamanhoPrevia = null;
+                            if (partes.length >= 4) {
+                                for (String variante : partes[3].split(",")) {
+                                    if (variante.startsWith("reduzida:")) {
+                                        tamanhoPrevia = variante.substring(9);
+                                    }
+                                }
+                            }
+                            if (tamanhoPrevia != null) {
+                                exibicao += " - prévia de " + Math.max(1, Long.parseLong(tamanhoPrevia) / 1024) + " KB";
+                            }
                             nomesExibicao.add(exibicao);
-                            mapaArquivos.put(exibicao, new String[]{nomeUnico, nomeOriginal});
+                            mapaArquivos.put(exibicao, new String[]{nomeUnico, nomeOriginal, tamanhoPrevia});
                         }
                     }
 
@@ -751,7 +1305,18 @@ public class ClienteMonitoramento {
                         "Arquivos Disponíveis", JOptionPane.OK_CANCEL_OPTION);
                     if (opcao == JOptionPane.OK_OPTION && listaArquivos.getSelectedValue() != null) {
                         String[] info = mapaArquivos.get(listaArquivos.getSelectedValue());
-                        iniciarDownloadArquivo(info[0], info[1]);
+                        if (info[2] == null) {
+                            iniciarDownloadArquivo(info[0], info[1]);
+                            return;
+                        }
+                        Object[] escolhas = {"Visualizar prévia", "Baixar original", "Cancelar"};
+                        int escolha = JOptionPane.showOptionDialog(frame, info[1], "Foto",
+                            JOptionPane.DEFAULT_OPTION, JOptionPane.QUESTION_MESSAGE, null, escolhas, escolhas[0]);
+                        if (escolha == 0) {
+                            visualizarPrevia(info[0], info[1]);
+                        } else if (escolha == 1) {
+                            iniciarDownloadArquivo(info[0], info[1]);
+                        }
                     }
                 });
 
@@ -804,7 +1369,11 @@ public class ClienteMonitoramento {
                     return;
                 }
 
-                Socket socketDownload = new Socket(SERVIDOR_IP, SERVIDOR_PORTA);
+                if (cacheArquivos != null && cacheArquivos.copiar(nomeUnico, holder.arquivo)) {
+                    adicionarMensagemNoEdt("Arquivo copiado do cache local: " + holder.arquivo.getName());
+                    return;
+                }
+                Socket socketDownload = ConexaoServidor.abrir(SERVIDOR_IP, SERVIDOR_PORTA);
                 DataOutputStream outDownload = new DataOutputStream(socketDownload.getOutputStream());
                 DataInputStream inDownload = new DataInputStream(socketDownload.getInputStream());
                 outDownload.writeUTF("DOWNLOAD:" + nomeUnico);
@@ -814,6 +1383,7 @@ public class ClienteMonitoramento {
                     throw new IOException("Servidor não iniciou o download: " + resposta);
                 }
                 if (TransferenciaArquivos.receberArquivo(socketDownload, holder.arquivo.getName(), holder.arquivo.getParent())) {
+                    guardarNoCache(nomeUnico, holder.arquivo);
                     SwingUtilities.invokeLater(() -> {
                         adicionarMensagem("Arquivo baixado com sucesso: " + holder.arquivo.getName());
                     });
@@ -834,6 +1404,65 @@ public class ClienteMonitoramento {
         }).start();
     }
 
+    /**
+     * Baixa (ou copia do cache) a variante reduzida da foto e a mostra, sem baixar o original
+     * @param nomeUnico Nome único da foto no servidor
+     * @param nomeOriginal Nome exibido no título
+     */
+    private void visualizarPrevia(String nomeUnico, String nomeOriginal) {
+        new Thread(() -> {
+            String nomeVariante = nomeUnico + "~reduzida.jpg";
+            File previa = null;
+            try {
+                previa = File.createTempFile("previa-", ".jpg");
+                if (cacheArquivos == null || !cacheArquivos.copiar(nomeVariante, previa)) {
+                    try (Socket socketPrevia = ConexaoServidor.abrir(SERVIDOR_IP, SERVIDOR_PORTA)) {
+                        DataOutputStream outPrevia = new DataOutputStream(socketPrevia.getOutputStream());
+                        DataInputStream inPrevia = new DataInputStream(socketPrevia.getInputStream());
+                        outPrevia.writeUTF("DOWNLOAD:" + nomeVariante);
+                        outPrevia.flush();
+                        String resposta = inPrevia.readUTF();
+                        if (!resposta.equals("INICIANDO_DOWNLOAD")
+                                || !TransferenciaArquivos.receberArquivo(socketPrevia, previa.getName(), previa.getParent())) {
+                            throw new IOException("prévia indisponível no servidor");
+                        }
+                    }
+                    guardarNoCache(nomeVariante, previa);
+                }
+                java.awt.image.BufferedImage imagem = javax.imageio.ImageIO.read(previa);
+                if (imagem == null) {
+                    throw new IOException("prévia ilegível");
+                }
+                SwingUtilities.invokeLater(() -> {
+                    JScrollPane painel = new JScrollPane(new JLabel(new ImageIcon(imagem)));
+                    painel.setPreferredSize(new Dimension(Math.min(imagem.getWidth() + 20, 900), Math.min(imagem.getHeight() + 20, 700)));
+                    JOptionPane.showMessageDialog(frame, painel, "Prévia: " + nomeOriginal, JOptionPane.PLAIN_MESSAGE);
+                });
+            } catch (IOException e) {
+                String erroMsg = "Erro ao carregar prévia: " + e.getMessage();
+                System.err.println(erroMsg);
+                SwingUtilities.invokeLater(() -> {
+                    JOptionPane.showMessageDialog(frame, erroMsg, "Erro", JOptionPane.ERROR_MESSAGE);
+                });
+            } finally {
+                if (previa != null) {
+                    previa.delete();
+                }
+            }
+        }).start();
+    }
+
+    private void guardarNoCache(String nomeUnico, File baixado) {
+        if (cacheArquivos == null) {
+            return;
+        }
+        try {
+            cacheArquivos.guardar(nomeUnico, baixado);
+        } catch (IOException e) {
+            System.err.println("Erro ao guardar arquivo no cache: " + e.getMessage());
+        }
+    }
+
     public void atualizarListaInspetores(List<String> listaRecebidaDoServidor) {
         SwingUtilities.invokeLater(() -> {
             inspetoresConectados.clear(); // Limpa a lista atual
@@ -852,32 +1481,79 @@ public class ClienteMonitoramento {
     }
 
     private void enviarArquivo(File arquivo, String destinatario) {
+        if (caixaSaida == null) {
+            new Thread(() -> transferirArquivo(null, arquivo, destinatario)).start();
+            return;
+        }
+        CaixaSaida.Item item;
         try {
-            Socket socketArquivo = new Socket(SERVIDOR_IP, SERVIDOR_PORTA);
+            item = caixaSaida.adicionarArquivo(arquivo, destinatario);
+        } catch (IOException e) {
+            JOptionPane.showMessageDialog(frame,
+                "Erro ao guardar arquivo na caixa de saída: " + e.getMessage(),
+                "Erro", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        if (!conectado) {
+            adicionarMensagem("Sem conexão: arquivo " + arquivo.getName() + " guardado na caixa de saída.");
+            return;
+        }
+        new Thread(() -> enviarArquivoDaCaixa(item), "envio-arquivo").start();
+    }
+
+    /**
+     * @return false se a conexão falhou (o item continua na caixa de saída)
+     */
+    private boolean enviarArquivoDaCaixa(CaixaSaida.Item item) {
+        File arquivo = new File(item.getConteudo());
+        if (!arquivo.isFile()) {
+            adicionarMensagemNoEdt("Arquivo " + arquivo.getName() + " não existe mais; removido da caixa de saída.");
+            confirmarEnvio(item.getId());
+            return true;
+        }
+        if (!transferirArquivo(item.getId(), arquivo, item.getDestinatario())) {
+            adicionarMensagemNoEdt("Arquivo " + arquivo.getName() + " continua na caixa de saída; será enviado ao reconectar.");
+            return false;
+        }
+        confirmarEnvio(item.getId());
+        return true;
+    }
+
+    private void adicionarMensagemNoEdt(String mensagem) {
+        SwingUtilities.invokeLater(() -> adicionarMensagem(mensagem));
+    }
+
+    /**
+     * @param idEnvio Id da caixa de saída (ENVIO:id antes do comando ARQUIVO), ou null
+     * @return true se o servidor confirmou o recebimento
+     */
+    private boolean transferirArquivo(String idEnvio, File arquivo, String destinatario) {
+        try (Socket socketArquivo = ConexaoServidor.abrir(SERVIDOR_IP, SERVIDOR_PORTA)) {
             DataOutputStream out = new DataOutputStream(socketArquivo.getOutputStream());
             DataInputStream in = new DataInputStream(socketArquivo.getInputStream());
+            if (idEnvio != null) {
+                out.writeUTF("ENVIO:" + idEnvio);
+            }
             out.writeUTF("ARQUIVO:" + arquivo.getName() + ":" + destinatario + ":" + nomeInspetor);
-            out.writeLong(arquivo.length());       
-            FileInputStream fileIn = new FileInputStream(arquivo);
-            byte[] buffer = new byte[8192];
-            int bytesRead;
-            while ((bytesRead = fileIn.read(buffer)) != -1) {
-                out.write(buffer, 0, bytesRead);
-            }
-            fileIn.close();
+            out.writeLong(arquivo.length());
+            try (FileInputStream fileIn = new FileInputStream(arquivo)) {
+                byte[] buffer = new byte[8192];
+                int bytesRead;
+                while ((bytesRead = fileIn.read(buffer)) != -1) {
+                    out.write(buffer, 0, bytesRead);
+                }
+            }
             String resposta = in.readUTF();
             if (resposta.equals("ARQUIVO_RECEBIDO")) {
-                adicionarMensagem("Arquivo enviado com sucesso: " + arquivo.getName() + " para " + destinatario);
-            } else {
-                JOptionPane.showMessageDialog(frame,
-                    "Erro ao enviar arquivo: " + resposta,
-                    "Erro", JOptionPane.ERROR_MESSAGE);
+                adicionarMensagemNoEdt("Arquivo enviado com sucesso: " + arquivo.getName() + " para " + destinatario);
+                return true;
             }
-            socketArquivo.close();
+            SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(frame,
+                "Erro ao enviar arquivo: " + resposta,
+                "Erro", JOptionPane.ERROR_MESSAGE));
         } catch (IOException e) {
-            JOptionPane.showMessageDialog(frame,
-                "Erro ao conectar para envio de arquivo: " + e.getMessage(),
-                "Erro", JOptionPane.ERROR_MESSAGE);
+            System.err.println("Erro ao conectar para envio de arquivo: " + e.getMessage());
         }
+        return false;
     }
 }
\ No newline at end of file
@@ -0,0 +1,53 @@
+package tieteMonitor.client;
+
+import java.io.IOException;
+import java.net.Socket;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * Abertura das conexões com o servidor. Com -Dtiete.tls=true elas passam por TLS (porta
+ * -Dtiete.tls.porta do servidor, anunciada também na descoberta), e o certificado do servidor
+ * precisa ser confiável pelo trust store da JVM (-Djavax.net.ssl.trustStore) e conter o nome
+ * ou IP usado na conexão. Todas as conexões usam a mesma fábrica, cujo cache de sessões permite
+ * que arquivos, downloads e reconexões ao mesmo servidor retomem a sessão sem um handshake completo.
+ */
+public class ConexaoServidor {
+    private static final boolean TLS = Boolean.parseBoolean(System.getProperty("tiete.tls", "false"));
+
+    public static boolean isTls() {
+        return TLS;
+    }
+
+    /**
+     * Conecta sem prazo, como new Socket(host, porta), e protege a conexão se TLS estiver ativo
+     */
+    public static Socket abrir(String host, int porta) throws IOException {
+        return proteger(new Socket(host, porta), host, porta);
+    }
+
+    /**
+     * @param conectado Socket já conectado a host:porta; os prazos definidos nele valem para o handshake
+     * @return O próprio socket sem TLS; com TLS, um SSLSocket sobre ele com o handshake concluído
+     */
+    public static Socket proteger(Socket conectado, String host, int porta) throws IOException {
+        if (!TLS) {
+            return conectado;
+        }
+        // O handshake escreve registros pequenos em sequência; com Nagle o último espera o ACK atrasado
+        conectado.setTcpNoDelay(true);
+        SSLSocket seguro = (SSLSocket) ((SSLSocketFactory) SSLSocketFactory.getDefault())
+                .createSocket(conectado, host, porta, true);
+        SSLParameters parametros = seguro.getSSLParameters();
+        parametros.setEndpointIdentificationAlgorithm("HTTPS");
+        seguro.setSSLParameters(parametros);
+        try {
+            seguro.startHandshake();
+        } catch (IOException e) {
+            seguro.close();
+            throw e;
+        }
+        return seguro;
+    }
+}
@@ -0,0 +1,145 @@
+package tieteMonitor.client;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.*;
+import tieteMonitor.util.MulticastManager;
+
+/**
+ * Descoberta automática de servidores de monitoramento na rede local.
+ * Escuta os anúncios periódicos dos servidores no grupo multicast de descoberta
+ * e escolhe aquele com menor ocupação.
+ */
+public class DescobertaServidores {
+    private static final long JANELA_PADRAO_MS = 1500;
+
+    /**
+     * Servidor anunciado no grupo de descoberta
+     */
+    public static class ServidorAnunciado {
+        private final String ip;
+        private final int porta;
+        private final int conectados;
+        private final int capacidade;
+
+        public ServidorAnunciado(String ip, int porta, int conectados, int capacidade) {
+            this.ip = ip;
+            this.porta = porta;
+            this.conectados = conectados;
+            this.capacidade = capacidade;
+        }
+
+        public String getIp() {
+            return ip;
+        }
+
+        public int getPorta() {
+            return porta;
+        }
+
+        public int getConectados() {
+            return conectados;
+        }
+
+        public int getCapacidade() {
+            return capacidade;
+        }
+
+        /**
+         * @return Fração da capacidade em uso (0 = vazio, 1 = lotado)
+         */
+        public double getOcupacao() {
+            return capacidade > 0 ? (double) conectados / capacidade : 1.0;
+        }
+
+        @Override
+        public String toString() {
+            return ip + ":" + porta + " (" + conectados + "/" + capacidade + ")";
+        }
+    }
+
+    /**
+     * @return Servidor menos carregado anunciado na janela padrão, ou null se nenhum respondeu
+     */
+    public static ServidorAnunciado descobrirMenosCarregado() {
+        return descobrirMenosCarregado(JANELA_PADRAO_MS);
+    }
+
+    /**
+     * @param janelaMs Tempo de escuta dos anúncios em milissegundos
+     * @return Servidor menos carregado que não esteja lotado, ou null se nenhum respondeu
+     */
+    public static ServidorAnunciado descobrirMenosCarregado(long janelaMs) {
+        ServidorAnunciado escolhido = null;
+        for (ServidorAnunciado servidor : descobrir(janelaMs)) {
+            if (servidor.getConectados() >= servidor.getCapacidade()) {
+                continue;
+            }
+            if (escolhido == null || servidor.getOcupacao() < escolhido.getOcupacao()) {
+                escolhido = servidor;
+            }
+        }
+        return escolhido;
+    }
+
+    /**
+     * @param janelaMs Tempo de escuta dos anúncios em milissegundos
+     * @return Servidores anunciados durante a janela, com o anúncio mais recente de cada um
+     */
+    public static Collection<ServidorAnunciado> descobrir(long janelaMs) {
+        Map<String, ServidorAnunciado> encontrados = new LinkedHashMap<>();
+        MulticastManager receptor;
+        try {
+            receptor = new MulticastManager(MulticastManager.DESCOBERTA_ADDRESS, MulticastManager.DESCOBERTA_PORT,
+                    (String mensagem, InetAddress origem) -> {
+                        ServidorAnunciado servidor = interpretarAnuncio(mensagem, origem);
+                        if (servidor != null) {
+                            synchronized (encontrados) {
+                                encontrados.put(servidor.getIp() + ":" + servidor.getPorta(), servidor);
+                            }
+                        }
+                    });
+        } catch (IOException e) {
+            System.err.println("Erro ao iniciar descoberta de servidores: " + e.getMessage());
+            return Collections.emptyList();
+        }
+        receptor.iniciarRecepcao();
+        try {
+            Thread.sleep(janelaMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            receptor.fechar();
+        }
+        synchronized (encontrados) {
+            return new ArrayList<>(encontrados.values());
+        }
+    }
+
+    private static ServidorAnunciado interpretarAnuncio(String mensagem, InetAddress origem) {
+        if (!mensagem.startsWith("SERVIDOR_DISPONIVEL:")) {
+            return null;
+        }
+        String[] partes = mensagem.substring("SERVIDOR_DISPONIVEL:".length()).split(":");
+        if (partes.length < 3) {
+            return null;
+        }
+        try {
+            int porta = Integer.parseInt(partes[0]);
+            // Com TLS vale a porta TLS anunciada; servidores sem ela ficam de fora
+            if (ConexaoServidor.isTls()) {
+                if (partes.length < 4) {
+                    return null;
+                }
+                porta = Integer.parseInt(partes[3]);
+            }
+            return new ServidorAnunciado(origem.getHostAddress(),
+                    porta,
+                    Integer.parseInt(partes[1]),
+                    Integer.parseInt(partes[2]));
+        } catch (NumberFormatException e) {
+            System.err.println("Anúncio de servidor mal formado: " + mensagem);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package tieteMonitor.client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+import javax.swing.SwingUtilities;
+
+/**
+ * Entrega à interface, em lotes, as mensagens recebidas nas threads de rede. Em vez de um
+ * invokeLater por mensagem, há no máximo um lote pendente no EDT e no máximo um lote por
+ * quadro (60 por segundo por padrão, -Dtiete.interface.quadros); as mensagens que chegam
+ * enquanto isso se acumulam no lote seguinte. A fila é limitada: quando a interface não
+ * acompanha, quem publica espera, e a pressão volta para o socket.
+ */
+public class DespachoInterface {
+    public static final int QUADROS_POR_SEGUNDO_PADRAO = 60;
+    public static final int LIMITE_FILA_PADRAO = 20000;
+    // Um lote maior é dividido para não travar o EDT
+    private static final int MAXIMO_POR_LOTE = 2000;
+
+    private final Consumer<List<String>> processador;
+    private final long intervaloNanos;
+    private final int limiteFila;
+    private final ScheduledExecutorService agendador = Executors.newSingleThreadScheduledExecutor(tarefa -> {
+        Thread thread = new Thread(tarefa, "despacho-interface");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private List<String> fila = new ArrayList<>();
+    private boolean agendado;
+    private long ultimoLote;
+
+    private long lotes;
+    private long mensagens;
+    private int maiorLote;
+
+    /**
+     * @param processador Trata um lote de mensagens, na ordem de chegada (executa no EDT)
+     */
+    public DespachoInterface(Consumer<List<String>> processador) {
+        this(processador, Integer.getInteger("tiete.interface.quadros", QUADROS_POR_SEGUNDO_PADRAO), LIMITE_FILA_PADRAO);
+    }
+
+    /**
+     * @param quadrosPorSegundo Máximo de lotes por segundo
+     * @param limiteFila Máximo de mensagens aguardando o EDT
+     */
+    public DespachoInterface(Consumer<List<String>> processador, int quadrosPorSegundo, int limiteFila) {
+        this.processador = processador;
+        this.intervaloNanos = TimeUnit.SECONDS.toNanos(1) / Math.max(1, quadrosPorSegundo);
+        this.limiteFila = limiteFila;
+        this.ultimoLote = System.nanoTime() - intervaloNanos;
+    }
+
+    /**
+     * Enfileira a mensagem para o próximo lote; espera se a fila está cheia
+     * @param mensagem Mensagem recebida (qualquer thread exceto o EDT)
+     */
+    public void publicar(String mensagem) {
+        boolean agendar;
+        synchronized (this) {
+            while (fila.size() >= limiteFila) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            fila.add(mensagem);
+            agendar = !agendado;
+            agendado = true;
+        }
+        if (agendar) {
+            agendar();
+        }
+    }
+
+    private void agendar() {
+        long espera;
+        synchronized (this) {
+            espera = ultimoLote + intervaloNanos - System.nanoTime();
+        }
+        if (espera <= 0) {
+            SwingUtilities.invokeLater(this::esvaziar);
+        } else {
+            agendador.schedule(() -> SwingUtilities.invokeLater(this::esvaziar), espera, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void esvaziar() {
+        List<String> lote;
+        boolean restam;
+        synchronized (this) {
+            if (fila.size() <= MAXIMO_POR_LOTE) {
+                lote = fila;
+                fila = new ArrayList<>();
+            } else {
+                List<String> inicio = fila.subList(0, MAXIMO_POR_LOTE);
+                lote = new ArrayList<>(inicio);
+                inicio.clear();
+            }
+            restam = !fila.isEmpty();
+            agendado = restam;
+            ultimoLote = System.nanoTime();
+            lotes++;
+            mensagens += lote.size();
+            maiorLote = Math.max(maiorLote, lote.size());
+            notifyAll();
+        }
+        try {
+            processador.accept(lote);
+        } finally {
+            if (restam) {
+                agendar();
+            }
+        }
+    }
+
+    /**
+     * @return Lotes entregues, mensagens entregues, maior lote e mensagens aguardando
+     */
+    public synchronized String getEstatisticas() {
+        return lotes + " lote(s), " + mensagens + " mensagem(ns), maior lote " + maiorLote + ", " + fila.size() + " na fila";
+    }
+
+    public void fechar() {
+        agendador.shutdownNow();
+    }
+}
@@ -0,0 +1,228 @@
+package tieteMonitor.client;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.swing.AbstractListModel;
+
+/**
+ * Modelo das listas de mensagens do cliente. As linhas mais recentes ficam num anel em memória
+ * (-Dtiete.interface.linhas); as que saem do anel vão para arquivos de transbordo na pasta
+ * temporária e voltam em páginas, sob demanda, quando o usuário rola até elas. O total guardado
+ * também é limitado (-Dtiete.interface.historico.linhas): passado o limite, o trecho mais antigo
+ * é descartado. Os arquivos são apagados ao descartar o trecho e em {@link #fechar()}.
+ * Deve ser usado somente no EDT.
+ */
+public class HistoricoMensagens extends AbstractListModel<String> {
+    private static final long serialVersionUID = 1L;
+    public static final int LINHAS_EM_MEMORIA_PADRAO = 2000;
+    public static final int LINHAS_NO_HISTORICO_PADRAO = 500000;
+    private static final int LINHAS_POR_PAGINA = 250;
+    private static final int PAGINAS_POR_SEGMENTO = 20;
+    private static final int LINHAS_POR_SEGMENTO = LINHAS_POR_PAGINA * PAGINAS_POR_SEGMENTO;
+    private static final int PAGINAS_EM_CACHE = 8;
+
+    /**
+     * Arquivo de transbordo com até LINHAS_POR_SEGMENTO linhas gravadas com writeUTF
+     */
+    private static class Segmento {
+        private final File arquivo;
+        private final int[] inicioPagina = new int[PAGINAS_POR_SEGMENTO];
+        private int linhas;
+        private int bytes;
+
+        Segmento(File arquivo) {
+            this.arquivo = arquivo;
+        }
+    }
+
+    private final String[] recentes;
+    private final int limiteHistorico;
+    private int inicioRecentes;
+    private int quantidadeRecentes;
+    private final List<Segmento> segmentos = new ArrayList<>();
+    private DataOutputStream escrita;
+    private int linhasNoDisco;
+    // Linhas já descartadas desde o início; múltiplo de LINHAS_POR_SEGMENTO
+    private long descartadas;
+    private boolean semDisco;
+    // Páginas lidas do disco, pelo número da página desde o início
+    private final Map<Long, String[]> paginas = new LinkedHashMap<Long, String[]>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, String[]> maisAntiga) {
+            return size() > PAGINAS_EM_CACHE;
+        }
+    };
+
+    public HistoricoMensagens() {
+        this(Integer.getInteger("tiete.interface.linhas", LINHAS_EM_MEMORIA_PADRAO),
+                Integer.getInteger("tiete.interface.historico.linhas", LINHAS_NO_HISTORICO_PADRAO));
+    }
+
+    /**
+     * @param linhasEmMemoria Tamanho do anel de linhas recentes
+     * @param limiteHistorico Máximo de linhas guardadas, em memória e em disco
+     */
+    public HistoricoMensagens(int linhasEmMemoria, int limiteHistorico) {
+        this.recentes = new String[Math.max(1, linhasEmMemoria)];
+        this.limiteHistorico = Math.max(recentes.length + LINHAS_POR_SEGMENTO, limiteHistorico);
+    }
+
+    @Override
+    public int getSize() {
+        return linhasNoDisco + quantidadeRecentes;
+    }
+
+    @Override
+    public String getElementAt(int indice) {
+        if (indice >= linhasNoDisco) {
+            return recentes[(inicioRecentes + indice - linhasNoDisco) % recentes.length];
+        }
+        long pagina = (descartadas + indice) / LINHAS_POR_PAGINA;
+        int posicao = indice % LINHAS_POR_PAGINA;
+        String[] linhas = paginas.get(pagina);
+        // A página em gravação pode ter sido lida antes de completa
+        if (linhas == null || linhas.length <= posicao) {
+            linhas = lerPagina(indice / LINHAS_POR_PAGINA);
+            paginas.put(pagina, linhas);
+        }
+        return linhas[posicao];
+    }
+
+    /**
+     * @param linhas Linhas a acrescentar no fim, na ordem
+     */
+    public void adicionar(List<String> linhas) {
+        if (linhas.isEmpty()) {
+            return;
+        }
+        int antes = getSize();
+        boolean perdeuLinhas = false;
+        for (String linha : linhas) {
+            if (quantidadeRecentes == recentes.length) {
+                String antiga = recentes[inicioRecentes];
+                recentes[inicioRecentes] = null;
+                inicioRecentes = (inicioRecentes + 1) % recentes.length;
+                quantidadeRecentes--;
+                perdeuLinhas |= !transbordar(antiga);
+            }
+            recentes[(inicioRecentes + quantidadeRecentes) % recentes.length] = linha;
+            quantidadeRecentes++;
+        }
+        if (perdeuLinhas) {
+            fireContentsChanged(this, 0, getSize() - 1);
+        } else {
+            fireIntervalAdded(this, antes, getSize() - 1);
+        }
+        while (linhasNoDisco + quantidadeRecentes > limiteHistorico && segmentos.size() > 1) {
+            descartarSegmentoMaisAntigo();
+        }
+    }
+
+    /**
+     * @return false se a linha foi perdida por falha no disco
+     */
+    private boolean transbordar(String linha) {
+        if (semDisco) {
+            return false;
+        }
+        try {
+            Segmento atual = segmentos.isEmpty() ? null : segmentos.get(segmentos.size() - 1);
+            if (atual == null || atual.linhas == LINHAS_POR_SEGMENTO) {
+                if (escrita != null) {
+                    escrita.close();
+                }
+                File arquivo = File.createTempFile("tiete-historico-", ".dat");
+                atual = new Segmento(arquivo);
+                segmentos.add(atual);
+                escrita = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(arquivo)));
+            }
+            if (atual.linhas % LINHAS_POR_PAGINA == 0) {
+                atual.inicioPagina[atual.linhas / LINHAS_POR_PAGINA] = atual.bytes;
+            }
+            escrita.writeUTF(linha);
+            atual.bytes = escrita.size();
+            atual.linhas++;
+            linhasNoDisco++;
+            return true;
+        } catch (IOException e) {
+            System.err.println("Erro ao gravar histórico de mensagens, linhas antigas serão descartadas: " + e.getMessage());
+            abandonarDisco();
+            return false;
+        }
+    }
+
+    private String[] lerPagina(int pagina) {
+        Segmento segmento = segmentos.get(pagina / PAGINAS_POR_SEGMENTO);
+        int paginaNoSegmento = pagina % PAGINAS_POR_SEGMENTO;
+        int primeira = paginaNoSegmento * LINHAS_POR_PAGINA;
+        String[] linhas = new String[Math.min(LINHAS_POR_PAGINA, segmento.linhas - primeira)];
+        try {
+            if (segmento == segmentos.get(segmentos.size() - 1)) {
+                escrita.flush();
+            }
+            int inicio = segmento.inicioPagina[paginaNoSegmento];
+            int fim = primeira + LINHAS_POR_PAGINA < segmento.linhas
+                    ? segmento.inicioPagina[paginaNoSegmento + 1] : segmento.bytes;
+            byte[] bytes = new byte[fim - inicio];
+            try (RandomAccessFile arquivo = new RandomAccessFile(segmento.arquivo, "r")) {
+                arquivo.seek(inicio);
+                arquivo.readFully(bytes);
+            }
+            DataInputStream entrada = new DataInputStream(new ByteArrayInputStream(bytes));
+            for (int i = 0; i < linhas.length; i++) {
+                linhas[i] = entrada.readUTF();
+            }
+        } catch (IOException e) {
+            System.err.println("Erro ao ler histórico de mensagens: " + e.getMessage());
+            Arrays.fill(linhas, "");
+        }
+        return linhas;
+    }
+
+    private void descartarSegmentoMaisAntigo() {
+        Segmento segmento = segmentos.remove(0);
+        if (!segmento.arquivo.delete()) {
+            System.err.println("Não foi possível apagar o histórico de mensagens " + segmento.arquivo);
+        }
+        linhasNoDisco -= segmento.linhas;
+        descartadas += segmento.linhas;
+        fireIntervalRemoved(this, 0, segmento.linhas - 1);
+    }
+
+    /**
+     * Apaga os arquivos de transbordo; a partir daqui o histórico fica só com as linhas em memória
+     */
+    public void fechar() {
+        int removidas = linhasNoDisco;
+        abandonarDisco();
+        if (removidas > 0) {
+            fireIntervalRemoved(this, 0, removidas - 1);
+        }
+    }
+
+    /**
+     * Depois de uma falha de gravação, o histórico fica só com as linhas em memória
+     */
+    private void abandonarDisco() {
+        semDisco = true;
+        try {
+            if (escrita != null) {
+                escrita.close();
+            }
+        } catch (IOException e) {
+            System.err.println("Erro ao fechar histórico de mensagens: " + e.getMessage());
+        }
+        escrita = null;
+        for (Segmento segmento : segmentos) {
+            segmento.arquivo.delete();
+        }
+        segmentos.clear();
+        paginas.clear();
+        descartadas += linhasNoDisco;
+        linhasNoDisco = 0;
+    }
+}
@@ -0,0 +1,90 @@
+package tieteMonitor.client;
+
+import java.awt.Component;
+import java.awt.Font;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.util.Arrays;
+import javax.swing.DefaultListCellRenderer;
+import javax.swing.JList;
+import javax.swing.JViewport;
+import javax.swing.text.Position;
+
+/**
+ * Área de mensagens somente leitura sobre um {@link HistoricoMensagens}. Cada linha tem altura
+ * fixa e a largura da janela, de modo que a lista só consulta e desenha as linhas visíveis; o
+ * texto que não cabe aparece na dica do mouse. Enquanto o usuário está no fim, a lista
+ * acompanha as mensagens novas; se ele rolou para trás, a posição é mantida.
+ */
+public class ListaMensagens extends JList<String> {
+    private static final long serialVersionUID = 1L;
+    private final HistoricoMensagens historico;
+
+    public ListaMensagens(Font fonte) {
+        this(new HistoricoMensagens(), fonte);
+    }
+
+    public ListaMensagens(HistoricoMensagens historico, Font fonte) {
+        super(historico);
+        this.historico = historico;
+        setFont(fonte);
+        // Com altura e largura fixas a lista não percorre o modelo inteiro para se dimensionar
+        setFixedCellHeight(getFontMetrics(fonte).getHeight() + 2);
+        setFixedCellWidth(1);
+        setCellRenderer(new DefaultListCellRenderer() {
+            @Override
+            public Component getListCellRendererComponent(JList<?> lista, Object valor, int indice,
+                                                          boolean selecionado, boolean foco) {
+                super.getListCellRendererComponent(lista, valor, indice, selecionado, foco);
+                String texto = (String) valor;
+                setToolTipText(getFontMetrics(getFont()).stringWidth(texto) > lista.getWidth() ? texto : null);
+                return this;
+            }
+        });
+    }
+
+    /**
+     * @param texto Uma ou mais linhas separadas por \n; a quebra final é ignorada
+     */
+    public void adicionar(String texto) {
+        if (texto.endsWith("\n")) {
+            texto = texto.substring(0, texto.length() - 1);
+        }
+        Rectangle visivel = getVisibleRect();
+        boolean noFim = visivel.y + visivel.height >= getHeight() - getFixedCellHeight();
+        String[] linhas = texto.split("\n", -1);
+        int antes = historico.getSize();
+        historico.adicionar(Arrays.asList(linhas));
+        if (noFim) {
+            ensureIndexIsVisible(historico.getSize() - 1);
+            return;
+        }
+        // O histórico pode ter descartado linhas do início: mantém as mesmas linhas na vista
+        int descartadas = antes + linhas.length - historico.getSize();
+        if (descartadas > 0 && getParent() instanceof JViewport) {
+            JViewport vista = (JViewport) getParent();
+            Point posicao = vista.getViewPosition();
+            posicao.y = Math.max(0, posicao.y - descartadas * getFixedCellHeight());
+            revalidate();
+            vista.validate();
+            vista.setViewPosition(posicao);
+        }
+    }
+
+    public HistoricoMensagens getHistorico() {
+        return historico;
+    }
+
+    @Override
+    public boolean getScrollableTracksViewportWidth() {
+        return true;
+    }
+
+    /**
+     * A busca pela tecla digitada percorreria o histórico em disco
+     */
+    @Override
+    public int getNextMatch(String prefixo, int inicio, Position.Bias direcao) {
+        return -1;
+    }
+}
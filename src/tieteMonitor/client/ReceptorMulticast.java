@@ -0,0 +1,223 @@
+package tieteMonitor.client;
+
+import java.io.IOException;
+import java.util.*;
+import tieteMonitor.util.MulticastManager;
+
+/**
+ * Recepção das mensagens dos tópicos assinados pelos grupos multicast do servidor.
+ * Ao receber o primeiro datagrama de um grupo o cliente avisa o servidor, que confirma a
+ * partir de qual sequência deixa de mandar a cópia por TCP. Lacunas na sequência (ou um
+ * batimento adiante da última mensagem) são pedidas de volta ao servidor, que as reenvia
+ * por TCP e, se as perdas persistirem, devolve o tópico ao envio por TCP.
+ */
+public class ReceptorMulticast {
+    private static final int IDS_LEMBRADOS = 16384;
+
+    /**
+     * Ligação com a conexão TCP do cliente
+     */
+    public interface Ouvinte {
+        /**
+         * @param mensagem Mensagem no mesmo formato recebido por TCP
+         */
+        void mensagemRecebida(String mensagem);
+
+        /**
+         * @param comando Comando a enviar ao servidor pela conexão TCP
+         */
+        void enviarComando(String comando);
+    }
+
+    private static class Canal {
+        final String endereco;
+        long ultimaSequencia = -1;
+        // Mensagens até esta sequência chegam por TCP; -1 enquanto o servidor não confirmar
+        long confirmada = -1;
+        // Após a desativação, última sequência ainda enviada por multicast
+        long limite = Long.MAX_VALUE;
+        boolean anunciado;
+
+        Canal(String endereco) {
+            this.endereco = endereco;
+        }
+    }
+
+    private final MulticastManager multicast;
+    private final Map<String, String> enderecos = new LinkedHashMap<>();
+    private final Map<String, Canal> canais = new HashMap<>();
+    private final Set<String> desativados = new HashSet<>();
+    private final String nomeProprio;
+    private final Ouvinte ouvinte;
+    private final Map<Long, Boolean> idsRecentes = new LinkedHashMap<Long, Boolean>(256, 0.75f, false) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Boolean> maisAntigo) {
+            return size() > IDS_LEMBRADOS;
+        }
+    };
+
+    /**
+     * @param descricaoGrupos Conteúdo de GRUPOS_MULTICAST: topico=endereco,topico=endereco|porta
+     * @param nomeProprio Nome deste inspetor (suas próprias mensagens são descartadas)
+     * @param ouvinte Destino das mensagens e dos comandos para o servidor
+     */
+    public ReceptorMulticast(String descricaoGrupos, String nomeProprio, Ouvinte ouvinte) throws IOException {
+        String[] partes = descricaoGrupos.split("\\|");
+        for (String grupo : partes[0].split(",")) {
+            String[] topicoEndereco = grupo.split("=", 2);
+            if (topicoEndereco.length == 2) {
+                enderecos.put(topicoEndereco[0], topicoEndereco[1]);
+            }
+        }
+        if (enderecos.isEmpty() || partes.length < 2) {
+            throw new IOException("Descrição de grupos inválida: " + descricaoGrupos);
+        }
+        this.nomeProprio = nomeProprio;
+        this.ouvinte = ouvinte;
+        // O primeiro grupo ("todos") é assinado por todos e fica aberto durante toda a conexão
+        Map.Entry<String, String> primeiro = enderecos.entrySet().iterator().next();
+        multicast = new MulticastManager(primeiro.getValue(), Integer.parseInt(partes[1].trim()),
+                (String datagrama) -> receber(datagrama));
+        canais.put(primeiro.getKey(), new Canal(primeiro.getValue()));
+        multicast.iniciarRecepcao();
+    }
+
+    /**
+     * Entra nos grupos dos tópicos assinados e sai dos demais
+     * @param assinados Tópicos confirmados pelo servidor ("*" para todos os locais)
+     */
+    public synchronized void atualizarTopicos(Collection<String> assinados) {
+        String primeiro = enderecos.keySet().iterator().next();
+        for (Map.Entry<String, String> entrada : enderecos.entrySet()) {
+            String topico = entrada.getKey();
+            boolean desejado = topico.equals(primeiro) || assinados.contains(topico) || assinados.contains("*");
+            try {
+                if (desejado && !canais.containsKey(topico) && !desativados.contains(topico)) {
+                    multicast.entrarGrupo(entrada.getValue());
+                    canais.put(topico, new Canal(entrada.getValue()));
+                } else if (!desejado && canais.containsKey(topico)) {
+                    multicast.sairGrupo(entrada.getValue());
+                    canais.remove(topico);
+                }
+            } catch (IOException e) {
+                System.err.println("Erro ao alterar grupo multicast de " + topico + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * @param topico Tópico confirmado pelo servidor
+     * @param sequencia Última sequência enviada por TCP; as seguintes chegam por multicast
+     */
+    public synchronized void confirmar(String topico, long sequencia) {
+        Canal canal = canais.get(topico);
+        if (canal != null) {
+            canal.confirmada = sequencia;
+        }
+    }
+
+    /**
+     * O servidor voltou a enviar o tópico por TCP (perdas demais). Os datagramas até a
+     * sequência informada ainda são aguardados; depois o cliente sai do grupo até reconectar.
+     * @param topico Tópico desativado
+     * @param sequencia Última sequência enviada por multicast a este cliente
+     */
+    public synchronized void desativar(String topico, long sequencia) {
+        desativados.add(topico);
+        Canal canal = canais.get(topico);
+        if (canal != null) {
+            canal.limite = sequencia;
+            if (canal.ultimaSequencia >= sequencia || canal.confirmada < 0) {
+                encerrarCanal(topico, canal);
+            }
+        }
+    }
+
+    private void encerrarCanal(String topico, Canal canal) {
+        canais.remove(topico);
+        try {
+            multicast.sairGrupo(canal.endereco);
+        } catch (IOException e) {
+            System.err.println("Erro ao sair do grupo multicast de " + topico + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * @param reenvio Conteúdo de MULTICAST_REENVIO: id:mensagem, reenviada por TCP após uma perda
+     */
+    public synchronized void reenviada(String reenvio) {
+        int separador = reenvio.indexOf(':');
+        if (separador < 0) {
+            return;
+        }
+        try {
+            // A mesma publicação pode ter chegado por outro grupo
+            if (idsRecentes.put(Long.parseLong(reenvio.substring(0, separador)), Boolean.TRUE) == null) {
+                ouvinte.mensagemRecebida(reenvio.substring(separador + 1));
+            }
+        } catch (NumberFormatException e) {
+            System.err.println("Reenvio multicast mal formado: " + reenvio);
+        }
+    }
+
+    private synchronized void receber(String datagrama) {
+        String[] partes = datagrama.split("\\|", 6);
+        if (partes.length < 6 || !partes[0].equals("TIETE1")) {
+            return;
+        }
+        // Com vários grupos na mesma porta o sistema entrega datagramas de qualquer grupo assinado
+        Canal canal = canais.get(partes[1]);
+        if (canal == null) {
+            return;
+        }
+        long sequencia;
+        long id;
+        try {
+            sequencia = Long.parseLong(partes[2]);
+            id = Long.parseLong(partes[3]);
+        } catch (NumberFormatException e) {
+            return;
+        }
+        if (canal.ultimaSequencia < 0) {
+            canal.ultimaSequencia = id == 0 ? sequencia : sequencia - 1;
+        }
+        if (!canal.anunciado) {
+            canal.anunciado = true;
+            ouvinte.enviarComando("MULTICAST_ATIVO:" + partes[1]);
+        }
+        if (id == 0) {
+            if (sequencia > canal.ultimaSequencia) {
+                pedirReenvio(partes[1], canal, canal.ultimaSequencia + 1, sequencia);
+                canal.ultimaSequencia = sequencia;
+            }
+        } else if (sequencia > canal.ultimaSequencia) {
+            if (sequencia > canal.ultimaSequencia + 1) {
+                pedirReenvio(partes[1], canal, canal.ultimaSequencia + 1, sequencia - 1);
+            }
+            canal.ultimaSequencia = sequencia;
+            if (canal.confirmada >= 0 && sequencia > canal.confirmada && sequencia <= canal.limite
+                    && !partes[4].equals(nomeProprio) && idsRecentes.put(id, Boolean.TRUE) == null) {
+                ouvinte.mensagemRecebida(partes[5]);
+            }
+        }
+        if (canal.ultimaSequencia >= canal.limite) {
+            encerrarCanal(partes[1], canal);
+        }
+    }
+
+    private void pedirReenvio(String topico, Canal canal, long de, long ate) {
+        // Antes da confirmação (e até ela) as mensagens vêm por TCP
+        if (canal.confirmada < 0) {
+            return;
+        }
+        de = Math.max(de, canal.confirmada + 1);
+        ate = Math.min(ate, canal.limite);
+        if (de <= ate) {
+            ouvinte.enviarComando("MULTICAST_PERDA:" + topico + ":" + de + ":" + ate);
+        }
+    }
+
+    public void fechar() {
+        multicast.fechar();
+    }
+}
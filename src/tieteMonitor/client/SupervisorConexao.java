@@ -0,0 +1,279 @@
+package tieteMonitor.client;
+
+import java.io.*;
+import java.net.*;
+import java.util.Random;
+
+/**
+ * Mantém a conexão do inspetor com o servidor. Quando ela cai (ou não abre), tenta de novo
+ * com espera exponencial e aleatória, para que vários clientes não voltem todos ao mesmo tempo,
+ * e a cada três falhas procura outro servidor pela descoberta. A reconexão apresenta o token
+ * da sessão (RETOMAR:token:sequência) e recebe só as mensagens perdidas na queda; se a sessão
+ * expirou, faz um login completo na mesma conexão.
+ */
+public class SupervisorConexao {
+    public static final long ESPERA_BASE_PADRAO_MS = 500;
+    public static final long ESPERA_MAXIMA_PADRAO_MS = 30000;
+    private static final int TEMPO_CONEXAO_MS = 5000;
+    // O servidor manda batimentos a cada 15 s na conexão ociosa
+    private static final int TEMPO_LEITURA_MS = 45000;
+    private static final int MENSAGENS_POR_CONFIRMACAO = 50;
+    private static final int FALHAS_ANTES_DA_DESCOBERTA = 3;
+
+    /**
+     * Destino dos eventos da conexão; todos executam na thread do supervisor
+     */
+    public interface Ouvinte {
+        /**
+         * @param socket Nova conexão
+         * @param saida Canal de saída para o servidor, a ser usado daqui em diante
+         * @param sessaoRetomada true se o servidor reenviou o que se perdeu; false num login completo
+         */
+        void conectado(Socket socket, DataOutputStream saida, boolean sessaoRetomada);
+
+        /**
+         * @param mensagem Mensagem do servidor, na ordem de envio
+         */
+        void mensagemRecebida(String mensagem);
+
+        /**
+         * @param motivo Causa da queda ou da falha
+         * @param tentativa Número de tentativas seguidas sem sucesso
+         * @param esperaMs Tempo até a próxima tentativa
+         */
+        void desconectado(String motivo, int tentativa, long esperaMs);
+    }
+
+    private final String nome;
+    private final String local;
+    private final Ouvinte ouvinte;
+    private final long esperaBaseMs;
+    private final long esperaMaximaMs;
+    private final Random aleatorio = new Random();
+    private volatile String host;
+    private volatile int porta;
+    private volatile boolean encerrado;
+    private volatile Socket socket;
+    private volatile DataOutputStream saida;
+    private Thread thread;
+    // Token da sessão atual e última sequência recebida nela (acessados só pela thread do supervisor)
+    private String token;
+    private long recebidas;
+    private long confirmadas;
+
+    /**
+     * @param host Endereço do servidor
+     * @param porta Porta do servidor
+     * @param nome Nome do inspetor
+     * @param local Local monitorado
+     * @param ouvinte Destino dos eventos da conexão
+     */
+    public SupervisorConexao(String host, int porta, String nome, String local, Ouvinte ouvinte) {
+        this(host, porta, nome, local, ouvinte,
+                Long.getLong("tiete.reconexao.base.ms", ESPERA_BASE_PADRAO_MS),
+                Long.getLong("tiete.reconexao.maxima.ms", ESPERA_MAXIMA_PADRAO_MS));
+    }
+
+    /**
+     * @param esperaBaseMs Espera média antes da primeira nova tentativa
+     * @param esperaMaximaMs Limite da espera, por mais tentativas que falhem
+     */
+    public SupervisorConexao(String host, int porta, String nome, String local, Ouvinte ouvinte,
+                             long esperaBaseMs, long esperaMaximaMs) {
+        this.host = host;
+        this.porta = porta;
+        this.nome = nome;
+        this.local = local;
+        this.ouvinte = ouvinte;
+        this.esperaBaseMs = esperaBaseMs;
+        this.esperaMaximaMs = esperaMaximaMs;
+    }
+
+    public synchronized void iniciar() {
+        if (thread == null) {
+            thread = new Thread(this::supervisionar, "supervisor-conexao");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getPorta() {
+        return porta;
+    }
+
+    /**
+     * @return Canal de saída da conexão atual (ou da última, se caída), ou null antes da primeira
+     */
+    public DataOutputStream getSaida() {
+        return saida;
+    }
+
+    /**
+     * Avisa o servidor (SAIR), para que a sessão não fique aguardando retomada, e para de reconectar
+     */
+    public void encerrar() {
+        encerrado = true;
+        DataOutputStream atual = saida;
+        if (atual != null) {
+            try {
+                synchronized (atual) {
+                    atual.writeUTF("SAIR");
+                }
+            } catch (IOException e) {
+                System.err.println("Erro ao avisar saída ao servidor: " + e.getMessage());
+            }
+        }
+        fechar(socket);
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    /**
+     * Espera exponencial com metade aleatória: entre E/2 e E, com E = base * 2^(tentativa - 1)
+     * limitado à espera máxima
+     * @param tentativa Tentativas seguidas sem sucesso (1 para a primeira nova tentativa)
+     */
+    long calcularEspera(int tentativa) {
+        long teto = esperaBaseMs << Math.min(tentativa - 1, 20);
+        teto = Math.min(esperaMaximaMs, Math.max(esperaBaseMs, teto));
+        long metade = teto / 2;
+        return metade + (long) (aleatorio.nextDouble() * (teto - metade));
+    }
+
+    private void supervisionar() {
+        int tentativa = 0;
+        while (!encerrado) {
+            String motivo;
+            try {
+                motivo = conectarUmaVez();
+                tentativa = 0;
+            } catch (IOException e) {
+                motivo = descrever(e);
+            }
+            if (encerrado) {
+                break;
+            }
+            tentativa++;
+            if (tentativa % FALHAS_ANTES_DA_DESCOBERTA == 0) {
+                procurarOutroServidor();
+            }
+            long espera = calcularEspera(tentativa);
+            ouvinte.desconectado(motivo, tentativa, espera);
+            try {
+                Thread.sleep(espera);
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+    }
+
+    private void procurarOutroServidor() {
+        DescobertaServidores.ServidorAnunciado descoberto = DescobertaServidores.descobrirMenosCarregado();
+        if (descoberto != null && !(descoberto.getIp().equals(host) && descoberto.getPorta() == porta)) {
+            System.out.println("Tentando outro servidor: " + descoberto);
+            host = descoberto.getIp();
+            porta = descoberto.getPorta();
+        }
+    }
+
+    /**
+     * Abre uma conexão, autentica (retomando a sessão se possível) e lê as mensagens até ela cair
+     * @return Causa da queda da conexão estabelecida
+     * @throws IOException Se a conexão não chegou a ser estabelecida
+     */
+    private String conectarUmaVez() throws IOException {
+        Socket conexao = new Socket();
+        socket = conexao;
+        try {
+            conexao.connect(new InetSocketAddress(host, porta), TEMPO_CONEXAO_MS);
+            conexao.setSoTimeout(TEMPO_LEITURA_MS);
+            conexao = ConexaoServidor.proteger(conexao, host, porta);
+            socket = conexao;
+            DataInputStream entrada = new DataInputStream(new BufferedInputStream(conexao.getInputStream()));
+            DataOutputStream novaSaida = new DataOutputStream(conexao.getOutputStream());
+            boolean retomada = false;
+            if (token != null) {
+                novaSaida.writeUTF("RETOMAR:" + token + ":" + recebidas);
+                retomada = entrada.readUTF().equals("RETOMANDO");
+            }
+            if (!retomada) {
+                token = null;
+                novaSaida.writeUTF(nome);
+                novaSaida.writeUTF(local);
+                String resposta;
+                // Avisos de presença podem chegar antes das boas-vindas; uma mensagem do Sistema é recusa
+                while (!(resposta = entrada.readUTF()).startsWith("BEMVINDO:")) {
+                    if (resposta.startsWith("CHAT:MSG_DE:Sistema:")) {
+                        throw new IOException("Login recusado: " + resposta.substring(20));
+                    }
+                }
+            }
+            saida = novaSaida;
+            ouvinte.conectado(conexao, novaSaida, retomada);
+            try {
+                receber(entrada, novaSaida, retomada);
+                return "conexão encerrada";
+            } catch (IOException e) {
+                return "conexão perdida (" + descrever(e) + ")";
+            }
+        } finally {
+            fechar(conexao);
+        }
+    }
+
+    private static String descrever(IOException e) {
+        return e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+    }
+
+    private void receber(DataInputStream entrada, DataOutputStream saidaAtual, boolean retomada) throws IOException {
+        // Só mensagens posteriores a SESSAO (ou à retomada) entram na contagem
+        boolean contando = retomada;
+        while (!encerrado) {
+            String mensagem = entrada.readUTF();
+            if (mensagem.startsWith("SESSAO:")) {
+                token = mensagem.substring(7);
+                recebidas = 0;
+                confirmadas = 0;
+                contando = true;
+                continue;
+            } else if (mensagem.startsWith("RETOMADA:")) {
+                recebidas = Long.parseLong(mensagem.substring(9));
+                continue;
+            } else if (mensagem.equals("BATIMENTO")) {
+                confirmar(saidaAtual);
+                continue;
+            } else if (mensagem.startsWith("LOCAL:")) {
+                continue;
+            }
+            if (contando) {
+                recebidas++;
+            }
+            ouvinte.mensagemRecebida(mensagem);
+            if (contando && recebidas - confirmadas >= MENSAGENS_POR_CONFIRMACAO) {
+                confirmar(saidaAtual);
+            }
+        }
+    }
+
+    private void confirmar(DataOutputStream saidaAtual) throws IOException {
+        synchronized (saidaAtual) {
+            saidaAtual.writeUTF("ACK:" + recebidas);
+        }
+        confirmadas = recebidas;
+    }
+
+    private static void fechar(Socket conexao) {
+        if (conexao != null) {
+            try {
+                conexao.close();
+            } catch (IOException e) {
+                System.err.println("Erro ao fechar conexão: " + e.getMessage());
+            }
+        }
+    }
+}
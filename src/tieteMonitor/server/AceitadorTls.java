@@ -0,0 +1,594 @@
+package tieteMonitor.server;
+
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import javax.net.ssl.*;
+
+/**
+ * Conexões TLS dos inspetores com SSLEngine. A aceitação e o handshake são feitos sem bloqueio
+ * por uma única thread com Selector, e as tarefas pesadas do handshake (assinatura, troca de
+ * chaves) por um pool com uma thread por núcleo: um handshake lento ou abandonado não prende
+ * thread nenhuma. Só com o handshake concluído a conexão é entregue ao servidor, já em modo
+ * bloqueante, como um Socket cujos fluxos cifram e decifram na própria thread do cliente (como
+ * um SSLSocket faria), sem passar de novo pelo seletor.
+ *
+ * A retomada de sessão vem do SSLContext (tíquetes no TLS 1.3, cache de sessões no TLS 1.2);
+ * um handshake conta como retomado quando a sessão negociada é anterior à conexão.
+ * Handshakes que não terminam em {@link #TEMPO_HANDSHAKE_MS} são descartados.
+ */
+public class AceitadorTls {
+    public static final int TEMPO_HANDSHAKE_MS = 10000;
+    private static final ByteBuffer VAZIO = ByteBuffer.allocate(0);
+
+    private final SSLContext contexto;
+    private final Consumer<Socket> destino;
+    private final ServerSocketChannel escuta;
+    private final Selector seletor;
+    private final ExecutorService tarefas;
+    // Conexões com as tarefas do handshake concluídas, a retomar pelo seletor
+    private final Queue<ConexaoTls> prontas = new ConcurrentLinkedQueue<>();
+    // Só a thread do seletor usa: conexões em handshake e as que saem do seletor nesta volta
+    private final Set<ConexaoTls> emHandshake = new HashSet<>();
+    private final List<ConexaoTls> paraEntregar = new ArrayList<>();
+    private final AtomicInteger abertas = new AtomicInteger();
+    private final LongAdder completos;
+    private final LongAdder retomados;
+    private final LongAdder falhas;
+    private final MetricasServidor.Histograma duracaoHandshake;
+    private volatile boolean ativo = true;
+
+    /**
+     * @param porta Porta TLS (0 escolhe uma livre)
+     * @param contexto Contexto com a chave e o certificado do servidor
+     * @param destino Recebe cada conexão com o handshake concluído, na thread do seletor
+     */
+    public AceitadorTls(int porta, SSLContext contexto, MetricasServidor metricas, Consumer<Socket> destino) throws IOException {
+        this.contexto = contexto;
+        this.destino = destino;
+        this.completos = metricas.contador("tiete_tls_handshakes_total{tipo=\"completo\"}");
+        this.retomados = metricas.contador("tiete_tls_handshakes_total{tipo=\"retomado\"}");
+        this.falhas = metricas.contador("tiete_tls_handshakes_falhos_total");
+        this.duracaoHandshake = metricas.histograma("tiete_tls_handshake_segundos");
+        metricas.medidor("tiete_tls_conexoes", abertas::get);
+        tarefas = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), r -> {
+            Thread thread = new Thread(r, "tarefas-tls");
+            thread.setDaemon(true);
+            return thread;
+        });
+        escuta = ServerSocketChannel.open();
+        escuta.bind(new InetSocketAddress(porta), 512);
+        escuta.configureBlocking(false);
+        seletor = Selector.open();
+        escuta.register(seletor, SelectionKey.OP_ACCEPT);
+    }
+
+    public int getPorta() {
+        return escuta.socket().getLocalPort();
+    }
+
+    /**
+     * @return true se a conexão foi entregue por um AceitadorTls
+     */
+    static boolean isTls(Socket conexao) {
+        return conexao instanceof ConexaoTls;
+    }
+
+    public void iniciar() {
+        Thread thread = new Thread(this::atender, "aceitador-tls");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void fechar() {
+        ativo = false;
+        tarefas.shutdownNow();
+        seletor.wakeup();
+    }
+
+    private void atender() {
+        while (ativo) {
+            try {
+                seletor.select(1000);
+                // As chaves canceladas na volta anterior já saíram do seletor
+                for (ConexaoTls conexao : paraEntregar) {
+                    conexao.entregar();
+                }
+                paraEntregar.clear();
+                ConexaoTls pronta;
+                while ((pronta = prontas.poll()) != null) {
+                    pronta.avancar();
+                }
+                Iterator<SelectionKey> chaves = seletor.selectedKeys().iterator();
+                while (chaves.hasNext()) {
+                    SelectionKey chave = chaves.next();
+                    chaves.remove();
+                    if (!chave.isValid()) {
+                        continue;
+                    }
+                    if (chave.isAcceptable()) {
+                        aceitar();
+                    } else {
+                        ((ConexaoTls) chave.attachment()).avancar();
+                    }
+                }
+                long agora = System.currentTimeMillis();
+                for (ConexaoTls conexao : new ArrayList<>(emHandshake)) {
+                    if (agora - conexao.inicioMs > TEMPO_HANDSHAKE_MS) {
+                        conexao.falhar();
+                    }
+                }
+            } catch (IOException e) {
+                System.err.println("Erro no aceitador TLS: " + e.getMessage());
+            }
+        }
+        for (ConexaoTls conexao : new ArrayList<>(emHandshake)) {
+            conexao.descartar();
+        }
+        try {
+            escuta.close();
+            seletor.close();
+        } catch (IOException e) {
+            System.err.println("Erro ao fechar aceitador TLS: " + e.getMessage());
+        }
+    }
+
+    private void aceitar() throws IOException {
+        SocketChannel canal;
+        while ((canal = escuta.accept()) != null) {
+            canal.configureBlocking(false);
+            // Registros pequenos (o fim do handshake, quadros de chat) saem sem esperar o ACK atrasado
+            canal.socket().setTcpNoDelay(true);
+            ConexaoTls conexao = new ConexaoTls(canal);
+            conexao.chave = canal.register(seletor, SelectionKey.OP_READ, conexao);
+            emHandshake.add(conexao);
+            abertas.incrementAndGet();
+        }
+    }
+
+    /**
+     * Uma conexão TLS. Durante o handshake só a thread do seletor (e o pool de tarefas) usa o
+     * SSLEngine e os buffers; depois da entrega, a leitura fica sob {@code leitura} e a escrita
+     * sob {@code escrita}, e as duas podem acontecer ao mesmo tempo.
+     */
+    private class ConexaoTls extends Socket {
+        private final SocketChannel canal;
+        private final InetSocketAddress remoto;
+        private final SSLEngine motor;
+        private final long inicioNanos = System.nanoTime();
+        private final long inicioMs = System.currentTimeMillis();
+        private SelectionKey chave;
+        private ByteBuffer redeEntrada;
+        private ByteBuffer redeSaida;
+        // Texto claro decifrado e ainda não lido
+        private ByteBuffer claroEntrada;
+        private volatile boolean emTarefa;
+        private boolean descartada;
+        // Depois da entrega
+        private final Object leitura = new Object();
+        private final ReentrantLock escrita = new ReentrantLock();
+        private InputStream entradaRede;
+        private OutputStream saidaRede;
+        private boolean fimEntrada;
+        private volatile boolean fechada;
+        private final InputStream entrada = new Entrada();
+        private final OutputStream saida = new Saida();
+
+        ConexaoTls(SocketChannel canal) throws IOException {
+            this.canal = canal;
+            this.remoto = (InetSocketAddress) canal.getRemoteAddress();
+            this.motor = contexto.createSSLEngine();
+            motor.setUseClientMode(false);
+            SSLSession sessao = motor.getSession();
+            redeEntrada = ByteBuffer.allocate(sessao.getPacketBufferSize());
+            redeSaida = ByteBuffer.allocate(sessao.getPacketBufferSize());
+            claroEntrada = ByteBuffer.allocate(sessao.getApplicationBufferSize());
+            motor.beginHandshake();
+        }
+
+        /**
+         * Handshake sem bloqueio: lê o que houver, decifra, cifra as respostas e envia tudo
+         * numa escrita só
+         */
+        void avancar() {
+            if (descartada || !chave.isValid()) {
+                return;
+            }
+            try {
+                boolean progresso;
+                do {
+                    progresso = false;
+                    if (redeEntrada.hasRemaining()) {
+                        int lidos = canal.read(redeEntrada);
+                        if (lidos < 0) {
+                            throw new EOFException("Conexão fechada durante o handshake");
+                        }
+                        progresso = lidos > 0;
+                    }
+                    while (passo()) {
+                        progresso = true;
+                    }
+                    if (redeSaida.position() > 0) {
+                        redeSaida.flip();
+                        progresso |= canal.write(redeSaida) > 0;
+                        redeSaida.compact();
+                    }
+                } while (progresso);
+                if (motor.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING
+                        && redeSaida.position() == 0) {
+                    // O modo bloqueante só pode ser ativado depois que o próximo select tirar a chave
+                    emHandshake.remove(this);
+                    chave.cancel();
+                    paraEntregar.add(this);
+                    seletor.wakeup();
+                    return;
+                }
+                chave.interestOps(redeSaida.position() > 0 ? SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+            } catch (IOException | RuntimeException e) {
+                falhar();
+            }
+        }
+
+        private boolean passo() throws IOException {
+            SSLEngineResult resultado;
+            switch (motor.getHandshakeStatus()) {
+                case NEED_TASK:
+                    if (!emTarefa) {
+                        emTarefa = true;
+                        tarefas.execute(() -> {
+                            Runnable tarefa;
+                            while ((tarefa = motor.getDelegatedTask()) != null) {
+                                tarefa.run();
+                            }
+                            emTarefa = false;
+                            prontas.add(this);
+                            seletor.wakeup();
+                        });
+                    }
+                    return false;
+                case NEED_WRAP:
+                    resultado = motor.wrap(VAZIO, redeSaida);
+                    if (resultado.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW && redeSaida.position() == 0) {
+                        redeSaida = ampliar(redeSaida, motor.getSession().getPacketBufferSize());
+                        return true;
+                    }
+                    return resultado.bytesProduced() > 0;
+                case NEED_UNWRAP:
+                    if (redeEntrada.position() == 0) {
+                        return false;
+                    }
+                    redeEntrada.flip();
+                    try {
+                        resultado = motor.unwrap(redeEntrada, claroEntrada);
+                    } finally {
+                        redeEntrada.compact();
+                    }
+                    switch (resultado.getStatus()) {
+                        case CLOSED:
+                            throw new EOFException("Handshake encerrado pelo cliente");
+                        case BUFFER_UNDERFLOW:
+                            if (redeEntrada.hasRemaining()) {
+                                return false;
+                            }
+                            redeEntrada = ampliar(redeEntrada, motor.getSession().getPacketBufferSize());
+                            return true;
+                        case BUFFER_OVERFLOW:
+                            claroEntrada = ampliar(claroEntrada, motor.getSession().getApplicationBufferSize());
+                            return true;
+                        default:
+                            return resultado.bytesConsumed() > 0;
+                    }
+                default:
+                    return false;
+            }
+        }
+
+        /**
+         * Na thread do seletor, com a chave já fora dele
+         */
+        void entregar() {
+            try {
+                canal.configureBlocking(true);
+                entradaRede = canal.socket().getInputStream();
+                saidaRede = canal.socket().getOutputStream();
+            } catch (IOException e) {
+                falhar();
+                return;
+            }
+            duracaoHandshake.registrar(System.nanoTime() - inicioNanos);
+            if (motor.getSession().getCreationTime() < inicioMs) {
+                retomados.increment();
+            } else {
+                completos.increment();
+            }
+            try {
+                destino.accept(this);
+            } catch (RuntimeException e) {
+                System.err.println("Erro ao entregar conexão TLS de " + remoto + ": " + e.getMessage());
+                close();
+            }
+        }
+
+        void falhar() {
+            falhas.increment();
+            descartar();
+        }
+
+        void descartar() {
+            if (descartada) {
+                return;
+            }
+            descartada = true;
+            emHandshake.remove(this);
+            abertas.decrementAndGet();
+            chave.cancel();
+            try {
+                canal.close();
+            } catch (IOException e) {
+                // Já fechado pelo outro lado
+            }
+        }
+
+        /**
+         * Decifra o que já chegou e só lê da rede (bloqueando, com o prazo de setSoTimeout)
+         * quando falta um registro completo. Chamado com {@code leitura}.
+         * @return false no fim do fluxo
+         */
+        private boolean decifrar() throws IOException {
+            while (true) {
+                SSLEngineResult resultado;
+                redeEntrada.flip();
+                try {
+                    resultado = motor.unwrap(redeEntrada, claroEntrada);
+                } finally {
+                    redeEntrada.compact();
+                }
+                responderPosHandshake(resultado.getHandshakeStatus());
+                switch (resultado.getStatus()) {
+                    case CLOSED:
+                        return false;
+                    case BUFFER_OVERFLOW:
+                        claroEntrada = ampliar(claroEntrada, motor.getSession().getApplicationBufferSize());
+                        continue;
+                    case BUFFER_UNDERFLOW:
+                        if (!redeEntrada.hasRemaining()) {
+                            redeEntrada = ampliar(redeEntrada, motor.getSession().getPacketBufferSize());
+                        }
+                        int lidos = entradaRede.read(redeEntrada.array(), redeEntrada.arrayOffset() + redeEntrada.position(),
+                                redeEntrada.remaining());
+                        if (lidos < 0) {
+                            return false;
+                        }
+                        redeEntrada.position(redeEntrada.position() + lidos);
+                        continue;
+                    default:
+                        if (resultado.bytesProduced() > 0) {
+                            return true;
+                        }
+                }
+            }
+        }
+
+        /**
+         * Mensagens do TLS depois do handshake (atualização de chaves) que pedem resposta
+         */
+        private void responderPosHandshake(SSLEngineResult.HandshakeStatus estado) throws IOException {
+            if (estado == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+                Runnable tarefa;
+                while ((tarefa = motor.getDelegatedTask()) != null) {
+                    tarefa.run();
+                }
+                estado = motor.getHandshakeStatus();
+            }
+            if (estado == SSLEngineResult.HandshakeStatus.NEED_WRAP) {
+                escrita.lock();
+                try {
+                    cifrar(VAZIO);
+                } finally {
+                    escrita.unlock();
+                }
+            }
+        }
+
+        /**
+         * Cifra tudo o que há em origem e escreve na rede. Chamado com {@code escrita}.
+         */
+        private void cifrar(ByteBuffer origem) throws IOException {
+            do {
+                SSLEngineResult resultado = motor.wrap(origem, redeSaida);
+                if (resultado.getStatus() == SSLEngineResult.Status.CLOSED && origem.hasRemaining()) {
+                    throw new SocketException("Socket closed");
+                }
+                if (resultado.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW && redeSaida.position() == 0) {
+                    redeSaida = ampliar(redeSaida, motor.getSession().getPacketBufferSize());
+                    continue;
+                }
+                if (redeSaida.position() > 0) {
+                    saidaRede.write(redeSaida.array(), redeSaida.arrayOffset(), redeSaida.position());
+                    redeSaida.clear();
+                }
+            } while (origem.hasRemaining());
+        }
+
+        public SSLSession getSessao() {
+            return motor.getSession();
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return entrada;
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return saida;
+        }
+
+        @Override
+        public InetAddress getInetAddress() {
+            return remoto.getAddress();
+        }
+
+        @Override
+        public int getPort() {
+            return remoto.getPort();
+        }
+
+        @Override
+        public SocketAddress getRemoteSocketAddress() {
+            return remoto;
+        }
+
+        @Override
+        public int getLocalPort() {
+            return getPorta();
+        }
+
+        @Override
+        public void setSoTimeout(int tempo) throws SocketException {
+            canal.socket().setSoTimeout(tempo);
+        }
+
+        @Override
+        public int getSoTimeout() throws SocketException {
+            return canal.socket().getSoTimeout();
+        }
+
+        @Override
+        public void setTcpNoDelay(boolean ativar) throws SocketException {
+            canal.socket().setTcpNoDelay(ativar);
+        }
+
+        @Override
+        public boolean isConnected() {
+            return true;
+        }
+
+        @Override
+        public boolean isClosed() {
+            return fechada;
+        }
+
+        /**
+         * Envia o close_notify se nenhuma escrita estiver em andamento e fecha o canal, o que
+         * desbloqueia leituras e escritas de outras threads, como num Socket comum
+         */
+        @Override
+        public void close() {
+            synchronized (this) {
+                if (fechada) {
+                    return;
+                }
+                fechada = true;
+            }
+            if (escrita.tryLock()) {
+                try {
+                    motor.closeOutbound();
+                    cifrar(VAZIO);
+                } catch (IOException e) {
+                    // O cliente já foi embora
+                } finally {
+                    escrita.unlock();
+                }
+            }
+            try {
+                canal.close();
+            } catch (IOException e) {
+                // Já fechado
+            }
+            abertas.decrementAndGet();
+        }
+
+        @Override
+        public String toString() {
+            return "ConexaoTls[" + remoto + "]";
+        }
+
+        private class Entrada extends InputStream {
+            @Override
+            public int read() throws IOException {
+                byte[] umByte = new byte[1];
+                return read(umByte, 0, 1) < 0 ? -1 : umByte[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] destino, int inicio, int tamanho) throws IOException {
+                if (tamanho == 0) {
+                    return 0;
+                }
+                synchronized (leitura) {
+                    if (claroEntrada.position() == 0) {
+                        if (fechada) {
+                            throw new SocketException("Socket closed");
+                        }
+                        if (fimEntrada || !decifrar()) {
+                            fimEntrada = true;
+                            return -1;
+                        }
+                    }
+                    claroEntrada.flip();
+                    int lidos = Math.min(tamanho, claroEntrada.remaining());
+                    claroEntrada.get(destino, inicio, lidos);
+                    claroEntrada.compact();
+                    return lidos;
+                }
+            }
+
+            @Override
+            public int available() {
+                synchronized (leitura) {
+                    return claroEntrada.position();
+                }
+            }
+
+            @Override
+            public void close() {
+                ConexaoTls.this.close();
+            }
+        }
+
+        private class Saida extends OutputStream {
+            @Override
+            public void write(int umByte) throws IOException {
+                write(new byte[] {(byte) umByte}, 0, 1);
+            }
+
+            /**
+             * Cada chamada vira um registro TLS (ou mais, acima de 16 KB) escrito antes de retornar
+             */
+            @Override
+            public void write(byte[] origem, int inicio, int tamanho) throws IOException {
+                if (fechada) {
+                    throw new SocketException("Socket closed");
+                }
+                escrita.lock();
+                try {
+                    cifrar(ByteBuffer.wrap(origem, inicio, tamanho));
+                } finally {
+                    escrita.unlock();
+                }
+            }
+
+            @Override
+            public void close() {
+                ConexaoTls.this.close();
+            }
+        }
+    }
+
+    private static ByteBuffer ampliar(ByteBuffer atual, int capacidade) {
+        ByteBuffer maior = ByteBuffer.allocate(Math.max(capacidade, atual.capacity() * 2));
+        atual.flip();
+        maior.put(atual);
+        return maior;
+    }
+}
@@ -0,0 +1,155 @@
+package tieteMonitor.server;
+
+import java.text.Normalizer;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+
+/**
+ * Agregador de alertas por janela de tempo.
+ * Alertas do mesmo local com texto equivalente recebidos dentro da janela são
+ * agrupados: o primeiro é repassado imediatamente e os demais são suprimidos,
+ * gerando ao fim da janela um único resumo com a contagem e os inspetores que relataram.
+ */
+public class AgregadorAlertas {
+    public static final long JANELA_PADRAO_MS = Long.getLong("tiete.alertas.janelaMs", 30000L);
+    private static final int TAMANHO_MINIMO_TERMO = 3;
+
+    private final long janelaMs;
+    private final Consumer<AlertaAgregado> emissorResumo;
+    private final Map<String, AlertaAgregado> janelasAbertas = new HashMap<>();
+    private final ScheduledExecutorService agendador;
+
+    /**
+     * Alerta agrupado dentro de uma janela
+     */
+    public static class AlertaAgregado {
+        private final String local;
+        private final String mensagem;
+        private final long inicio;
+        private final Set<String> relatores = new LinkedHashSet<>();
+        private int quantidade;
+
+        AlertaAgregado(String local, String mensagem, long inicio) {
+            this.local = local;
+            this.mensagem = mensagem;
+            this.inicio = inicio;
+        }
+
+        public String getLocal() {
+            return local;
+        }
+
+        public String getMensagem() {
+            return mensagem;
+        }
+
+        public long getInicio() {
+            return inicio;
+        }
+
+        public synchronized int getQuantidade() {
+            return quantidade;
+        }
+
+        public synchronized List<String> getRelatores() {
+            return new ArrayList<>(relatores);
+        }
+
+        synchronized void registrar(String relator) {
+            quantidade++;
+            relatores.add(relator);
+        }
+    }
+
+    /**
+     * @param janelaMs Duração da janela de agregação em milissegundos
+     * @param emissorResumo Chamado ao fim de cada janela que recebeu alertas duplicados
+     */
+    public AgregadorAlertas(long janelaMs, Consumer<AlertaAgregado> emissorResumo) {
+        this.janelaMs = janelaMs;
+        this.emissorResumo = emissorResumo;
+        this.agendador = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "agregador-alertas");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * @param local Local monitorado do inspetor que enviou o alerta
+     * @param remetente Nome do inspetor
+     * @param mensagem Texto do alerta
+     * @return true se for o primeiro alerta da janela e deve ser repassado imediatamente,
+     *         false se foi agregado a um alerta equivalente já repassado
+     */
+    public boolean registrar(String local, String remetente, String mensagem) {
+        String chave = (local != null ? local.trim().toLowerCase() : "") + "|" + impressaoDigital(mensagem);
+        AlertaAgregado agregado;
+        boolean novo = false;
+        synchronized (janelasAbertas) {
+            agregado = janelasAbertas.get(chave);
+            if (agregado == null) {
+                agregado = new AlertaAgregado(local, mensagem, System.currentTimeMillis());
+                janelasAbertas.put(chave, agregado);
+                novo = true;
+            }
+        }
+        agregado.registrar(remetente);
+        if (novo) {
+            agendador.schedule(() -> fecharJanela(chave), janelaMs, TimeUnit.MILLISECONDS);
+        }
+        return novo;
+    }
+
+    private void fecharJanela(String chave) {
+        AlertaAgregado agregado;
+        synchronized (janelasAbertas) {
+            agregado = janelasAbertas.remove(chave);
+        }
+        if (agregado != null && agregado.getQuantidade() > 1 && emissorResumo != null) {
+            try {
+                emissorResumo.accept(agregado);
+            } catch (RuntimeException e) {
+                System.err.println("Erro ao emitir resumo de alerta: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Normaliza o texto do alerta (sem acentos, minúsculas, sem pontuação) e ordena
+     * os termos distintos, de modo que relatos quase idênticos gerem a mesma impressão.
+     * Termos curtos são descartados, exceto os que têm dígitos: "pH 4" e "pH 9" são alertas diferentes.
+     * @param mensagem Texto do alerta
+     * @return Impressão digital do texto
+     */
+    static String impressaoDigital(String mensagem) {
+        if (mensagem == null) {
+            return "";
+        }
+        String normalizado = Normalizer.normalize(mensagem, Normalizer.Form.NFD)
+                .replaceAll("\\p{M}", "")
+                .toLowerCase()
+                .replaceAll("[^a-z0-9]+", " ");
+        TreeSet<String> termos = new TreeSet<>();
+        for (String termo : normalizado.split(" ")) {
+            if (termo.length() >= TAMANHO_MINIMO_TERMO || contemDigito(termo)) {
+                termos.add(termo);
+            }
+        }
+        return String.join(" ", termos);
+    }
+
+    private static boolean contemDigito(String termo) {
+        for (int i = 0; i < termo.length(); i++) {
+            if (Character.isDigit(termo.charAt(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public void encerrar() {
+        agendador.shutdownNow();
+    }
+}
@@ -0,0 +1,405 @@
+package tieteMonitor.server;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Armazenamento de séries temporais de qualidade da água por local monitorado.
+ * Cada par (local, métrica) tem um arquivo de segmentos colunares comprimidos
+ * (ver {@link SegmentoMedicoes}) e um índice com o intervalo de tempo e os agregados
+ * (mínimo, máximo, soma) de cada segmento. Consultas por intervalo usam os agregados
+ * dos segmentos inteiramente contidos e só decodificam, via leitura mapeada em memória,
+ * os segmentos das bordas. As medições ainda não consolidadas ficam num diário de
+ * cabeça que é reaplicado na inicialização. O diário começa pela quantidade de registros
+ * do índice que ele continua; se o índice já tem mais registros, a consolidação terminou
+ * antes de uma queda que impediu esvaziar o diário, e ele é descartado.
+ */
+public class ArmazenamentoMedicoes {
+    public static final String[] METRICAS = {"ph", "oxigenio", "turbidez", "temperatura"};
+    private static final int PONTOS_POR_SEGMENTO = 16384;
+    private static final int TAMANHO_REGISTRO_INDICE = 8 + 4 + 4 + 8 * 5;
+    private static final int TAMANHO_PONTO_CABECA = 8 + 8;
+    // Marca do cabeçalho do diário; diários antigos, sem cabeçalho, começam por um instante
+    private static final int MARCA_CABECA = 0x54434142;
+    private static final int TAMANHO_CABECALHO = 4 + 8;
+
+    private final File pastaBase;
+    private final Map<String, Serie> series = new HashMap<>();
+
+    /**
+     * Agregado de um intervalo consultado
+     */
+    public static class Resumo {
+        private long quantidade;
+        private double minimo = Double.POSITIVE_INFINITY;
+        private double maximo = Double.NEGATIVE_INFINITY;
+        private double soma;
+
+        void adicionar(double valor) {
+            quantidade++;
+            soma += valor;
+            if (valor < minimo) minimo = valor;
+            if (valor > maximo) maximo = valor;
+        }
+
+        void adicionar(long quantidade, double minimo, double maximo, double soma) {
+            this.quantidade += quantidade;
+            this.soma += soma;
+            if (minimo < this.minimo) this.minimo = minimo;
+            if (maximo > this.maximo) this.maximo = maximo;
+        }
+
+        public long getQuantidade() {
+            return quantidade;
+        }
+
+        public double getMinimo() {
+            return quantidade > 0 ? minimo : Double.NaN;
+        }
+
+        public double getMaximo() {
+            return quantidade > 0 ? maximo : Double.NaN;
+        }
+
+        public double getMedia() {
+            return quantidade > 0 ? soma / quantidade : Double.NaN;
+        }
+    }
+
+    private static class EntradaIndice {
+        final long posicao;
+        final int tamanho;
+        final int quantidade;
+        final long inicio;
+        final long fim;
+        final double minimo;
+        final double maximo;
+        final double soma;
+
+        EntradaIndice(long posicao, int tamanho, int quantidade, long inicio, long fim,
+                      double minimo, double maximo, double soma) {
+            this.posicao = posicao;
+            this.tamanho = tamanho;
+            this.quantidade = quantidade;
+            this.inicio = inicio;
+            this.fim = fim;
+            this.minimo = minimo;
+            this.maximo = maximo;
+            this.soma = soma;
+        }
+    }
+
+    /**
+     * Série de uma métrica num local: segmentos consolidados mais a cabeça em memória
+     */
+    private static class Serie {
+        final File arquivoDados;
+        final File arquivoIndice;
+        final File arquivoCabeca;
+        final List<EntradaIndice> indice = new ArrayList<>();
+        // Registros gravados no índice, inclusive os de segmentos ignorados
+        long registrosIndice;
+        long[] instantes = new long[PONTOS_POR_SEGMENTO];
+        double[] valores = new double[PONTOS_POR_SEGMENTO];
+        int quantidadeCabeca;
+        DataOutputStream cabeca;
+        FileChannel canalLeitura;
+
+        Serie(File pasta) {
+            this.arquivoDados = new File(pasta, "dados.seg");
+            this.arquivoIndice = new File(pasta, "indice.idx");
+            this.arquivoCabeca = new File(pasta, "cabeca.wal");
+        }
+    }
+
+    /**
+     * @param pastaBase Pasta onde as séries são gravadas (uma subpasta por local e métrica)
+     */
+    public ArmazenamentoMedicoes(File pastaBase) {
+        this.pastaBase = pastaBase;
+        if (!pastaBase.exists()) {
+            pastaBase.mkdirs();
+        }
+    }
+
+    public static boolean metricaValida(String metrica) {
+        for (String m : METRICAS) {
+            if (m.equals(metrica)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param local Chave do local monitorado
+     * @param metrica Uma das {@link #METRICAS}
+     * @param instante Instante da medição em milissegundos
+     * @param valor Valor medido
+     */
+    public void registrar(String local, String metrica, long instante, double valor) throws IOException {
+        Serie serie = obterSerie(local, metrica, true);
+        synchronized (serie) {
+            serie.cabeca.writeLong(instante);
+            serie.cabeca.writeDouble(valor);
+            serie.instantes[serie.quantidadeCabeca] = instante;
+            serie.valores[serie.quantidadeCabeca] = valor;
+            serie.quantidadeCabeca++;
+            if (serie.quantidadeCabeca == PONTOS_POR_SEGMENTO) {
+                consolidar(serie);
+            } else {
+                serie.cabeca.flush();
+            }
+        }
+    }
+
+    /**
+     * @param local Chave do local monitorado
+     * @param metrica Uma das {@link #METRICAS}
+     * @param inicio Início do intervalo (ms, inclusivo)
+     * @param fim Fim do intervalo (ms, inclusivo)
+     * @return Quantidade, mínimo, máximo e média das medições no intervalo; vazio se a série não existe
+     */
+    public Resumo consultar(String local, String metrica, long inicio, long fim) throws IOException {
+        Resumo resumo = new Resumo();
+        Serie serie = obterSerie(local, metrica, false);
+        if (serie == null) {
+            return resumo;
+        }
+        synchronized (serie) {
+            long[] instantes = null;
+            double[] valores = null;
+            for (EntradaIndice entrada : serie.indice) {
+                if (entrada.fim < inicio || entrada.inicio > fim) {
+                    continue;
+                }
+                if (entrada.inicio >= inicio && entrada.fim <= fim) {
+                    resumo.adicionar(entrada.quantidade, entrada.minimo, entrada.maximo, entrada.soma);
+                    continue;
+                }
+                if (instantes == null) {
+                    instantes = new long[PONTOS_POR_SEGMENTO];
+                    valores = new double[PONTOS_POR_SEGMENTO];
+                }
+                MappedByteBuffer mapa = serie.canalLeitura.map(FileChannel.MapMode.READ_ONLY, entrada.posicao, entrada.tamanho);
+                SegmentoMedicoes.decodificar(mapa, entrada.quantidade, instantes, valores);
+                for (int i = 0; i < entrada.quantidade; i++) {
+                    if (instantes[i] >= inicio && instantes[i] <= fim) {
+                        resumo.adicionar(valores[i]);
+                    }
+                }
+            }
+            for (int i = 0; i < serie.quantidadeCabeca; i++) {
+                if (serie.instantes[i] >= inicio && serie.instantes[i] <= fim) {
+                    resumo.adicionar(serie.valores[i]);
+                }
+            }
+        }
+        return resumo;
+    }
+
+    /**
+     * Consolida as cabeças pendentes em segmentos e fecha os arquivos.
+     */
+    public void fechar() {
+        synchronized (series) {
+            for (Serie serie : series.values()) {
+                synchronized (serie) {
+                    try {
+                        if (serie.quantidadeCabeca > 0) {
+                            consolidar(serie);
+                        }
+                        serie.cabeca.close();
+                        serie.canalLeitura.close();
+                    } catch (IOException e) {
+                        System.err.println("Erro ao fechar série " + serie.arquivoDados.getParent() + ": " + e.getMessage());
+                    }
+                }
+            }
+            series.clear();
+        }
+    }
+
+    /**
+     * @param criar false para consultas: só abre séries que já existem em disco
+     * @return A série, ou null se não existe e criar é false
+     */
+    private Serie obterSerie(String local, String metrica, boolean criar) throws IOException {
+        if (!metricaValida(metrica)) {
+            throw new IllegalArgumentException("Métrica desconhecida: " + metrica);
+        }
+        String chave = local + "/" + metrica;
+        synchronized (series) {
+            Serie serie = series.get(chave);
+            if (serie == null) {
+                File pasta = new File(new File(pastaBase, local), metrica);
+                if (!pasta.isDirectory()) {
+                    if (!criar) {
+                        return null;
+                    }
+                    pasta.mkdirs();
+                }
+                serie = new Serie(pasta);
+                abrir(serie);
+                series.put(chave, serie);
+            }
+            return serie;
+        }
+    }
+
+    private void abrir(Serie serie) throws IOException {
+        if (serie.arquivoIndice.exists()) {
+            long tamanhoDados = serie.arquivoDados.length();
+            long registros = serie.arquivoIndice.length() / TAMANHO_REGISTRO_INDICE;
+            // Registro incompleto de uma queda: descartado para que os seguintes fiquem alinhados
+            truncar(serie.arquivoIndice, registros * TAMANHO_REGISTRO_INDICE);
+            serie.registrosIndice = registros;
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(serie.arquivoIndice)))) {
+                for (long i = 0; i < registros; i++) {
+                    EntradaIndice entrada = new EntradaIndice(in.readLong(), in.readInt(), in.readInt(), in.readLong(),
+                            in.readLong(), in.readDouble(), in.readDouble(), in.readDouble());
+                    // Segmento cuja escrita não terminou antes de uma queda é ignorado
+                    if (entrada.posicao + entrada.tamanho <= tamanhoDados) {
+                        serie.indice.add(entrada);
+                    }
+                }
+            }
+        }
+        serie.canalLeitura = FileChannel.open(serie.arquivoDados.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        boolean reescrever = true;
+        if (serie.arquivoCabeca.exists()) {
+            long tamanho = serie.arquivoCabeca.length();
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(serie.arquivoCabeca)))) {
+                long inicioPontos = 0;
+                boolean descartar = false;
+                in.mark(TAMANHO_CABECALHO);
+                if (tamanho >= TAMANHO_CABECALHO && in.readInt() == MARCA_CABECA) {
+                    long registrosAntes = in.readLong();
+                    inicioPontos = TAMANHO_CABECALHO;
+                    // Segmento registrado no índice antes de uma queda que impediu esvaziar o diário
+                    descartar = serie.registrosIndice > registrosAntes;
+                    reescrever = registrosAntes != serie.registrosIndice;
+                } else {
+                    in.reset();
+                }
+                long pontos = (tamanho - inicioPontos) / TAMANHO_PONTO_CABECA;
+                // Diário antigo ou com um ponto incompleto: regravado com o cabeçalho e só os pontos inteiros
+                reescrever |= inicioPontos == 0 || tamanho != inicioPontos + pontos * TAMANHO_PONTO_CABECA;
+                for (long i = 0; !descartar && i < pontos && serie.quantidadeCabeca < PONTOS_POR_SEGMENTO; i++) {
+                    serie.instantes[serie.quantidadeCabeca] = in.readLong();
+                    serie.valores[serie.quantidadeCabeca] = in.readDouble();
+                    serie.quantidadeCabeca++;
+                }
+            }
+        }
+        if (reescrever) {
+            reescreverCabeca(serie);
+        }
+        serie.cabeca = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(serie.arquivoCabeca, true)));
+        if (serie.quantidadeCabeca == PONTOS_POR_SEGMENTO) {
+            consolidar(serie);
+        }
+    }
+
+    /**
+     * Grava o diário da cabeça com o cabeçalho e os pontos em memória num arquivo temporário
+     * e o põe no lugar do atual, para que uma queda no meio não perca os pontos
+     */
+    private static void reescreverCabeca(Serie serie) throws IOException {
+        File temporario = new File(serie.arquivoCabeca.getParentFile(), serie.arquivoCabeca.getName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporario)))) {
+            out.writeInt(MARCA_CABECA);
+            out.writeLong(serie.registrosIndice);
+            for (int i = 0; i < serie.quantidadeCabeca; i++) {
+                out.writeLong(serie.instantes[i]);
+                out.writeDouble(serie.valores[i]);
+            }
+        }
+        Files.move(temporario.toPath(), serie.arquivoCabeca.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void truncar(File arquivo, long tamanho) throws IOException {
+        if (arquivo.length() > tamanho) {
+            try (FileChannel canal = FileChannel.open(arquivo.toPath(), StandardOpenOption.WRITE)) {
+                canal.truncate(tamanho);
+            }
+        }
+    }
+
+    /**
+     * Grava a cabeça como um novo segmento ordenado por instante, registra o segmento
+     * no índice e esvazia o diário da cabeça, que passa a indicar o novo total de registros
+     * do índice.
+     */
+    private void consolidar(Serie serie) throws IOException {
+        int n = serie.quantidadeCabeca;
+        ordenarPorInstante(serie.instantes, serie.valores, n);
+        double minimo = Double.POSITIVE_INFINITY;
+        double maximo = Double.NEGATIVE_INFINITY;
+        double soma = 0;
+        for (int i = 0; i < n; i++) {
+            double v = serie.valores[i];
+            soma += v;
+            if (v < minimo) minimo = v;
+            if (v > maximo) maximo = v;
+        }
+        byte[] segmento = SegmentoMedicoes.codificar(serie.instantes, serie.valores, n);
+        long posicao = serie.canalLeitura.size();
+        ByteBuffer buffer = ByteBuffer.wrap(segmento);
+        while (buffer.hasRemaining()) {
+            serie.canalLeitura.write(buffer, posicao + buffer.position());
+        }
+        serie.canalLeitura.force(false);
+        EntradaIndice entrada = new EntradaIndice(posicao, segmento.length, n, serie.instantes[0],
+                serie.instantes[n - 1], minimo, maximo, soma);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(serie.arquivoIndice, true)))) {
+            out.writeLong(entrada.posicao);
+            out.writeInt(entrada.tamanho);
+            out.writeInt(entrada.quantidade);
+            out.writeLong(entrada.inicio);
+            out.writeLong(entrada.fim);
+            out.writeDouble(entrada.minimo);
+            out.writeDouble(entrada.maximo);
+            out.writeDouble(entrada.soma);
+        }
+        serie.indice.add(entrada);
+        serie.registrosIndice++;
+        serie.quantidadeCabeca = 0;
+        serie.cabeca.close();
+        serie.cabeca = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(serie.arquivoCabeca, false)));
+        serie.cabeca.writeInt(MARCA_CABECA);
+        serie.cabeca.writeLong(serie.registrosIndice);
+        serie.cabeca.flush();
+    }
+
+    private static void ordenarPorInstante(long[] instantes, double[] valores, int n) {
+        boolean ordenado = true;
+        for (int i = 1; i < n && ordenado; i++) {
+            ordenado = instantes[i - 1] <= instantes[i];
+        }
+        if (ordenado) {
+            return;
+        }
+        Integer[] ordem = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            ordem[i] = i;
+        }
+        Arrays.sort(ordem, Comparator.comparingLong(i -> instantes[i]));
+        long[] instantesOrdenados = new long[n];
+        double[] valoresOrdenados = new double[n];
+        for (int i = 0; i < n; i++) {
+            instantesOrdenados[i] = instantes[ordem[i]];
+            valoresOrdenados[i] = valores[ordem[i]];
+        }
+        System.arraycopy(instantesOrdenados, 0, instantes, 0, n);
+        System.arraycopy(valoresOrdenados, 0, valores, 0, n);
+    }
+}
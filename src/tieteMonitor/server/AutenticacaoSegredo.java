@@ -0,0 +1,87 @@
+package tieteMonitor.server;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Autenticação mútua entre servidores por um segredo compartilhado: cada lado envia um desafio
+ * aleatório e responde ao do outro com HMAC-SHA256 do seu papel e dos dois desafios, de modo
+ * que o segredo não passa pela rede. Usada na porta de replicação e na do cluster.
+ */
+class AutenticacaoSegredo {
+    private static final int TAMANHO_DESAFIO = 32;
+    private static final int TAMANHO_RESPOSTA = 32;
+
+    private final byte[] segredo;
+    private final SecureRandom aleatorio = new SecureRandom();
+
+    AutenticacaoSegredo(String segredo) {
+        this.segredo = segredo.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Lado que aceitou a conexão: envia um desafio, confere a resposta e responde ao desafio do outro
+     * @param papelConectado Papel de quem conectou, incluído na resposta que ele deve dar
+     * @param papelProprio Papel deste lado
+     * @return true se quem conectou conhece o segredo
+     */
+    boolean conferirQuemConectou(DataOutputStream out, DataInputStream in, String papelConectado, String papelProprio)
+            throws IOException {
+        byte[] desafio = new byte[TAMANHO_DESAFIO];
+        aleatorio.nextBytes(desafio);
+        out.write(desafio);
+        out.flush();
+        byte[] desafioOutro = new byte[TAMANHO_DESAFIO];
+        in.readFully(desafioOutro);
+        byte[] resposta = new byte[TAMANHO_RESPOSTA];
+        in.readFully(resposta);
+        if (!MessageDigest.isEqual(resposta, assinar(papelConectado, desafio, desafioOutro))) {
+            return false;
+        }
+        out.write(assinar(papelProprio, desafioOutro, desafio));
+        out.flush();
+        return true;
+    }
+
+    /**
+     * Lado que abriu a conexão: responde ao desafio recebido e confere a resposta ao seu
+     * @param papelProprio Papel deste lado
+     * @param papelAceitou Papel de quem aceitou a conexão
+     * @return true se quem aceitou conhece o segredo
+     */
+    boolean conferirQuemAceitou(DataOutputStream out, DataInputStream in, String papelProprio, String papelAceitou)
+            throws IOException {
+        byte[] desafioOutro = new byte[TAMANHO_DESAFIO];
+        in.readFully(desafioOutro);
+        byte[] desafio = new byte[TAMANHO_DESAFIO];
+        aleatorio.nextBytes(desafio);
+        out.write(desafio);
+        out.write(assinar(papelProprio, desafioOutro, desafio));
+        out.flush();
+        byte[] resposta = new byte[TAMANHO_RESPOSTA];
+        in.readFully(resposta);
+        return MessageDigest.isEqual(resposta, assinar(papelAceitou, desafio, desafioOutro));
+    }
+
+    /**
+     * HMAC-SHA256 do papel e dos dois desafios; o papel impede devolver a um lado a própria resposta
+     */
+    private byte[] assinar(String papel, byte[] primeiro, byte[] segundo) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(segredo, "HmacSHA256"));
+            mac.update(papel.getBytes(StandardCharsets.UTF_8));
+            mac.update(primeiro);
+            return mac.doFinal(segundo);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HMAC-SHA256 indisponível", e);
+        }
+    }
+}
@@ -0,0 +1,642 @@
+package tieteMonitor.server;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import tieteMonitor.util.NomeArquivo;
+
+/**
+ * Ligação entre vários servidores que compartilham os nomes de inspetores.
+ * Cada nó é identificado por host:porta (a porta dos clientes) e mantém uma ligação TCP
+ * persistente com cada um dos demais, na porta dos clientes + {@link #DESLOCAMENTO_PORTA}.
+ * A tabela de presença (inspetor -> nó) é replicada: cada nó anuncia as entradas e saídas
+ * dos seus inspetores e, ao (re)conectar, envia a lista completa. Quando a ligação com um nó
+ * cai, os inspetores dele deixam a tabela.
+ * Mensagens privadas, publicações por tópico e avisos de arquivo para inspetores de outro
+ * nó seguem pela ligação. Cada quadro é um byte com a quantidade de campos seguido dos
+ * campos em UTF; os quadros de cada ligação são enviados em lote por uma thread própria.
+ * Os nós se autenticam com o segredo compartilhado de {@code -Dtiete.cluster.segredo} (desafio e
+ * resposta com HMAC-SHA256, como na replicação); os quadros seguem sem criptografia, então a
+ * porta do cluster deve ficar numa rede interna ({@code -Dtiete.cluster.endereco}).
+ */
+public class ClusterServidores {
+    public static final int DESLOCAMENTO_PORTA = 1000;
+    private static final long INTERVALO_RECONEXAO_MS = 1000;
+    private static final int LIMITE_FILA = 100000;
+    private static final int TEMPO_APRESENTACAO_MS = 5000;
+
+    /**
+     * Ligação com o servidor local
+     */
+    public interface Ouvinte {
+        /**
+         * @param destinatario Inspetor conectado a este nó
+         * @param mensagem Mensagem no formato enviado ao cliente
+         */
+        void entregar(String destinatario, String mensagem);
+
+        /**
+         * @param topicos Tópicos da publicação feita em outro nó
+         * @param mensagem Mensagem no formato enviado ao cliente
+         */
+        void publicar(String[] topicos, String mensagem);
+
+        /**
+         * @param locais Locais a jusante de um alerta automático de outro nó
+         * @param mensagem Aviso de propagação
+         */
+        void avisarJusante(List<String> locais, String mensagem);
+
+        /**
+         * @param nome Inspetor de outro nó que entrou ou saiu
+         */
+        void presencaAlterada(String nome, boolean conectado);
+
+        /**
+         * O mesmo nome entrou antes em outro nó; o inspetor local deve ser desconectado
+         */
+        void nomeEmConflito(String nome);
+
+        /**
+         * @param nomeUnico Arquivo recebido por outro nó, disponível por {@link #buscarArquivo(String, File)}
+         */
+        void arquivoDisponivel(String nomeUnico, String nomeOriginal, String remetente);
+    }
+
+    private static class Presenca {
+        final String no;
+        final String local;
+        final long instante;
+
+        Presenca(String no, String local, long instante) {
+            this.no = no;
+            this.local = local;
+            this.instante = instante;
+        }
+
+        /**
+         * @return true se esta entrada tem precedência sobre a outra (entrou antes; empate pelo nó)
+         */
+        boolean precede(Presenca outra) {
+            return instante != outra.instante ? instante < outra.instante : no.compareTo(outra.no) < 0;
+        }
+    }
+
+    /**
+     * Envio para um dos outros nós
+     */
+    private class Ligacao implements Runnable {
+        final String no;
+        final LinkedBlockingQueue<String[]> fila = new LinkedBlockingQueue<>(LIMITE_FILA);
+        volatile boolean conectada;
+        volatile Socket socket;
+
+        Ligacao(String no) {
+            this.no = no;
+        }
+
+        void enviar(String... quadro) {
+            if (conectada && !fila.offer(quadro)) {
+                descartados.incrementAndGet();
+            }
+        }
+
+        @Override
+        public void run() {
+            while (!encerrado) {
+                try {
+                    socket = new Socket(host(no), portaCluster(no));
+                    socket.setTcpNoDelay(true);
+                    socket.setSoTimeout(TEMPO_APRESENTACAO_MS);
+                    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 65536));
+                    DataInputStream in = new DataInputStream(socket.getInputStream());
+                    out.writeUTF("NO:" + idNo);
+                    out.flush();
+                    if (!autenticacao.conferirQuemAceitou(out, in, "no:" + idNo, "no:" + no)) {
+                        System.err.println("Cluster: " + no + " não comprovou o segredo do cluster");
+                        throw new IOException("nó não autenticado");
+                    }
+                    socket.setSoTimeout(0);
+                    iniciarSincronizacao(this);
+                    System.err.println("Cluster: ligação com " + no + " estabelecida");
+                    List<String[]> lote = new ArrayList<>();
+                    while (!encerrado) {
+                        lote.add(fila.take());
+                        fila.drainTo(lote, 1024);
+                        for (String[] quadro : lote) {
+                            escreverQuadro(out, quadro);
+                        }
+                        out.flush();
+                        enviados.addAndGet(lote.size());
+                        lote.clear();
+                    }
+                } catch (IOException e) {
+                    if (conectada) {
+                        System.err.println("Cluster: ligação com " + no + " perdida: " + e.getMessage());
+                    }
+                } catch (InterruptedException e) {
+                    break;
+                } finally {
+                    conectada = false;
+                    fila.clear();
+                    fecharSocket(socket);
+                }
+                try {
+                    Thread.sleep(INTERVALO_RECONEXAO_MS);
+                } catch (InterruptedException e) {
+                    break;
+                }
+            }
+        }
+    }
+
+    private final String idNo;
+    private final List<String> membros;
+    private final Ouvinte ouvinte;
+    private final AutenticacaoSegredo autenticacao;
+    private final InetAddress enderecoEscuta;
+    private final Map<String, Ligacao> ligacoes = new LinkedHashMap<>();
+    // Tabela replicada: inspetor -> nó (inclui os deste nó)
+    private final Map<String, Presenca> presencas = new HashMap<>();
+    // Arquivos recebidos por este nó (nome único -> {original, remetente}) e dono dos demais
+    private final Map<String, String[]> arquivosLocais = new LinkedHashMap<>();
+    private final Map<String, String> donosArquivos = new ConcurrentHashMap<>();
+    // Conexão de entrada atual de cada nó; uma conexão substituída não remove presenças ao cair
+    private final Map<String, Socket> entradas = new ConcurrentHashMap<>();
+    private final AtomicLong enviados = new AtomicLong();
+    private final AtomicLong recebidos = new AtomicLong();
+    private final AtomicLong descartados = new AtomicLong();
+    private ServerSocket serverSocket;
+    private volatile boolean encerrado;
+
+    /**
+     * @param idNo host:porta deste nó (deve constar de membros)
+     * @param membros host:porta de todos os nós do cluster
+     * @param ouvinte Servidor local
+     * @param segredo Segredo compartilhado entre os nós
+     * @param enderecoEscuta Interface da porta do cluster, ou null para todas
+     */
+    public ClusterServidores(String idNo, Collection<String> membros, Ouvinte ouvinte, String segredo,
+                             InetAddress enderecoEscuta) {
+        this.idNo = idNo;
+        this.membros = new ArrayList<>(membros);
+        this.ouvinte = ouvinte;
+        this.autenticacao = new AutenticacaoSegredo(segredo);
+        this.enderecoEscuta = enderecoEscuta;
+        for (String membro : membros) {
+            if (!membro.equals(idNo)) {
+                ligacoes.put(membro, new Ligacao(membro));
+            }
+        }
+    }
+
+    /**
+     * Lê a configuração -Dtiete.cluster=host:porta,host:porta,... (todos os nós, inclusive este).
+     * O nó local é o de -Dtiete.no ou, na falta dele, o membro com a porta informada.
+     * Exige -Dtiete.cluster.segredo, igual em todos os nós; -Dtiete.cluster.endereco restringe
+     * a porta do cluster a uma interface.
+     * @param porta Porta dos clientes deste servidor
+     * @return Cluster configurado (ainda não iniciado), ou null se não há cluster
+     */
+    public static ClusterServidores criarPelaConfiguracao(int porta, Ouvinte ouvinte) {
+        String configuracao = System.getProperty("tiete.cluster", "").trim();
+        if (configuracao.isEmpty()) {
+            return null;
+        }
+        List<String> membros = new ArrayList<>();
+        for (String membro : configuracao.split(",")) {
+            if (!membro.trim().isEmpty()) {
+                membros.add(membro.trim());
+            }
+        }
+        String idNo = System.getProperty("tiete.no");
+        if (idNo == null) {
+            for (String membro : membros) {
+                if (membro.endsWith(":" + porta)) {
+                    idNo = membro;
+                    break;
+                }
+            }
+        }
+        if (idNo == null || !membros.contains(idNo)) {
+            throw new IllegalArgumentException("Nó local não encontrado em tiete.cluster: " + configuracao);
+        }
+        String segredo = System.getProperty("tiete.cluster.segredo");
+        if (segredo == null || segredo.isEmpty()) {
+            throw new IllegalArgumentException("informe o segredo compartilhado em -Dtiete.cluster.segredo");
+        }
+        InetAddress enderecoEscuta = null;
+        String endereco = System.getProperty("tiete.cluster.endereco");
+        if (endereco != null && !endereco.trim().isEmpty()) {
+            try {
+                enderecoEscuta = InetAddress.getByName(endereco.trim());
+            } catch (UnknownHostException e) {
+                throw new IllegalArgumentException("Endereço do cluster inválido: " + endereco);
+            }
+        }
+        return new ClusterServidores(idNo, membros, ouvinte, segredo, enderecoEscuta);
+    }
+
+    /**
+     * Abre a porta do cluster e começa a conectar aos demais nós
+     */
+    public void iniciar() throws IOException {
+        serverSocket = new ServerSocket(portaCluster(idNo), 50, enderecoEscuta);
+        Thread aceitacao = new Thread(() -> {
+            while (!encerrado) {
+                try {
+                    Socket socket = serverSocket.accept();
+                    Thread leitura = new Thread(() -> receber(socket), "cluster-entrada");
+                    leitura.setDaemon(true);
+                    leitura.start();
+                } catch (IOException e) {
+                    if (!encerrado) {
+                        System.err.println("Cluster: erro ao aceitar ligação: " + e.getMessage());
+                    }
+                }
+            }
+        }, "cluster-aceitacao");
+        aceitacao.setDaemon(true);
+        aceitacao.start();
+        for (Ligacao ligacao : ligacoes.values()) {
+            Thread envio = new Thread(ligacao, "cluster-saida-" + ligacao.no);
+            envio.setDaemon(true);
+            envio.start();
+        }
+    }
+
+    public String getIdNo() {
+        return idNo;
+    }
+
+    /**
+     * @return Posição deste nó na lista de membros (igual em todos os nós)
+     */
+    public int getIndiceNo() {
+        return membros.indexOf(idNo);
+    }
+
+    /**
+     * Registra um inspetor que acabou de se conectar a este nó
+     * @return false se o nome já está em uso em algum nó
+     */
+    public synchronized boolean registrarEntrada(String nome, String local) {
+        if (presencas.containsKey(nome)) {
+            return false;
+        }
+        Presenca presenca = new Presenca(idNo, local, System.currentTimeMillis());
+        presencas.put(nome, presenca);
+        for (Ligacao ligacao : ligacoes.values()) {
+            ligacao.enviar("ENTRA", nome, local, Long.toString(presenca.instante));
+        }
+        return true;
+    }
+
+    public synchronized void registrarSaida(String nome) {
+        Presenca presenca = presencas.get(nome);
+        if (presenca == null || !presenca.no.equals(idNo)) {
+            return;
+        }
+        presencas.remove(nome);
+        for (Ligacao ligacao : ligacoes.values()) {
+            ligacao.enviar("SAI", nome);
+        }
+    }
+
+    /**
+     * @return Nó ao qual o inspetor está conectado, ou null se não está em nenhum
+     */
+    public synchronized String getNo(String nome) {
+        Presenca presenca = presencas.get(nome);
+        return presenca != null ? presenca.no : null;
+    }
+
+    /**
+     * @return Inspetores conectados aos outros nós, em ordem alfabética
+     */
+    public synchronized List<String> getInspetoresRemotos() {
+        List<String> nomes = new ArrayList<>();
+        for (Map.Entry<String, Presenca> entrada : presencas.entrySet()) {
+            if (!entrada.getValue().no.equals(idNo)) {
+                nomes.add(entrada.getKey());
+            }
+        }
+        Collections.sort(nomes);
+        return nomes;
+    }
+
+    /**
+     * @param destinatario Inspetor conectado a outro nó
+     * @param mensagem Mensagem no formato enviado ao cliente
+     * @return false se o inspetor não está em outro nó alcançável
+     */
+    public boolean enviarPrivada(String destinatario, String mensagem) {
+        String no = getNo(destinatario);
+        Ligacao ligacao = no != null ? ligacoes.get(no) : null;
+        if (ligacao == null || !ligacao.conectada) {
+            return false;
+        }
+        ligacao.enviar("PRIVADA", destinatario, mensagem);
+        return true;
+    }
+
+    /**
+     * Repassa aos outros nós uma publicação feita neste
+     */
+    public void publicar(String[] topicos, String mensagem) {
+        String listaTopicos = String.join(",", topicos);
+        for (Ligacao ligacao : ligacoes.values()) {
+            ligacao.enviar("PUBLICAR", listaTopicos, mensagem);
+        }
+    }
+
+    public void avisarJusante(List<String> locais, String mensagem) {
+        String listaLocais = String.join(",", locais);
+        for (Ligacao ligacao : ligacoes.values()) {
+            ligacao.enviar("JUSANTE", listaLocais, mensagem);
+        }
+    }
+
+    /**
+     * Anuncia aos outros nós um arquivo recebido por este, para que o listem e o busquem aqui
+     */
+    public synchronized void anunciarArquivo(String nomeUnico, String nomeOriginal, String remetente) {
+        arquivosLocais.put(nomeUnico, new String[]{nomeOriginal, remetente});
+        for (Ligacao ligacao : ligacoes.values()) {
+            ligacao.enviar("ARQUIVO", nomeUnico, nomeOriginal, remetente);
+        }
+    }
+
+    /**
+     * Copia da pasta do nó que recebeu o arquivo, pelo mesmo pedido DOWNLOAD dos clientes
+     * @param nomeUnico Arquivo anunciado por outro nó
+     * @param pasta Pasta local de arquivos recebidos
+     * @return true se o arquivo foi copiado para a pasta
+     */
+    public boolean buscarArquivo(String nomeUnico, File pasta) {
+        String dono = donosArquivos.get(nomeUnico);
+        if (dono == null || !NomeArquivo.isSeguro(nomeUnico)) {
+            return false;
+        }
+        File destino = new File(pasta, nomeUnico);
+        File temporario = new File(pasta, nomeUnico + ".parcial");
+        try (Socket socket = new Socket(host(dono), porta(dono))) {
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            out.writeUTF("DOWNLOAD:" + nomeUnico);
+            if (!"INICIANDO_DOWNLOAD".equals(in.readUTF())) {
+                return false;
+            }
+            long tamanho = in.readLong();
+            if (tamanho <= 0) {
+                return false;
+            }
+            pasta.mkdirs();
+            try (OutputStream arquivo = new BufferedOutputStream(new FileOutputStream(temporario))) {
+                byte[] buffer = new byte[8192];
+                long restantes = tamanho;
+                while (restantes > 0) {
+                    int lidos = in.read(buffer, 0, (int) Math.min(buffer.length, restantes));
+                    if (lidos == -1) {
+                        throw new EOFException("Conexão fechada durante a cópia");
+                    }
+                    arquivo.write(buffer, 0, lidos);
+                    restantes -= lidos;
+                }
+            }
+            out.writeUTF("ARQUIVO_RECEBIDO");
+            out.flush();
+            return temporario.renameTo(destino) || destino.exists();
+        } catch (IOException e) {
+            System.err.println("Cluster: erro ao buscar arquivo " + nomeUnico + " em " + dono + ": " + e.getMessage());
+            temporario.delete();
+            return false;
+        }
+    }
+
+    /**
+     * @return Resumo para o log: nós conectados, inspetores remotos e quadros trocados
+     */
+    public String getEstatisticas() {
+        int conectados = 0;
+        for (Ligacao ligacao : ligacoes.values()) {
+            if (ligacao.conectada) {
+                conectados++;
+            }
+        }
+        return idNo + ": " + conectados + "/" + ligacoes.size() + " nó(s) conectado(s), "
+                + getInspetoresRemotos().size() + " inspetor(es) remoto(s), "
+                + enviados.get() + " quadro(s) enviado(s), " + recebidos.get() + " recebido(s), "
+                + descartados.get() + " descartado(s)";
+    }
+
+    public void fechar() {
+        encerrado = true;
+        fecharSocket(serverSocket);
+        for (Ligacao ligacao : ligacoes.values()) {
+            fecharSocket(ligacao.socket);
+        }
+        for (Socket socket : entradas.values()) {
+            fecharSocket(socket);
+        }
+    }
+
+    /**
+     * Enfileira, antes de qualquer outro quadro, a lista completa dos inspetores e
+     * arquivos deste nó; sob o mesmo bloqueio das entradas e saídas, nenhuma se perde
+     */
+    private synchronized void iniciarSincronizacao(Ligacao ligacao) {
+        ligacao.fila.clear();
+        ligacao.conectada = true;
+        ligacao.enviar("REINICIO");
+        for (Map.Entry<String, Presenca> entrada : presencas.entrySet()) {
+            Presenca presenca = entrada.getValue();
+            if (presenca.no.equals(idNo)) {
+                ligacao.enviar("ENTRA", entrada.getKey(), presenca.local, Long.toString(presenca.instante));
+            }
+        }
+        for (Map.Entry<String, String[]> arquivo : arquivosLocais.entrySet()) {
+            ligacao.enviar("ARQUIVO", arquivo.getKey(), arquivo.getValue()[0], arquivo.getValue()[1]);
+        }
+    }
+
+    private void receber(Socket socket) {
+        String no = null;
+        try {
+            // Quem não se apresenta a tempo não prende esta thread
+            socket.setSoTimeout(TEMPO_APRESENTACAO_MS);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 65536));
+            String saudacao = in.readUTF();
+            if (!saudacao.startsWith("NO:") || !ligacoes.containsKey(saudacao.substring(3))) {
+                System.err.println("Cluster: ligação recusada de " + socket.getInetAddress().getHostAddress() + " (" + saudacao + ")");
+                return;
+            }
+            String anunciado = saudacao.substring(3);
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            if (!autenticacao.conferirQuemConectou(out, in, "no:" + anunciado, "no:" + idNo)) {
+                System.err.println("Cluster: ligação de " + socket.getInetAddress().getHostAddress()
+                        + " como " + anunciado + " recusada: segredo do cluster incorreto");
+                return;
+            }
+            socket.setSoTimeout(0);
+            no = anunciado;
+            fecharSocket(entradas.put(no, socket));
+            while (true) {
+                String[] quadro = lerQuadro(in);
+                recebidos.incrementAndGet();
+                tratarQuadro(no, quadro);
+            }
+        } catch (IOException e) {
+            if (no != null && !encerrado) {
+                System.err.println("Cluster: nó " + no + " desconectado"
+                        + (e.getMessage() != null ? ": " + e.getMessage() : ""));
+            }
+        } catch (RuntimeException e) {
+            System.err.println("Cluster: ligação com " + (no != null ? no : socket.getInetAddress().getHostAddress())
+                    + " encerrada por quadro inválido: " + e);
+        } finally {
+            fecharSocket(socket);
+            if (no != null && entradas.remove(no, socket)) {
+                removerPresencasDoNo(no);
+            }
+        }
+    }
+
+    /**
+     * @throws IllegalArgumentException Se o quadro não tem os campos do seu tipo
+     */
+    private void tratarQuadro(String no, String[] quadro) {
+        if (quadro.length == 0) {
+            throw new IllegalArgumentException("quadro vazio");
+        }
+        switch (quadro[0]) {
+            case "ENTRA":
+                exigirCampos(quadro, 4);
+                registrarEntradaRemota(no, quadro[1], quadro[2], Long.parseLong(quadro[3]));
+                break;
+            case "SAI":
+                exigirCampos(quadro, 2);
+                registrarSaidaRemota(no, quadro[1]);
+                break;
+            case "REINICIO":
+                removerPresencasDoNo(no);
+                break;
+            case "PRIVADA":
+                exigirCampos(quadro, 3);
+                ouvinte.entregar(quadro[1], quadro[2]);
+                break;
+            case "PUBLICAR":
+                exigirCampos(quadro, 3);
+                ouvinte.publicar(quadro[1].split(","), quadro[2]);
+                break;
+            case "JUSANTE":
+                exigirCampos(quadro, 3);
+                ouvinte.avisarJusante(Arrays.asList(quadro[1].split(",")), quadro[2]);
+                break;
+            case "ARQUIVO":
+                exigirCampos(quadro, 4);
+                if (!NomeArquivo.isSeguro(quadro[1])) {
+                    System.err.println("Cluster: arquivo com nome inválido anunciado por " + no + " ignorado: " + quadro[1]);
+                } else if (donosArquivos.put(quadro[1], no) == null) {
+                    ouvinte.arquivoDisponivel(quadro[1], quadro[2], quadro[3]);
+                }
+                break;
+            default:
+                System.err.println("Cluster: quadro desconhecido de " + no + ": " + quadro[0]);
+        }
+    }
+
+    private static void exigirCampos(String[] quadro, int quantidade) {
+        if (quadro.length < quantidade) {
+            throw new IllegalArgumentException("quadro " + quadro[0] + " com " + quadro.length
+                    + " campo(s), esperados " + quantidade);
+        }
+    }
+
+    private void registrarEntradaRemota(String no, String nome, String local, long instante) {
+        Presenca nova = new Presenca(no, local, instante);
+        boolean conflito;
+        synchronized (this) {
+            Presenca atual = presencas.get(nome);
+            if (atual != null && !nova.precede(atual)) {
+                // Quem entrou antes fica; o outro nó desconecta o seu ao receber a nossa entrada
+                return;
+            }
+            presencas.put(nome, nova);
+            conflito = atual != null && atual.no.equals(idNo);
+        }
+        if (conflito) {
+            ouvinte.nomeEmConflito(nome);
+        } else {
+            ouvinte.presencaAlterada(nome, true);
+        }
+    }
+
+    private void registrarSaidaRemota(String no, String nome) {
+        synchronized (this) {
+            Presenca atual = presencas.get(nome);
+            if (atual == null || !atual.no.equals(no)) {
+                return;
+            }
+            presencas.remove(nome);
+        }
+        ouvinte.presencaAlterada(nome, false);
+    }
+
+    private void removerPresencasDoNo(String no) {
+        List<String> removidos = new ArrayList<>();
+        synchronized (this) {
+            Iterator<Map.Entry<String, Presenca>> iterador = presencas.entrySet().iterator();
+            while (iterador.hasNext()) {
+                Map.Entry<String, Presenca> entrada = iterador.next();
+                if (entrada.getValue().no.equals(no)) {
+                    removidos.add(entrada.getKey());
+                    iterador.remove();
+                }
+            }
+        }
+        for (String nome : removidos) {
+            ouvinte.presencaAlterada(nome, false);
+        }
+    }
+
+    private static void escreverQuadro(DataOutputStream out, String[] quadro) throws IOException {
+        out.writeByte(quadro.length);
+        for (String campo : quadro) {
+            out.writeUTF(campo);
+        }
+    }
+
+    private static String[] lerQuadro(DataInputStream in) throws IOException {
+        String[] quadro = new String[in.readUnsignedByte()];
+        for (int i = 0; i < quadro.length; i++) {
+            quadro[i] = in.readUTF();
+        }
+        return quadro;
+    }
+
+    private static String host(String no) {
+        return no.substring(0, no.lastIndexOf(':'));
+    }
+
+    private static int porta(String no) {
+        return Integer.parseInt(no.substring(no.lastIndexOf(':') + 1));
+    }
+
+    private static int portaCluster(String no) {
+        return porta(no) + DESLOCAMENTO_PORTA;
+    }
+
+    private static void fecharSocket(Closeable socket) {
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // já fechado
+            }
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package tieteMonitor.server;
+
+import java.io.IOException;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Publicação das mensagens de cada tópico num grupo multicast próprio, para que
+ * inspetores na mesma rede (bases de campo, a Central) não precisem de uma cópia por TCP.
+ * Datagrama: TIETE1|topico|sequencia|id|origem|mensagem. A sequência é contínua por grupo,
+ * o que permite ao cliente detectar perdas; o id é comum aos grupos de uma mesma publicação,
+ * para descartar a cópia repetida de quem está em dois grupos. Batimentos periódicos
+ * (id 0, com a última sequência enviada) revelam perdas no fim da sequência.
+ * As últimas mensagens de cada grupo ficam guardadas para reenvio por TCP.
+ */
+public class DifusaoMulticast {
+    public static final String PREFIXO = "TIETE1";
+    public static final int PORTA = 4448;
+    private static final String ENDERECO_BASE = "230.0.";
+    private static final int TAMANHO_MAXIMO_DATAGRAMA = 8000;
+    private static final int MENSAGENS_GUARDADAS = 8192;
+
+    private final MulticastSocket socket;
+    private final int porta;
+    private final Map<String, Grupo> grupos = new LinkedHashMap<>();
+    private long proximoId = 1;
+
+    private static class Grupo {
+        final InetAddress endereco;
+        final String[] mensagens = new String[MENSAGENS_GUARDADAS];
+        final String[] origens = new String[MENSAGENS_GUARDADAS];
+        final long[] ids = new long[MENSAGENS_GUARDADAS];
+        long sequencia;
+
+        Grupo(InetAddress endereco) {
+            this.endereco = endereco;
+        }
+    }
+
+    /**
+     * @param topicos Tópicos com grupo próprio; recebem os endereços 230.0.1.1, 230.0.1.2, ...
+     * @param ttl Alcance dos datagramas em saltos de roteador (1 = somente a rede local)
+     */
+    public DifusaoMulticast(List<String> topicos, int ttl) throws IOException {
+        this(topicos, ttl, 0);
+    }
+
+    /**
+     * @param topicos Tópicos com grupo próprio
+     * @param ttl Alcance dos datagramas em saltos de roteador
+     * @param indiceNo Posição do servidor no cluster: cada nó usa os grupos 230.0.(1 + indiceNo).x
+     * e a porta {@link #PORTA} + indiceNo, para que as sequências de nós diferentes não se misturem
+     */
+    public DifusaoMulticast(List<String> topicos, int ttl, int indiceNo) throws IOException {
+        socket = new MulticastSocket();
+        socket.setTimeToLive(ttl);
+        porta = PORTA + indiceNo;
+        int indice = 1;
+        for (String topico : topicos) {
+            grupos.put(topico, new Grupo(InetAddress.getByName(ENDERECO_BASE + (1 + indiceNo) + "." + indice++)));
+        }
+    }
+
+    public synchronized boolean possuiGrupo(String topico) {
+        return grupos.containsKey(topico);
+    }
+
+    /**
+     * @return Descrição dos grupos para os clientes: topico=endereco,topico=endereco|porta
+     */
+    public synchronized String getDescricaoGrupos() {
+        StringJoiner descricao = new StringJoiner(",");
+        for (Map.Entry<String, Grupo> entrada : grupos.entrySet()) {
+            descricao.add(entrada.getKey() + "=" + entrada.getValue().endereco.getHostAddress());
+        }
+        return descricao + "|" + porta;
+    }
+
+    /**
+     * @return Última sequência enviada no grupo do tópico
+     */
+    public synchronized long getSequencia(String topico) {
+        Grupo grupo = grupos.get(topico);
+        return grupo != null ? grupo.sequencia : 0;
+    }
+
+    /**
+     * @param topicos Tópicos (com grupo) em que a mensagem é publicada
+     * @param origem Inspetor que originou a mensagem, para que ele descarte a própria cópia (ou "")
+     * @param mensagem Mensagem no mesmo formato enviado por TCP
+     * @return false se a mensagem não cabe num datagrama; nesse caso nada é registrado e os
+     * destinatários devem recebê-la por TCP
+     */
+    public synchronized boolean publicar(Collection<String> topicos, String origem, String mensagem) {
+        long id = proximoId;
+        List<DatagramPacket> pacotes = new ArrayList<>();
+        for (String topico : topicos) {
+            Grupo grupo = grupos.get(topico);
+            byte[] dados = (PREFIXO + "|" + topico + "|" + (grupo.sequencia + 1) + "|" + id + "|" + origem + "|" + mensagem)
+                    .getBytes(StandardCharsets.UTF_8);
+            if (dados.length > TAMANHO_MAXIMO_DATAGRAMA) {
+                return false;
+            }
+            pacotes.add(new DatagramPacket(dados, dados.length, grupo.endereco, porta));
+        }
+        proximoId++;
+        for (String topico : topicos) {
+            Grupo grupo = grupos.get(topico);
+            grupo.sequencia++;
+            int posicao = (int) (grupo.sequencia % MENSAGENS_GUARDADAS);
+            grupo.mensagens[posicao] = mensagem;
+            grupo.origens[posicao] = origem;
+            grupo.ids[posicao] = id;
+        }
+        // Uma falha de envio é tratada como perda: os clientes a detectam pela sequência
+        // e pedem o reenvio por TCP
+        for (DatagramPacket pacote : pacotes) {
+            try {
+                socket.send(pacote);
+            } catch (IOException e) {
+                System.err.println("Erro ao publicar por multicast: " + e.getMessage());
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param topico Tópico do grupo
+     * @param de Primeira sequência perdida
+     * @param ate Última sequência perdida
+     * @param leitor Inspetor que pede o reenvio (suas próprias mensagens são omitidas)
+     * @return Mensagens ainda guardadas do intervalo no formato id:mensagem (o id permite ao
+     * cliente descartar as que já recebeu por outro grupo), ou null se parte delas já foi descartada
+     */
+    public synchronized List<String> recuperar(String topico, long de, long ate, String leitor) {
+        Grupo grupo = grupos.get(topico);
+        if (grupo == null || de < 1 || ate > grupo.sequencia || ate - de >= MENSAGENS_GUARDADAS
+                || de <= grupo.sequencia - MENSAGENS_GUARDADAS) {
+            return null;
+        }
+        List<String> recuperadas = new ArrayList<>();
+        for (long sequencia = de; sequencia <= ate; sequencia++) {
+            int posicao = (int) (sequencia % MENSAGENS_GUARDADAS);
+            if (!leitor.equals(grupo.origens[posicao])) {
+                recuperadas.add(grupo.ids[posicao] + ":" + grupo.mensagens[posicao]);
+            }
+        }
+        return recuperadas;
+    }
+
+    /**
+     * Envia a cada grupo a última sequência publicada
+     */
+    public synchronized void enviarBatimentos() {
+        for (Map.Entry<String, Grupo> entrada : grupos.entrySet()) {
+            byte[] dados = (PREFIXO + "|" + entrada.getKey() + "|" + entrada.getValue().sequencia + "|0||")
+                    .getBytes(StandardCharsets.UTF_8);
+            try {
+                socket.send(new DatagramPacket(dados, dados.length, entrada.getValue().endereco, porta));
+            } catch (IOException e) {
+                System.err.println("Erro ao enviar batimento multicast: " + e.getMessage());
+            }
+        }
+    }
+
+    public void fechar() {
+        socket.close();
+    }
+}
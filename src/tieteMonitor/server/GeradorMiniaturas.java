@@ -0,0 +1,236 @@
+package tieteMonitor.server;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+
+/**
+ * Gera, fora das threads de rede, variantes reduzidas das fotos recebidas: uma miniatura (160 px
+ * no maior lado) e uma versão reduzida (1024 px), ambas em JPEG, gravadas ao lado do original
+ * como nomeÚnico~miniatura.jpg e nomeÚnico~reduzida.jpg e baixáveis com DOWNLOAD como qualquer
+ * arquivo. A imagem é decodificada uma só vez, já subamostrada pelo leitor até perto da versão
+ * reduzida, e a miniatura sai da reduzida. As tarefas vão para um grupo de threads
+ * (-Dtiete.miniaturas.threads, padrão um por processador) com fila limitada; passado o limite,
+ * a foto fica sem variantes.
+ */
+public class GeradorMiniaturas {
+    public static final String MINIATURA = "miniatura";
+    public static final String REDUZIDA = "reduzida";
+    public static final int LADO_MINIATURA = 160;
+    public static final int LADO_REDUZIDA = 1024;
+    private static final int LIMITE_FILA = 1000;
+    private static final float QUALIDADE_JPEG = 0.8f;
+
+    private final File pasta;
+    private final ThreadPoolExecutor executor;
+    private final AtomicLong geradas = new AtomicLong();
+    private final AtomicLong falhas = new AtomicLong();
+    private final AtomicLong nanosGeracao = new AtomicLong();
+
+    public GeradorMiniaturas(File pasta) {
+        this(pasta, Integer.getInteger("tiete.miniaturas.threads", Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * @param pasta Pasta dos arquivos recebidos
+     * @param threads Tamanho do grupo de threads
+     */
+    public GeradorMiniaturas(File pasta, int threads) {
+        this.pasta = pasta;
+        AtomicInteger numero = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(LIMITE_FILA), r -> {
+                    Thread t = new Thread(r, "miniaturas-" + numero.incrementAndGet());
+                    t.setDaemon(true);
+                    t.setPriority(Thread.MIN_PRIORITY);
+                    return t;
+                });
+    }
+
+    /**
+     * @return Nome do arquivo da variante, baixável com DOWNLOAD
+     */
+    public static String nomeVariante(String nomeUnico, String variante) {
+        return nomeUnico + "~" + variante + ".jpg";
+    }
+
+    /**
+     * @param nomeUnico Nome do arquivo na pasta (só fotos JPEG, PNG, GIF e BMP geram variantes)
+     * @return false se não é foto, se as variantes já existem ou se a fila está cheia
+     */
+    public boolean enfileirar(String nomeUnico) {
+        if (isResolvido(nomeUnico)) {
+            return false;
+        }
+        try {
+            executor.execute(() -> gerar(nomeUnico));
+            return true;
+        } catch (RejectedExecutionException e) {
+            System.err.println("Fila de miniaturas cheia; '" + nomeUnico + "' fica sem variantes");
+            return false;
+        }
+    }
+
+    /**
+     * @return true se não é foto, se as variantes já foram geradas ou se o original não existe mais
+     */
+    public boolean isResolvido(String nomeUnico) {
+        return !isFoto(nomeUnico) || new File(pasta, nomeVariante(nomeUnico, MINIATURA)).isFile()
+                || !new File(pasta, nomeUnico).isFile();
+    }
+
+    /**
+     * @return As variantes existentes com seus tamanhos, "miniatura:bytes,reduzida:bytes", ou ""
+     */
+    public String descreverVariantes(String nomeUnico) {
+        if (!isFoto(nomeUnico)) {
+            return "";
+        }
+        StringBuilder descricao = new StringBuilder();
+        for (String variante : new String[]{MINIATURA, REDUZIDA}) {
+            File arquivo = new File(pasta, nomeVariante(nomeUnico, variante));
+            if (arquivo.isFile()) {
+                if (descricao.length() > 0) {
+                    descricao.append(',');
+                }
+                descricao.append(variante).append(':').append(arquivo.length());
+            }
+        }
+        return descricao.toString();
+    }
+
+    /**
+     * Gera as variantes na thread chamadora
+     * @return false se o arquivo não pôde ser lido como imagem
+     */
+    boolean gerar(String nomeUnico) {
+        long inicio = System.nanoTime();
+        try {
+            BufferedImage imagem = lerSubamostrada(new File(pasta, nomeUnico), LADO_REDUZIDA);
+            if (imagem == null) {
+                falhas.incrementAndGet();
+                return false;
+            }
+            BufferedImage reduzida = reduzir(imagem, LADO_REDUZIDA);
+            BufferedImage miniatura = reduzir(reduzida, LADO_MINIATURA);
+            gravarJpeg(reduzida, nomeVariante(nomeUnico, REDUZIDA));
+            // A miniatura por último: a presença dela indica que as variantes estão prontas
+            gravarJpeg(miniatura, nomeVariante(nomeUnico, MINIATURA));
+            geradas.incrementAndGet();
+            return true;
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Erro ao gerar variantes de '" + nomeUnico + "': " + e.getMessage());
+            falhas.incrementAndGet();
+            return false;
+        } finally {
+            nanosGeracao.addAndGet(System.nanoTime() - inicio);
+        }
+    }
+
+    /**
+     * @return Fotos processadas, falhas, tempo médio por foto e tarefas na fila
+     */
+    public String getEstatisticas() {
+        long total = geradas.get() + falhas.get();
+        return geradas.get() + " foto(s) com variantes, " + falhas.get() + " falha(s), "
+                + (total > 0 ? nanosGeracao.get() / total / 1000000 : 0) + " ms por foto, "
+                + executor.getQueue().size() + " na fila";
+    }
+
+    public void fechar() {
+        executor.shutdown();
+    }
+
+    /**
+     * @param maiorLado Lado que a imagem lida ainda deve alcançar
+     * @return A imagem, com uma subamostragem inteira que mantém o maior lado acima de maiorLado, ou null
+     */
+    private static BufferedImage lerSubamostrada(File arquivo, int maiorLado) throws IOException {
+        try (ImageInputStream entrada = ImageIO.createImageInputStream(arquivo)) {
+            if (entrada == null) {
+                return null;
+            }
+            Iterator<ImageReader> leitores = ImageIO.getImageReaders(entrada);
+            if (!leitores.hasNext()) {
+                return null;
+            }
+            ImageReader leitor = leitores.next();
+            try {
+                leitor.setInput(entrada, true, true);
+                int lado = Math.max(leitor.getWidth(0), leitor.getHeight(0));
+                ImageReadParam parametros = leitor.getDefaultReadParam();
+                int passo = Math.max(1, lado / maiorLado);
+                parametros.setSourceSubsampling(passo, passo, 0, 0);
+                return leitor.read(0, parametros);
+            } finally {
+                leitor.dispose();
+            }
+        }
+    }
+
+    /**
+     * Redução bilinear em etapas de no máximo metade, sem canal alfa (fundo branco)
+     */
+    private static BufferedImage reduzir(BufferedImage imagem, int maiorLado) {
+        int largura = imagem.getWidth();
+        int altura = imagem.getHeight();
+        double escala = Math.min(1.0, (double) maiorLado / Math.max(largura, altura));
+        int larguraFinal = Math.max(1, (int) Math.round(largura * escala));
+        int alturaFinal = Math.max(1, (int) Math.round(altura * escala));
+        BufferedImage atual = imagem;
+        do {
+            largura = Math.max(larguraFinal, largura / 2);
+            altura = Math.max(alturaFinal, altura / 2);
+            BufferedImage proxima = new BufferedImage(largura, altura, BufferedImage.TYPE_INT_RGB);
+            Graphics2D g = proxima.createGraphics();
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.drawImage(atual, 0, 0, largura, altura, Color.WHITE, null);
+            g.dispose();
+            atual = proxima;
+        } while (largura != larguraFinal || altura != alturaFinal);
+        return atual;
+    }
+
+    /**
+     * Grava num temporário e renomeia, para a listagem nunca anunciar um arquivo incompleto
+     */
+    private void gravarJpeg(BufferedImage imagem, String nome) throws IOException {
+        File temporario = new File(pasta, nome + ".tmp");
+        ImageWriter escritor = ImageIO.getImageWritersByFormatName("jpeg").next();
+        try (ImageOutputStream saida = ImageIO.createImageOutputStream(temporario)) {
+            escritor.setOutput(saida);
+            ImageWriteParam parametros = escritor.getDefaultWriteParam();
+            parametros.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            parametros.setCompressionQuality(QUALIDADE_JPEG);
+            escritor.write(null, new IIOImage(imagem, null, null), parametros);
+        } finally {
+            escritor.dispose();
+        }
+        Files.move(temporario.toPath(), new File(pasta, nome).toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static boolean isFoto(String nome) {
+        String minusculo = nome.toLowerCase(Locale.ROOT);
+        return !minusculo.contains("~") && (minusculo.endsWith(".jpg") || minusculo.endsWith(".jpeg")
+                || minusculo.endsWith(".png") || minusculo.endsWith(".gif") || minusculo.endsWith(".bmp"));
+    }
+}
@@ -0,0 +1,606 @@
+package tieteMonitor.server;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import tieteMonitor.util.CodificacaoUTF;
+
+/**
+ * Histórico pesquisável das mensagens de chat (públicas e privadas).
+ * As mensagens são gravadas em segmentos somente de acréscimo. O segmento ativo mantém
+ * um índice invertido em memória, atualizado a cada mensagem; quando enche, o índice e o
+ * índice de tempo (instante e posição de cada mensagem) são gravados num arquivo .idx
+ * ao lado do segmento, que passa a ser lido por mapeamento de memória.
+ * As consultas percorrem os segmentos do mais recente para o mais antigo, descartando
+ * pelo intervalo de tempo antes de consultar o índice.
+ */
+public class HistoricoChat {
+    public static final String TODOS = "Todos";
+    public static final int MENSAGENS_POR_SEGMENTO_PADRAO = 20000;
+    // Termo reservado (a tokenização nunca gera ":") que indexa o local do remetente
+    private static final String TERMO_LOCAL = "local:";
+
+    private final File pasta;
+    private final int mensagensPorSegmento;
+    private final List<SegmentoSelado> selados = new ArrayList<>();
+    private SegmentoAtivo ativo;
+
+    private long consultas;
+    private long somaLatenciaNanos;
+    private long maiorLatenciaNanos;
+
+    /**
+     * Mensagem de chat registrada
+     */
+    public static class Mensagem {
+        private final long instante;
+        private final String remetente;
+        private final String destinatario;
+        private final String chaveLocal;
+        private final String texto;
+
+        Mensagem(long instante, String remetente, String destinatario, String chaveLocal, String texto) {
+            this.instante = instante;
+            this.remetente = remetente;
+            this.destinatario = destinatario;
+            this.chaveLocal = chaveLocal;
+            this.texto = texto;
+        }
+
+        public long getInstante() {
+            return instante;
+        }
+
+        public String getRemetente() {
+            return remetente;
+        }
+
+        public String getDestinatario() {
+            return destinatario;
+        }
+
+        public String getChaveLocal() {
+            return chaveLocal;
+        }
+
+        public String getTexto() {
+            return texto;
+        }
+
+        public boolean isPrivada() {
+            return !TODOS.equals(destinatario);
+        }
+
+        boolean visivelPara(String leitor) {
+            return !isPrivada() || remetente.equals(leitor) || destinatario.equals(leitor);
+        }
+    }
+
+    /**
+     * Uma página de resultados
+     */
+    public static class Pagina {
+        private final List<Mensagem> mensagens;
+        private final boolean haMais;
+        private final long latenciaMicros;
+
+        Pagina(List<Mensagem> mensagens, boolean haMais, long latenciaMicros) {
+            this.mensagens = mensagens;
+            this.haMais = haMais;
+            this.latenciaMicros = latenciaMicros;
+        }
+
+        public List<Mensagem> getMensagens() {
+            return mensagens;
+        }
+
+        public boolean isHaMais() {
+            return haMais;
+        }
+
+        public long getLatenciaMicros() {
+            return latenciaMicros;
+        }
+    }
+
+    /**
+     * Partes comuns aos segmentos ativo e selado: leitura das mensagens e índice de tempo
+     */
+    private abstract static class Segmento {
+        final int numero;
+        final RandomAccessFile leitura;
+
+        Segmento(int numero, File dados) throws IOException {
+            this.numero = numero;
+            this.leitura = new RandomAccessFile(dados, "r");
+        }
+
+        abstract int quantidade();
+
+        abstract long instante(int id);
+
+        abstract long posicao(int id);
+
+        /**
+         * @return Documentos com todos os termos, em ordem crescente
+         */
+        abstract int[] buscar(Set<String> termos);
+
+        Mensagem ler(int id) throws IOException {
+            leitura.seek(posicao(id));
+            return lerMensagem(leitura);
+        }
+
+        /**
+         * Busca binária: os instantes de um segmento são crescentes
+         */
+        int primeiroAPartirDe(long instante) {
+            int baixo = 0;
+            int alto = quantidade();
+            while (baixo < alto) {
+                int meio = (baixo + alto) >>> 1;
+                if (instante(meio) < instante) {
+                    baixo = meio + 1;
+                } else {
+                    alto = meio;
+                }
+            }
+            return baixo;
+        }
+
+        void fechar() {
+            try {
+                leitura.close();
+            } catch (IOException e) {
+                System.err.println("Erro ao fechar segmento do histórico: " + e.getMessage());
+            }
+        }
+    }
+
+    private static class SegmentoAtivo extends Segmento {
+        final IndiceInvertido indice = new IndiceInvertido();
+        final DataOutputStream saida;
+        long[] posicoes = new long[1024];
+        long[] instantes = new long[1024];
+        int quantidade;
+        long tamanho;
+
+        SegmentoAtivo(int numero, File dados, long tamanho) throws IOException {
+            super(numero, dados);
+            this.saida = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(dados, true)));
+            this.tamanho = tamanho;
+        }
+
+        void indexar(Mensagem mensagem, long posicao) {
+            if (quantidade == posicoes.length) {
+                posicoes = Arrays.copyOf(posicoes, quantidade * 2);
+                instantes = Arrays.copyOf(instantes, quantidade * 2);
+            }
+            posicoes[quantidade] = posicao;
+            // Garante a ordem crescente mesmo se o relógio do servidor retroceder
+            instantes[quantidade] = quantidade > 0 ? Math.max(mensagem.instante, instantes[quantidade - 1]) : mensagem.instante;
+            indice.adicionar(quantidade, termos(mensagem));
+            quantidade++;
+        }
+
+        @Override
+        int quantidade() {
+            return quantidade;
+        }
+
+        @Override
+        long instante(int id) {
+            return instantes[id];
+        }
+
+        @Override
+        long posicao(int id) {
+            return posicoes[id];
+        }
+
+        @Override
+        int[] buscar(Set<String> termos) {
+            return indice.buscar(termos);
+        }
+
+        /**
+         * Arquivo .idx: int quantidade, long[quantidade] posições, long[quantidade] instantes
+         * e em seguida o índice invertido (ver {@link IndiceInvertido#gravar(DataOutputStream)})
+         */
+        void gravarIndice(File arquivoIndice) throws IOException {
+            File temporario = new File(arquivoIndice.getPath() + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporario)))) {
+                out.writeInt(quantidade);
+                for (int i = 0; i < quantidade; i++) {
+                    out.writeLong(posicoes[i]);
+                }
+                for (int i = 0; i < quantidade; i++) {
+                    out.writeLong(instantes[i]);
+                }
+                indice.gravar(out);
+            }
+            Files.move(temporario.toPath(), arquivoIndice.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        @Override
+        void fechar() {
+            try {
+                saida.close();
+            } catch (IOException e) {
+                System.err.println("Erro ao fechar segmento do histórico: " + e.getMessage());
+            }
+            super.fechar();
+        }
+    }
+
+    private static class SegmentoSelado extends Segmento {
+        final MappedByteBuffer indice;
+        final int quantidade;
+        // termo -> {posição das postagens no .idx, quantidade de documentos}
+        final Map<String, int[]> dicionario = new HashMap<>();
+        final long primeiroInstante;
+        final long ultimoInstante;
+
+        SegmentoSelado(int numero, File dados, File arquivoIndice) throws IOException {
+            super(numero, dados);
+            try (FileChannel canal = FileChannel.open(arquivoIndice.toPath())) {
+                indice = canal.map(FileChannel.MapMode.READ_ONLY, 0, canal.size());
+            }
+            quantidade = indice.getInt(0);
+            primeiroInstante = quantidade > 0 ? instante(0) : Long.MAX_VALUE;
+            ultimoInstante = quantidade > 0 ? instante(quantidade - 1) : Long.MIN_VALUE;
+            DataInputStream in = new DataInputStream(new ByteBufferInputStream(indice, 4 + 16 * quantidade));
+            int posicao = 4 + 16 * quantidade;
+            int quantidadeTermos = in.readInt();
+            posicao += 4;
+            for (int t = 0; t < quantidadeTermos; t++) {
+                String termo = in.readUTF();
+                int documentos = in.readInt();
+                int tamanho = in.readInt();
+                posicao += CodificacaoUTF.tamanho(termo) + 8;
+                dicionario.put(termo, new int[]{posicao, documentos});
+                in.skipBytes(tamanho);
+                posicao += tamanho;
+            }
+        }
+
+        @Override
+        int quantidade() {
+            return quantidade;
+        }
+
+        @Override
+        long instante(int id) {
+            return indice.getLong(4 + 8 * quantidade + 8 * id);
+        }
+
+        @Override
+        long posicao(int id) {
+            return indice.getLong(4 + 8 * id);
+        }
+
+        @Override
+        int[] buscar(Set<String> termos) {
+            List<int[]> listas = new ArrayList<>();
+            for (String termo : termos) {
+                int[] entrada = dicionario.get(termo);
+                if (entrada == null) {
+                    return new int[0];
+                }
+                listas.add(IndiceInvertido.lerPostagens(indice, entrada[0], entrada[1]));
+            }
+            return IndiceInvertido.intersectar(listas);
+        }
+    }
+
+    /**
+     * Leitura sequencial de um buffer mapeado a partir de uma posição, sem copiar o arquivo
+     */
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer origem, int posicao) {
+            this.buffer = origem.duplicate();
+            this.buffer.position(posicao);
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] destino, int inicio, int tamanho) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int lidos = Math.min(tamanho, buffer.remaining());
+            buffer.get(destino, inicio, lidos);
+            return lidos;
+        }
+
+        @Override
+        public long skip(long n) {
+            int pulados = (int) Math.min(n, buffer.remaining());
+            buffer.position(buffer.position() + pulados);
+            return pulados;
+        }
+    }
+
+    /**
+     * @param pasta Pasta dos segmentos do histórico
+     */
+    public HistoricoChat(File pasta) throws IOException {
+        this(pasta, MENSAGENS_POR_SEGMENTO_PADRAO);
+    }
+
+    /**
+     * @param pasta Pasta dos segmentos do histórico
+     * @param mensagensPorSegmento Quantidade de mensagens que fecha um segmento
+     */
+    public HistoricoChat(File pasta, int mensagensPorSegmento) throws IOException {
+        if (!pasta.exists()) {
+            pasta.mkdirs();
+        }
+        this.pasta = pasta;
+        this.mensagensPorSegmento = mensagensPorSegmento;
+        carregar();
+    }
+
+    /**
+     * @param remetente Nome do inspetor que enviou
+     * @param destinatario Nome do destinatário, ou {@link #TODOS} para mensagens públicas
+     * @param chaveLocal Chave do local do remetente (ver ServidorMonitoramento.chaveLocal)
+     * @param texto Texto da mensagem
+     * @return Mensagem registrada
+     */
+    public Mensagem registrar(String remetente, String destinatario, String chaveLocal, String texto)
+            throws IOException {
+        return registrar(System.currentTimeMillis(), remetente, destinatario, chaveLocal, texto);
+    }
+
+    /**
+     * @param instante Instante original da mensagem (ms), para cópias vindas de outro servidor
+     * @return Mensagem registrada
+     */
+    public synchronized Mensagem registrar(long instante, String remetente, String destinatario, String chaveLocal,
+                                           String texto) throws IOException {
+        Mensagem mensagem = new Mensagem(instante, remetente, destinatario, chaveLocal, texto);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream registro = new DataOutputStream(bytes);
+        registro.writeLong(mensagem.instante);
+        registro.writeUTF(remetente);
+        registro.writeUTF(destinatario);
+        registro.writeUTF(chaveLocal);
+        registro.writeUTF(texto);
+        bytes.writeTo(ativo.saida);
+        ativo.saida.flush();
+        long posicao = ativo.tamanho;
+        ativo.tamanho += bytes.size();
+        ativo.indexar(mensagem, posicao);
+        if (ativo.quantidade >= mensagensPorSegmento) {
+            selarAtivo();
+        }
+        return mensagem;
+    }
+
+    /**
+     * @param primeira Posição da primeira mensagem na ordem de registro, a partir de 0
+     * @param limite Quantidade máxima de mensagens
+     * @return Mensagens a partir da posição, na ordem em que foram registradas
+     */
+    public synchronized List<Mensagem> lerAPartirDe(int primeira, int limite) throws IOException {
+        List<Mensagem> mensagens = new ArrayList<>();
+        List<Segmento> segmentos = new ArrayList<>(selados);
+        segmentos.add(ativo);
+        int inicioSegmento = 0;
+        for (Segmento segmento : segmentos) {
+            int quantidade = segmento.quantidade();
+            for (int id = Math.max(0, primeira - inicioSegmento); id < quantidade && mensagens.size() < limite; id++) {
+                mensagens.add(segmento.ler(id));
+            }
+            inicioSegmento += quantidade;
+        }
+        return mensagens;
+    }
+
+    /**
+     * @param termos Texto com as palavras que devem estar presentes (vazio para não filtrar)
+     * @param chaveLocal Chave do local do remetente, ou null para todos
+     * @param inicio Início do intervalo (ms), ou Long.MIN_VALUE
+     * @param fim Fim do intervalo (ms), ou Long.MAX_VALUE
+     * @param leitor Inspetor que consulta: mensagens privadas só aparecem para remetente e destinatário
+     * @param pagina Número da página, a partir de 0
+     * @param tamanhoPagina Mensagens por página
+     * @return Mensagens da página, da mais recente para a mais antiga
+     */
+    public synchronized Pagina consultar(String termos, String chaveLocal, long inicio, long fim, String leitor,
+                                         int pagina, int tamanhoPagina) throws IOException {
+        long inicioConsulta = System.nanoTime();
+        Set<String> termosConsulta = IndiceInvertido.tokenizar(termos);
+        if (chaveLocal != null) {
+            termosConsulta.add(TERMO_LOCAL + chaveLocal);
+        }
+        long pular = (long) pagina * tamanhoPagina;
+        List<Mensagem> encontradas = new ArrayList<>();
+        boolean haMais = false;
+
+        List<Segmento> segmentos = new ArrayList<>(selados);
+        segmentos.add(ativo);
+        for (int s = segmentos.size() - 1; s >= 0 && !haMais; s--) {
+            Segmento segmento = segmentos.get(s);
+            if (segmento instanceof SegmentoSelado) {
+                SegmentoSelado selado = (SegmentoSelado) segmento;
+                if (selado.primeiroInstante > fim) {
+                    continue;
+                }
+                if (selado.ultimoInstante < inicio) {
+                    break;
+                }
+            }
+            int primeiro = segmento.primeiroAPartirDe(inicio);
+            int ultimo = segmento.primeiroAPartirDe(fim == Long.MAX_VALUE ? fim : fim + 1) - 1;
+            if (primeiro > ultimo) {
+                continue;
+            }
+            int[] candidatos = termosConsulta.isEmpty() ? null : segmento.buscar(termosConsulta);
+            int posicaoCandidato = candidatos == null ? ultimo : candidatos.length - 1;
+            while (posicaoCandidato >= 0) {
+                int id = candidatos == null ? posicaoCandidato : candidatos[posicaoCandidato];
+                posicaoCandidato--;
+                if (id < primeiro) {
+                    break;
+                }
+                if (id > ultimo) {
+                    continue;
+                }
+                Mensagem mensagem = segmento.ler(id);
+                if (!mensagem.visivelPara(leitor)) {
+                    continue;
+                }
+                if (pular > 0) {
+                    pular--;
+                } else if (encontradas.size() < tamanhoPagina) {
+                    encontradas.add(mensagem);
+                } else {
+                    haMais = true;
+                    break;
+                }
+            }
+        }
+
+        long latencia = System.nanoTime() - inicioConsulta;
+        consultas++;
+        somaLatenciaNanos += latencia;
+        maiorLatenciaNanos = Math.max(maiorLatenciaNanos, latencia);
+        return new Pagina(encontradas, haMais, latencia / 1000);
+    }
+
+    /**
+     * @return Resumo das latências das consultas desde a inicialização
+     */
+    public synchronized String getEstatisticas() {
+        long media = consultas == 0 ? 0 : somaLatenciaNanos / consultas / 1000;
+        return consultas + " consulta(s), média " + media + " µs, máxima " + maiorLatenciaNanos / 1000 + " µs";
+    }
+
+    public synchronized int getQuantidade() {
+        int total = ativo.quantidade;
+        for (SegmentoSelado selado : selados) {
+            total += selado.quantidade;
+        }
+        return total;
+    }
+
+    public synchronized void fechar() {
+        for (SegmentoSelado selado : selados) {
+            selado.fechar();
+        }
+        ativo.fechar();
+    }
+
+    private void selarAtivo() throws IOException {
+        int numero = ativo.numero;
+        ativo.gravarIndice(arquivoIndice(numero));
+        ativo.fechar();
+        selados.add(new SegmentoSelado(numero, arquivoDados(numero), arquivoIndice(numero)));
+        ativo = reconstruir(numero + 1);
+    }
+
+    private void carregar() throws IOException {
+        TreeSet<Integer> numeros = new TreeSet<>();
+        File[] arquivos = pasta.listFiles((dir, nome) -> nome.startsWith("segmento-") && nome.endsWith(".dat"));
+        if (arquivos != null) {
+            for (File arquivo : arquivos) {
+                try {
+                    numeros.add(Integer.parseInt(arquivo.getName().substring(9, arquivo.getName().length() - 4)));
+                } catch (NumberFormatException e) {
+                    System.err.println("Arquivo ignorado no histórico: " + arquivo.getName());
+                }
+            }
+        }
+        int ultimo = numeros.isEmpty() ? 1 : numeros.last();
+        for (int numero : numeros) {
+            if (numero == ultimo) {
+                break;
+            }
+            if (!arquivoIndice(numero).exists()) {
+                // Queda durante a selagem: reconstrói o índice a partir do segmento
+                reconstruir(numero).gravarIndice(arquivoIndice(numero));
+            }
+            selados.add(new SegmentoSelado(numero, arquivoDados(numero), arquivoIndice(numero)));
+        }
+        if (arquivoIndice(ultimo).exists()) {
+            selados.add(new SegmentoSelado(ultimo, arquivoDados(ultimo), arquivoIndice(ultimo)));
+            ultimo++;
+        }
+        ativo = reconstruir(ultimo);
+    }
+
+    /**
+     * Relê um segmento sem índice gravado, descartando um registro incompleto no fim
+     */
+    private SegmentoAtivo reconstruir(int numero) throws IOException {
+        File dados = arquivoDados(numero);
+        long posicao = 0;
+        List<Mensagem> mensagens = new ArrayList<>();
+        List<Long> posicoes = new ArrayList<>();
+        if (dados.exists()) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(dados)))) {
+                while (true) {
+                    Mensagem mensagem;
+                    try {
+                        mensagem = lerMensagem(in);
+                    } catch (EOFException e) {
+                        break;
+                    }
+                    mensagens.add(mensagem);
+                    posicoes.add(posicao);
+                    posicao += 8 + CodificacaoUTF.tamanho(mensagem.remetente) + CodificacaoUTF.tamanho(mensagem.destinatario)
+                            + CodificacaoUTF.tamanho(mensagem.chaveLocal) + CodificacaoUTF.tamanho(mensagem.texto);
+                }
+            }
+            if (posicao < dados.length()) {
+                try (RandomAccessFile raf = new RandomAccessFile(dados, "rw")) {
+                    raf.setLength(posicao);
+                }
+            }
+        } else {
+            dados.createNewFile();
+        }
+        SegmentoAtivo segmento = new SegmentoAtivo(numero, dados, posicao);
+        for (int i = 0; i < mensagens.size(); i++) {
+            segmento.indexar(mensagens.get(i), posicoes.get(i));
+        }
+        return segmento;
+    }
+
+    private static Mensagem lerMensagem(DataInput in) throws IOException {
+        long instante = in.readLong();
+        String remetente = in.readUTF();
+        String destinatario = in.readUTF();
+        String chaveLocal = in.readUTF();
+        String texto = in.readUTF();
+        return new Mensagem(instante, remetente, destinatario, chaveLocal, texto);
+    }
+
+    private static Set<String> termos(Mensagem mensagem) {
+        Set<String> termos = IndiceInvertido.tokenizar(mensagem.texto);
+        termos.addAll(IndiceInvertido.tokenizar(mensagem.remetente));
+        termos.add(TERMO_LOCAL + mensagem.chaveLocal);
+        return termos;
+    }
+
+    private File arquivoDados(int numero) {
+        return new File(pasta, String.format("segmento-%06d.dat", numero));
+    }
+
+    private File arquivoIndice(int numero) {
+        return new File(pasta, String.format("segmento-%06d.idx", numero));
+    }
+}
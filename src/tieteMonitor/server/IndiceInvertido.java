@@ -0,0 +1,196 @@
+package tieteMonitor.server;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.text.Normalizer;
+import java.util.*;
+
+/**
+ * Índice invertido incremental em memória.
+ * Cada termo aponta para a lista dos documentos que o contêm, gravada como diferenças
+ * entre identificadores em varint. Os documentos devem ser adicionados com identificadores
+ * crescentes, o que permite acrescentar ao fim das listas sem reordenar nada.
+ */
+public class IndiceInvertido {
+    private static final Set<String> PALAVRAS_IGNORADAS = new HashSet<>(Arrays.asList(
+            "a", "o", "as", "os", "de", "da", "do", "das", "dos", "e", "em", "no", "na", "nos", "nas",
+            "um", "uma", "para", "por", "com", "que", "se", "ao", "aos", "ou", "foi", "sao", "ser"));
+
+    private final Map<String, Postagens> termos = new HashMap<>();
+
+    private static class Postagens {
+        byte[] dados = new byte[8];
+        int tamanho;
+        int quantidade;
+        int ultimoDocumento = -1;
+
+        void adicionar(int documento) {
+            if (documento == ultimoDocumento) {
+                return;
+            }
+            int diferenca = documento - ultimoDocumento;
+            if (tamanho + 5 > dados.length) {
+                dados = Arrays.copyOf(dados, dados.length * 2);
+            }
+            while ((diferenca & ~0x7F) != 0) {
+                dados[tamanho++] = (byte) ((diferenca & 0x7F) | 0x80);
+                diferenca >>>= 7;
+            }
+            dados[tamanho++] = (byte) diferenca;
+            ultimoDocumento = documento;
+            quantidade++;
+        }
+
+        int[] decodificar() {
+            int[] documentos = new int[quantidade];
+            int posicao = 0;
+            int documento = -1;
+            for (int i = 0; i < quantidade; i++) {
+                int diferenca = 0;
+                int deslocamento = 0;
+                byte b;
+                do {
+                    b = dados[posicao++];
+                    diferenca |= (b & 0x7F) << deslocamento;
+                    deslocamento += 7;
+                } while ((b & 0x80) != 0);
+                documento += diferenca;
+                documentos[i] = documento;
+            }
+            return documentos;
+        }
+    }
+
+    /**
+     * @param documento Identificador do documento, maior que todos os já adicionados
+     * @param termosDocumento Termos do documento (ver {@link #tokenizar(String)})
+     */
+    public synchronized void adicionar(int documento, Collection<String> termosDocumento) {
+        for (String termo : termosDocumento) {
+            termos.computeIfAbsent(termo, t -> new Postagens()).adicionar(documento);
+        }
+    }
+
+    /**
+     * @param termosConsulta Termos que devem estar todos presentes
+     * @return Documentos que contêm todos os termos, em ordem crescente
+     */
+    public synchronized int[] buscar(Collection<String> termosConsulta) {
+        List<Postagens> listas = new ArrayList<>();
+        for (String termo : termosConsulta) {
+            Postagens postagens = termos.get(termo);
+            if (postagens == null) {
+                return new int[0];
+            }
+            listas.add(postagens);
+        }
+        List<int[]> decodificadas = new ArrayList<>();
+        for (Postagens postagens : listas) {
+            decodificadas.add(postagens.decodificar());
+        }
+        return intersectar(decodificadas);
+    }
+
+    /**
+     * @param listas Listas de documentos em ordem crescente
+     * @return Documentos presentes em todas as listas, em ordem crescente
+     */
+    public static int[] intersectar(List<int[]> listas) {
+        if (listas.isEmpty()) {
+            return new int[0];
+        }
+        // Começa pela lista mais curta para que as interseções seguintes sejam baratas
+        List<int[]> ordenadas = new ArrayList<>(listas);
+        ordenadas.sort(Comparator.comparingInt(l -> l.length));
+        int[] resultado = ordenadas.get(0).clone();
+        int tamanhoResultado = resultado.length;
+        for (int l = 1; l < ordenadas.size() && tamanhoResultado > 0; l++) {
+            int[] outra = ordenadas.get(l);
+            int i = 0;
+            int j = 0;
+            int k = 0;
+            while (i < tamanhoResultado && j < outra.length) {
+                if (resultado[i] < outra[j]) {
+                    i++;
+                } else if (resultado[i] > outra[j]) {
+                    j++;
+                } else {
+                    resultado[k++] = resultado[i];
+                    i++;
+                    j++;
+                }
+            }
+            tamanhoResultado = k;
+        }
+        return Arrays.copyOf(resultado, tamanhoResultado);
+    }
+
+    /**
+     * Grava o índice no formato lido por {@link #lerPostagens(ByteBuffer, int, int)}:
+     * int quantidadeTermos e, por termo, UTF termo, int quantidade, int tamanho, bytes.
+     */
+    public synchronized void gravar(DataOutputStream out) throws IOException {
+        out.writeInt(termos.size());
+        for (Map.Entry<String, Postagens> entrada : termos.entrySet()) {
+            Postagens postagens = entrada.getValue();
+            out.writeUTF(entrada.getKey());
+            out.writeInt(postagens.quantidade);
+            out.writeInt(postagens.tamanho);
+            out.write(postagens.dados, 0, postagens.tamanho);
+        }
+    }
+
+    /**
+     * @param dados Buffer com as postagens gravadas por {@link #gravar(DataOutputStream)}
+     * @param posicao Posição do primeiro byte das postagens do termo
+     * @param quantidade Quantidade de documentos do termo
+     * @return Documentos do termo em ordem crescente
+     */
+    public static int[] lerPostagens(ByteBuffer dados, int posicao, int quantidade) {
+        int[] documentos = new int[quantidade];
+        int documento = -1;
+        for (int i = 0; i < quantidade; i++) {
+            int diferenca = 0;
+            int deslocamento = 0;
+            byte b;
+            do {
+                b = dados.get(posicao++);
+                diferenca |= (b & 0x7F) << deslocamento;
+                deslocamento += 7;
+            } while ((b & 0x80) != 0);
+            documento += diferenca;
+            documentos[i] = documento;
+        }
+        return documentos;
+    }
+
+    /**
+     * @return Quantidade de termos distintos
+     */
+    public synchronized int getQuantidadeTermos() {
+        return termos.size();
+    }
+
+    /**
+     * Normaliza o texto (minúsculas, sem acentos) e o divide em termos,
+     * descartando palavras muito comuns.
+     * @param texto Texto livre
+     * @return Termos distintos, na ordem em que aparecem
+     */
+    public static Set<String> tokenizar(String texto) {
+        Set<String> resultado = new LinkedHashSet<>();
+        if (texto == null) {
+            return resultado;
+        }
+        String normalizado = Normalizer.normalize(texto, Normalizer.Form.NFD)
+                .replaceAll("\\p{M}", "")
+                .toLowerCase();
+        for (String termo : normalizado.split("[^a-z0-9]+")) {
+            if (termo.length() > 1 && !PALAVRAS_IGNORADAS.contains(termo)) {
+                resultado.add(termo);
+            }
+        }
+        return resultado;
+    }
+}
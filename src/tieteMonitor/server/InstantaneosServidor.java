@@ -0,0 +1,491 @@
+package tieteMonitor.server;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.CRC32;
+
+/**
+ * Instantâneos do estado do servidor para um reinício rápido, na pasta estado/:
+ *
+ * catalogo.dat é o diário do catálogo (catalogo.txt) já interpretado até um deslocamento, em
+ * binário, mais a lista das fotos ainda sem variantes. Cada novo instantâneo copia byte a byte as
+ * entradas do anterior e acrescenta só o trecho novo do diário, sem tocar no catálogo em memória
+ * nem no seu bloqueio. Na partida o arquivo é mapeado em memória e só o diário depois do
+ * deslocamento é relido.
+ *
+ * sessoes.dat guarda os ids de envio já processados (para descartar reenvios das caixas de saída)
+ * e as sessões retomáveis. As sessões só são restauradas de um instantâneo gravado no
+ * encerramento e dentro da retenção: num instantâneo periódico faltariam as mensagens enviadas
+ * depois dele, e o cliente retomaria sem saber da perda.
+ *
+ * Os dois arquivos são gravados num temporário e renomeados, com CRC32 no fim; um arquivo
+ * inválido é ignorado (o catálogo volta a ser lido do diário inteiro).
+ */
+public class InstantaneosServidor {
+    public static final long INTERVALO_PADRAO_S = 60;
+    private static final int MAGICO_CATALOGO = 0x54434154;
+    private static final int MAGICO_SESSOES = 0x54534553;
+    private static final int VERSAO_FORMATO = 1;
+    // Bytes do diário antes do deslocamento conferidos na partida
+    private static final int TRECHO_CONFERIDO = 64;
+    private static final int CABECALHO_CATALOGO = 4 + 4 + 8 + 8 + 4;
+
+    /**
+     * Estado vivo do servidor lido a cada instantâneo
+     */
+    public interface Fonte {
+        /**
+         * @return Ids de envio processados, do mais antigo ao mais recente
+         */
+        List<String> envios();
+
+        List<SessaoGuardada> sessoes();
+    }
+
+    /**
+     * Sessão retomável de um inspetor
+     */
+    public static class SessaoGuardada {
+        final String nome;
+        final String local;
+        final Collection<String> topicos;
+        final SessaoCliente sessao;
+
+        public SessaoGuardada(String nome, String local, Collection<String> topicos, SessaoCliente sessao) {
+            this.nome = nome;
+            this.local = local;
+            this.topicos = topicos;
+            this.sessao = sessao;
+        }
+    }
+
+    /**
+     * Conteúdo de sessoes.dat
+     */
+    public static class Estado {
+        final long gravadoEm;
+        final boolean encerramento;
+        final List<String> envios;
+        final List<SessaoGuardada> sessoes;
+
+        Estado(long gravadoEm, boolean encerramento, List<String> envios, List<SessaoGuardada> sessoes) {
+            this.gravadoEm = gravadoEm;
+            this.encerramento = encerramento;
+            this.envios = envios;
+            this.sessoes = sessoes;
+        }
+    }
+
+    private final File pasta;
+    private final File diario;
+    private final GeradorMiniaturas miniaturas;
+    private final Fonte fonte;
+    private final ScheduledExecutorService agendador = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "instantaneos");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+
+    // Instantâneo do catálogo em vigor: até onde cobre o diário, entradas e onde elas terminam
+    private long deslocamento;
+    private int quantidade;
+    private long fimEntradas = CABECALHO_CATALOGO;
+    private List<String> pendentes = new ArrayList<>();
+    private long gravacoes;
+    private long nanosUltimaGravacao;
+
+    /**
+     * @param pasta Pasta dos instantâneos
+     * @param diario Diário do catálogo (uma linha nomeÚnico|nomeOriginal|remetente por arquivo)
+     * @param fonte Estado a gravar, ou null se só o catálogo é carregado
+     */
+    public InstantaneosServidor(File pasta, File diario, GeradorMiniaturas miniaturas, Fonte fonte) {
+        this.pasta = pasta;
+        this.diario = diario;
+        this.miniaturas = miniaturas;
+        this.fonte = fonte;
+    }
+
+    /**
+     * Carrega o catálogo do instantâneo e do trecho do diário posterior a ele
+     * @param destino Mapa nomeÚnico -> nomeOriginal|remetente a preencher
+     * @return Arquivos que podem precisar de variantes reduzidas: as fotos pendentes no
+     * instantâneo e as do trecho relido
+     */
+    public synchronized List<String> carregarCatalogo(Map<String, String> destino) throws IOException {
+        List<String> verificar = new ArrayList<>();
+        if (!lerInstantaneoCatalogo(destino)) {
+            destino.clear();
+            deslocamento = 0;
+            quantidade = 0;
+            fimEntradas = CABECALHO_CATALOGO;
+            pendentes = new ArrayList<>();
+        }
+        verificar.addAll(pendentes);
+        if (diario.exists()) {
+            lerDiario(deslocamento, (nome, valor) -> {
+                destino.put(nome, valor);
+                verificar.add(nome);
+            });
+        }
+        return verificar;
+    }
+
+    /**
+     * @return O estado gravado, ou null se não há instantâneo válido
+     */
+    public Estado carregarEstado() {
+        File arquivo = new File(pasta, "sessoes.dat");
+        if (!arquivo.exists()) {
+            return null;
+        }
+        try (FileChannel canal = FileChannel.open(arquivo.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer mapa = canal.map(FileChannel.MapMode.READ_ONLY, 0, canal.size());
+            if (!conferirCrc(mapa)) {
+                System.err.println("Instantâneo de sessões corrompido, ignorado");
+                return null;
+            }
+            DataInputStream entrada = new DataInputStream(new LeitorMapeado(mapa));
+            if (entrada.readInt() != MAGICO_SESSOES || entrada.readInt() != VERSAO_FORMATO) {
+                return null;
+            }
+            long gravadoEm = entrada.readLong();
+            boolean encerramento = entrada.readBoolean();
+            int quantidadeEnvios = entrada.readInt();
+            List<String> envios = new ArrayList<>(quantidadeEnvios);
+            for (int i = 0; i < quantidadeEnvios; i++) {
+                envios.add(entrada.readUTF());
+            }
+            int quantidadeSessoes = entrada.readInt();
+            List<SessaoGuardada> sessoes = new ArrayList<>(quantidadeSessoes);
+            for (int i = 0; i < quantidadeSessoes; i++) {
+                String nome = entrada.readUTF();
+                String local = entrada.readUTF();
+                int quantidadeTopicos = entrada.readInt();
+                List<String> topicos = new ArrayList<>(quantidadeTopicos);
+                for (int j = 0; j < quantidadeTopicos; j++) {
+                    topicos.add(entrada.readUTF());
+                }
+                sessoes.add(new SessaoGuardada(nome, local, topicos, SessaoCliente.ler(entrada)));
+            }
+            return new Estado(gravadoEm, encerramento, envios, sessoes);
+        } catch (IOException e) {
+            System.err.println("Erro ao ler instantâneo de sessões: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Grava instantâneos a cada intervalo, numa thread de baixa prioridade
+     */
+    public void iniciar(long intervaloMs) {
+        agendador.scheduleWithFixedDelay(() -> {
+            try {
+                gravar(false);
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Erro ao gravar instantâneo: " + e.getMessage());
+            }
+        }, intervaloMs, intervaloMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Atualiza o instantâneo do catálogo com o trecho novo do diário e regrava o estado
+     * @param encerramento true no encerramento do servidor: as sessões poderão ser retomadas
+     */
+    public synchronized void gravar(boolean encerramento) throws IOException {
+        long inicio = System.nanoTime();
+        if (!pasta.exists()) {
+            pasta.mkdirs();
+        }
+        gravarCatalogo();
+        if (fonte != null) {
+            gravarEstado(encerramento);
+        }
+        gravacoes++;
+        nanosUltimaGravacao = System.nanoTime() - inicio;
+    }
+
+    /**
+     * @return Gravações feitas, duração da última e entradas do catálogo no instantâneo
+     */
+    public synchronized String getEstatisticas() {
+        return gravacoes + " gravação(ões), última em " + nanosUltimaGravacao / 1000000 + " ms, "
+                + quantidade + " arquivo(s) no catálogo, " + pendentes.size() + " foto(s) sem variantes";
+    }
+
+    public void fechar() {
+        agendador.shutdownNow();
+    }
+
+    private boolean lerInstantaneoCatalogo(Map<String, String> destino) {
+        File arquivo = new File(pasta, "catalogo.dat");
+        if (!arquivo.exists()) {
+            return false;
+        }
+        try (FileChannel canal = FileChannel.open(arquivo.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer mapa = canal.map(FileChannel.MapMode.READ_ONLY, 0, canal.size());
+            if (!conferirCrc(mapa)) {
+                System.err.println("Instantâneo do catálogo corrompido, relendo o diário inteiro");
+                return false;
+            }
+            DataInputStream entrada = new DataInputStream(new LeitorMapeado(mapa));
+            if (entrada.readInt() != MAGICO_CATALOGO || entrada.readInt() != VERSAO_FORMATO) {
+                return false;
+            }
+            long deslocamentoGravado = entrada.readLong();
+            long crcTrecho = entrada.readLong();
+            if (deslocamentoGravado > diario.length() || crcTrecho != crcTrechoDiario(deslocamentoGravado)) {
+                System.err.println("Diário do catálogo não corresponde ao instantâneo, relendo o diário inteiro");
+                return false;
+            }
+            int quantidadeGravada = entrada.readInt();
+            for (int i = 0; i < quantidadeGravada; i++) {
+                destino.put(entrada.readUTF(), entrada.readUTF());
+            }
+            long fim = mapa.position();
+            int quantidadePendentes = entrada.readInt();
+            List<String> pendentesGravados = new ArrayList<>(quantidadePendentes);
+            for (int i = 0; i < quantidadePendentes; i++) {
+                pendentesGravados.add(entrada.readUTF());
+            }
+            deslocamento = deslocamentoGravado;
+            quantidade = quantidadeGravada;
+            fimEntradas = fim;
+            pendentes = pendentesGravados;
+            return true;
+        } catch (IOException e) {
+            System.err.println("Erro ao ler instantâneo do catálogo: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Novo catalogo.dat: entradas do anterior copiadas como estão, o trecho novo do diário e as
+     * fotos que continuam sem variantes
+     */
+    private void gravarCatalogo() throws IOException {
+        File anterior = new File(pasta, "catalogo.dat");
+        List<String> novosPendentes = new ArrayList<>();
+        for (String nome : pendentes) {
+            if (!miniaturas.isResolvido(nome)) {
+                novosPendentes.add(nome);
+            }
+        }
+        boolean diarioCresceu = diario.exists() && diario.length() > deslocamento;
+        if (!diarioCresceu && novosPendentes.equals(pendentes) && anterior.exists()) {
+            return;
+        }
+        File temporario = new File(pasta, "catalogo.dat.tmp");
+        long novoDeslocamento = deslocamento;
+        int[] novas = {0};
+        long novoFim;
+        try (FileChannel saidaCanal = FileChannel.open(temporario.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            // Cabeçalho provisório: deslocamento e quantidade só são conhecidos depois do diário
+            saidaCanal.write(ByteBuffer.allocate(CABECALHO_CATALOGO));
+            if (fimEntradas > CABECALHO_CATALOGO && anterior.exists()) {
+                try (FileChannel anteriorCanal = FileChannel.open(anterior.toPath(), StandardOpenOption.READ)) {
+                    long copiados = 0;
+                    long total = fimEntradas - CABECALHO_CATALOGO;
+                    while (copiados < total) {
+                        copiados += anteriorCanal.transferTo(CABECALHO_CATALOGO + copiados, total - copiados, saidaCanal);
+                    }
+                }
+            }
+            DataOutputStream saida = new DataOutputStream(new BufferedOutputStream(java.nio.channels.Channels.newOutputStream(saidaCanal), 65536));
+            if (diarioCresceu) {
+                try {
+                    novoDeslocamento = lerDiario(deslocamento, (nome, valor) -> {
+                        try {
+                            saida.writeUTF(nome);
+                            saida.writeUTF(valor);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                        novas[0]++;
+                        if (!miniaturas.isResolvido(nome)) {
+                            novosPendentes.add(nome);
+                        }
+                    });
+                } catch (UncheckedIOException e) {
+                    throw e.getCause();
+                }
+            }
+            saida.flush();
+            novoFim = saidaCanal.position();
+            saida.writeInt(novosPendentes.size());
+            for (String nome : novosPendentes) {
+                saida.writeUTF(nome);
+            }
+            saida.flush();
+            ByteBuffer cabecalho = ByteBuffer.allocate(CABECALHO_CATALOGO);
+            cabecalho.putInt(MAGICO_CATALOGO).putInt(VERSAO_FORMATO).putLong(novoDeslocamento)
+                    .putLong(crcTrechoDiario(novoDeslocamento)).putInt(quantidade + novas[0]).flip();
+            saidaCanal.write(cabecalho, 0);
+            acrescentarCrc(saidaCanal, temporario);
+            saidaCanal.force(false);
+        }
+        Files.move(temporario.toPath(), anterior.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        deslocamento = novoDeslocamento;
+        quantidade += novas[0];
+        fimEntradas = novoFim;
+        pendentes = novosPendentes;
+    }
+
+    private void gravarEstado(boolean encerramento) throws IOException {
+        List<String> envios = fonte.envios();
+        List<SessaoGuardada> sessoes = fonte.sessoes();
+        File temporario = new File(pasta, "sessoes.dat.tmp");
+        try (FileChannel canal = FileChannel.open(temporario.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            DataOutputStream saida = new DataOutputStream(new BufferedOutputStream(java.nio.channels.Channels.newOutputStream(canal), 65536));
+            saida.writeInt(MAGICO_SESSOES);
+            saida.writeInt(VERSAO_FORMATO);
+            saida.writeLong(System.currentTimeMillis());
+            saida.writeBoolean(encerramento);
+            saida.writeInt(envios.size());
+            for (String id : envios) {
+                saida.writeUTF(id);
+            }
+            saida.writeInt(sessoes.size());
+            for (SessaoGuardada guardada : sessoes) {
+                saida.writeUTF(guardada.nome);
+                saida.writeUTF(guardada.local);
+                saida.writeInt(guardada.topicos.size());
+                for (String topico : guardada.topicos) {
+                    saida.writeUTF(topico);
+                }
+                guardada.sessao.gravar(saida);
+            }
+            saida.flush();
+            acrescentarCrc(canal, temporario);
+            canal.force(false);
+        }
+        Files.move(temporario.toPath(), new File(pasta, "sessoes.dat").toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Lê as linhas completas do diário a partir do deslocamento; uma linha ainda sendo gravada
+     * fica para a próxima leitura
+     * @return Deslocamento logo após a última linha completa
+     */
+    private long lerDiario(long de, java.util.function.BiConsumer<String, String> consumidor) throws IOException {
+        try (FileChannel canal = FileChannel.open(diario.toPath(), StandardOpenOption.READ)) {
+            long tamanho = canal.size();
+            ByteBuffer bloco = ByteBuffer.allocate(1 << 16);
+            long inicioBloco = de;
+            long fimUltimaLinha = de;
+            while (inicioBloco < tamanho) {
+                bloco.clear();
+                int lidos = canal.read(bloco, inicioBloco);
+                if (lidos <= 0) {
+                    break;
+                }
+                byte[] bytes = bloco.array();
+                int inicioLinha = 0;
+                for (int i = 0; i < lidos; i++) {
+                    if (bytes[i] != '\n') {
+                        continue;
+                    }
+                    String texto = new String(bytes, inicioLinha, i - inicioLinha, StandardCharsets.UTF_8);
+                    int separador = texto.indexOf('|');
+                    if (separador > 0) {
+                        consumidor.accept(texto.substring(0, separador), texto.substring(separador + 1));
+                    }
+                    inicioLinha = i + 1;
+                }
+                if (inicioLinha == 0) {
+                    // Linha maior que o bloco (ou incompleta no fim do arquivo)
+                    if (lidos < bloco.capacity()) {
+                        break;
+                    }
+                    bloco = ByteBuffer.allocate(bloco.capacity() * 2);
+                    continue;
+                }
+                inicioBloco += inicioLinha;
+                fimUltimaLinha = inicioBloco;
+            }
+            return fimUltimaLinha;
+        }
+    }
+
+    private long crcTrechoDiario(long ate) throws IOException {
+        CRC32 crc = new CRC32();
+        if (ate > 0) {
+            try (FileChannel canal = FileChannel.open(diario.toPath(), StandardOpenOption.READ)) {
+                long inicio = Math.max(0, ate - TRECHO_CONFERIDO);
+                ByteBuffer trecho = ByteBuffer.allocate((int) (ate - inicio));
+                while (trecho.hasRemaining() && canal.read(trecho, inicio + trecho.position()) >= 0) {
+                    // lê até completar o trecho
+                }
+                trecho.flip();
+                crc.update(trecho);
+            }
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * Acrescenta o CRC32 de todo o conteúdo já gravado no canal (parte dele chega por
+     * transferTo, sem passar por um fluxo que pudesse calculá-lo)
+     */
+    private static void acrescentarCrc(FileChannel canal, File arquivo) throws IOException {
+        CRC32 crc = new CRC32();
+        long tamanho = canal.position();
+        if (tamanho > 0) {
+            try (FileChannel leitura = FileChannel.open(arquivo.toPath(), StandardOpenOption.READ)) {
+                crc.update(leitura.map(FileChannel.MapMode.READ_ONLY, 0, tamanho));
+            }
+        }
+        ByteBuffer valor = ByteBuffer.allocate(8).putLong(0, crc.getValue());
+        canal.write(valor, tamanho);
+        canal.position(tamanho + 8);
+    }
+
+    /**
+     * Fluxo sobre o arquivo mapeado, para ler os registros com DataInputStream sem copiá-lo
+     */
+    private static class LeitorMapeado extends InputStream {
+        private final ByteBuffer mapa;
+
+        LeitorMapeado(ByteBuffer mapa) {
+            this.mapa = mapa;
+        }
+
+        @Override
+        public int read() {
+            return mapa.hasRemaining() ? mapa.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] destino, int inicio, int tamanho) {
+            if (!mapa.hasRemaining()) {
+                return -1;
+            }
+            int lidos = Math.min(tamanho, mapa.remaining());
+            mapa.get(destino, inicio, lidos);
+            return lidos;
+        }
+    }
+
+    private static boolean conferirCrc(MappedByteBuffer mapa) {
+        if (mapa.capacity() < 8) {
+            return false;
+        }
+        CRC32 crc = new CRC32();
+        ByteBuffer conteudo = mapa.duplicate();
+        conteudo.limit(mapa.capacity() - 8);
+        crc.update(conteudo);
+        return crc.getValue() == mapa.getLong(mapa.capacity() - 8);
+    }
+}
@@ -0,0 +1,331 @@
+package tieteMonitor.server;
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import javax.management.*;
+
+/**
+ * Contadores, medidores e histogramas de latência do servidor, publicados como atributos de um
+ * MBean (tieteMonitor:type=Servidor,porta=N) e em texto no formato de exposição do Prometheus,
+ * num endpoint HTTP local (127.0.0.1, porta dos clientes + {@link #DESLOCAMENTO_PORTA}, ou
+ * -Dtiete.metricas.porta). Os registros usam LongAdder, que espalha as escritas concorrentes
+ * em células separadas; a soma só é feita na leitura.
+ * Nomes podem levar rótulos no estilo do Prometheus: nome{rotulo="valor"}.
+ */
+public class MetricasServidor implements DynamicMBean {
+    public static final int DESLOCAMENTO_PORTA = 3000;
+    public static final String OUTRO_COMANDO = "OUTRO";
+
+    /**
+     * Histograma com baldes exponenciais (limite superior de 2^i microssegundos)
+     */
+    public static class Histograma {
+        private static final int BALDES = 36;
+        private final LongAdder[] baldes = new LongAdder[BALDES];
+        private final LongAdder somaNanos = new LongAdder();
+
+        Histograma() {
+            for (int i = 0; i < BALDES; i++) {
+                baldes[i] = new LongAdder();
+            }
+        }
+
+        public void registrar(long nanos) {
+            long micros = Math.max(0, nanos / 1000);
+            baldes[Math.min(BALDES - 1, 64 - Long.numberOfLeadingZeros(micros))].increment();
+            somaNanos.add(nanos);
+        }
+
+        /**
+         * @return Limite superior, em microssegundos, do balde que contém o percentil (0 se vazio)
+         */
+        public long percentilMicros(double percentil) {
+            long[] contagens = contagens();
+            long total = 0;
+            for (long contagem : contagens) {
+                total += contagem;
+            }
+            long alvo = (long) Math.ceil(total * percentil);
+            long acumulado = 0;
+            for (int i = 0; i < BALDES; i++) {
+                acumulado += contagens[i];
+                if (acumulado >= alvo && acumulado > 0) {
+                    return 1L << i;
+                }
+            }
+            return 0;
+        }
+
+        public long getQuantidade() {
+            long total = 0;
+            for (LongAdder balde : baldes) {
+                total += balde.sum();
+            }
+            return total;
+        }
+
+        private long[] contagens() {
+            long[] contagens = new long[BALDES];
+            for (int i = 0; i < BALDES; i++) {
+                contagens[i] = baldes[i].sum();
+            }
+            return contagens;
+        }
+    }
+
+    private final Map<String, LongAdder> contadores = new ConcurrentSkipListMap<>();
+    private final Map<String, LongSupplier> medidores = new ConcurrentSkipListMap<>();
+    private final Map<String, Histograma> histogramas = new ConcurrentSkipListMap<>();
+    private final String nomeComandos;
+    private final String[] comandos;
+    private final LongAdder[] contadoresComandos;
+    private HttpServer endpoint;
+
+    /**
+     * @param nomeComandos Nome do contador de mensagens recebidas, rotulado por comando
+     * @param comandos Prefixos dos comandos reconhecidos; os demais contam como {@link #OUTRO_COMANDO}
+     */
+    public MetricasServidor(String nomeComandos, String... comandos) {
+        this.nomeComandos = nomeComandos;
+        this.comandos = comandos.clone();
+        this.contadoresComandos = new LongAdder[comandos.length + 1];
+        for (int i = 0; i <= comandos.length; i++) {
+            String comando = i < comandos.length ? comandos[i] : OUTRO_COMANDO;
+            contadoresComandos[i] = contador(nomeComandos + "{comando=\"" + comando + "\"}");
+        }
+    }
+
+    public LongAdder contador(String nome) {
+        return contadores.computeIfAbsent(nome, n -> new LongAdder());
+    }
+
+    public Histograma histograma(String nome) {
+        return histogramas.computeIfAbsent(nome, n -> new Histograma());
+    }
+
+    /**
+     * @param leitura Chamada a cada leitura das métricas (fora do caminho das mensagens)
+     */
+    public void medidor(String nome, LongSupplier leitura) {
+        medidores.put(nome, leitura);
+    }
+
+    /**
+     * Conta uma mensagem recebida pelo primeiro prefixo de comando que ela tem, sem criar objetos
+     */
+    public void contarComando(String mensagem) {
+        for (int i = 0; i < comandos.length; i++) {
+            if (mensagem.startsWith(comandos[i])) {
+                contadoresComandos[i].increment();
+                return;
+            }
+        }
+        contadoresComandos[comandos.length].increment();
+    }
+
+    /**
+     * @return Todas as métricas no formato de exposição em texto do Prometheus
+     */
+    public String texto() {
+        StringBuilder texto = new StringBuilder();
+        String ultimoTipo = null;
+        for (Map.Entry<String, LongAdder> contador : contadores.entrySet()) {
+            ultimoTipo = declararTipo(texto, contador.getKey(), "counter", ultimoTipo);
+            texto.append(contador.getKey()).append(' ').append(contador.getValue().sum()).append('\n');
+        }
+        for (Map.Entry<String, LongSupplier> medidor : medidores.entrySet()) {
+            ultimoTipo = declararTipo(texto, medidor.getKey(), "gauge", ultimoTipo);
+            texto.append(medidor.getKey()).append(' ').append(ler(medidor.getValue())).append('\n');
+        }
+        for (Map.Entry<String, Histograma> entrada : histogramas.entrySet()) {
+            ultimoTipo = declararTipo(texto, entrada.getKey(), "histogram", ultimoTipo);
+            String base = nomeBase(entrada.getKey());
+            String rotulos = entrada.getKey().substring(base.length());
+            String prefixoRotulos = rotulos.isEmpty() ? "{" : rotulos.substring(0, rotulos.length() - 1) + ",";
+            long[] contagens = entrada.getValue().contagens();
+            long acumulado = 0;
+            for (int i = 0; i < contagens.length; i++) {
+                acumulado += contagens[i];
+                if (contagens[i] > 0 || i == contagens.length - 1) {
+                    texto.append(base).append("_bucket").append(prefixoRotulos).append("le=\"")
+                            .append(i == contagens.length - 1 ? "+Inf" : String.valueOf((1L << i) / 1e6))
+                            .append("\"} ").append(acumulado).append('\n');
+                }
+            }
+            texto.append(base).append("_sum").append(rotulos).append(' ')
+                    .append(entrada.getValue().somaNanos.sum() / 1e9).append('\n');
+            texto.append(base).append("_count").append(rotulos).append(' ').append(acumulado).append('\n');
+        }
+        return texto.toString();
+    }
+
+    /**
+     * Registra o MBean na plataforma
+     * @param porta Porta dos clientes, que distingue servidores na mesma JVM
+     */
+    public void registrarJmx(int porta) throws JMException {
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+                new ObjectName("tieteMonitor:type=Servidor,porta=" + porta));
+    }
+
+    /**
+     * Publica {@link #texto()} em http://127.0.0.1:porta/ (qualquer caminho)
+     */
+    public void iniciarEndpoint(int porta) throws IOException {
+        endpoint = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), porta), 0);
+        endpoint.createContext("/", troca -> {
+            byte[] corpo = texto().getBytes(StandardCharsets.UTF_8);
+            troca.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            troca.sendResponseHeaders(200, corpo.length);
+            try (OutputStream saida = troca.getResponseBody()) {
+                saida.write(corpo);
+            }
+        });
+        endpoint.setExecutor(Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "metricas-http");
+            t.setDaemon(true);
+            return t;
+        }));
+        endpoint.start();
+    }
+
+    public void fechar() {
+        if (endpoint != null) {
+            endpoint.stop(0);
+        }
+    }
+
+    // Atributos do MBean: contadores e medidores pelo nome (rótulos entre colchetes) e, por
+    // histograma, quantidade e percentis 50, 99 e 99,9 em microssegundos
+
+    @Override
+    public Object getAttribute(String atributo) throws AttributeNotFoundException {
+        for (Map.Entry<String, LongAdder> contador : contadores.entrySet()) {
+            if (nomeJmx(contador.getKey()).equals(atributo)) {
+                return contador.getValue().sum();
+            }
+        }
+        for (Map.Entry<String, LongSupplier> medidor : medidores.entrySet()) {
+            if (nomeJmx(medidor.getKey()).equals(atributo)) {
+                return ler(medidor.getValue());
+            }
+        }
+        for (Map.Entry<String, Histograma> entrada : histogramas.entrySet()) {
+            String nome = nomeJmx(entrada.getKey());
+            Histograma histograma = entrada.getValue();
+            if (atributo.equals(nome + "_quantidade")) {
+                return histograma.getQuantidade();
+            } else if (atributo.equals(nome + "_p50_us")) {
+                return histograma.percentilMicros(0.5);
+            } else if (atributo.equals(nome + "_p99_us")) {
+                return histograma.percentilMicros(0.99);
+            } else if (atributo.equals(nome + "_p999_us")) {
+                return histograma.percentilMicros(0.999);
+            }
+        }
+        throw new AttributeNotFoundException(atributo);
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] atributos) {
+        AttributeList lista = new AttributeList();
+        for (String atributo : atributos) {
+            try {
+                lista.add(new Attribute(atributo, getAttribute(atributo)));
+            } catch (AttributeNotFoundException e) {
+                // Atributo de uma métrica que deixou de existir: omitido
+            }
+        }
+        return lista;
+    }
+
+    @Override
+    public void setAttribute(Attribute atributo) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("Métricas são somente leitura: " + atributo.getName());
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList atributos) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String operacao, Object[] parametros, String[] assinatura) throws ReflectionException {
+        throw new ReflectionException(new NoSuchMethodException(operacao));
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        List<MBeanAttributeInfo> atributos = new ArrayList<>();
+        for (String nome : contadores.keySet()) {
+            atributos.add(atributoLong(nomeJmx(nome), "Contador"));
+        }
+        for (String nome : medidores.keySet()) {
+            atributos.add(atributoLong(nomeJmx(nome), "Medidor"));
+        }
+        for (String nome : histogramas.keySet()) {
+            String base = nomeJmx(nome);
+            atributos.add(atributoLong(base + "_quantidade", "Registros no histograma"));
+            atributos.add(atributoLong(base + "_p50_us", "Percentil 50 (µs, limite do balde)"));
+            atributos.add(atributoLong(base + "_p99_us", "Percentil 99 (µs, limite do balde)"));
+            atributos.add(atributoLong(base + "_p999_us", "Percentil 99,9 (µs, limite do balde)"));
+        }
+        return new MBeanInfo(getClass().getName(), "Métricas do servidor de monitoramento",
+                atributos.toArray(new MBeanAttributeInfo[0]), null, null, null);
+    }
+
+    private static MBeanAttributeInfo atributoLong(String nome, String descricao) {
+        return new MBeanAttributeInfo(nome, "long", descricao, true, false, false);
+    }
+
+    private static long ler(LongSupplier medidor) {
+        try {
+            return medidor.getAsLong();
+        } catch (RuntimeException e) {
+            System.err.println("Erro ao ler medidor: " + e.getMessage());
+            return -1;
+        }
+    }
+
+    private static String declararTipo(StringBuilder texto, String nome, String tipo, String ultimoTipo) {
+        String base = nomeBase(nome);
+        if (!base.equals(ultimoTipo)) {
+            texto.append("# TYPE ").append(base).append(' ').append(tipo).append('\n');
+        }
+        return base;
+    }
+
+    private static String nomeBase(String nome) {
+        int chave = nome.indexOf('{');
+        return chave < 0 ? nome : nome.substring(0, chave);
+    }
+
+    /**
+     * nome{rotulo="valor"} vira nome[valor]
+     */
+    private static String nomeJmx(String nome) {
+        String base = nomeBase(nome);
+        if (base.length() == nome.length()) {
+            return nome;
+        }
+        StringBuilder valores = new StringBuilder();
+        for (String rotulo : nome.substring(base.length() + 1, nome.length() - 1).split(",")) {
+            int igual = rotulo.indexOf('=');
+            if (valores.length() > 0) {
+                valores.append(',');
+            }
+            valores.append(rotulo.substring(igual + 1).replace("\"", ""));
+        }
+        return base + "[" + valores + "]";
+    }
+}
@@ -0,0 +1,230 @@
+package tieteMonitor.server;
+
+import java.util.*;
+
+/**
+ * Avaliação contínua das medições recebidas, gerando alertas automáticos.
+ * Para cada local e métrica são verificadas as regras de limite (mínimo/máximo),
+ * taxa de variação por minuto e desvio em relação à média móvel (z-score).
+ * O estado de cada série é atualizado em tempo constante por leitura, usando
+ * somas acumuladas sobre uma janela circular. Quando uma regra dispara num local,
+ * os locais a jusante (na ordem do rio) também são avisados da possível propagação.
+ * O estado fica sob o bloqueio do motor, mas os alertas são emitidos depois de liberá-lo:
+ * um destinatário lento não atrasa a avaliação das leituras de outras threads.
+ */
+public class MotorAlertasMedicoes {
+    private static final int JANELA_ZSCORE = 300;
+    private static final int AMOSTRAS_MINIMAS_ZSCORE = 30;
+    private static final double LIMITE_ZSCORE = 4.0;
+    private static final long INTERVALO_REPETICAO_MS = 5 * 60 * 1000L;
+    private static final long INTERVALO_MINIMO_VARIACAO_MS = 60 * 1000L;
+
+    /**
+     * Recebe os alertas gerados pelo motor
+     */
+    public interface EmissorAlerta {
+        /**
+         * @param local Local onde a regra disparou
+         * @param mensagem Texto do alerta
+         * @param locaisJusante Locais rio abaixo que devem ser avisados (pode ser vazia)
+         */
+        void emitir(String local, String mensagem, List<String> locaisJusante);
+    }
+
+    private static class Regra {
+        double minimo;
+        double maximo;
+        double variacaoMaximaPorMinuto;
+
+        Regra(double minimo, double maximo, double variacaoMaximaPorMinuto) {
+            this.minimo = minimo;
+            this.maximo = maximo;
+            this.variacaoMaximaPorMinuto = variacaoMaximaPorMinuto;
+        }
+    }
+
+    /**
+     * Estado incremental de uma série (local, métrica)
+     */
+    private static class Estado {
+        final Regra regra;
+        final double[] janela = new double[JANELA_ZSCORE];
+        int posicao;
+        int quantidade;
+        double soma;
+        double somaQuadrados;
+        long instanteReferencia = Long.MIN_VALUE;
+        double valorReferencia;
+        long ultimoAlertaLimite = -INTERVALO_REPETICAO_MS;
+        long ultimoAlertaVariacao = -INTERVALO_REPETICAO_MS;
+        long ultimoAlertaZscore = -INTERVALO_REPETICAO_MS;
+
+        Estado(Regra regra) {
+            this.regra = regra;
+        }
+    }
+
+    private final List<String> ordemRio;
+    private final EmissorAlerta emissor;
+    private final Map<String, Estado[]> estados = new HashMap<>();
+    private final Map<String, Regra[]> regrasPorLocal = new HashMap<>();
+
+    /**
+     * @param ordemRio Chaves dos locais da nascente para a foz
+     * @param emissor Destino dos alertas gerados
+     */
+    public MotorAlertasMedicoes(List<String> ordemRio, EmissorAlerta emissor) {
+        this.ordemRio = new ArrayList<>(ordemRio);
+        this.emissor = emissor;
+    }
+
+    /**
+     * Limites padrão por métrica, baseados nos valores de referência para rios de classe 2
+     */
+    private static Regra[] regrasPadrao() {
+        return new Regra[]{
+                new Regra(6.0, 9.0, 0.5),                            // ph
+                new Regra(5.0, Double.POSITIVE_INFINITY, 2.0),       // oxigenio (mg/L)
+                new Regra(0.0, 100.0, 50.0),                         // turbidez (NTU)
+                new Regra(0.0, 30.0, 2.0)                            // temperatura (°C)
+        };
+    }
+
+    /**
+     * @param local Chave do local
+     * @param metrica Uma das {@link ArmazenamentoMedicoes#METRICAS}
+     * @param minimo Menor valor aceitável
+     * @param maximo Maior valor aceitável
+     * @param variacaoMaximaPorMinuto Maior variação aceitável por minuto (em módulo)
+     */
+    public synchronized void definirRegra(String local, String metrica, double minimo, double maximo,
+                                          double variacaoMaximaPorMinuto) {
+        int indice = indiceMetrica(metrica);
+        if (indice < 0) {
+            throw new IllegalArgumentException("Métrica desconhecida: " + metrica);
+        }
+        Regra regra = regrasPorLocal.computeIfAbsent(local, k -> regrasPadrao())[indice];
+        regra.minimo = minimo;
+        regra.maximo = maximo;
+        regra.variacaoMaximaPorMinuto = variacaoMaximaPorMinuto;
+    }
+
+    /**
+     * @param local Chave do local da medição
+     * @param metrica Uma das {@link ArmazenamentoMedicoes#METRICAS}
+     * @param instante Instante da medição (ms)
+     * @param valor Valor medido
+     */
+    public void avaliar(String local, String metrica, long instante, double valor) {
+        int indice = indiceMetrica(metrica);
+        if (indice < 0) {
+            return;
+        }
+        List<String> disparados = atualizar(local, indice, metrica, instante, valor);
+        if (disparados != null) {
+            for (String mensagem : disparados) {
+                disparar(local, mensagem);
+            }
+        }
+    }
+
+    /**
+     * Atualiza o estado da série e verifica as regras
+     * @return Alertas disparados por esta leitura, ou null se nenhum
+     */
+    private synchronized List<String> atualizar(String local, int indice, String metrica, long instante, double valor) {
+        List<String> disparados = null;
+        Estado[] doLocal = estados.get(local);
+        if (doLocal == null) {
+            doLocal = new Estado[ArmazenamentoMedicoes.METRICAS.length];
+            estados.put(local, doLocal);
+        }
+        Estado estado = doLocal[indice];
+        if (estado == null) {
+            estado = new Estado(regrasPorLocal.computeIfAbsent(local, k -> regrasPadrao())[indice]);
+            doLocal[indice] = estado;
+        }
+        Regra regra = estado.regra;
+
+        if ((valor < regra.minimo || valor > regra.maximo)
+                && instante - estado.ultimoAlertaLimite >= INTERVALO_REPETICAO_MS) {
+            estado.ultimoAlertaLimite = instante;
+            disparados = adicionar(disparados, metrica + " fora do limite: " + formatar(valor)
+                    + " (aceitável " + formatar(regra.minimo) + " a " + formatar(regra.maximo) + ")");
+        }
+
+        // A variação é medida contra uma referência de pelo menos um minuto atrás,
+        // para que o ruído entre leituras seguidas não dispare o alerta
+        if (estado.instanteReferencia == Long.MIN_VALUE) {
+            estado.instanteReferencia = instante;
+            estado.valorReferencia = valor;
+        } else if (instante - estado.instanteReferencia >= INTERVALO_MINIMO_VARIACAO_MS) {
+            double variacaoPorMinuto = (valor - estado.valorReferencia) * 60000.0 / (instante - estado.instanteReferencia);
+            if (Math.abs(variacaoPorMinuto) > regra.variacaoMaximaPorMinuto
+                    && instante - estado.ultimoAlertaVariacao >= INTERVALO_REPETICAO_MS) {
+                estado.ultimoAlertaVariacao = instante;
+                disparados = adicionar(disparados, metrica + " variando " + formatar(variacaoPorMinuto) + " por minuto (de "
+                        + formatar(estado.valorReferencia) + " para " + formatar(valor) + ")");
+            }
+            estado.instanteReferencia = instante;
+            estado.valorReferencia = valor;
+        }
+
+        if (estado.quantidade >= AMOSTRAS_MINIMAS_ZSCORE) {
+            double media = estado.soma / estado.quantidade;
+            double variancia = estado.somaQuadrados / estado.quantidade - media * media;
+            if (variancia > 1e-12) {
+                double zscore = (valor - media) / Math.sqrt(variancia);
+                if (Math.abs(zscore) > LIMITE_ZSCORE
+                        && instante - estado.ultimoAlertaZscore >= INTERVALO_REPETICAO_MS) {
+                    estado.ultimoAlertaZscore = instante;
+                    disparados = adicionar(disparados, metrica + " anômalo: " + formatar(valor) + " (média recente "
+                            + formatar(media) + ", z=" + formatar(zscore) + ")");
+                }
+            }
+        }
+
+        if (estado.quantidade == JANELA_ZSCORE) {
+            double removido = estado.janela[estado.posicao];
+            estado.soma -= removido;
+            estado.somaQuadrados -= removido * removido;
+        } else {
+            estado.quantidade++;
+        }
+        estado.janela[estado.posicao] = valor;
+        estado.posicao = (estado.posicao + 1) % JANELA_ZSCORE;
+        estado.soma += valor;
+        estado.somaQuadrados += valor * valor;
+        return disparados;
+    }
+
+    private static List<String> adicionar(List<String> disparados, String mensagem) {
+        if (disparados == null) {
+            disparados = new ArrayList<>(1);
+        }
+        disparados.add(mensagem);
+        return disparados;
+    }
+
+    private void disparar(String local, String mensagem) {
+        int posicaoNoRio = ordemRio.indexOf(local);
+        List<String> jusante = posicaoNoRio >= 0
+                ? ordemRio.subList(posicaoNoRio + 1, ordemRio.size())
+                : Collections.<String>emptyList();
+        emissor.emitir(local, mensagem, jusante);
+    }
+
+    private static int indiceMetrica(String metrica) {
+        String[] metricas = ArmazenamentoMedicoes.METRICAS;
+        for (int i = 0; i < metricas.length; i++) {
+            if (metricas[i].equals(metrica)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static String formatar(double valor) {
+        return String.format(Locale.ROOT, "%.2f", valor);
+    }
+}
@@ -0,0 +1,144 @@
+package tieteMonitor.server;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+
+/**
+ * Presença dos inspetores (deste servidor e dos demais nós do cluster) com número de versão.
+ * Entradas e saídas são acumuladas e publicadas juntas, a cada intervalo curto, num único
+ * quadro CHAT:PRESENCA_DELTA:versão anterior:nova versão:+nome,-nome,... Quem chega recebe o
+ * retrato CHAT:PRESENCA:versão:nomes; quem perdeu quadros pede os que faltam a partir da sua
+ * versão (CHAT:PRESENCA_DESDE:versão) e, se eles já não estão guardados, recebe um retrato.
+ * Uma entrada seguida de saída dentro do mesmo intervalo não gera quadro. As versões partem do
+ * relógio na criação, para que depois de um reinício do servidor nenhuma repita uma versão que
+ * um cliente já tenha aplicado.
+ */
+public class PresencaInspetores {
+    public static final long INTERVALO_PADRAO_MS = Long.getLong("tiete.presenca.intervaloMs", 100L);
+    private static final int QUADROS_GUARDADOS = 256;
+
+    private final long intervaloMs;
+    private final Consumer<String> difusor;
+    private final ScheduledExecutorService agendador;
+    // Estado publicado, na versão atual
+    private final Set<String> presentes = new TreeSet<>();
+    // Nome -> presença ainda não publicada
+    private final Map<String, Boolean> pendentes = new LinkedHashMap<>();
+    // Últimos quadros publicados; o primeiro parte da versão primeiraGuardada
+    private final Deque<String> quadros = new ArrayDeque<>();
+    private long primeiraGuardada;
+    private long versao;
+    private boolean agendado;
+    private long quadrosPublicados;
+    private long alteracoesPublicadas;
+
+    /**
+     * @param intervaloMs Tempo máximo que uma alteração espera para ser publicada
+     * @param difusor Envia um quadro a todos os clientes (chamado sempre pela mesma thread, na ordem das versões)
+     */
+    public PresencaInspetores(long intervaloMs, Consumer<String> difusor) {
+        this.intervaloMs = intervaloMs;
+        this.difusor = difusor;
+        this.versao = System.currentTimeMillis();
+        this.primeiraGuardada = versao;
+        this.agendador = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "presenca-inspetores");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public void entrou(String nome) {
+        alterar(nome, true);
+    }
+
+    public void saiu(String nome) {
+        alterar(nome, false);
+    }
+
+    private synchronized void alterar(String nome, boolean presente) {
+        if (presentes.contains(nome) == presente) {
+            pendentes.remove(nome);
+        } else {
+            pendentes.put(nome, presente);
+        }
+        if (!pendentes.isEmpty() && !agendado) {
+            agendado = true;
+            agendador.schedule(this::publicar, intervaloMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void publicar() {
+        String quadro;
+        synchronized (this) {
+            agendado = false;
+            if (pendentes.isEmpty()) {
+                return;
+            }
+            StringBuilder alteracoes = new StringBuilder();
+            for (Map.Entry<String, Boolean> pendente : pendentes.entrySet()) {
+                if (alteracoes.length() > 0) {
+                    alteracoes.append(',');
+                }
+                alteracoes.append(pendente.getValue() ? '+' : '-').append(pendente.getKey());
+                if (pendente.getValue()) {
+                    presentes.add(pendente.getKey());
+                } else {
+                    presentes.remove(pendente.getKey());
+                }
+            }
+            alteracoesPublicadas += pendentes.size();
+            pendentes.clear();
+            quadro = "CHAT:PRESENCA_DELTA:" + versao + ":" + (versao + 1) + ":" + alteracoes;
+            versao++;
+            quadros.addLast(quadro);
+            if (quadros.size() > QUADROS_GUARDADOS) {
+                quadros.removeFirst();
+                primeiraGuardada++;
+            }
+            quadrosPublicados++;
+        }
+        difusor.accept(quadro);
+    }
+
+    /**
+     * @return CHAT:PRESENCA:versão:nomes separados por vírgula
+     */
+    public synchronized String retrato() {
+        return "CHAT:PRESENCA:" + versao + ":" + String.join(",", presentes);
+    }
+
+    /**
+     * @param versaoCliente Última versão aplicada pelo cliente
+     * @return Os quadros posteriores a ela, ou um retrato se eles já não estão guardados
+     */
+    public synchronized List<String> desde(long versaoCliente) {
+        if (versaoCliente == versao) {
+            return Collections.emptyList();
+        }
+        if (versaoCliente < primeiraGuardada || versaoCliente > versao) {
+            return Collections.singletonList(retrato());
+        }
+        List<String> faltantes = new ArrayList<>();
+        long de = primeiraGuardada;
+        for (String quadro : quadros) {
+            if (de >= versaoCliente) {
+                faltantes.add(quadro);
+            }
+            de++;
+        }
+        return faltantes;
+    }
+
+    public synchronized long getVersao() {
+        return versao;
+    }
+
+    /**
+     * @return Quadros publicados, alterações contidas neles e versão atual
+     */
+    public synchronized String getEstatisticas() {
+        return quadrosPublicados + " quadro(s), " + alteracoesPublicadas + " alteração(ões), versão " + versao;
+    }
+}
@@ -0,0 +1,263 @@
+package tieteMonitor.server;
+
+import java.io.*;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Rastreamento de ponta a ponta das mensagens de chat e dos alertas. O cliente envia o comando
+ * como RASTRO:id:envioMs:comando; o servidor marca recebimento e despacho, repassa a mensagem
+ * aos destinatários como RASTRO:id:despachoMs:mensagem e marca, por destinatário, a obtenção do
+ * bloqueio do cliente (fila) e o fim da escrita no socket. Cada destinatário responde com
+ * RASTRO_FIM:id:recebidoMs:interfaceMicros depois de exibir a mensagem.
+ *
+ * Cada etapa vai para o histograma tiete_rastro_segundos{etapa="..."}; os rastros cujo total
+ * passa de -Dtiete.rastreamento.lento.ms (padrão 500) são gravados, no máximo
+ * -Dtiete.rastreamento.lentos.por.segundo (padrão 10) por segundo, em rastros_lentos.log.
+ * As etapas rede_envio e rede_entrega comparam relógios de máquinas diferentes e incluem a
+ * diferença entre eles; as demais são medidas num só processo.
+ */
+public class RastreamentoMensagens {
+    public static final String PREFIXO = "RASTRO:";
+    public static final String PREFIXO_FIM = "RASTRO_FIM:";
+    public static final long LIMITE_LENTO_PADRAO_MS = 500;
+    public static final int LENTOS_POR_SEGUNDO_PADRAO = 10;
+    static final String[] ETAPAS = {"rede_envio", "processamento", "fila", "escrita", "rede_entrega", "interface", "total"};
+    private static final int RASTROS_LEMBRADOS = 10000;
+    private static final long VALIDADE_RASTRO_MS = 60000;
+    private static final int LIMITE_FILA_GRAVACAO = 1000;
+
+    /**
+     * Rastro de um comando recebido, com as marcas de cada destinatário
+     */
+    static class Rastro {
+        final String id;
+        final String origem;
+        final String comando;
+        final long envioMs;
+        final long recebidoNanos;
+        volatile long despachadoNanos;
+        // Destinatário -> {fila, escrita} em nanos
+        final Map<String, long[]> destinos = new ConcurrentHashMap<>();
+
+        Rastro(String id, String origem, String comando, long envioMs, long recebidoNanos) {
+            this.id = id;
+            this.origem = origem;
+            this.comando = comando;
+            this.envioMs = envioMs;
+            this.recebidoNanos = recebidoNanos;
+        }
+
+        String getComando() {
+            return comando;
+        }
+    }
+
+    private final MetricasServidor.Histograma[] histogramas = new MetricasServidor.Histograma[ETAPAS.length];
+    private final File arquivoLentos;
+    private final long limiteLentoMs;
+    private final int lentosPorSegundo;
+    // Base para converter System.nanoTime() em horário de parede
+    private final long baseMs = System.currentTimeMillis();
+    private final long baseNanos = System.nanoTime();
+    private final Map<String, Rastro> rastros = new LinkedHashMap<String, Rastro>(1024, 0.75f, false) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Rastro> maisAntigo) {
+            return size() > RASTROS_LEMBRADOS
+                    || System.nanoTime() - maisAntigo.getValue().recebidoNanos > VALIDADE_RASTRO_MS * 1000000L;
+        }
+    };
+    private final ThreadPoolExecutor gravador;
+    private long segundoAtual;
+    private int gravadosNoSegundo;
+
+    public RastreamentoMensagens(MetricasServidor metricas, File arquivoLentos) {
+        this(metricas, arquivoLentos, Long.getLong("tiete.rastreamento.lento.ms", LIMITE_LENTO_PADRAO_MS),
+                Integer.getInteger("tiete.rastreamento.lentos.por.segundo", LENTOS_POR_SEGUNDO_PADRAO));
+    }
+
+    /**
+     * @param arquivoLentos Arquivo onde os rastros lentos são acrescentados, uma linha por destinatário
+     * @param limiteLentoMs Total a partir do qual o rastro é gravado
+     * @param lentosPorSegundo Máximo de rastros gravados por segundo
+     */
+    public RastreamentoMensagens(MetricasServidor metricas, File arquivoLentos, long limiteLentoMs, int lentosPorSegundo) {
+        for (int i = 0; i < ETAPAS.length; i++) {
+            histogramas[i] = metricas.histograma("tiete_rastro_segundos{etapa=\"" + ETAPAS[i] + "\"}");
+        }
+        this.arquivoLentos = arquivoLentos;
+        this.limiteLentoMs = limiteLentoMs;
+        this.lentosPorSegundo = lentosPorSegundo;
+        this.gravador = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(LIMITE_FILA_GRAVACAO), r -> {
+                    Thread thread = new Thread(r, "rastros-lentos");
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                }, new ThreadPoolExecutor.DiscardPolicy());
+    }
+
+    /**
+     * Registra o recebimento de um comando rastreado
+     * @param dados id:envioMs:comando (o que segue RASTRO:)
+     * @param origem Inspetor que enviou o comando
+     * @return O rastro, ou null se o envelope estiver mal formado
+     */
+    public Rastro iniciar(String dados, String origem) {
+        long agora = System.nanoTime();
+        int primeiro = dados.indexOf(':');
+        int segundo = primeiro > 0 ? dados.indexOf(':', primeiro + 1) : -1;
+        if (segundo < 0) {
+            return null;
+        }
+        long envioMs;
+        try {
+            envioMs = Long.parseLong(dados.substring(primeiro + 1, segundo));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        Rastro rastro = new Rastro(dados.substring(0, primeiro), origem, dados.substring(segundo + 1), envioMs, agora);
+        registrar(0, (paraMs(agora) - envioMs) * 1000000L);
+        synchronized (rastros) {
+            rastros.put(rastro.id, rastro);
+        }
+        return rastro;
+    }
+
+    /**
+     * Marca o despacho do comando e monta a mensagem rastreada para os destinatários
+     * @param mensagem Mensagem a repassar, no formato do protocolo
+     * @return RASTRO:id:despachoMs:mensagem
+     */
+    public String despachar(Rastro rastro, String mensagem) {
+        if (rastro.despachadoNanos == 0) {
+            rastro.despachadoNanos = System.nanoTime();
+            registrar(1, rastro.despachadoNanos - rastro.recebidoNanos);
+        }
+        return PREFIXO + rastro.id + ":" + paraMs(rastro.despachadoNanos) + ":" + mensagem;
+    }
+
+    /**
+     * @return true se a mensagem saiu de {@link #despachar}; custa uma comparação de prefixo
+     */
+    public static boolean isRastreada(String mensagem) {
+        return mensagem.startsWith(PREFIXO);
+    }
+
+    /**
+     * Marca a escrita da mensagem rastreada no socket de um destinatário
+     * @param filaNanos Instante em que o bloqueio do destinatário foi obtido
+     * @param escritaNanos Instante em que a escrita terminou
+     */
+    public void escrita(String mensagem, String destino, long filaNanos, long escritaNanos) {
+        int fim = mensagem.indexOf(':', PREFIXO.length());
+        if (fim < 0 || destino == null) {
+            return;
+        }
+        Rastro rastro;
+        synchronized (rastros) {
+            rastro = rastros.get(mensagem.substring(PREFIXO.length(), fim));
+        }
+        // Mensagem de outro nó do cluster ou reenviada depois da validade
+        if (rastro == null || rastro.despachadoNanos == 0) {
+            return;
+        }
+        registrar(2, filaNanos - rastro.despachadoNanos);
+        registrar(3, escritaNanos - filaNanos);
+        rastro.destinos.put(destino, new long[] {filaNanos, escritaNanos});
+    }
+
+    /**
+     * Fecha o rastro de um destinatário com o que ele mediu
+     * @param dados id:recebidoMs:interfaceMicros (o que segue RASTRO_FIM:)
+     * @param destino Inspetor que recebeu e exibiu a mensagem
+     */
+    public void concluir(String dados, String destino) {
+        String[] partes = dados.split(":");
+        if (partes.length != 3) {
+            return;
+        }
+        long recebidoMs;
+        long interfaceMicros;
+        try {
+            recebidoMs = Long.parseLong(partes[1]);
+            interfaceMicros = Long.parseLong(partes[2]);
+        } catch (NumberFormatException e) {
+            return;
+        }
+        registrar(5, interfaceMicros * 1000);
+        Rastro rastro;
+        synchronized (rastros) {
+            rastro = rastros.get(partes[0]);
+        }
+        if (rastro == null || rastro.despachadoNanos == 0) {
+            return;
+        }
+        long[] marcas = rastro.destinos.get(destino);
+        // Sem escrita registrada (entrega por multicast): a entrega conta desde o despacho
+        long saidaNanos = marcas != null ? marcas[1] : rastro.despachadoNanos;
+        long entregaNanos = (recebidoMs - paraMs(saidaNanos)) * 1000000L;
+        registrar(4, entregaNanos);
+        long totalMs = recebidoMs + interfaceMicros / 1000 - rastro.envioMs;
+        registrar(6, totalMs * 1000000L);
+        if (totalMs >= limiteLentoMs && permitirGravacao()) {
+            String linha = descrever(rastro, destino, marcas, entregaNanos, interfaceMicros, totalMs);
+            gravador.execute(() -> gravar(linha));
+        }
+    }
+
+    private void registrar(int etapa, long nanos) {
+        histogramas[etapa].registrar(Math.max(0, nanos));
+    }
+
+    private long paraMs(long nanos) {
+        return baseMs + (nanos - baseNanos) / 1000000L;
+    }
+
+    private synchronized boolean permitirGravacao() {
+        long segundo = System.nanoTime() / 1000000000L;
+        if (segundo != segundoAtual) {
+            segundoAtual = segundo;
+            gravadosNoSegundo = 0;
+        }
+        return gravadosNoSegundo++ < lentosPorSegundo;
+    }
+
+    /**
+     * Uma linha com o horário, o comando, os dois inspetores e cada etapa em milissegundos
+     */
+    private String descrever(Rastro rastro, String destino, long[] marcas, long entregaNanos, long interfaceMicros, long totalMs) {
+        int separador = rastro.comando.indexOf(':', 5);
+        String tipo = separador > 0 ? rastro.comando.substring(0, separador) : rastro.comando;
+        StringBuilder linha = new StringBuilder();
+        linha.append(new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS").format(new Date(rastro.envioMs)))
+                .append(" id=").append(rastro.id)
+                .append(" comando=").append(tipo)
+                .append(" origem=").append(rastro.origem)
+                .append(" destino=").append(destino)
+                .append(" total=").append(totalMs)
+                .append(String.format(Locale.ROOT, " rede_envio=%.1f processamento=%.1f",
+                        Math.max(0, paraMs(rastro.recebidoNanos) - rastro.envioMs) * 1.0,
+                        (rastro.despachadoNanos - rastro.recebidoNanos) / 1e6));
+        if (marcas != null) {
+            linha.append(String.format(Locale.ROOT, " fila=%.1f escrita=%.1f",
+                    (marcas[0] - rastro.despachadoNanos) / 1e6, (marcas[1] - marcas[0]) / 1e6));
+        }
+        linha.append(String.format(Locale.ROOT, " rede_entrega=%.1f interface=%.1f",
+                Math.max(0, entregaNanos) / 1e6, interfaceMicros / 1e3));
+        return linha.toString();
+    }
+
+    private void gravar(String linha) {
+        try (Writer escritor = new OutputStreamWriter(new FileOutputStream(arquivoLentos, true), "UTF-8")) {
+            escritor.write(linha + "\n");
+        } catch (IOException e) {
+            System.err.println("Erro ao gravar rastro lento: " + e.getMessage());
+        }
+    }
+
+    public void fechar() {
+        gravador.shutdown();
+    }
+}
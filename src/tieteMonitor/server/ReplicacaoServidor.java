@@ -0,0 +1,613 @@
+package tieteMonitor.server;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import tieteMonitor.util.NomeArquivo;
+
+/**
+ * Replicação contínua do estado do servidor para um processo em espera (hot standby):
+ * entradas do catálogo de arquivos junto com o conteúdo de cada arquivo, e as mensagens
+ * do histórico de chat. O primário escuta na porta dos clientes + {@link #DESLOCAMENTO_PORTA};
+ * a réplica informa o que já possui (arquivos e quantidade de mensagens), recebe o que falta
+ * e depois acompanha as alterações, confirmando cada registro aplicado.
+ * No modo assíncrono o primário não espera a réplica; no semissíncrono cada alteração só é
+ * confirmada ao cliente depois que a réplica a aplicou (ou após {@link #ESPERA_MAXIMA_PADRAO_MS},
+ * quando a réplica passa a ser tratada como atrasada até alcançar o primário).
+ * Se a ligação com o primário cai e não volta em {@link #TEMPO_FAILOVER_PADRAO_MS}, a réplica
+ * assume: o servidor abre a porta dos clientes com catálogo e histórico já carregados.
+ * Primário e réplica se autenticam com um segredo compartilhado (desafio e resposta com
+ * HMAC-SHA256, sem que o segredo passe pela rede); o conteúdo replicado segue sem criptografia,
+ * então a porta de replicação deve ficar numa rede interna ({@code -Dtiete.replica.endereco}).
+ * Uma réplica autenticada e ativa não é substituída por outra conexão.
+ */
+public class ReplicacaoServidor {
+    public static final int DESLOCAMENTO_PORTA = 2000;
+    public static final long ESPERA_MAXIMA_PADRAO_MS = 1000;
+    public static final long TEMPO_FAILOVER_PADRAO_MS = 3000;
+    private static final long INTERVALO_BATIMENTO_MS = 500;
+    private static final int LIMITE_FILA = 100000;
+    private static final byte ARQUIVO = 'A';
+    private static final byte MENSAGEM = 'M';
+    private static final byte BATIMENTO = 'B';
+    private static final byte SINCRONIZADO = 'S';
+    private static final int TEMPO_APRESENTACAO_MS = 5000;
+
+    public enum Modo { ASSINCRONO, SEMISSINCRONO }
+
+    /**
+     * Ligação com o servidor local
+     */
+    public interface Catalogo {
+        /**
+         * @return Objeto sincronizado pelo servidor ao alterar o catálogo
+         */
+        Object bloqueio();
+
+        /**
+         * @return Cópia das entradas locais: nome único -> {nome original, remetente}
+         */
+        Map<String, String[]> entradas();
+
+        /**
+         * Entrada replicada do primário; o arquivo já está gravado na pasta
+         */
+        void arquivoReplicado(String nomeUnico, String nomeOriginal, String remetente);
+    }
+
+    private static class Registro {
+        final long lsn;
+        final byte tipo;
+        final String[] campos;
+        final long instante;
+
+        Registro(long lsn, byte tipo, long instante, String... campos) {
+            this.lsn = lsn;
+            this.tipo = tipo;
+            this.instante = instante;
+            this.campos = campos;
+        }
+    }
+
+    private final Modo modo;
+    private final String primario;
+    private final int portaReplicacao;
+    private final File pastaArquivos;
+    private final HistoricoChat historico;
+    private final Catalogo catalogo;
+    private final long esperaMaximaMs;
+    private final long tempoFailoverMs;
+    private final AutenticacaoSegredo autenticacao;
+    private final InetAddress enderecoEscuta;
+
+    // Lado primário: réplica conectada, fila de registros e confirmações
+    private LinkedBlockingQueue<Registro> fila;
+    private Socket replica;
+    private long ultimoLsn;
+    private long lsnConfirmado;
+    private boolean atrasada;
+    private long esperasExcedidas;
+    private long ultimaResposta;
+
+    private ServerSocket serverSocket;
+    private volatile boolean encerrado;
+
+    /**
+     * @param modo Modo de confirmação
+     * @param primario host:porta (dos clientes) do primário, ou null se este servidor é o primário
+     * @param porta Porta dos clientes deste servidor
+     * @param pastaArquivos Pasta dos arquivos recebidos
+     * @param historico Histórico de chat, ou null se indisponível
+     * @param catalogo Catálogo de arquivos do servidor
+     * @param segredo Segredo compartilhado entre primário e réplica
+     * @param enderecoEscuta Interface da porta de replicação, ou null para todas
+     */
+    public ReplicacaoServidor(Modo modo, String primario, int porta, File pastaArquivos, HistoricoChat historico,
+                              Catalogo catalogo, long esperaMaximaMs, long tempoFailoverMs, String segredo,
+                              InetAddress enderecoEscuta) {
+        this.modo = modo;
+        this.primario = primario;
+        this.portaReplicacao = porta + DESLOCAMENTO_PORTA;
+        this.pastaArquivos = pastaArquivos;
+        this.historico = historico;
+        this.catalogo = catalogo;
+        this.esperaMaximaMs = esperaMaximaMs;
+        this.tempoFailoverMs = tempoFailoverMs;
+        this.autenticacao = new AutenticacaoSegredo(segredo);
+        this.enderecoEscuta = enderecoEscuta;
+    }
+
+    /**
+     * Lê -Dtiete.replica.modo=assincrono|semissincrono (ativa a replicação) e
+     * -Dtiete.replica.de=host:porta (este servidor começa como réplica daquele primário).
+     * Exige -Dtiete.replica.segredo, igual nos dois servidores; -Dtiete.replica.endereco
+     * restringe a porta de replicação a uma interface.
+     * @return Replicação configurada, ou null se nenhuma das propriedades foi informada ou falta o segredo
+     */
+    public static ReplicacaoServidor criarPelaConfiguracao(int porta, File pastaArquivos, HistoricoChat historico,
+                                                           Catalogo catalogo) {
+        String nomeModo = System.getProperty("tiete.replica.modo");
+        String primario = System.getProperty("tiete.replica.de");
+        if (nomeModo == null && primario == null) {
+            return null;
+        }
+        String segredo = System.getProperty("tiete.replica.segredo");
+        if (segredo == null || segredo.isEmpty()) {
+            System.err.println("Replicação desativada: informe o segredo compartilhado em -Dtiete.replica.segredo");
+            return null;
+        }
+        InetAddress enderecoEscuta = null;
+        String endereco = System.getProperty("tiete.replica.endereco");
+        if (endereco != null && !endereco.trim().isEmpty()) {
+            try {
+                enderecoEscuta = InetAddress.getByName(endereco.trim());
+            } catch (UnknownHostException e) {
+                System.err.println("Replicação desativada: endereço de replicação inválido: " + endereco);
+                return null;
+            }
+        }
+        Modo modo = "semissincrono".equalsIgnoreCase(nomeModo) ? Modo.SEMISSINCRONO : Modo.ASSINCRONO;
+        return new ReplicacaoServidor(modo, primario, porta, pastaArquivos, historico, catalogo,
+                Long.getLong("tiete.replica.espera.ms", ESPERA_MAXIMA_PADRAO_MS),
+                Long.getLong("tiete.replica.failover.ms", TEMPO_FAILOVER_PADRAO_MS), segredo, enderecoEscuta);
+    }
+
+    public Modo getModo() {
+        return modo;
+    }
+
+    /**
+     * @return true se este servidor começou como réplica (ver {@link #acompanharPrimario()})
+     */
+    public boolean isReplica() {
+        return primario != null;
+    }
+
+    /**
+     * Passa a aceitar uma réplica na porta de replicação (no primário, ou numa réplica promovida)
+     */
+    public void aceitarReplicas() throws IOException {
+        serverSocket = new ServerSocket(portaReplicacao, 50, enderecoEscuta);
+        Thread aceitacao = new Thread(() -> {
+            while (!encerrado) {
+                try {
+                    Socket socket = serverSocket.accept();
+                    Thread sessao = new Thread(() -> atenderReplica(socket), "replicacao-envio");
+                    sessao.setDaemon(true);
+                    sessao.start();
+                } catch (IOException e) {
+                    if (!encerrado) {
+                        System.err.println("Replicação: erro ao aceitar réplica: " + e.getMessage());
+                    }
+                }
+            }
+        }, "replicacao-aceitacao");
+        aceitacao.setDaemon(true);
+        aceitacao.start();
+    }
+
+    /**
+     * Registra um arquivo recebido; deve ser chamado sob o bloqueio do catálogo, depois de
+     * gravado o arquivo, para que a ordem dos registros seja a mesma do catálogo
+     * @return Número do registro, para {@link #aguardar(long)}
+     */
+    public synchronized long registrarArquivo(String nomeUnico, String nomeOriginal, String remetente) {
+        return registrar(ARQUIVO, 0, nomeUnico, nomeOriginal, remetente);
+    }
+
+    /**
+     * Registra uma mensagem do histórico; deve ser chamado sob o bloqueio do histórico
+     * @return Número do registro, para {@link #aguardar(long)}
+     */
+    public synchronized long registrarMensagem(HistoricoChat.Mensagem mensagem) {
+        return registrar(MENSAGEM, mensagem.getInstante(), mensagem.getRemetente(), mensagem.getDestinatario(),
+                mensagem.getChaveLocal(), mensagem.getTexto());
+    }
+
+    private long registrar(byte tipo, long instante, String... campos) {
+        if (fila == null) {
+            return 0;
+        }
+        Registro registro = new Registro(++ultimoLsn, tipo, instante, campos);
+        if (!fila.offer(registro)) {
+            // Réplica sem acompanhar: a sessão é refeita e ela recebe o que falta ao reconectar
+            System.err.println("Replicação: fila cheia, reiniciando a sessão da réplica");
+            encerrarSessao();
+            return 0;
+        }
+        return registro.lsn;
+    }
+
+    /**
+     * No modo semissíncrono, espera a réplica aplicar o registro. Sem réplica conectada, ou com
+     * a réplica atrasada (uma espera anterior excedeu o limite), retorna imediatamente.
+     * @param lsn Número devolvido por registrarArquivo/registrarMensagem
+     * @return true se a réplica confirmou o registro
+     */
+    public synchronized boolean aguardar(long lsn) {
+        if (modo != Modo.SEMISSINCRONO || lsn == 0 || fila == null || atrasada) {
+            return lsnConfirmado >= lsn && lsn != 0;
+        }
+        long limite = System.currentTimeMillis() + esperaMaximaMs;
+        while (lsnConfirmado < lsn && fila != null) {
+            long restante = limite - System.currentTimeMillis();
+            if (restante <= 0) {
+                atrasada = true;
+                esperasExcedidas++;
+                System.err.println("Replicação: réplica não confirmou em " + esperaMaximaMs
+                        + " ms, seguindo sem esperar até ela alcançar o primário");
+                return false;
+            }
+            try {
+                wait(restante);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return lsnConfirmado >= lsn;
+    }
+
+    /**
+     * @return Resumo para o log: réplica, registros pendentes de confirmação e esperas excedidas
+     */
+    public synchronized String getEstatisticas() {
+        if (fila == null) {
+            return "sem réplica conectada (" + modo + ")";
+        }
+        return "réplica " + replica.getInetAddress().getHostAddress() + " (" + modo + (atrasada ? ", atrasada" : "")
+                + "): " + (ultimoLsn - lsnConfirmado) + " registro(s) sem confirmação, "
+                + esperasExcedidas + " espera(s) excedida(s)";
+    }
+
+    public void fechar() {
+        encerrado = true;
+        if (serverSocket != null) {
+            try {
+                serverSocket.close();
+            } catch (IOException e) {
+                // já fechado
+            }
+        }
+        synchronized (this) {
+            encerrarSessao();
+        }
+    }
+
+    private void atenderReplica(Socket socket) {
+        LinkedBlockingQueue<Registro> minhaFila;
+        Set<String> arquivosDaReplica = new HashSet<>();
+        int mensagensDaReplica;
+        Map<String, String[]> entradas;
+        int mensagensDoPrimario;
+        DataInputStream in;
+        try {
+            socket.setTcpNoDelay(true);
+            // Quem não se apresenta a tempo não prende esta thread
+            socket.setSoTimeout(TEMPO_APRESENTACAO_MS);
+            in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream apresentacao = new DataOutputStream(socket.getOutputStream());
+            if (!autenticacao.conferirQuemConectou(apresentacao, in, "replica", "primario")) {
+                System.err.println("Replicação: conexão de " + socket.getInetAddress().getHostAddress()
+                        + " recusada: segredo de replicação incorreto");
+                fecharSilenciosamente(socket);
+                return;
+            }
+            mensagensDaReplica = in.readInt();
+            int quantidadeArquivos = in.readInt();
+            for (int i = 0; i < quantidadeArquivos; i++) {
+                arquivosDaReplica.add(in.readUTF());
+            }
+            socket.setSoTimeout(0);
+        } catch (IOException e) {
+            System.err.println("Replicação: réplica desconectou durante a apresentação: " + e.getMessage());
+            fecharSilenciosamente(socket);
+            return;
+        }
+        // Fotografia do estado e início da fila sob os mesmos bloqueios das alterações
+        // (histórico, depois catálogo, depois esta classe): nada fica de fora nem se repete
+        Object bloqueioHistorico = historico != null ? historico : new Object();
+        synchronized (bloqueioHistorico) {
+            synchronized (catalogo.bloqueio()) {
+                entradas = catalogo.entradas();
+                mensagensDoPrimario = historico != null ? historico.getQuantidade() : 0;
+                synchronized (this) {
+                    if (replica != null && System.currentTimeMillis() - ultimaResposta < tempoFailoverMs) {
+                        System.err.println("Replicação: conexão de " + socket.getInetAddress().getHostAddress()
+                                + " recusada: a réplica " + replica.getInetAddress().getHostAddress() + " está ativa");
+                        fecharSilenciosamente(socket);
+                        return;
+                    }
+                    // A réplica anterior parou de responder aos batimentos
+                    encerrarSessao();
+                    replica = socket;
+                    ultimaResposta = System.currentTimeMillis();
+                    fila = minhaFila = new LinkedBlockingQueue<>(LIMITE_FILA);
+                    lsnConfirmado = ultimoLsn;
+                    atrasada = false;
+                }
+            }
+        }
+        System.err.println("Replicação: réplica conectada de " + socket.getInetAddress().getHostAddress());
+        Thread confirmacoes = new Thread(() -> lerConfirmacoes(socket, in), "replicacao-confirmacoes");
+        confirmacoes.setDaemon(true);
+        confirmacoes.start();
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 65536));
+            for (Map.Entry<String, String[]> entrada : entradas.entrySet()) {
+                if (!arquivosDaReplica.contains(entrada.getKey())) {
+                    escreverArquivo(out, 0, entrada.getKey(), entrada.getValue()[0], entrada.getValue()[1]);
+                }
+            }
+            for (int primeira = mensagensDaReplica; primeira < mensagensDoPrimario; ) {
+                List<HistoricoChat.Mensagem> lote = historico.lerAPartirDe(primeira, Math.min(1000, mensagensDoPrimario - primeira));
+                if (lote.isEmpty()) {
+                    break;
+                }
+                for (HistoricoChat.Mensagem mensagem : lote) {
+                    escreverMensagem(out, 0, mensagem.getInstante(), mensagem.getRemetente(), mensagem.getDestinatario(),
+                            mensagem.getChaveLocal(), mensagem.getTexto());
+                }
+                primeira += lote.size();
+            }
+            out.writeByte(SINCRONIZADO);
+            out.flush();
+            List<Registro> lote = new ArrayList<>();
+            while (!encerrado && !socket.isClosed()) {
+                Registro registro = minhaFila.poll(INTERVALO_BATIMENTO_MS, TimeUnit.MILLISECONDS);
+                if (registro == null) {
+                    out.writeByte(BATIMENTO);
+                    out.flush();
+                    continue;
+                }
+                lote.add(registro);
+                minhaFila.drainTo(lote, 1024);
+                for (Registro item : lote) {
+                    if (item.tipo == ARQUIVO) {
+                        escreverArquivo(out, item.lsn, item.campos[0], item.campos[1], item.campos[2]);
+                    } else {
+                        escreverMensagem(out, item.lsn, item.instante, item.campos[0], item.campos[1], item.campos[2], item.campos[3]);
+                    }
+                }
+                out.flush();
+                lote.clear();
+            }
+        } catch (IOException e) {
+            System.err.println("Replicação: réplica desconectada: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            synchronized (this) {
+                if (replica == socket) {
+                    encerrarSessao();
+                }
+            }
+            fecharSilenciosamente(socket);
+        }
+    }
+
+    private void lerConfirmacoes(Socket socket, DataInputStream in) {
+        try {
+            while (true) {
+                long lsn = in.readLong();
+                synchronized (this) {
+                    if (replica != socket) {
+                        return;
+                    }
+                    ultimaResposta = System.currentTimeMillis();
+                    lsnConfirmado = Math.max(lsnConfirmado, lsn);
+                    if (atrasada && lsnConfirmado == ultimoLsn) {
+                        atrasada = false;
+                        System.err.println("Replicação: réplica alcançou o primário, voltando ao modo " + modo);
+                    }
+                    notifyAll();
+                }
+            }
+        } catch (IOException e) {
+            synchronized (this) {
+                if (replica == socket) {
+                    encerrarSessao();
+                }
+            }
+            fecharSilenciosamente(socket);
+        }
+    }
+
+    /**
+     * Deve ser chamado com o bloqueio desta classe
+     */
+    private void encerrarSessao() {
+        if (replica != null) {
+            fecharSilenciosamente(replica);
+        }
+        replica = null;
+        fila = null;
+        notifyAll();
+    }
+
+    private void escreverArquivo(DataOutputStream out, long lsn, String nomeUnico, String nomeOriginal,
+                                 String remetente) throws IOException {
+        File arquivo = new File(pastaArquivos, nomeUnico);
+        out.writeByte(ARQUIVO);
+        out.writeLong(lsn);
+        out.writeUTF(nomeUnico);
+        out.writeUTF(nomeOriginal);
+        out.writeUTF(remetente);
+        if (!arquivo.isFile()) {
+            out.writeLong(-1);
+            return;
+        }
+        long tamanho = arquivo.length();
+        out.writeLong(tamanho);
+        try (InputStream conteudo = new FileInputStream(arquivo)) {
+            byte[] buffer = new byte[65536];
+            long restantes = tamanho;
+            while (restantes > 0) {
+                int lidos = conteudo.read(buffer, 0, (int) Math.min(buffer.length, restantes));
+                if (lidos == -1) {
+                    throw new EOFException("Arquivo " + nomeUnico + " encolheu durante a replicação");
+                }
+                out.write(buffer, 0, lidos);
+                restantes -= lidos;
+            }
+        }
+    }
+
+    private static void escreverMensagem(DataOutputStream out, long lsn, long instante, String remetente,
+                                         String destinatario, String chaveLocal, String texto) throws IOException {
+        out.writeByte(MENSAGEM);
+        out.writeLong(lsn);
+        out.writeLong(instante);
+        out.writeUTF(remetente);
+        out.writeUTF(destinatario);
+        out.writeUTF(chaveLocal);
+        out.writeUTF(texto);
+    }
+
+    /**
+     * Lado réplica: acompanha o primário até que ele fique inacessível por mais de
+     * {@link #TEMPO_FAILOVER_PADRAO_MS} depois de ao menos uma sincronização completa.
+     * Retorna quando este servidor deve assumir como primário.
+     */
+    public void acompanharPrimario() {
+        String host = primario.substring(0, primario.lastIndexOf(':'));
+        int porta = Integer.parseInt(primario.substring(primario.lastIndexOf(':') + 1)) + DESLOCAMENTO_PORTA;
+        long ultimoContato = 0;
+        while (!encerrado) {
+            boolean apresentada = false;
+            try (Socket socket = new Socket()) {
+                socket.connect(new InetSocketAddress(host, porta), (int) tempoFailoverMs);
+                socket.setTcpNoDelay(true);
+                // Sem batimento por este tempo, o primário é considerado perdido
+                socket.setSoTimeout((int) Math.max(tempoFailoverMs, 4 * INTERVALO_BATIMENTO_MS));
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 65536));
+                if (!autenticacao.conferirQuemAceitou(out, in, "replica", "primario")) {
+                    System.err.println("Replicação: " + primario + " não comprovou o segredo de replicação");
+                    throw new IOException("primário não autenticado");
+                }
+                apresentar(out);
+                apresentada = true;
+                System.err.println("Replicação: acompanhando o primário " + primario);
+                boolean sincronizada = false;
+                long ultimoAplicado = 0;
+                while (true) {
+                    byte tipo = in.readByte();
+                    if (tipo == SINCRONIZADO) {
+                        sincronizada = true;
+                        System.err.println("Replicação: réplica sincronizada com " + primario);
+                    } else if (tipo == ARQUIVO || tipo == MENSAGEM) {
+                        long lsn = in.readLong();
+                        if (tipo == ARQUIVO) {
+                            aplicarArquivo(in);
+                        } else {
+                            aplicarMensagem(in);
+                        }
+                        if (lsn > 0) {
+                            ultimoAplicado = lsn;
+                        }
+                    } else if (tipo != BATIMENTO) {
+                        throw new IOException("Registro de replicação desconhecido: " + tipo);
+                    }
+                    if (sincronizada) {
+                        ultimoContato = System.currentTimeMillis();
+                    }
+                    // Confirma em grupo: só quando não há mais registros já recebidos.
+                    // O batimento também é respondido, para o primário saber que a réplica está ativa
+                    if ((ultimoAplicado > 0 && in.available() == 0) || tipo == BATIMENTO) {
+                        out.writeLong(ultimoAplicado);
+                        out.flush();
+                        ultimoAplicado = 0;
+                    }
+                }
+            } catch (IOException e) {
+                if (apresentada) {
+                    System.err.println("Replicação: ligação com o primário perdida"
+                            + (e.getMessage() != null ? ": " + e.getMessage() : ""));
+                }
+            }
+            if (ultimoContato > 0 && System.currentTimeMillis() - ultimoContato >= tempoFailoverMs) {
+                System.err.println("Replicação: primário " + primario + " inacessível há "
+                        + (System.currentTimeMillis() - ultimoContato) + " ms, assumindo");
+                return;
+            }
+            try {
+                Thread.sleep(Math.min(INTERVALO_BATIMENTO_MS, tempoFailoverMs / 4));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void apresentar(DataOutputStream out) throws IOException {
+        Map<String, String[]> entradas = catalogo.entradas();
+        out.writeInt(historico != null ? historico.getQuantidade() : 0);
+        List<String> presentes = new ArrayList<>();
+        for (String nomeUnico : entradas.keySet()) {
+            if (new File(pastaArquivos, nomeUnico).isFile()) {
+                presentes.add(nomeUnico);
+            }
+        }
+        out.writeInt(presentes.size());
+        for (String nomeUnico : presentes) {
+            out.writeUTF(nomeUnico);
+        }
+        out.flush();
+    }
+
+    private void aplicarArquivo(DataInputStream in) throws IOException {
+        String nomeUnico = in.readUTF();
+        String nomeOriginal = in.readUTF();
+        String remetente = in.readUTF();
+        long tamanho = in.readLong();
+        if (!NomeArquivo.isSeguro(nomeUnico)) {
+            throw new IOException("Nome de arquivo inválido na replicação: " + nomeUnico);
+        }
+        if (tamanho >= 0) {
+            pastaArquivos.mkdirs();
+            File temporario = new File(pastaArquivos, nomeUnico + ".parcial");
+            try (OutputStream arquivo = new FileOutputStream(temporario)) {
+                byte[] buffer = new byte[65536];
+                long restantes = tamanho;
+                while (restantes > 0) {
+                    int lidos = in.read(buffer, 0, (int) Math.min(buffer.length, restantes));
+                    if (lidos == -1) {
+                        throw new EOFException("Conexão fechada durante a cópia de " + nomeUnico);
+                    }
+                    arquivo.write(buffer, 0, lidos);
+                    restantes -= lidos;
+                }
+            }
+            File destino = new File(pastaArquivos, nomeUnico);
+            if (!temporario.renameTo(destino)) {
+                destino.delete();
+                if (!temporario.renameTo(destino)) {
+                    throw new IOException("Não foi possível gravar " + destino);
+                }
+            }
+        }
+        catalogo.arquivoReplicado(nomeUnico, nomeOriginal, remetente);
+    }
+
+    private void aplicarMensagem(DataInputStream in) throws IOException {
+        long instante = in.readLong();
+        String remetente = in.readUTF();
+        String destinatario = in.readUTF();
+        String chaveLocal = in.readUTF();
+        String texto = in.readUTF();
+        if (historico != null) {
+            historico.registrar(instante, remetente, destinatario, chaveLocal, texto);
+        }
+    }
+
+    private static void fecharSilenciosamente(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // já fechado
+        }
+    }
+}
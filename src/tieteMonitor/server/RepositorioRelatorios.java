@@ -0,0 +1,291 @@
+package tieteMonitor.server;
+
+import java.io.*;
+import java.util.*;
+import tieteMonitor.util.CodificacaoUTF;
+
+/**
+ * Armazenamento durável e busca dos relatórios de inspeção.
+ * Os relatórios são gravados num arquivo somente de acréscimo e separados nas seções
+ * do modelo usado pelo cliente (Local, Data, Inspetor, Descrição, Impacto, Medidas).
+ * Um índice invertido, que também indexa o local, é atualizado a cada relatório recebido;
+ * o intervalo de datas é resolvido por busca binária, já que os relatórios são numerados
+ * na ordem de chegada. Na inicialização o índice é reconstruído a partir do arquivo.
+ */
+public class RepositorioRelatorios {
+    private static final String ARQUIVO_RELATORIOS = "relatorios.dat";
+    // Termo reservado (a tokenização nunca gera ":") que indexa o local de cada relatório
+    private static final String TERMO_LOCAL = "local:";
+
+    private final File arquivo;
+    private final IndiceInvertido indice = new IndiceInvertido();
+    private long[] posicoes = new long[1024];
+    private long[] recebidos = new long[1024];
+    private int quantidade;
+    private DataOutputStream saida;
+    private RandomAccessFile leitura;
+    private long tamanhoArquivo;
+
+    /**
+     * Relatório separado nas seções do modelo do cliente
+     */
+    public static class Relatorio {
+        private int id;
+        private long recebido;
+        private String chaveLocal;
+        private String local = "";
+        private String data = "";
+        private String inspetor = "";
+        private String descricao = "";
+        private String impacto = "";
+        private String medidas = "";
+        private String texto = "";
+
+        /**
+         * @param texto Texto do relatório como digitado pelo inspetor
+         * @param inspetorPadrao Inspetor usado se o texto não tiver a linha "Inspetor:"
+         * @param localPadrao Local usado se o texto não tiver a linha "Local de Monitoramento:"
+         * @return Relatório com as seções preenchidas
+         */
+        public static Relatorio interpretar(String texto, String inspetorPadrao, String localPadrao) {
+            Relatorio relatorio = new Relatorio();
+            relatorio.texto = texto;
+            relatorio.inspetor = inspetorPadrao != null ? inspetorPadrao : "";
+            relatorio.local = localPadrao != null ? localPadrao : "";
+            StringBuilder secaoAtual = null;
+            StringBuilder descricao = new StringBuilder();
+            StringBuilder impacto = new StringBuilder();
+            StringBuilder medidas = new StringBuilder();
+            for (String linha : texto.split("\n")) {
+                String aparada = linha.trim();
+                if (aparada.startsWith("Local de Monitoramento:")) {
+                    relatorio.local = aparada.substring("Local de Monitoramento:".length()).trim();
+                } else if (aparada.startsWith("Data:")) {
+                    relatorio.data = aparada.substring("Data:".length()).trim();
+                } else if (aparada.startsWith("Inspetor:")) {
+                    relatorio.inspetor = aparada.substring("Inspetor:".length()).trim();
+                } else if (aparada.startsWith("Descrição do Evento:")) {
+                    secaoAtual = descricao;
+                } else if (aparada.startsWith("Impacto Ambiental:")) {
+                    secaoAtual = impacto;
+                } else if (aparada.startsWith("Medidas Tomadas:")) {
+                    secaoAtual = medidas;
+                } else if (secaoAtual != null && !aparada.matches("-+") && !aparada.isEmpty()) {
+                    if (secaoAtual.length() > 0) {
+                        secaoAtual.append("\n");
+                    }
+                    secaoAtual.append(aparada);
+                }
+            }
+            relatorio.descricao = descricao.toString();
+            relatorio.impacto = impacto.toString();
+            relatorio.medidas = medidas.toString();
+            return relatorio;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public long getRecebido() {
+            return recebido;
+        }
+
+        public String getLocal() {
+            return local;
+        }
+
+        public String getData() {
+            return data;
+        }
+
+        public String getInspetor() {
+            return inspetor;
+        }
+
+        public String getDescricao() {
+            return descricao;
+        }
+
+        public String getImpacto() {
+            return impacto;
+        }
+
+        public String getMedidas() {
+            return medidas;
+        }
+
+        public String getTexto() {
+            return texto;
+        }
+    }
+
+    /**
+     * @param pasta Pasta onde o arquivo de relatórios é mantido
+     */
+    public RepositorioRelatorios(File pasta) throws IOException {
+        if (!pasta.exists()) {
+            pasta.mkdirs();
+        }
+        this.arquivo = new File(pasta, ARQUIVO_RELATORIOS);
+        carregar();
+        this.saida = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(arquivo, true)));
+        this.leitura = new RandomAccessFile(arquivo, "r");
+    }
+
+    /**
+     * @param chaveLocal Chave normalizada do local (ver ServidorMonitoramento.chaveLocal)
+     * @param relatorio Relatório interpretado
+     * @return Identificador atribuído ao relatório
+     */
+    public synchronized int adicionar(String chaveLocal, Relatorio relatorio) throws IOException {
+        relatorio.id = quantidade;
+        relatorio.recebido = System.currentTimeMillis();
+        relatorio.chaveLocal = chaveLocal;
+        long posicao = tamanhoArquivo;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream registro = new DataOutputStream(bytes);
+        registro.writeLong(relatorio.recebido);
+        registro.writeUTF(chaveLocal);
+        registro.writeUTF(relatorio.inspetor);
+        registro.writeUTF(relatorio.texto);
+        bytes.writeTo(saida);
+        saida.flush();
+        tamanhoArquivo += bytes.size();
+        indexar(relatorio, posicao);
+        return relatorio.id;
+    }
+
+    /**
+     * @param termos Texto com as palavras que devem estar presentes (vazio para não filtrar)
+     * @param chaveLocal Chave do local, ou null para todos
+     * @param inicio Início do intervalo de recebimento (ms), ou Long.MIN_VALUE
+     * @param fim Fim do intervalo de recebimento (ms), ou Long.MAX_VALUE
+     * @param limite Máximo de relatórios retornados
+     * @return Relatórios encontrados, do mais recente para o mais antigo
+     */
+    public synchronized List<Relatorio> buscar(String termos, String chaveLocal, long inicio, long fim, int limite)
+            throws IOException {
+        int primeiro = primeiroRecebidoAPartirDe(inicio);
+        int ultimo = primeiroRecebidoAPartirDe(fim == Long.MAX_VALUE ? fim : fim + 1) - 1;
+        List<Relatorio> encontrados = new ArrayList<>();
+        if (primeiro > ultimo) {
+            return encontrados;
+        }
+        Set<String> termosConsulta = IndiceInvertido.tokenizar(termos);
+        if (chaveLocal != null) {
+            termosConsulta.add(TERMO_LOCAL + chaveLocal);
+        }
+        if (termosConsulta.isEmpty()) {
+            for (int id = ultimo; id >= primeiro && encontrados.size() < limite; id--) {
+                encontrados.add(ler(id));
+            }
+            return encontrados;
+        }
+        int[] candidatos = indice.buscar(termosConsulta);
+        for (int i = candidatos.length - 1; i >= 0 && encontrados.size() < limite; i--) {
+            int id = candidatos[i];
+            if (id < primeiro) {
+                break;
+            }
+            if (id <= ultimo) {
+                encontrados.add(ler(id));
+            }
+        }
+        return encontrados;
+    }
+
+    public synchronized int getQuantidade() {
+        return quantidade;
+    }
+
+    /**
+     * Busca binária: como os ids seguem a ordem de chegada, os instantes são crescentes
+     */
+    private int primeiroRecebidoAPartirDe(long instante) {
+        int baixo = 0;
+        int alto = quantidade;
+        while (baixo < alto) {
+            int meio = (baixo + alto) >>> 1;
+            if (recebidos[meio] < instante) {
+                baixo = meio + 1;
+            } else {
+                alto = meio;
+            }
+        }
+        return baixo;
+    }
+
+    private Relatorio ler(int id) throws IOException {
+        leitura.seek(posicoes[id]);
+        long recebido = leitura.readLong();
+        String chaveLocal = leitura.readUTF();
+        String inspetor = leitura.readUTF();
+        String texto = leitura.readUTF();
+        Relatorio relatorio = Relatorio.interpretar(texto, inspetor, chaveLocal);
+        relatorio.id = id;
+        relatorio.recebido = recebido;
+        relatorio.chaveLocal = chaveLocal;
+        return relatorio;
+    }
+
+    private void indexar(Relatorio relatorio, long posicao) {
+        if (quantidade == posicoes.length) {
+            posicoes = Arrays.copyOf(posicoes, quantidade * 2);
+            recebidos = Arrays.copyOf(recebidos, quantidade * 2);
+        }
+        posicoes[quantidade] = posicao;
+        // Garante a ordem crescente mesmo se o relógio do servidor retroceder
+        recebidos[quantidade] = quantidade > 0 ? Math.max(relatorio.recebido, recebidos[quantidade - 1]) : relatorio.recebido;
+        quantidade++;
+        Set<String> termos = IndiceInvertido.tokenizar(relatorio.texto);
+        termos.addAll(IndiceInvertido.tokenizar(relatorio.inspetor));
+        termos.add(TERMO_LOCAL + relatorio.chaveLocal);
+        indice.adicionar(relatorio.id, termos);
+    }
+
+    private void carregar() throws IOException {
+        if (!arquivo.exists()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(arquivo)))) {
+            long posicao = 0;
+            while (true) {
+                long recebido;
+                String chaveLocal;
+                String inspetor;
+                String texto;
+                try {
+                    recebido = in.readLong();
+                    chaveLocal = in.readUTF();
+                    inspetor = in.readUTF();
+                    texto = in.readUTF();
+                } catch (EOFException e) {
+                    break;
+                }
+                Relatorio relatorio = Relatorio.interpretar(texto, inspetor, chaveLocal);
+                relatorio.id = quantidade;
+                relatorio.recebido = recebido;
+                relatorio.chaveLocal = chaveLocal;
+                indexar(relatorio, posicao);
+                posicao += 8 + CodificacaoUTF.tamanho(chaveLocal) + CodificacaoUTF.tamanho(inspetor) + CodificacaoUTF.tamanho(texto);
+            }
+            tamanhoArquivo = posicao;
+        }
+        // Descarta um registro incompleto no fim do arquivo (queda durante a gravação)
+        if (tamanhoArquivo < arquivo.length()) {
+            try (RandomAccessFile raf = new RandomAccessFile(arquivo, "rw")) {
+                raf.setLength(tamanhoArquivo);
+            }
+        }
+    }
+
+    public synchronized void fechar() {
+        try {
+            saida.close();
+            leitura.close();
+        } catch (IOException e) {
+            System.err.println("Erro ao fechar relatórios: " + e.getMessage());
+        }
+    }
+}
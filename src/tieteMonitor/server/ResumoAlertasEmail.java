@@ -0,0 +1,331 @@
+package tieteMonitor.server;
+
+import java.io.*;
+import java.nio.file.*;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.concurrent.*;
+import tieteMonitor.util.ServicoEmail;
+
+/**
+ * Resumo periódico de alertas e relatórios por e-mail.
+ * Os eventos são registrados num diário em disco e agrupados por local monitorado;
+ * cada destinatário recebe um único e-mail com os eventos ainda não enviados a ele,
+ * seja no intervalo configurado ou quando o volume pendente atinge o limite.
+ * A última sequência confirmada de cada destinatário fica salva, de modo que um
+ * reinício do servidor não reenvia o que já foi entregue.
+ *
+ * Configuração (propriedades de sistema):
+ * tiete.resumo.destinatarios (e-mails separados por vírgula), tiete.resumo.remetente,
+ * tiete.resumo.senha, tiete.resumo.intervaloMs e tiete.resumo.limite.
+ */
+public class ResumoAlertasEmail {
+    private static final String ARQUIVO_DIARIO = "resumo_alertas.log";
+    private static final String ARQUIVO_ESTADO = "resumo_alertas.estado";
+    private static final long INTERVALO_PADRAO_MS = 15 * 60 * 1000L;
+    private static final int LIMITE_PADRAO = 50;
+
+    private final List<String> destinatarios;
+    private final ServicoEmail servicoEmail;
+    private final int limite;
+    private final File pasta;
+    private final List<Evento> eventos = new ArrayList<>();
+    private final Map<String, Long> ultimaEnviada = new HashMap<>();
+    private final Set<String> enviosEmAndamento = new HashSet<>();
+    private final ScheduledExecutorService agendador;
+    private DataOutputStream diario;
+    private long proximaSequencia = 1;
+    private int pendentesDesdeUltimoEnvio;
+
+    private static class Evento {
+        final long sequencia;
+        final String tipo;
+        final String local;
+        final String remetente;
+        final long timestamp;
+        final String texto;
+
+        Evento(long sequencia, String tipo, String local, String remetente, long timestamp, String texto) {
+            this.sequencia = sequencia;
+            this.tipo = tipo;
+            this.local = local;
+            this.remetente = remetente;
+            this.timestamp = timestamp;
+            this.texto = texto;
+        }
+    }
+
+    /**
+     * @return Resumo configurado pelas propriedades de sistema, ou null se não há destinatários
+     */
+    public static ResumoAlertasEmail criarPelaConfiguracao() throws IOException {
+        String lista = System.getProperty("tiete.resumo.destinatarios", "").trim();
+        String remetente = System.getProperty("tiete.resumo.remetente");
+        if (lista.isEmpty() || remetente == null) {
+            return null;
+        }
+        List<String> destinatarios = new ArrayList<>();
+        for (String d : lista.split(",")) {
+            if (!d.trim().isEmpty()) {
+                destinatarios.add(d.trim());
+            }
+        }
+        ServicoEmail servico = new ServicoEmail(remetente, System.getProperty("tiete.resumo.senha"));
+        return new ResumoAlertasEmail(destinatarios, servico,
+                Long.getLong("tiete.resumo.intervaloMs", INTERVALO_PADRAO_MS),
+                Integer.getInteger("tiete.resumo.limite", LIMITE_PADRAO),
+                new File("."));
+    }
+
+    /**
+     * @param destinatarios E-mails que recebem o resumo
+     * @param servicoEmail Serviço usado para o envio
+     * @param intervaloMs Intervalo entre resumos
+     * @param limite Quantidade de eventos pendentes que antecipa o envio
+     * @param pasta Pasta do diário e do estado
+     */
+    public ResumoAlertasEmail(List<String> destinatarios, ServicoEmail servicoEmail,
+                              long intervaloMs, int limite, File pasta) throws IOException {
+        this.destinatarios = new ArrayList<>(destinatarios);
+        this.servicoEmail = servicoEmail;
+        this.limite = limite;
+        this.pasta = pasta;
+        carregarEstado();
+        carregarDiario();
+        this.diario = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(new File(pasta, ARQUIVO_DIARIO), true)));
+        this.agendador = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "resumo-alertas");
+            t.setDaemon(true);
+            return t;
+        });
+        agendador.scheduleAtFixedRate(this::enviarResumos, intervaloMs, intervaloMs, TimeUnit.MILLISECONDS);
+    }
+
+    public void registrarAlerta(String local, String remetente, String texto) {
+        registrar("ALERTA", local, remetente, texto);
+    }
+
+    public void registrarRelatorio(String local, String remetente, String texto) {
+        registrar("RELATORIO", local, remetente, texto);
+    }
+
+    private void registrar(String tipo, String local, String remetente, String texto) {
+        boolean antecipar;
+        synchronized (this) {
+            Evento evento = new Evento(proximaSequencia++, tipo, local != null ? local : "Desconhecido",
+                    remetente, System.currentTimeMillis(), texto);
+            try {
+                gravarEvento(diario, evento);
+                diario.flush();
+            } catch (IOException e) {
+                System.err.println("Erro ao gravar evento no diário de resumo: " + e.getMessage());
+            }
+            eventos.add(evento);
+            antecipar = ++pendentesDesdeUltimoEnvio >= limite;
+        }
+        if (antecipar) {
+            agendador.execute(this::enviarResumos);
+        }
+    }
+
+    /**
+     * Monta e enfileira um e-mail por destinatário com os eventos ainda não enviados a ele.
+     */
+    public void enviarResumos() {
+        synchronized (this) {
+            pendentesDesdeUltimoEnvio = 0;
+        }
+        for (String destinatario : destinatarios) {
+            final long ultima;
+            final String corpo;
+            synchronized (this) {
+                if (enviosEmAndamento.contains(destinatario)) {
+                    continue;
+                }
+                long jaEnviada = ultimaEnviada.getOrDefault(destinatario, 0L);
+                List<Evento> novos = new ArrayList<>();
+                for (Evento evento : eventos) {
+                    if (evento.sequencia > jaEnviada) {
+                        novos.add(evento);
+                    }
+                }
+                if (novos.isEmpty()) {
+                    continue;
+                }
+                ultima = novos.get(novos.size() - 1).sequencia;
+                corpo = montarCorpo(novos);
+                enviosEmAndamento.add(destinatario);
+            }
+            String assunto = "[Monitor Tietê] Resumo de alertas e relatórios";
+            servicoEmail.enviar(destinatario, assunto, corpo).thenAccept(sucesso -> {
+                synchronized (this) {
+                    enviosEmAndamento.remove(destinatario);
+                    if (sucesso) {
+                        ultimaEnviada.put(destinatario, ultima);
+                        salvarEstado();
+                        descartarEventosEntregues();
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Agrupa os eventos por local e, dentro de cada local, une textos equivalentes
+     * mostrando a quantidade de ocorrências e quem as relatou.
+     */
+    private String montarCorpo(List<Evento> novos) {
+        SimpleDateFormat sdf = new SimpleDateFormat("dd/MM/yyyy HH:mm");
+        Map<String, Map<String, List<Evento>>> porLocal = new TreeMap<>();
+        for (Evento evento : novos) {
+            String chave = evento.tipo + "|" + AgregadorAlertas.impressaoDigital(evento.texto);
+            porLocal.computeIfAbsent(evento.local, k -> new LinkedHashMap<>())
+                    .computeIfAbsent(chave, k -> new ArrayList<>())
+                    .add(evento);
+        }
+        StringBuilder sb = new StringBuilder();
+        sb.append("Resumo do Sistema de Monitoramento Ambiental do Rio Tietê\n");
+        sb.append(novos.size()).append(" evento(s) desde o último resumo.\n\n");
+        for (Map.Entry<String, Map<String, List<Evento>>> local : porLocal.entrySet()) {
+            sb.append("== ").append(local.getKey()).append(" ==\n");
+            for (List<Evento> grupo : local.getValue().values()) {
+                Evento primeiro = grupo.get(0);
+                Set<String> relatores = new LinkedHashSet<>();
+                for (Evento evento : grupo) {
+                    relatores.add(evento.remetente);
+                }
+                sb.append(primeiro.tipo.equals("ALERTA") ? "[ALERTA] " : "[RELATÓRIO] ")
+                  .append(sdf.format(new Date(primeiro.timestamp)));
+                if (grupo.size() > 1) {
+                    sb.append(" (").append(grupo.size()).append(" ocorrências até ")
+                      .append(sdf.format(new Date(grupo.get(grupo.size() - 1).timestamp))).append(")");
+                }
+                sb.append(" - ").append(String.join(", ", relatores)).append("\n");
+                sb.append(primeiro.texto).append("\n\n");
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Remove da memória e do diário os eventos já entregues a todos os destinatários.
+     */
+    private void descartarEventosEntregues() {
+        long minima = Long.MAX_VALUE;
+        for (String destinatario : destinatarios) {
+            minima = Math.min(minima, ultimaEnviada.getOrDefault(destinatario, 0L));
+        }
+        final long limiteDescarte = minima;
+        if (!eventos.removeIf(e -> e.sequencia <= limiteDescarte)) {
+            return;
+        }
+        File arquivo = new File(pasta, ARQUIVO_DIARIO);
+        File temporario = new File(pasta, ARQUIVO_DIARIO + ".tmp");
+        try {
+            diario.close();
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporario)))) {
+                for (Evento evento : eventos) {
+                    gravarEvento(out, evento);
+                }
+            }
+            Files.move(temporario.toPath(), arquivo.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("Erro ao compactar diário de resumo: " + e.getMessage());
+        } finally {
+            try {
+                diario = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(arquivo, true)));
+            } catch (IOException e) {
+                System.err.println("Erro ao reabrir diário de resumo: " + e.getMessage());
+            }
+        }
+    }
+
+    private static void gravarEvento(DataOutputStream out, Evento evento) throws IOException {
+        out.writeLong(evento.sequencia);
+        out.writeUTF(evento.tipo);
+        out.writeUTF(evento.local);
+        out.writeUTF(evento.remetente != null ? evento.remetente : "");
+        out.writeLong(evento.timestamp);
+        out.writeUTF(evento.texto != null ? evento.texto : "");
+    }
+
+    private void carregarDiario() {
+        File arquivo = new File(pasta, ARQUIVO_DIARIO);
+        if (!arquivo.exists()) {
+            return;
+        }
+        long minima = Long.MAX_VALUE;
+        for (String destinatario : destinatarios) {
+            minima = Math.min(minima, ultimaEnviada.getOrDefault(destinatario, 0L));
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(arquivo)))) {
+            while (true) {
+                Evento evento = new Evento(in.readLong(), in.readUTF(), in.readUTF(), in.readUTF(), in.readLong(), in.readUTF());
+                proximaSequencia = Math.max(proximaSequencia, evento.sequencia + 1);
+                if (evento.sequencia > minima) {
+                    eventos.add(evento);
+                }
+            }
+        } catch (EOFException e) {
+            // Fim do diário (um registro incompleto no final é descartado)
+        } catch (IOException e) {
+            System.err.println("Erro ao ler diário de resumo: " + e.getMessage());
+        }
+        pendentesDesdeUltimoEnvio = eventos.size();
+    }
+
+    private void carregarEstado() {
+        File arquivo = new File(pasta, ARQUIVO_ESTADO);
+        if (!arquivo.exists()) {
+            return;
+        }
+        Properties estado = new Properties();
+        try (InputStream in = new FileInputStream(arquivo)) {
+            estado.load(in);
+        } catch (IOException e) {
+            System.err.println("Erro ao ler estado do resumo: " + e.getMessage());
+            return;
+        }
+        for (String destinatario : estado.stringPropertyNames()) {
+            try {
+                long sequencia = Long.parseLong(estado.getProperty(destinatario));
+                ultimaEnviada.put(destinatario, sequencia);
+                proximaSequencia = Math.max(proximaSequencia, sequencia + 1);
+            } catch (NumberFormatException e) {
+                System.err.println("Estado inválido para " + destinatario + " no resumo de alertas");
+            }
+        }
+    }
+
+    private void salvarEstado() {
+        Properties estado = new Properties();
+        for (Map.Entry<String, Long> entrada : ultimaEnviada.entrySet()) {
+            estado.setProperty(entrada.getKey(), String.valueOf(entrada.getValue()));
+        }
+        File arquivo = new File(pasta, ARQUIVO_ESTADO);
+        File temporario = new File(pasta, ARQUIVO_ESTADO + ".tmp");
+        try (OutputStream out = new FileOutputStream(temporario)) {
+            estado.store(out, "Última sequência enviada por destinatário");
+        } catch (IOException e) {
+            System.err.println("Erro ao salvar estado do resumo: " + e.getMessage());
+            return;
+        }
+        try {
+            Files.move(temporario.toPath(), arquivo.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("Erro ao salvar estado do resumo: " + e.getMessage());
+        }
+    }
+
+    public void encerrar() {
+        agendador.shutdownNow();
+        synchronized (this) {
+            try {
+                diario.close();
+            } catch (IOException e) {
+                System.err.println("Erro ao fechar diário de resumo: " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package tieteMonitor.server;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Roteamento de mensagens por tópico (um por local monitorado, mais "todos" e "central").
+ * Cada assinante escolhe os tópicos que recebe; "todos" é sempre assinado e
+ * {@link #QUALQUER} assina todos os tópicos, inclusive locais que ainda não existem.
+ * Uma mudança de assinatura só altera os tópicos envolvidos (em tempo logarítmico) e descarta
+ * as listas prontas deles; a lista de um tópico é remontada na primeira publicação seguinte,
+ * de modo que publicar percorre só os seus assinantes, sem consultar as assinaturas, e uma
+ * onda de reconexões não remonta nada até a próxima publicação.
+ *
+ * @param <T> Tipo do assinante (o handler de cada cliente no servidor)
+ */
+public class RoteadorTopicos<T> {
+    public static final String TODOS = "todos";
+    public static final String CENTRAL = "central";
+    public static final String QUALQUER = "*";
+
+    private final Map<T, Assinatura> assinaturas = new HashMap<>();
+    // Sob o bloqueio do roteador, por ordem de conexão: todos, curingas e assinantes de cada tópico
+    private final NavigableMap<Long, T> conectados = new TreeMap<>();
+    private final NavigableMap<Long, T> curingas = new TreeMap<>();
+    private final Map<String, NavigableMap<Long, T>> porTopico = new HashMap<>();
+    private long proximaOrdem;
+    // Listas imutáveis já montadas por tópico, lidas sem bloqueio
+    private final Map<String, List<T>> listas = new ConcurrentHashMap<>();
+    // Combinação de tópicos publicada junto (ex: "mogi|central") -> assinantes sem repetição
+    private final Map<String, List<T>> combinadas = new ConcurrentHashMap<>();
+
+    private static class Assinatura {
+        final long ordem;
+        Set<String> topicos;
+
+        Assinatura(long ordem, Set<String> topicos) {
+            this.ordem = ordem;
+            this.topicos = topicos;
+        }
+    }
+
+    /**
+     * Registra um assinante que recebe todos os tópicos, como antes da existência dos tópicos
+     */
+    public synchronized void conectar(T assinante) {
+        desconectar(assinante);
+        Assinatura assinatura = new Assinatura(proximaOrdem++, new LinkedHashSet<>(Arrays.asList(TODOS, QUALQUER)));
+        assinaturas.put(assinante, assinatura);
+        conectados.put(assinatura.ordem, assinante);
+        listas.remove(TODOS);
+        for (String topico : assinatura.topicos) {
+            incluir(assinante, assinatura.ordem, topico);
+        }
+        combinadas.clear();
+    }
+
+    public synchronized void desconectar(T assinante) {
+        Assinatura assinatura = assinaturas.remove(assinante);
+        if (assinatura == null) {
+            return;
+        }
+        conectados.remove(assinatura.ordem);
+        listas.remove(TODOS);
+        for (String topico : assinatura.topicos) {
+            retirar(assinatura.ordem, topico);
+        }
+        combinadas.clear();
+    }
+
+    /**
+     * Substitui os tópicos do assinante
+     * @param assinante Assinante já conectado
+     * @param topicos Chaves de locais, {@link #CENTRAL} ou {@link #QUALQUER}
+     * @return Tópicos efetivamente assinados (sempre inclui {@link #TODOS})
+     */
+    public synchronized Set<String> assinar(T assinante, Collection<String> topicos) {
+        Assinatura assinatura = assinaturas.get(assinante);
+        if (assinatura == null) {
+            return Collections.emptySet();
+        }
+        Set<String> novos = new LinkedHashSet<>();
+        novos.add(TODOS);
+        novos.addAll(topicos);
+        for (String topico : assinatura.topicos) {
+            if (!novos.contains(topico)) {
+                retirar(assinatura.ordem, topico);
+            }
+        }
+        for (String topico : novos) {
+            if (!assinatura.topicos.contains(topico)) {
+                incluir(assinante, assinatura.ordem, topico);
+            }
+        }
+        assinatura.topicos = novos;
+        combinadas.clear();
+        return Collections.unmodifiableSet(novos);
+    }
+
+    /**
+     * @return Tópicos atuais do assinante
+     */
+    public synchronized Set<String> getTopicos(T assinante) {
+        Assinatura assinatura = assinaturas.get(assinante);
+        return assinatura == null ? Collections.emptySet() : Collections.unmodifiableSet(new LinkedHashSet<>(assinatura.topicos));
+    }
+
+    /**
+     * @param topicos Tópicos em que a mensagem é publicada
+     * @return Assinantes de qualquer um dos tópicos, cada um uma única vez, na ordem de conexão
+     */
+    public List<T> assinantes(String... topicos) {
+        if (topicos.length == 1) {
+            List<T> lista = listas.get(topicos[0]);
+            return lista != null ? lista : montar(topicos[0]);
+        }
+        List<T> combinada = combinadas.get(String.join("|", topicos));
+        return combinada != null ? combinada : montarCombinada(topicos);
+    }
+
+    private void incluir(T assinante, long ordem, String topico) {
+        if (topico.equals(TODOS)) {
+            return;
+        }
+        if (topico.equals(QUALQUER)) {
+            curingas.put(ordem, assinante);
+            // Toda lista inclui os curingas
+            listas.clear();
+        } else {
+            porTopico.computeIfAbsent(topico, t -> new TreeMap<>()).put(ordem, assinante);
+            listas.remove(topico);
+        }
+    }
+
+    private void retirar(long ordem, String topico) {
+        if (topico.equals(TODOS)) {
+            return;
+        }
+        if (topico.equals(QUALQUER)) {
+            curingas.remove(ordem);
+            listas.clear();
+            return;
+        }
+        NavigableMap<Long, T> assinantes = porTopico.get(topico);
+        if (assinantes != null) {
+            assinantes.remove(ordem);
+            if (assinantes.isEmpty()) {
+                porTopico.remove(topico);
+            }
+        }
+        listas.remove(topico);
+    }
+
+    private synchronized List<T> montar(String topico) {
+        List<T> lista = listas.get(topico);
+        if (lista != null) {
+            return lista;
+        }
+        NavigableMap<Long, T> proprios = porTopico.get(topico);
+        if (topico.equals(TODOS)) {
+            lista = new ArrayList<>(conectados.values());
+        } else if (proprios == null) {
+            lista = new ArrayList<>(curingas.values());
+        } else {
+            lista = intercalar(proprios, curingas);
+        }
+        lista = Collections.unmodifiableList(lista);
+        listas.put(topico, lista);
+        return lista;
+    }
+
+    private synchronized List<T> montarCombinada(String[] topicos) {
+        String chave = String.join("|", topicos);
+        List<T> combinada = combinadas.get(chave);
+        if (combinada == null) {
+            Set<T> uniao = new LinkedHashSet<>();
+            for (String topico : topicos) {
+                uniao.addAll(assinantes(topico));
+            }
+            combinada = Collections.unmodifiableList(new ArrayList<>(uniao));
+            combinadas.put(chave, combinada);
+        }
+        return combinada;
+    }
+
+    /**
+     * @return Assinantes dos dois mapas, na ordem de conexão e sem repetição
+     */
+    private static <T> List<T> intercalar(NavigableMap<Long, T> primeiro, NavigableMap<Long, T> segundo) {
+        List<T> resultado = new ArrayList<>(primeiro.size() + segundo.size());
+        Iterator<Map.Entry<Long, T>> a = primeiro.entrySet().iterator();
+        Iterator<Map.Entry<Long, T>> b = segundo.entrySet().iterator();
+        Map.Entry<Long, T> x = a.hasNext() ? a.next() : null;
+        Map.Entry<Long, T> y = b.hasNext() ? b.next() : null;
+        while (x != null || y != null) {
+            int comparacao = x == null ? 1 : y == null ? -1 : Long.compare(x.getKey(), y.getKey());
+            if (comparacao <= 0) {
+                resultado.add(x.getValue());
+                x = a.hasNext() ? a.next() : null;
+                if (comparacao == 0) {
+                    y = b.hasNext() ? b.next() : null;
+                }
+            } else {
+                resultado.add(y.getValue());
+                y = b.hasNext() ? b.next() : null;
+            }
+        }
+        return resultado;
+    }
+}
@@ -0,0 +1,200 @@
+package tieteMonitor.server;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Codificação colunar de um segmento de medições.
+ * Os instantes são gravados como delta-de-delta em varint (zigzag) e os valores
+ * com XOR em relação ao valor anterior, gravando apenas os bits significativos.
+ * Leituras espaçadas regularmente com valores estáveis ocupam poucos bits por ponto.
+ */
+public class SegmentoMedicoes {
+
+    private SegmentoMedicoes() {
+    }
+
+    /**
+     * @param instantes Instantes (ms) das medições, em ordem
+     * @param valores Valores das medições
+     * @param quantidade Quantidade de pontos a codificar
+     * @return Bytes do segmento: [int tamanhoInstantes][instantes][int tamanhoValores][valores]
+     */
+    public static byte[] codificar(long[] instantes, double[] valores, int quantidade) {
+        ByteArrayOutputStream colunaInstantes = new ByteArrayOutputStream(quantidade * 2 + 16);
+        long anterior = 0;
+        long deltaAnterior = 0;
+        for (int i = 0; i < quantidade; i++) {
+            long delta = instantes[i] - anterior;
+            escreverVarint(colunaInstantes, zigzag(i == 0 ? instantes[0] : delta - deltaAnterior));
+            deltaAnterior = i == 0 ? 0 : delta;
+            anterior = instantes[i];
+        }
+
+        EscritorBits colunaValores = new EscritorBits(quantidade * 2 + 16);
+        long bitsAnteriores = 0;
+        int zerosEsquerdaAnt = -1;
+        int zerosDireitaAnt = 0;
+        for (int i = 0; i < quantidade; i++) {
+            long bits = Double.doubleToRawLongBits(valores[i]);
+            if (i == 0) {
+                colunaValores.escrever(bits, 64);
+            } else {
+                long xor = bits ^ bitsAnteriores;
+                if (xor == 0) {
+                    colunaValores.escrever(0, 1);
+                } else {
+                    colunaValores.escrever(1, 1);
+                    int zerosEsquerda = Math.min(Long.numberOfLeadingZeros(xor), 31);
+                    int zerosDireita = Long.numberOfTrailingZeros(xor);
+                    if (zerosEsquerdaAnt >= 0 && zerosEsquerda >= zerosEsquerdaAnt && zerosDireita >= zerosDireitaAnt) {
+                        int significativos = 64 - zerosEsquerdaAnt - zerosDireitaAnt;
+                        colunaValores.escrever(0, 1);
+                        colunaValores.escrever(xor >>> zerosDireitaAnt, significativos);
+                    } else {
+                        int significativos = 64 - zerosEsquerda - zerosDireita;
+                        colunaValores.escrever(1, 1);
+                        colunaValores.escrever(zerosEsquerda, 5);
+                        colunaValores.escrever(significativos - 1, 6);
+                        colunaValores.escrever(xor >>> zerosDireita, significativos);
+                        zerosEsquerdaAnt = zerosEsquerda;
+                        zerosDireitaAnt = zerosDireita;
+                    }
+                }
+            }
+            bitsAnteriores = bits;
+        }
+
+        byte[] instantesCodificados = colunaInstantes.toByteArray();
+        byte[] valoresCodificados = colunaValores.toByteArray();
+        ByteBuffer saida = ByteBuffer.allocate(8 + instantesCodificados.length + valoresCodificados.length);
+        saida.putInt(instantesCodificados.length).put(instantesCodificados);
+        saida.putInt(valoresCodificados.length).put(valoresCodificados);
+        return saida.array();
+    }
+
+    /**
+     * @param dados Buffer posicionado no início do segmento (pode ser um arquivo mapeado)
+     * @param quantidade Quantidade de pontos do segmento
+     * @param instantes Destino dos instantes (tamanho mínimo: quantidade)
+     * @param valores Destino dos valores (tamanho mínimo: quantidade)
+     */
+    public static void decodificar(ByteBuffer dados, int quantidade, long[] instantes, double[] valores) {
+        int tamanhoInstantes = dados.getInt();
+        int inicioInstantes = dados.position();
+        long anterior = 0;
+        long deltaAnterior = 0;
+        for (int i = 0; i < quantidade; i++) {
+            long lido = desfazerZigzag(lerVarint(dados));
+            if (i == 0) {
+                instantes[0] = lido;
+            } else {
+                long delta = deltaAnterior + lido;
+                instantes[i] = anterior + delta;
+                deltaAnterior = delta;
+            }
+            anterior = instantes[i];
+        }
+        dados.position(inicioInstantes + tamanhoInstantes);
+
+        int tamanhoValores = dados.getInt();
+        LeitorBits leitor = new LeitorBits(dados, dados.position());
+        long bitsAnteriores = 0;
+        int zerosEsquerdaAnt = 0;
+        int zerosDireitaAnt = 0;
+        for (int i = 0; i < quantidade; i++) {
+            long bits;
+            if (i == 0) {
+                bits = leitor.ler(64);
+            } else if (leitor.ler(1) == 0) {
+                bits = bitsAnteriores;
+            } else {
+                if (leitor.ler(1) == 1) {
+                    zerosEsquerdaAnt = (int) leitor.ler(5);
+                    int significativos = (int) leitor.ler(6) + 1;
+                    zerosDireitaAnt = 64 - zerosEsquerdaAnt - significativos;
+                }
+                int significativos = 64 - zerosEsquerdaAnt - zerosDireitaAnt;
+                bits = bitsAnteriores ^ (leitor.ler(significativos) << zerosDireitaAnt);
+            }
+            valores[i] = Double.longBitsToDouble(bits);
+            bitsAnteriores = bits;
+        }
+        dados.position(dados.position() + tamanhoValores);
+    }
+
+    private static long zigzag(long valor) {
+        return (valor << 1) ^ (valor >> 63);
+    }
+
+    private static long desfazerZigzag(long valor) {
+        return (valor >>> 1) ^ -(valor & 1);
+    }
+
+    private static void escreverVarint(ByteArrayOutputStream out, long valor) {
+        while ((valor & ~0x7FL) != 0) {
+            out.write((int) ((valor & 0x7F) | 0x80));
+            valor >>>= 7;
+        }
+        out.write((int) valor);
+    }
+
+    private static long lerVarint(ByteBuffer in) {
+        long resultado = 0;
+        int deslocamento = 0;
+        byte b;
+        do {
+            b = in.get();
+            resultado |= (long) (b & 0x7F) << deslocamento;
+            deslocamento += 7;
+        } while ((b & 0x80) != 0);
+        return resultado;
+    }
+
+    private static class EscritorBits {
+        private byte[] bytes;
+        private long totalBits;
+
+        EscritorBits(int capacidade) {
+            bytes = new byte[Math.max(capacidade, 16)];
+        }
+
+        void escrever(long valor, int quantidadeBits) {
+            for (int i = quantidadeBits - 1; i >= 0; i--) {
+                int indice = (int) (totalBits >>> 3);
+                if (indice >= bytes.length) {
+                    bytes = java.util.Arrays.copyOf(bytes, bytes.length * 2);
+                }
+                if (((valor >>> i) & 1) != 0) {
+                    bytes[indice] |= (byte) (0x80 >>> (totalBits & 7));
+                }
+                totalBits++;
+            }
+        }
+
+        byte[] toByteArray() {
+            return java.util.Arrays.copyOf(bytes, (int) ((totalBits + 7) >>> 3));
+        }
+    }
+
+    private static class LeitorBits {
+        private final ByteBuffer dados;
+        private final int inicio;
+        private long posicaoBits;
+
+        LeitorBits(ByteBuffer dados, int inicio) {
+            this.dados = dados;
+            this.inicio = inicio;
+        }
+
+        long ler(int quantidadeBits) {
+            long resultado = 0;
+            for (int i = 0; i < quantidadeBits; i++) {
+                int b = dados.get(inicio + (int) (posicaoBits >>> 3));
+                resultado = (resultado << 1) | ((b >>> (7 - (posicaoBits & 7))) & 1);
+                posicaoBits++;
+            }
+            return resultado;
+        }
+    }
+}
@@ -1,12 +1,24 @@
 package tieteMonitor.server;
 
 import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
 import java.net.*;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
+import java.text.Normalizer;
+import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import javax.management.JMException;
+import javax.net.ssl.SSLContext;
 import javax.swing.*;
 import java.awt.*;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import tieteMonitor.util.MulticastManager;
 import tieteMonitor.util.TransferenciaArquivos;
 
 /**
@@ -15,22 +27,497 @@ import tieteMonitor.util.TransferenciaArquivos;
  */
 public class ServidorMonitoramento {
     private static final int PORTA = 12345;
+    private static final int CAPACIDADE_MAXIMA = 500;
+    private static final long INTERVALO_ANUNCIO_MS = 1000;
+    private static final int TAMANHO_PAGINA_HISTORICO = 25;
+    private static final int LIMITE_PERDAS_MULTICAST_POR_MINUTO = 20;
+    private static final long RETENCAO_SESSAO_PADRAO_MS = 60000;
+    private static final long INTERVALO_BATIMENTO_SESSAO_MS = 15000;
+    private static final int TEMPO_LEITURA_SESSAO_MS = 45000;
+    private static final int ENVIOS_LEMBRADOS = 50000;
+    private final int porta;
     private ServerSocket serverSocket;
+    private AceitadorTls aceitadorTls;
+    private MulticastManager anunciador;
     private List<ClienteHandler> clientes = new ArrayList<>();
     private JTextArea logArea;
     private JFrame frame;
-    private Map<String, String> locaisMonitorados = new HashMap<>();
+    private Map<String, String> locaisMonitorados = new LinkedHashMap<>();
     private Map<String, String> catalogoArquivos = new HashMap<>();
+    private AgregadorAlertas agregadorAlertas;
+    private ResumoAlertasEmail resumoAlertas;
+    private ArmazenamentoMedicoes armazenamentoMedicoes = new ArmazenamentoMedicoes(new File("medicoes"));
+    private MotorAlertasMedicoes motorAlertas;
+    private RepositorioRelatorios repositorioRelatorios;
+    private HistoricoChat historicoChat;
+    private final RoteadorTopicos<ClienteHandler> roteador = new RoteadorTopicos<>();
+    private DifusaoMulticast difusao;
+    private ClusterServidores cluster;
+    private final PresencaInspetores presenca = new PresencaInspetores(PresencaInspetores.INTERVALO_PADRAO_MS, this::difundirPresenca);
+    private ReplicacaoServidor replicacao;
+    private final GeradorMiniaturas miniaturas = new GeradorMiniaturas(new File("arquivos_recebidos"));
+    // Comandos mais frequentes primeiro: cada mensagem recebida conta no primeiro prefixo que casar
+    static final String[] COMANDOS_CONTADOS = {
+        "ACK:", "CHAT:PARA:", "MEDICAO:", "CHAT:ALERTA:", "CHAT:PRESENCA_DESDE:", "CHAT:LISTAR_INSPETORES",
+        "RELATORIO:", "ASSINAR:", "MULTICAST_ATIVO:", "MULTICAST_PERDA:", "BUSCAR_RELATORIOS:",
+        "BUSCAR_HISTORICO:", "CONSULTA_MEDICOES:", "RASTRO_FIM:", "SAIR"
+    };
+    private final MetricasServidor metricas = new MetricasServidor("tiete_mensagens_recebidas_total", COMANDOS_CONTADOS);
+    private final LongAdder mensagensEnviadas = metricas.contador("tiete_mensagens_enviadas_total");
+    private final LongAdder destinosDifusao = metricas.contador("tiete_difusao_destinos_total");
+    private final MetricasServidor.Histograma tempoDifusao = metricas.histograma("tiete_difusao_segundos");
+    private final LongAdder logRegistrado = metricas.contador("tiete_log_registrado_total");
+    private final LongAdder logExibido = new LongAdder();
+    private final LongAdder bytesArquivosRecebidos = metricas.contador("tiete_arquivos_bytes_total{sentido=\"recebido\"}");
+    private final LongAdder bytesArquivosEnviados = metricas.contador("tiete_arquivos_bytes_total{sentido=\"enviado\"}");
+    private final RastreamentoMensagens rastreamento = new RastreamentoMensagens(metricas, new File("rastros_lentos.log"));
+    private final boolean instantaneosAtivos = Boolean.parseBoolean(System.getProperty("tiete.instantaneos", "true"));
+    private InstantaneosServidor instantaneos;
+    // Arquivos anunciados por outros nós do cluster: ficam fora do diário e da replicação
+    private final Set<String> arquivosDeOutrosNos = new HashSet<>();
+    // Token -> sessão retomável; uma sessão suspensa continua recebendo (e guardando) mensagens
+    private final Map<String, ClienteHandler> sessoes = new ConcurrentHashMap<>();
+    private final long retencaoSessaoMs = Long.getLong("tiete.sessao.retencao.ms", RETENCAO_SESSAO_PADRAO_MS);
+    // Ids das caixas de saída dos clientes já processados, para descartar os reenvios
+    private final Map<String, Boolean> enviosProcessados = new LinkedHashMap<String, Boolean>(1024, 0.75f, false) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> maisAntigo) {
+            return size() > ENVIOS_LEMBRADOS;
+        }
+    };
 
     public static void main(String[] args) {
-        new ServidorMonitoramento().iniciar();
+        int porta = PORTA;
+        if (args.length > 0) {
+            try {
+                porta = Integer.parseInt(args[0]);
+            } catch (NumberFormatException e) {
+                System.err.println("Porta inválida '" + args[0] + "', usando " + PORTA);
+            }
+        }
+        new ServidorMonitoramento(porta).iniciar();
     }
 
     public ServidorMonitoramento() {
+        this(PORTA);
+    }
+
+    public ServidorMonitoramento(int porta) {
+        this.porta = porta;
+        this.agregadorAlertas = new AgregadorAlertas(AgregadorAlertas.JANELA_PADRAO_MS, this::difundirResumoAlerta);
         inicializarLocais();
+        motorAlertas = new MotorAlertasMedicoes(new ArrayList<>(locaisMonitorados.keySet()), this::difundirAlertaAutomatico);
         configurarInterface();
+        try {
+            resumoAlertas = ResumoAlertasEmail.criarPelaConfiguracao();
+            if (resumoAlertas != null) {
+                registrarLog("Resumo de alertas por e-mail ativado");
+            }
+        } catch (IOException e) {
+            registrarLog("Erro ao iniciar resumo de alertas por e-mail: " + e.getMessage());
+        }
+        try {
+            repositorioRelatorios = new RepositorioRelatorios(new File("relatorios"));
+            registrarLog("Relatórios carregados: " + repositorioRelatorios.getQuantidade());
+        } catch (IOException e) {
+            registrarLog("Erro ao abrir repositório de relatórios: " + e.getMessage());
+        }
+        try {
+            historicoChat = new HistoricoChat(new File("historico"));
+            registrarLog("Histórico de chat carregado: " + historicoChat.getQuantidade() + " mensagem(ns)");
+        } catch (IOException e) {
+            registrarLog("Erro ao abrir histórico de chat: " + e.getMessage());
+        }
+        instantaneos = new InstantaneosServidor(new File("estado"), new File("arquivos_recebidos", "catalogo.txt"),
+                miniaturas, new FonteInstantaneos());
+        carregarCatalogo();
+        iniciarReplicacao();
+        iniciarCluster();
+        iniciarDifusaoMulticast();
+        restaurarEstado();
+        iniciarSupervisaoSessoes();
+        iniciarMetricas();
+        if (instantaneosAtivos) {
+            instantaneos.iniciar(Long.getLong("tiete.instantaneos.intervalo.s", InstantaneosServidor.INTERVALO_PADRAO_S) * 1000);
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            if (instantaneosAtivos) {
+                try {
+                    instantaneos.gravar(true);
+                } catch (IOException e) {
+                    System.err.println("Erro ao gravar instantâneo no encerramento: " + e.getMessage());
+                }
+                instantaneos.fechar();
+            }
+            armazenamentoMedicoes.fechar();
+            if (repositorioRelatorios != null) {
+                repositorioRelatorios.fechar();
+            }
+            if (historicoChat != null) {
+                historicoChat.fechar();
+            }
+            miniaturas.fechar();
+            rastreamento.fechar();
+            metricas.fechar();
+        }));
+    }
+
+    /**
+     * Carrega o catálogo de arquivos (instantâneo mais o trecho novo do diário, ver
+     * InstantaneosServidor) numa thread própria, que detém o bloqueio do catálogo até terminar:
+     * logins e chat já são atendidos, e só quem usa o catálogo espera pela carga
+     */
+    private void carregarCatalogo() {
+        CountDownLatch bloqueado = new CountDownLatch(1);
+        Thread carga = new Thread(() -> {
+            synchronized (catalogoArquivos) {
+                bloqueado.countDown();
+                long inicio = System.nanoTime();
+                List<String> verificar;
+                try {
+                    verificar = instantaneos.carregarCatalogo(catalogoArquivos);
+                } catch (IOException e) {
+                    registrarLog("Erro ao carregar catálogo de arquivos: " + e.getMessage());
+                    return;
+                }
+                registrarLog("Catálogo de arquivos carregado: " + catalogoArquivos.size() + " arquivo(s) em "
+                        + (System.nanoTime() - inicio) / 1000000 + " ms");
+                // Fotos recebidas antes das variantes existirem (ou cuja geração foi interrompida)
+                int pendentes = 0;
+                for (String nomeUnico : verificar) {
+                    if (miniaturas.enfileirar(nomeUnico)) {
+                        pendentes++;
+                    }
+                }
+                if (pendentes > 0) {
+                    registrarLog("Gerando variantes reduzidas de " + pendentes + " foto(s) do catálogo");
+                }
+            }
+        }, "carga-catalogo");
+        carga.setDaemon(true);
+        carga.start();
+        try {
+            bloqueado.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Restaura do último instantâneo os ids de envio já processados e, se ele foi gravado no
+     * encerramento e ainda dentro da retenção, as sessões, que ficam suspensas à espera de RETOMAR
+     */
+    private void restaurarEstado() {
+        if (!instantaneosAtivos) {
+            return;
+        }
+        InstantaneosServidor.Estado estado = instantaneos.carregarEstado();
+        if (estado == null) {
+            return;
+        }
+        synchronized (enviosProcessados) {
+            for (String id : estado.envios) {
+                enviosProcessados.put(id, Boolean.TRUE);
+            }
+        }
+        if (!estado.encerramento || System.currentTimeMillis() - estado.gravadoEm > retencaoSessaoMs) {
+            registrarLog("Instantâneo restaurado: " + estado.envios.size() + " id(s) de envio; sessões não retomáveis");
+            return;
+        }
+        int restauradas = 0;
+        for (InstantaneosServidor.SessaoGuardada guardada : estado.sessoes) {
+            if (encontrarClientePorNome(guardada.nome) != null
+                    || (cluster != null && !cluster.registrarEntrada(guardada.nome, guardada.local))) {
+                continue;
+            }
+            ClienteHandler cliente = new ClienteHandler(guardada.nome, guardada.local, guardada.sessao);
+            adicionarClienteChat(cliente);
+            roteador.assinar(cliente, guardada.topicos);
+            sessoes.put(guardada.sessao.getToken(), cliente);
+            restauradas++;
+        }
+        registrarLog("Instantâneo restaurado: " + estado.envios.size() + " id(s) de envio, " + restauradas
+                + " sessão(ões) aguardando retomada");
+    }
+
+    /**
+     * Estado lido a cada instantâneo (thread dos instantâneos ou gancho de encerramento)
+     */
+    private class FonteInstantaneos implements InstantaneosServidor.Fonte {
+        @Override
+        public List<String> envios() {
+            synchronized (enviosProcessados) {
+                return new ArrayList<>(enviosProcessados.keySet());
+            }
+        }
+
+        @Override
+        public List<InstantaneosServidor.SessaoGuardada> sessoes() {
+            List<InstantaneosServidor.SessaoGuardada> guardadas = new ArrayList<>();
+            for (ClienteHandler cliente : sessoes.values()) {
+                SessaoCliente sessao = cliente.getSessaoRetomavel();
+                if (sessao != null) {
+                    guardadas.add(new InstantaneosServidor.SessaoGuardada(cliente.getNomeInspetor(),
+                            cliente.getLocalMonitorado(), roteador.getTopicos(cliente), sessao));
+                }
+            }
+            return guardadas;
+        }
+    }
+
+    /**
+     * Acrescenta o arquivo ao catálogo e ao seu diário em disco, o repassa à réplica e, se for
+     * foto, agenda a geração das variantes reduzidas
+     * @return Número do registro de replicação (0 se não há réplica)
+     */
+    private long registrarNoCatalogo(String nomeUnico, String nomeOriginal, String remetente, boolean replicar) {
+        synchronized (catalogoArquivos) {
+            catalogoArquivos.put(nomeUnico, nomeOriginal + "|" + remetente);
+            File pasta = new File("arquivos_recebidos");
+            pasta.mkdirs();
+            try (Writer diario = new OutputStreamWriter(new FileOutputStream(new File(pasta, "catalogo.txt"), true), "UTF-8")) {
+                diario.write(nomeUnico + "|" + nomeOriginal + "|" + remetente + "\n");
+            } catch (IOException e) {
+                registrarLog("Erro ao gravar diário do catálogo: " + e.getMessage());
+            }
+            miniaturas.enfileirar(nomeUnico);
+            return replicar && replicacao != null ? replicacao.registrarArquivo(nomeUnico, nomeOriginal, remetente) : 0;
+        }
+    }
+
+    /**
+     * Replicação para um servidor em espera, se configurada (ver ReplicacaoServidor)
+     */
+    private void iniciarReplicacao() {
+        replicacao = ReplicacaoServidor.criarPelaConfiguracao(porta, new File("arquivos_recebidos"), historicoChat,
+                new ReplicacaoServidor.Catalogo() {
+                    @Override
+                    public Object bloqueio() {
+                        return catalogoArquivos;
+                    }
+
+                    @Override
+                    public Map<String, String[]> entradas() {
+                        Map<String, String[]> entradas = new LinkedHashMap<>();
+                        synchronized (catalogoArquivos) {
+                            for (Map.Entry<String, String> entrada : catalogoArquivos.entrySet()) {
+                                if (!arquivosDeOutrosNos.contains(entrada.getKey())) {
+                                    String[] partes = entrada.getValue().split("\\|", 2);
+                                    entradas.put(entrada.getKey(), new String[]{partes[0], partes.length > 1 ? partes[1] : "Desconhecido"});
+                                }
+                            }
+                        }
+                        return entradas;
+                    }
+
+                    @Override
+                    public void arquivoReplicado(String nomeUnico, String nomeOriginal, String remetente) {
+                        registrarNoCatalogo(nomeUnico, nomeOriginal, remetente, false);
+                    }
+                });
+        if (replicacao != null) {
+            registrarLog(replicacao.isReplica()
+                    ? "Servidor em espera, replicando de " + System.getProperty("tiete.replica.de")
+                    : "Replicação para servidor em espera ativa (modo " + replicacao.getModo() + ")");
+        }
+    }
+
+    /**
+     * Liga este servidor aos demais nós de -Dtiete.cluster (ver ClusterServidores), se configurado
+     */
+    private void iniciarCluster() {
+        try {
+            cluster = ClusterServidores.criarPelaConfiguracao(porta, new ClusterServidores.Ouvinte() {
+                @Override
+                public void entregar(String destinatario, String mensagem) {
+                    ClienteHandler cliente = encontrarClientePorNome(destinatario);
+                    if (cliente != null) {
+                        cliente.enviarMensagem(mensagem);
+                    } else {
+                        registrarLog("Destinatário '" + destinatario + "' de mensagem de outro servidor não encontrado.");
+                    }
+                }
+
+                @Override
+                public void publicar(String[] topicos, String mensagem) {
+                    publicarLocal(mensagem, null, topicos);
+                }
+
+                @Override
+                public void avisarJusante(List<String> locais, String mensagem) {
+                    avisarJusanteLocal(locais, mensagem);
+                }
+
+                @Override
+                public void presencaAlterada(String nome, boolean conectado) {
+                    if (conectado) {
+                        presenca.entrou(nome);
+                    } else {
+                        presenca.saiu(nome);
+                    }
+                }
+
+                @Override
+                public void nomeEmConflito(String nome) {
+                    ClienteHandler cliente = encontrarClientePorNome(nome);
+                    if (cliente != null) {
+                        registrarLog("Nome '" + nome + "' conectado antes em outro servidor; desconectando a sessão local.");
+                        cliente.encerrar("CHAT:MSG_DE:Sistema:Nome de usuário '" + nome + "' já em uso.");
+                    }
+                }
+
+                @Override
+                public void arquivoDisponivel(String nomeUnico, String nomeOriginal, String remetente) {
+                    synchronized (catalogoArquivos) {
+                        catalogoArquivos.put(nomeUnico, nomeOriginal + "|" + remetente);
+                        arquivosDeOutrosNos.add(nomeUnico);
+                    }
+                }
+            });
+            if (cluster != null) {
+                cluster.iniciar();
+                registrarLog("Nó de cluster " + cluster.getIdNo() + " ativo (porta " + (porta + ClusterServidores.DESLOCAMENTO_PORTA) + ")");
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            registrarLog("Cluster indisponível, operando isolado: " + e.getMessage());
+            cluster = null;
+        }
+    }
+
+    /**
+     * Cria um grupo multicast por tópico ("todos", "central" e cada local), a menos que
+     * -Dtiete.multicast=false. O alcance padrão (-Dtiete.multicast.ttl) é a rede local.
+     */
+    private void iniciarDifusaoMulticast() {
+        if (!Boolean.parseBoolean(System.getProperty("tiete.multicast", "true"))) {
+            return;
+        }
+        List<String> topicos = new ArrayList<>();
+        topicos.add(RoteadorTopicos.TODOS);
+        topicos.add(RoteadorTopicos.CENTRAL);
+        topicos.addAll(locaisMonitorados.keySet());
+        try {
+            difusao = new DifusaoMulticast(topicos, Integer.getInteger("tiete.multicast.ttl", 1),
+                    cluster != null ? cluster.getIndiceNo() : 0);
+        } catch (IOException e) {
+            registrarLog("Difusão multicast indisponível, usando somente TCP: " + e.getMessage());
+            return;
+        }
+        Thread threadBatimentos = new Thread(() -> {
+            while (true) {
+                difusao.enviarBatimentos();
+                try {
+                    Thread.sleep(INTERVALO_ANUNCIO_MS);
+                } catch (InterruptedException e) {
+                    break;
+                }
+            }
+        }, "batimentos-multicast");
+        threadBatimentos.setDaemon(true);
+        threadBatimentos.start();
+        registrarLog("Difusão multicast ativa: " + difusao.getDescricaoGrupos());
+    }
+
+    /**
+     * @param id Id de um item da caixa de saída de um cliente
+     * @return false se o item já foi processado (reenvio)
+     */
+    private boolean registrarEnvio(String id) {
+        synchronized (enviosProcessados) {
+            return enviosProcessados.put(id, Boolean.TRUE) == null;
+        }
+    }
+
+    private void esquecerEnvio(String id) {
+        synchronized (enviosProcessados) {
+            enviosProcessados.remove(id);
+        }
+    }
+
+    /**
+     * Envia batimentos às sessões ociosas (o cliente responde com ACK, o que mantém viva a
+     * leitura com tempo limite dos dois lados) e encerra de vez as sessões suspensas há mais
+     * de -Dtiete.sessao.retencao.ms sem retomada
+     */
+    private void iniciarSupervisaoSessoes() {
+        Thread threadSessoes = new Thread(() -> {
+            while (true) {
+                try {
+                    Thread.sleep(INTERVALO_ANUNCIO_MS * 5);
+                } catch (InterruptedException e) {
+                    break;
+                }
+                long agora = System.currentTimeMillis();
+                for (ClienteHandler cliente : new ArrayList<>(sessoes.values())) {
+                    cliente.supervisionar(agora);
+                }
+            }
+        }, "supervisao-sessoes");
+        threadSessoes.setDaemon(true);
+        threadSessoes.start();
+    }
+
+    /**
+     * Medidores lidos a cada coleta e publicação por JMX e no endpoint de texto (ver
+     * MetricasServidor), a menos que -Dtiete.metricas=false
+     */
+    private void iniciarMetricas() {
+        metricas.medidor("tiete_inspetores_conectados", () -> {
+            synchronized (clientes) {
+                return clientes.size();
+            }
+        });
+        // Mensagens enviadas e ainda não confirmadas, guardadas na sessão de cada cliente
+        metricas.medidor("tiete_fila_saida_maxima", () -> {
+            long maxima = 0;
+            for (ClienteHandler cliente : sessoes.values()) {
+                maxima = Math.max(maxima, cliente.getPendentesSaida());
+            }
+            return maxima;
+        });
+        metricas.medidor("tiete_fila_saida_total", () -> {
+            long total = 0;
+            for (ClienteHandler cliente : sessoes.values()) {
+                total += cliente.getPendentesSaida();
+            }
+            return total;
+        });
+        metricas.medidor("tiete_catalogo_arquivos", () -> {
+            synchronized (catalogoArquivos) {
+                return catalogoArquivos.size();
+            }
+        });
+        // Linhas de log ainda à espera da thread da interface
+        metricas.medidor("tiete_log_pendente", () -> logRegistrado.sum() - logExibido.sum());
+        // Uso de recursos do processo, para relacionar carga e custo
+        OperatingSystemMXBean sistema = ManagementFactory.getOperatingSystemMXBean();
+        if (sistema instanceof com.sun.management.OperatingSystemMXBean) {
+            metricas.medidor("tiete_processo_cpu_ms",
+                    () -> ((com.sun.management.OperatingSystemMXBean) sistema).getProcessCpuTime() / 1000000);
+        }
+        metricas.medidor("tiete_heap_usado_bytes",
+                () -> ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed());
+        metricas.medidor("tiete_threads", () -> ManagementFactory.getThreadMXBean().getThreadCount());
+        if (!Boolean.parseBoolean(System.getProperty("tiete.metricas", "true"))) {
+            return;
+        }
+        try {
+            metricas.registrarJmx(porta);
+        } catch (JMException e) {
+            registrarLog("Erro ao registrar métricas no JMX: " + e.getMessage());
+        }
+        int portaMetricas = Integer.getInteger("tiete.metricas.porta", porta + MetricasServidor.DESLOCAMENTO_PORTA);
+        try {
+            metricas.iniciarEndpoint(portaMetricas);
+            registrarLog("Métricas em http://127.0.0.1:" + portaMetricas + "/");
+        } catch (IOException e) {
+            registrarLog("Endpoint de métricas indisponível: " + e.getMessage());
+        }
     }
 
+    /**
+     * Locais em ordem da nascente para a capital, usada para avisar os pontos a jusante
+     */
     private void inicializarLocais() {
         locaisMonitorados.put("salesopolis", "Nascente - Salesópolis");
         locaisMonitorados.put("mogi", "Mogi das Cruzes");
@@ -41,6 +528,27 @@ public class ServidorMonitoramento {
         locaisMonitorados.put("saopaulo", "São Paulo - Capital");
     }
 
+    /**
+     * Converte o nome de local informado pelo inspetor (ex: "Mogi das Cruzes", "São Paulo")
+     * na chave usada em locaisMonitorados (ex: "mogi", "saopaulo").
+     * Locais fora da lista usam o próprio nome normalizado.
+     */
+    String chaveLocal(String local) {
+        if (local == null) {
+            return "desconhecido";
+        }
+        String normalizado = Normalizer.normalize(local, Normalizer.Form.NFD)
+                .replaceAll("\\p{M}", "")
+                .toLowerCase()
+                .replaceAll("[^a-z0-9]", "");
+        for (String chave : locaisMonitorados.keySet()) {
+            if (normalizado.startsWith(chave)) {
+                return chave;
+            }
+        }
+        return normalizado.isEmpty() ? "desconhecido" : normalizado;
+    }
+
     private void configurarInterface() {
         frame = new JFrame("Servidor de Monitoramento - Rio Tietê");
         frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
@@ -75,6 +583,11 @@ public class ServidorMonitoramento {
                     }
                 }
             }
+            if (cluster != null) {
+                for (String nome : cluster.getInspetoresRemotos()) {
+                    sb.append("- ").append(nome).append(" (outro servidor)\n");
+                }
+            }
             JOptionPane.showMessageDialog(frame, sb.toString());
         });
         painelInferior.add(btnListarClientes);
@@ -85,8 +598,18 @@ public class ServidorMonitoramento {
 
     public void iniciar() {
         try {
-            serverSocket = new ServerSocket(PORTA);
-            registrarLog("Servidor iniciado na porta " + PORTA);
+            if (replicacao != null) {
+                if (replicacao.isReplica()) {
+                    // Bloqueia até o primário ficar inacessível; catálogo e histórico já estão em dia
+                    replicacao.acompanharPrimario();
+                    registrarLog("Primário inacessível: assumindo como servidor principal");
+                }
+                replicacao.aceitarReplicas();
+            }
+            serverSocket = new ServerSocket(porta);
+            registrarLog("Servidor iniciado na porta " + porta);
+            iniciarTls();
+            iniciarAnuncioDescoberta();
 
             while (true) {
                 Socket clienteSocket = serverSocket.accept();
@@ -99,12 +622,73 @@ public class ServidorMonitoramento {
         }
     }
 
+    /**
+     * Com -Dtiete.tls.porta, atende também conexões TLS nessa porta (ver AceitadorTls), com o
+     * mesmo protocolo da porta em texto claro. Chave e certificado vêm do key store padrão da
+     * JVM (-Djavax.net.ssl.keyStore e -Djavax.net.ssl.keyStorePassword).
+     */
+    private void iniciarTls() {
+        int portaTls = Integer.getInteger("tiete.tls.porta", 0);
+        if (portaTls <= 0) {
+            return;
+        }
+        if (System.getProperty("javax.net.ssl.keyStore") == null) {
+            registrarLog("TLS desativado: informe o certificado do servidor com -Djavax.net.ssl.keyStore");
+            return;
+        }
+        try {
+            aceitadorTls = new AceitadorTls(portaTls, SSLContext.getDefault(), metricas, conexao -> {
+                registrarLog("Nova conexão TLS de: " + conexao.getInetAddress().getHostAddress());
+                new Thread(new ClienteHandler(conexao)).start();
+            });
+            aceitadorTls.iniciar();
+            registrarLog("Conexões TLS na porta " + portaTls);
+        } catch (IOException | NoSuchAlgorithmException e) {
+            registrarLog("TLS indisponível: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Anuncia periodicamente este servidor no grupo multicast de descoberta,
+     * informando porta, inspetores conectados, capacidade e a porta TLS, se houver, para que
+     * os clientes escolham automaticamente o servidor menos carregado.
+     */
+    private void iniciarAnuncioDescoberta() {
+        try {
+            anunciador = new MulticastManager(MulticastManager.DESCOBERTA_ADDRESS, MulticastManager.DESCOBERTA_PORT, mensagem -> { });
+        } catch (IOException e) {
+            registrarLog("Descoberta automática indisponível: " + e.getMessage());
+            return;
+        }
+        Thread threadAnuncio = new Thread(() -> {
+            while (!serverSocket.isClosed()) {
+                int conectados;
+                synchronized (clientes) {
+                    conectados = clientes.size();
+                }
+                anunciador.enviarMensagem("SERVIDOR_DISPONIVEL:" + porta + ":" + conectados + ":" + CAPACIDADE_MAXIMA
+                        + (aceitadorTls != null ? ":" + aceitadorTls.getPorta() : ""));
+                try {
+                    Thread.sleep(INTERVALO_ANUNCIO_MS);
+                } catch (InterruptedException e) {
+                    break;
+                }
+            }
+            anunciador.fechar();
+        }, "anuncio-descoberta");
+        threadAnuncio.setDaemon(true);
+        threadAnuncio.start();
+        registrarLog("Anunciando servidor no grupo de descoberta " + MulticastManager.DESCOBERTA_ADDRESS + ":" + MulticastManager.DESCOBERTA_PORT);
+    }
+
     public synchronized void registrarLog(String mensagem) {
         SimpleDateFormat sdf = new SimpleDateFormat("dd/MM/yyyy HH:mm:ss");
         String timestamp = sdf.format(new Date());
         String logComTimestamp = timestamp + " - " + mensagem;
 
+        logRegistrado.increment();
         SwingUtilities.invokeLater(() -> {
+            logExibido.increment();
             if (logComTimestamp.contains("ALERTA ENVIADO:") || logComTimestamp.contains("ALERTA de")) {
                  logArea.append(logComTimestamp + " 🚨\n");
             } else if (logComTimestamp.contains("RELATÓRIO de")){
@@ -119,32 +703,137 @@ public class ServidorMonitoramento {
         });
     }
 
-    public synchronized void enviarParaTodosClientes(String mensagem) {
-        for (ClienteHandler cliente : clientes) {
+    public void enviarParaTodosClientes(String mensagem) {
+        publicar(mensagem, null, RoteadorTopicos.TODOS);
+    }
+
+    /**
+     * Envia a mensagem apenas aos assinantes dos tópicos (ver RoteadorTopicos), neste e nos
+     * demais nós do cluster
+     * @param excluido Cliente que não deve recebê-la (o próprio remetente), ou null
+     */
+    private void publicar(String mensagem, ClienteHandler excluido, String... topicos) {
+        publicarLocal(mensagem, excluido, topicos);
+        if (cluster != null) {
+            cluster.publicar(topicos, mensagem);
+        }
+    }
+
+    private void publicarLocal(String mensagem, ClienteHandler excluido, String... topicos) {
+        long inicio = System.nanoTime();
+        List<ClienteHandler> assinantes = roteador.assinantes(topicos);
+        if (difusao == null) {
+            for (ClienteHandler cliente : assinantes) {
+                if (cliente != excluido) {
+                    cliente.enviarMensagem(mensagem);
+                }
+            }
+            destinosDifusao.add(assinantes.size());
+            tempoDifusao.registrar(System.nanoTime() - inicio);
+            return;
+        }
+        // Quem confirmou o grupo de um dos tópicos recebe por multicast; a decisão e a
+        // sequência da mensagem são atribuídas juntas, sob o mesmo bloqueio das confirmações
+        List<ClienteHandler> viaTcp = new ArrayList<>(assinantes.size());
+        List<ClienteHandler> viaMulticast = new ArrayList<>();
+        Set<String> grupos = new LinkedHashSet<>();
+        synchronized (difusao) {
+            for (ClienteHandler cliente : assinantes) {
+                if (cliente == excluido) {
+                    continue;
+                }
+                String grupo = cliente.grupoMulticast(topicos);
+                if (grupo == null) {
+                    viaTcp.add(cliente);
+                } else {
+                    grupos.add(grupo);
+                    viaMulticast.add(cliente);
+                }
+            }
+            String origem = excluido != null ? excluido.getNomeInspetor() : "";
+            if (!grupos.isEmpty() && !difusao.publicar(grupos, origem, mensagem)) {
+                viaTcp.addAll(viaMulticast);
+            }
+        }
+        for (ClienteHandler cliente : viaTcp) {
             cliente.enviarMensagem(mensagem);
         }
+        destinosDifusao.add(viaTcp.size() + viaMulticast.size());
+        tempoDifusao.registrar(System.nanoTime() - inicio);
+    }
+
+    /**
+     * Envia aos assinantes do local e da central o resumo de alertas equivalentes agrupados numa janela.
+     * Formato: CHAT:ALERTA:relator1, relator2:[N relatos em local] mensagem
+     */
+    private void difundirResumoAlerta(AgregadorAlertas.AlertaAgregado agregado) {
+        String relatores = String.join(", ", agregado.getRelatores());
+        String mensagem = "[" + agregado.getQuantidade() + " relatos em " + agregado.getLocal() + "] " + agregado.getMensagem();
+        registrarLog("ALERTA de " + relatores + " agregado: " + mensagem);
+        publicar("CHAT:ALERTA:" + relatores + ":" + mensagem, null, chaveLocal(agregado.getLocal()), RoteadorTopicos.CENTRAL);
+    }
+
+    /**
+     * Envia aos assinantes do local e da central o alerta gerado pelo motor de medições
+     * e avisa separadamente os inspetores dos locais a jusante sobre a possível propagação.
+     */
+    private void difundirAlertaAutomatico(String local, String mensagem, List<String> locaisJusante) {
+        String nomeLocal = locaisMonitorados.getOrDefault(local, local);
+        String remetente = "Monitor Automático (" + nomeLocal + ")";
+        registrarLog("ALERTA de " + remetente + ": " + mensagem);
+        if (resumoAlertas != null) {
+            resumoAlertas.registrarAlerta(nomeLocal, remetente, mensagem);
+        }
+        publicar("CHAT:ALERTA:" + remetente + ":" + mensagem, null, local, RoteadorTopicos.CENTRAL);
+        if (locaisJusante.isEmpty()) {
+            return;
+        }
+        String aviso = "CHAT:ALERTA:" + remetente + ":Possível propagação rio abaixo a partir de "
+                + nomeLocal + ", verifique seu ponto de monitoramento.";
+        avisarJusanteLocal(locaisJusante, aviso);
+        if (cluster != null) {
+            cluster.avisarJusante(locaisJusante, aviso);
+        }
+    }
+
+    private void avisarJusanteLocal(List<String> locaisJusante, String aviso) {
+        for (ClienteHandler cliente : roteador.assinantes(locaisJusante.toArray(new String[0]))) {
+            // Quem assina todos os locais não está necessariamente a jusante
+            if (locaisJusante.contains(chaveLocal(cliente.getLocalMonitorado()))) {
+                cliente.enviarMensagem(aviso);
+            }
+        }
     }
 
-    private void notificarClientesNovoInspetor(String nomeNovoInspetor) {
+    /**
+     * Envia a todos os clientes um quadro de alterações de presença (thread da presença)
+     */
+    private void difundirPresenca(String quadro) {
         synchronized (clientes) {
             for (ClienteHandler cliente : clientes) {
-                cliente.enviarMensagem("CHAT:CONECTADO:" + nomeNovoInspetor);
+                cliente.enviarMensagem(quadro);
             }
         }
     }
 
-    private void notificarClientesInspetorDesconectado(String nomeInspetorDesconectado) {
+    private ClienteHandler encontrarClientePorNome(String nome) {
         synchronized (clientes) {
             for (ClienteHandler cliente : clientes) {
-                cliente.enviarMensagem("CHAT:DESCONECTADO:" + nomeInspetorDesconectado);
+                if (cliente.getNomeInspetor() != null && cliente.getNomeInspetor().equals(nome)) {
+                    return cliente;
+                }
             }
         }
+        return null;
     }
 
     public synchronized void adicionarClienteChat(ClienteHandler cliente) {
-        clientes.add(cliente);
+        synchronized (clientes) {
+            clientes.add(cliente);
+        }
+        roteador.conectar(cliente);
         registrarLog("Novo inspetor conectado: " + cliente.getNomeInspetor() + " - Local: " + cliente.getLocalMonitorado());
-        notificarClientesNovoInspetor(cliente.getNomeInspetor());
+        presenca.entrou(cliente.getNomeInspetor());
     }
 
     /**
@@ -156,9 +845,37 @@ public class ServidorMonitoramento {
         private DataOutputStream dataOut;
         private String nomeInspetor;
         private String localMonitorado;
+        // Tópicos que este cliente confirmou receber por multicast (sem cópia por TCP)
+        private final Set<String> topicosMulticast = ConcurrentHashMap.newKeySet();
+        // Tópico -> {início da janela de um minuto, mensagens perdidas na janela}
+        private final Map<String, long[]> perdasMulticast = new HashMap<>();
+        // Criada no login; enquanto null as mensagens não são contadas nem guardadas
+        private SessaoCliente sessao;
+        // Instante da queda da conexão enquanto a sessão aguarda retomada; 0 se conectada
+        private long suspensaDesde;
+        private volatile long ultimaEscrita;
+        // Ordena as escritas na conexão da sessão; o bloqueio do handler nunca é mantido durante
+        // uma escrita, e quem precisa dos dois pega este primeiro
+        private final ReentrantLock escrita = new ReentrantLock();
+        // Saída pedida pelo cliente ou pelo servidor: a queda não suspende a sessão
+        private boolean encerrada;
+        private boolean finalizada;
+        // Comando rastreado em tratamento na thread de leitura, ou null
+        private RastreamentoMensagens.Rastro rastroAtual;
         public ClienteHandler(Socket socket) {
             this.socket = socket;
         }
+
+        /**
+         * Sessão restaurada de um instantâneo: fica suspensa, guardando as mensagens, até o
+         * cliente retomá-la ou a retenção acabar
+         */
+        ClienteHandler(String nomeInspetor, String localMonitorado, SessaoCliente sessao) {
+            this.nomeInspetor = nomeInspetor;
+            this.localMonitorado = localMonitorado;
+            this.sessao = sessao;
+            this.suspensaDesde = System.currentTimeMillis();
+        }
         @Override
         public void run() {
             try {
@@ -172,6 +889,22 @@ public class ServidorMonitoramento {
                     return;
                 }
 
+                if (primeiroComando.startsWith("RETOMAR:")) {
+                    if (retomarSessao(primeiroComando.substring(8))) {
+                        return;
+                    }
+                    // Sessão desconhecida (expirada ou de outro servidor): segue com login completo
+                    dataOut.writeUTF("SESSAO_EXPIRADA");
+                    primeiroComando = dataIn.readUTF();
+                }
+
+                // Arquivo da caixa de saída do cliente: ENVIO:id antes do comando ARQUIVO
+                String idEnvio = null;
+                if (primeiroComando.startsWith("ENVIO:")) {
+                    idEnvio = primeiroComando.substring(6);
+                    primeiroComando = dataIn.readUTF();
+                }
+
                 if (primeiroComando.startsWith("ARQUIVO:")) {
                     String[] partes = primeiroComando.split(":", 4);
                     if (partes.length >= 4) {
@@ -184,7 +917,23 @@ public class ServidorMonitoramento {
                         registrarLog("DEBUG: Destinatário: " + destinatario);
                         registrarLog("DEBUG: Remetente: " + remetente);
                         long tamanhoArquivo = dataIn.readLong();
+                        long inicioTransferencia = System.nanoTime();
                         registrarLog("DEBUG: Tamanho do arquivo recebido: " + tamanhoArquivo + " bytes");
+                        if (idEnvio != null && !registrarEnvio(idEnvio)) {
+                            // Reenvio de um arquivo já recebido (a confirmação anterior se perdeu)
+                            byte[] descarte = new byte[8192];
+                            for (long restantes = tamanhoArquivo; restantes > 0; ) {
+                                int lidos = dataIn.read(descarte, 0, (int) Math.min(descarte.length, restantes));
+                                if (lidos == -1) {
+                                    throw new IOException("Conexão fechada inesperadamente");
+                                }
+                                restantes -= lidos;
+                            }
+                            dataOut.writeUTF("ARQUIVO_RECEBIDO");
+                            dataOut.flush();
+                            registrarLog("Arquivo '" + nomeArquivoOriginal + "' de " + remetente + " já recebido; reenvio descartado");
+                            return;
+                        }
                         File pastaDestino = new File("arquivos_recebidos");
                         if (!pastaDestino.exists()) {
                             pastaDestino.mkdirs();
@@ -207,16 +956,24 @@ public class ServidorMonitoramento {
                                 registrarLog("DEBUG: Recebidos " + totalRecebido + " de " + tamanhoArquivo + " bytes");
                             }
                             fileOut.flush();
+                            bytesArquivosRecebidos.add(tamanhoArquivo);
+                            metricas.histograma("tiete_transferencia_segundos{sentido=\"recebido\"}").registrar(System.nanoTime() - inicioTransferencia);
                             registrarLog("DEBUG: Arquivo salvo com sucesso");
+                            long registroReplicacao = registrarNoCatalogo(nomeUnico, nomeArquivoOriginal, remetente, true);
+                            // No modo semissíncrono a confirmação só sai depois que a réplica tem o arquivo
+                            if (replicacao != null) {
+                                replicacao.aguardar(registroReplicacao);
+                            }
                             dataOut.writeUTF("ARQUIVO_RECEBIDO");
                             dataOut.flush();
                             synchronized (ServidorMonitoramento.this.catalogoArquivos) {
-                                String valorCatalogo = nomeArquivoOriginal + "|" + remetente;
-                                ServidorMonitoramento.this.catalogoArquivos.put(nomeUnico, valorCatalogo);
                                 registrarLog("DEBUG: Arquivo adicionado ao catálogo - Nome Único: " + nomeUnico + ", Nome Original: " + nomeArquivoOriginal + ", Remetente: " + remetente);
                                 registrarLog("DEBUG: Tamanho atual do catálogo: " + ServidorMonitoramento.this.catalogoArquivos.size());
                                 registrarLog("DEBUG: Conteúdo do catálogo após adição: " + ServidorMonitoramento.this.catalogoArquivos);
                             }
+                            if (cluster != null) {
+                                cluster.anunciarArquivo(nomeUnico, nomeArquivoOriginal, remetente);
+                            }
                             String mensagemNotificacao = "ARQUIVO:" + nomeUnico + ":" + remetente + ":" + nomeArquivoOriginal;
                             if (destinatario.equals("Todos os Inspetores")) {
                                 enviarParaTodosClientes(mensagemNotificacao);
@@ -224,6 +981,8 @@ public class ServidorMonitoramento {
                                 ClienteHandler clienteCentral = encontrarClientePorNomeOuCentral("Central");
                                 if (clienteCentral != null) {
                                     clienteCentral.enviarMensagem(mensagemNotificacao);
+                                } else if (cluster != null && cluster.enviarPrivada("Central", mensagemNotificacao)) {
+                                    registrarLog("Aviso de arquivo encaminhado à Central em outro servidor.");
                                 } else {
                                     registrarLog("Central não encontrada para envio de arquivo.");
                                 }
@@ -231,12 +990,18 @@ public class ServidorMonitoramento {
                                 ClienteHandler clienteDestino = encontrarClientePorNome(destinatario);
                                 if (clienteDestino != null) {
                                     clienteDestino.enviarMensagem(mensagemNotificacao);
+                                } else if (cluster != null && cluster.enviarPrivada(destinatario, mensagemNotificacao)) {
+                                    registrarLog("Aviso de arquivo para '" + destinatario + "' encaminhado a outro servidor.");
                                 } else {
                                     registrarLog("Destinatário '" + destinatario + "' para arquivo não encontrado.");
                                 }
                             }
                         } catch (IOException e) {
                             registrarLog("Erro ao receber arquivo '" + nomeArquivoOriginal + "' de " + remetente);
+                            if (idEnvio != null) {
+                                // O cliente ainda tem o arquivo na caixa de saída e vai reenviá-lo
+                                esquecerEnvio(idEnvio);
+                            }
                         }
                     } else {
                         registrarLog("Comando ARQUIVO mal formado de: " + socket.getInetAddress().getHostAddress() + " Comando: " + primeiroComando);
@@ -245,13 +1010,18 @@ public class ServidorMonitoramento {
                 } else if (primeiroComando.startsWith("DOWNLOAD:")) {
                     String nomeUnicoSolicitado = primeiroComando.substring(9);
                     registrarLog("Pedido de download do arquivo único: " + nomeUnicoSolicitado + " de " + socket.getInetAddress().getHostAddress());
+                    // Arquivo recebido por outro nó do cluster: copia antes de servir
+                    if (cluster != null && !new File("arquivos_recebidos", nomeUnicoSolicitado).isFile()
+                            && cluster.buscarArquivo(nomeUnicoSolicitado, new File("arquivos_recebidos"))) {
+                        registrarLog("Arquivo '" + nomeUnicoSolicitado + "' copiado de outro servidor do cluster.");
+                    }
                     try {
                         dataOut.writeUTF("INICIANDO_DOWNLOAD");
                     } catch (Exception e) {
                         registrarLog("Erro ao enviar confirmação de download: " + e.getMessage());
                         return;
                     }
-                    boolean enviado = TransferenciaArquivos.enviarArquivoParaCliente(socket, nomeUnicoSolicitado, "arquivos_recebidos");
+                    boolean enviado = enviarArquivoMedindo(socket, nomeUnicoSolicitado);
                     if (enviado) {
                         registrarLog("Arquivo único '" + nomeUnicoSolicitado + "' enviado para download.");
                     } else {
@@ -266,45 +1036,328 @@ public class ServidorMonitoramento {
                     nomeInspetor = primeiroComando;
                     try {
                         localMonitorado = dataIn.readUTF();
-                        if (encontrarClientePorNome(nomeInspetor) != null) {
+                        // Um novo login com o nome de uma sessão suspensa a substitui
+                        ClienteHandler anterior = encontrarClientePorNome(nomeInspetor);
+                        if (anterior != null && anterior.isSuspensa()) {
+                            anterior.finalizarSessao();
+                        }
+                        if (encontrarClientePorNome(nomeInspetor) != null
+                                || (cluster != null && !cluster.registrarEntrada(nomeInspetor, localMonitorado))) {
                             dataOut.writeUTF("CHAT:MSG_DE:Sistema:Nome de usuário '" + nomeInspetor + "' já em uso.");
                             registrarLog("Tentativa de conexão com nome duplicado: " + nomeInspetor);
                             return;
                         }
-                        ServidorMonitoramento.this.adicionarClienteChat(this);
-                        registrarLog("Novo inspetor conectado: " + nomeInspetor + " - Local: " + localMonitorado);
+                        // Antes de entrar na lista: depois dela as difusões escrevem no mesmo fluxo, e
+                        // writeUTF concorrente sem o bloqueio do cliente corrompe os quadros
                         dataOut.writeUTF("BEMVINDO:" + nomeInspetor);
                         dataOut.writeUTF("LOCAL:" + localMonitorado);
-                        enviarListaInspetoresChat();
+                        ServidorMonitoramento.this.adicionarClienteChat(this);
+                        registrarLog("Novo inspetor conectado: " + nomeInspetor + " - Local: " + localMonitorado);
+                        iniciarSessao();
+                        enviarPresenca(-1);
+                        if (ofereceMulticast()) {
+                            enviarMensagem("GRUPOS_MULTICAST:" + difusao.getDescricaoGrupos());
+                        }
                     } catch (IOException e) {
                         registrarLog("Erro ao processar conexão de inspetor: " + e.getMessage());
                         return;
                     }
                 }
-                while (true) {
-                    String mensagem = dataIn.readUTF();
-                    processarMensagemChat(mensagem);
-                }
+                atenderConexao(socket, dataIn);
             } catch (IOException e) {
                 registrarLog("Conexão encerrada: " + (nomeInspetor != null ? nomeInspetor : socket.getInetAddress().getHostAddress()));
             } finally {
-                if (nomeInspetor != null) {
+                // Com a sessão iniciada a remoção fica a cargo de atenderConexao
+                if (nomeInspetor != null && sessao == null) {
                     ServidorMonitoramento.this.removerCliente(this);
-                    notificarDesconexaoParaOutros(nomeInspetor);
                 }
-                try {
-                    socket.close();
-                } catch (IOException e) {
-                    registrarLog("Erro ao fechar socket: " + e.getMessage());
+                if (sessao == null) {
+                    fecharConexao(socket);
                 }
             }
         }
 
-        public void enviarMensagem(String mensagem) {
+        /**
+         * Lê os comandos de uma conexão da sessão até ela cair. A sessão fica então suspensa
+         * à espera de RETOMAR, a menos que tenha sido encerrada (SAIR) ou a retenção esteja desligada.
+         */
+        private void atenderConexao(Socket conexao, DataInputStream entrada) {
             try {
-                dataOut.writeUTF(mensagem);
+                while (true) {
+                    String mensagem = entrada.readUTF();
+                    processarMensagemChat(mensagem);
+                }
+            } catch (IOException e) {
+                registrarLog("Conexão encerrada: " + nomeInspetor);
+            } finally {
+                conexaoEncerrada(conexao);
+            }
+        }
+
+        private void conexaoEncerrada(Socket conexao) {
+            boolean suspender;
+            synchronized (this) {
+                if (conexao != socket) {
+                    // Já substituída por uma retomada
+                    return;
+                }
+                fecharConexao(conexao);
+                suspender = !encerrada && !finalizada && retencaoSessaoMs > 0;
+                if (suspender) {
+                    dataOut = null;
+                    suspensaDesde = System.currentTimeMillis();
+                    // Até a retomada tudo segue por TCP, para ficar guardado na sessão
+                    desativarMulticast();
+                }
+            }
+            if (suspender) {
+                registrarLog("Sessão de " + nomeInspetor + " suspensa; aguardando retomada por " + retencaoSessaoMs / 1000 + " s");
+            } else {
+                finalizarSessao();
+            }
+        }
+
+        private void iniciarSessao() throws IOException {
+            escrita.lock();
+            try {
+                synchronized (this) {
+                    sessao = new SessaoCliente();
+                    socket.setSoTimeout(TEMPO_LEITURA_SESSAO_MS);
+                }
+                dataOut.writeUTF("SESSAO:" + sessao.getToken());
+                ultimaEscrita = System.currentTimeMillis();
+            } finally {
+                escrita.unlock();
+            }
+            sessoes.put(sessao.getToken(), this);
+        }
+
+        /**
+         * Formato: RETOMAR:token:última sequência recebida. Resposta: RETOMANDO, as mensagens
+         * guardadas posteriores à sequência e RETOMADA:sequência da última delas; a conexão passa
+         * a ser atendida pela sessão retomada nesta mesma thread.
+         * @return false se a sessão não existe mais
+         */
+        private boolean retomarSessao(String dados) throws IOException {
+            String[] partes = dados.split(":");
+            ClienteHandler retomada = partes.length == 2 ? sessoes.get(partes[0]) : null;
+            long recebidas;
+            try {
+                recebidas = partes.length == 2 ? Long.parseLong(partes[1]) : -1;
+            } catch (NumberFormatException e) {
+                recebidas = -1;
+            }
+            if (retomada == null || recebidas < 0) {
+                return false;
+            }
+            try {
+                if (!retomada.retomar(socket, dataIn, dataOut, recebidas)) {
+                    return false;
+                }
+            } catch (IOException e) {
+                // Caiu durante o reenvio: a sessão volta a aguardar
+                retomada.conexaoEncerrada(socket);
+                throw e;
+            }
+            retomada.atenderConexao(socket, dataIn);
+            return true;
+        }
+
+        private boolean retomar(Socket conexao, DataInputStream entrada, DataOutputStream saida, long recebidas) throws IOException {
+            Socket anterior;
+            int reenviadas = 0;
+            boolean perda;
+            // O reenvio é feito só com o bloqueio de escrita: novas mensagens esperam e saem depois
+            // de RETOMADA, e a supervisão e as métricas não esperam pelo cliente
+            escrita.lock();
+            try {
+                List<String> pendentes;
+                long enviadas;
+                synchronized (this) {
+                    if (encerrada || finalizada) {
+                        return false;
+                    }
+                    anterior = suspensaDesde == 0 ? socket : null;
+                    socket = conexao;
+                    dataIn = entrada;
+                    dataOut = saida;
+                    suspensaDesde = 0;
+                    // O cliente recria a recepção multicast e confirma os grupos de novo
+                    desativarMulticast();
+                    conexao.setSoTimeout(TEMPO_LEITURA_SESSAO_MS);
+                    pendentes = sessao.posteriores(recebidas);
+                    enviadas = sessao.getEnviadas();
+                    perda = sessao.houvePerda(recebidas);
+                }
+                saida.writeUTF("RETOMANDO");
+                for (String mensagem : pendentes) {
+                    if (!mensagem.startsWith("MULTICAST_") && !mensagem.startsWith("GRUPOS_MULTICAST:")) {
+                        saida.writeUTF(mensagem);
+                        reenviadas++;
+                    }
+                }
+                saida.writeUTF("RETOMADA:" + enviadas);
+                ultimaEscrita = System.currentTimeMillis();
+            } finally {
+                escrita.unlock();
+            }
+            // Conexão antiga que o servidor ainda não tinha percebido como caída
+            if (anterior != null) {
+                fecharConexao(anterior);
+            }
+            registrarLog("Sessão de " + nomeInspetor + " retomada: " + reenviadas + " mensagem(ns) reenviada(s)");
+            if (perda) {
+                enviarMensagem("CHAT:MSG_DE:Sistema:Parte das mensagens enviadas durante a desconexão foi descartada.");
+            }
+            if (ofereceMulticast()) {
+                enviarMensagem("GRUPOS_MULTICAST:" + difusao.getDescricaoGrupos());
+            }
+            return true;
+        }
+
+        /**
+         * Conexões TLS não recebem os grupos: os datagramas seguem em texto claro, e o
+         * cliente TLS recebe tudo pela própria conexão
+         */
+        private boolean ofereceMulticast() {
+            return difusao != null && !AceitadorTls.isTls(socket);
+        }
+
+        private void desativarMulticast() {
+            if (difusao == null) {
+                topicosMulticast.clear();
+                return;
+            }
+            synchronized (difusao) {
+                topicosMulticast.clear();
+            }
+        }
+
+        /**
+         * Sem o bloqueio do cliente, para a leitura das métricas não esperar por uma escrita lenta
+         */
+        int getPendentesSaida() {
+            SessaoCliente atual = sessao;
+            return atual != null ? atual.getPendentes() : 0;
+        }
+
+        /**
+         * @return A sessão, se ela ainda pode ser retomada
+         */
+        synchronized SessaoCliente getSessaoRetomavel() {
+            return encerrada || finalizada ? null : sessao;
+        }
+
+        synchronized boolean isSuspensa() {
+            return suspensaDesde > 0;
+        }
+
+        /**
+         * Batimento para a conexão ociosa ou fim da sessão suspensa além da retenção
+         * (executa na thread de supervisão). Um cliente com uma escrita em andamento não está
+         * ocioso e é pulado, para um cliente lento não atrasar a supervisão dos outros.
+         */
+        void supervisionar(long agora) {
+            boolean expirada;
+            DataOutputStream saida;
+            synchronized (this) {
+                expirada = suspensaDesde > 0 && agora - suspensaDesde > retencaoSessaoMs;
+                saida = !expirada && suspensaDesde == 0 ? dataOut : null;
+            }
+            if (saida != null && agora - ultimaEscrita >= INTERVALO_BATIMENTO_SESSAO_MS && escrita.tryLock()) {
+                try {
+                    // Fora da sequência: não é guardado nem contado pelo cliente
+                    saida.writeUTF("BATIMENTO");
+                    ultimaEscrita = agora;
+                } catch (IOException e) {
+                    registrarLog("Erro ao enviar batimento para " + nomeInspetor + ": " + e.getMessage());
+                } finally {
+                    escrita.unlock();
+                }
+            }
+            if (expirada) {
+                registrarLog("Sessão de " + nomeInspetor + " não foi retomada a tempo");
+                finalizarSessao();
+            }
+        }
+
+        private void finalizarSessao() {
+            synchronized (this) {
+                if (finalizada) {
+                    return;
+                }
+                finalizada = true;
+            }
+            if (sessao != null) {
+                sessoes.remove(sessao.getToken());
+            }
+            ServidorMonitoramento.this.removerCliente(this);
+        }
+
+        private void fecharConexao(Socket conexao) {
+            try {
+                conexao.close();
+            } catch (IOException e) {
+                registrarLog("Erro ao fechar socket: " + e.getMessage());
+            }
+        }
+
+        /**
+         * Envia um último aviso e fecha a conexão; a thread do cliente faz a remoção
+         */
+        void encerrar(String aviso) {
+            enviarMensagem(aviso);
+            boolean suspensa;
+            synchronized (this) {
+                encerrada = true;
+                suspensa = suspensaDesde > 0;
+            }
+            if (suspensa) {
+                finalizarSessao();
+            } else {
+                fecharConexao(socket);
+            }
+        }
+
+        /**
+         * Com a sessão iniciada a mensagem também é guardada até o cliente confirmá-la;
+         * com a sessão suspensa ela só é guardada
+         */
+        public void enviarMensagem(String mensagem) {
+            long fila = RastreamentoMensagens.isRastreada(mensagem) ? System.nanoTime() : 0;
+            mensagensEnviadas.increment();
+            escrita.lock();
+            try {
+                SessaoCliente atual;
+                DataOutputStream saida;
+                synchronized (this) {
+                    atual = sessao;
+                    saida = dataOut;
+                }
+                if (!entregar(atual, saida, mensagem)) {
+                    return;
+                }
+                ultimaEscrita = System.currentTimeMillis();
+                if (fila != 0) {
+                    rastreamento.escrita(mensagem, nomeInspetor, fila, System.nanoTime());
+                }
             } catch (IOException e) {
                 registrarLog("Erro ao enviar mensagem para " + (nomeInspetor != null ? nomeInspetor : "cliente desconectado") + ": " + e.getMessage());
+            } finally {
+                escrita.unlock();
+            }
+        }
+
+        /**
+         * Envia os quadros de presença posteriores à versão (ou o retrato). Com a lista de clientes
+         * travada nenhuma difusão de presença se intercala, e o cliente os recebe em ordem de versão.
+         * @param versao Última versão aplicada pelo cliente; -1 pede o retrato
+         */
+        private void enviarPresenca(long versao) {
+            synchronized (clientes) {
+                for (String quadro : presenca.desde(versao)) {
+                    enviarMensagem(quadro);
+                }
             }
         }
 
@@ -320,26 +1373,78 @@ public class ServidorMonitoramento {
                     }
                 }
             }
-            try {
-                dataOut.writeUTF("CHAT:LISTA_INSPETORES:" + listaNomes.toString());
-                registrarLog("Lista CHAT:LISTA_INSPETORES enviada para " + nomeInspetor + ": " + listaNomes.toString());
-            } catch (IOException e) {
-                registrarLog("Erro ao enviar lista de inspetores para " + nomeInspetor + ": " + e.getMessage());
+            if (cluster != null) {
+                for (String nome : cluster.getInspetoresRemotos()) {
+                    if (listaNomes.length() > 0) listaNomes.append(",");
+                    listaNomes.append(nome);
+                }
             }
+            enviarMensagem("CHAT:LISTA_INSPETORES:" + listaNomes.toString());
+            registrarLog("Lista CHAT:LISTA_INSPETORES enviada para " + nomeInspetor + ": " + listaNomes.toString());
         }
 
         private void processarMensagemChat(String mensagemCompleta) {
+            if (mensagemCompleta.startsWith(RastreamentoMensagens.PREFIXO)) {
+                processarRastreada(mensagemCompleta.substring(RastreamentoMensagens.PREFIXO.length()));
+                return;
+            }
+            if (mensagemCompleta.startsWith("ENVIO:")) {
+                // Só o comando de dentro é contado, quando processarEnvio o repassa
+                processarEnvio(mensagemCompleta.substring(6));
+                return;
+            }
+            metricas.contarComando(mensagemCompleta);
+            if (mensagemCompleta.startsWith("ACK:")) {
+                confirmarRecebidas(mensagemCompleta.substring(4));
+                return;
+            } else if (mensagemCompleta.startsWith(RastreamentoMensagens.PREFIXO_FIM)) {
+                rastreamento.concluir(mensagemCompleta.substring(RastreamentoMensagens.PREFIXO_FIM.length()), nomeInspetor);
+                return;
+            } else if (mensagemCompleta.equals("SAIR")) {
+                synchronized (this) {
+                    encerrada = true;
+                }
+                fecharConexao(socket);
+                return;
+            }
             registrarLog("DEBUG: Recebido em processarMensagemChat: " + mensagemCompleta);
+            if (mensagemCompleta.startsWith("RELATORIO:")) {
+                String relatorio = mensagemCompleta.substring(10);
+                registrarLog("RELATÓRIO de " + nomeInspetor + ": " + relatorio);
+                armazenarRelatorio(relatorio);
+                if (resumoAlertas != null) {
+                    resumoAlertas.registrarRelatorio(localMonitorado, nomeInspetor, relatorio);
+                }
+                return;
+            } else if (mensagemCompleta.startsWith("BUSCAR_RELATORIOS:")) {
+                buscarRelatorios(mensagemCompleta.substring(18));
+                return;
+            } else if (mensagemCompleta.startsWith("BUSCAR_HISTORICO:")) {
+                buscarHistorico(mensagemCompleta.substring(17));
+                return;
+            } else if (mensagemCompleta.startsWith("ASSINAR:")) {
+                assinarTopicos(mensagemCompleta.substring(8));
+                return;
+            } else if (mensagemCompleta.startsWith("MULTICAST_ATIVO:")) {
+                ativarMulticast(mensagemCompleta.substring(16));
+                return;
+            } else if (mensagemCompleta.startsWith("MULTICAST_PERDA:")) {
+                tratarPerdaMulticast(mensagemCompleta.substring(16));
+                return;
+            }
+            if (mensagemCompleta.startsWith("MEDICAO:")) {
+                registrarMedicoes(mensagemCompleta.substring(8));
+                return;
+            } else if (mensagemCompleta.startsWith("CONSULTA_MEDICOES:")) {
+                consultarMedicoes(mensagemCompleta.substring(18));
+                return;
+            }
             String dadosMensagem;
             if (mensagemCompleta.startsWith("CHAT:")) {
                 dadosMensagem = mensagemCompleta.substring(5);
             } else {
                 registrarLog("Mensagem CHAT recebida com formato inválido (sem prefixo CHAT:): " + mensagemCompleta);
-                try {
-                    dataOut.writeUTF("CHAT:MSG_DE:Sistema:Formato de mensagem inválido.");
-                } catch (IOException e) {
-                     registrarLog("Erro ao avisar cliente sobre formato invalido: " + e.getMessage());
-                }
+                enviarMensagem("CHAT:MSG_DE:Sistema:Formato de mensagem inválido.");
                 return;
             }
 
@@ -347,35 +1452,49 @@ public class ServidorMonitoramento {
                 enviarListaInspetoresChat();
                 registrarLog("Comando CHAT:LISTAR_INSPETORES processado de " + nomeInspetor);
                 return;
+            } else if (dadosMensagem.startsWith("PRESENCA_DESDE:")) {
+                try {
+                    enviarPresenca(Long.parseLong(dadosMensagem.substring(15)));
+                } catch (NumberFormatException e) {
+                    enviarPresenca(-1);
+                }
+                return;
             } else if (dadosMensagem.startsWith("ALERTA:")) {
                 String mensagemAlerta = dadosMensagem.substring(7);
                 registrarLog("ALERTA de " + nomeInspetor + ": " + mensagemAlerta);
-                notificarOutrosClientesAlerta(nomeInspetor, mensagemAlerta);
+                if (resumoAlertas != null) {
+                    resumoAlertas.registrarAlerta(localMonitorado, nomeInspetor, mensagemAlerta);
+                }
+                if (agregadorAlertas.registrar(localMonitorado, nomeInspetor, mensagemAlerta)) {
+                    notificarOutrosClientesAlerta(nomeInspetor, mensagemAlerta);
+                } else {
+                    registrarLog("Alerta equivalente de " + nomeInspetor + " agregado (" + localMonitorado + ")");
+                }
                 return;
             }
             if (dadosMensagem.startsWith("PARA:")) {
-                String conteudoPara = dadosMensagem.substring(5);
-                int firstColon = conteudoPara.indexOf(":");
-            if (firstColon != -1) {
-                    String destinatario = conteudoPara.substring(0, firstColon);
-                    String mensagemConteudo = conteudoPara.substring(firstColon + 1);
+                String[] para = separarPara(dadosMensagem.substring(5));
+            if (para != null) {
+                    String destinatario = para[0];
+                    String mensagemConteudo = para[1];
 
                 registrarLog("Chat de Inspetor de " + nomeInspetor + " para " + destinatario + ": " + mensagemConteudo);
 
                 if (destinatario.equals("Todos")) {
-                    synchronized (clientes) {
-                        for (ClienteHandler cliente : clientes) {
-                            if (!cliente.getNomeInspetor().equals(nomeInspetor)) {
-                                     cliente.enviarMensagem("CHAT:MSG_DE:" + nomeInspetor + ":" + mensagemConteudo); // Usa o enviarMensagem do handler de cada cliente
-                                 }
-                            }
-                        }
+                    registrarHistorico(HistoricoChat.TODOS, mensagemConteudo);
+                    // "Todos" significa todos que acompanham o local do remetente
+                    publicar(rastrear("CHAT:MSG_DE:" + nomeInspetor + ":" + mensagemConteudo), this, chaveLocal(localMonitorado));
                         registrarLog("Mensagem CHAT para Todos de " + nomeInspetor + " enviada para outros clientes.");
                     } else {
                         ClienteHandler clienteDestino = encontrarClientePorNome(destinatario);
                          if (clienteDestino != null) {
-                             clienteDestino.enviarMensagem("CHAT:MSG_DE:" + nomeInspetor + ":" + mensagemConteudo + " [PRIVADO]");
+                             registrarHistorico(destinatario, mensagemConteudo);
+                             clienteDestino.enviarMensagem(rastrear("CHAT:MSG_DE:" + nomeInspetor + ":" + mensagemConteudo + " [PRIVADO]"));
                              registrarLog("Mensagem CHAT privada de " + nomeInspetor + " para " + destinatario + " enviada.");
+                         } else if (cluster != null && cluster.enviarPrivada(destinatario,
+                                 rastrear("CHAT:MSG_DE:" + nomeInspetor + ":" + mensagemConteudo + " [PRIVADO]"))) {
+                             registrarHistorico(destinatario, mensagemConteudo);
+                             registrarLog("Mensagem CHAT privada de " + nomeInspetor + " para " + destinatario + " encaminhada a outro servidor.");
                          } else {
                              enviarMensagem("CHAT:MSG_DE:Sistema:Inspetor '" + destinatario + "' não encontrado para chat privado.");
                              registrarLog("Destinatário de chat privado '" + destinatario + "' não encontrado (remetente: " + nomeInspetor + ").");
@@ -389,25 +1508,379 @@ public class ServidorMonitoramento {
                 registrarLog("DEBUG: Mensagem CHAT MSG_DE recebida inesperadamente (não processada no servidor): " + dadosMensagem);
                     } else {
                 registrarLog("Comando CHAT desconhecido de " + nomeInspetor + ": " + dadosMensagem);
-                try {
-                    dataOut.writeUTF("CHAT:MSG_DE:Sistema:Comando CHAT desconhecido.");
-                } catch (IOException e) {
-                     registrarLog("Erro ao avisar cliente sobre comando CHAT desconhecido: " + e.getMessage());
+                enviarMensagem("CHAT:MSG_DE:Sistema:Comando CHAT desconhecido.");
+            }
+        }
+
+        /**
+         * Formato: RASTRO:id:envioMs:comando. O comando é tratado normalmente; as mensagens que
+         * ele gera para outros inspetores seguem com o rastro (ver RastreamentoMensagens)
+         */
+        private void processarRastreada(String dados) {
+            RastreamentoMensagens.Rastro rastro = rastreamento.iniciar(dados, nomeInspetor);
+            if (rastro == null) {
+                registrarLog("RASTRO mal formado de " + nomeInspetor + ": " + dados);
+                return;
+            }
+            rastroAtual = rastro;
+            try {
+                processarMensagemChat(rastro.getComando());
+            } finally {
+                rastroAtual = null;
+            }
+        }
+
+        /**
+         * @return A mensagem com o rastro do comando em tratamento, se houver
+         */
+        private String rastrear(String mensagem) {
+            RastreamentoMensagens.Rastro rastro = rastroAtual;
+            return rastro != null ? rastreamento.despachar(rastro, mensagem) : mensagem;
+        }
+
+        /**
+         * Formato: ENVIO:id:comando, item da caixa de saída do cliente. O comando é processado
+         * uma única vez por id; a resposta ENVIADO:id vale também para os reenvios.
+         */
+        private void processarEnvio(String dados) {
+            int separador = dados.indexOf(':');
+            if (separador <= 0) {
+                registrarLog("ENVIO mal formado de " + nomeInspetor + ": " + dados);
+                return;
+            }
+            String id = dados.substring(0, separador);
+            if (registrarEnvio(id)) {
+                processarMensagemChat(dados.substring(separador + 1));
+            } else {
+                registrarLog("Reenvio " + id + " de " + nomeInspetor + " descartado");
+            }
+            enviarMensagem("ENVIADO:" + id);
+        }
+
+        /**
+         * Formato: ACK:sequência. Libera as mensagens guardadas até ela
+         */
+        private void confirmarRecebidas(String dados) {
+            try {
+                if (sessao != null) {
+                    sessao.confirmar(Long.parseLong(dados.trim()));
                 }
+            } catch (NumberFormatException e) {
+                registrarLog("ACK mal formado de " + nomeInspetor + ": " + dados);
             }
         }
 
-        private ClienteHandler encontrarClientePorNome(String nome) {
-            synchronized (clientes) {
-                for (ClienteHandler cliente : clientes) {
-                    if (cliente.getNomeInspetor() != null && cliente.getNomeInspetor().equals(nome)) {
-                        return cliente;
-                    }
+        private void armazenarRelatorio(String texto) {
+            if (repositorioRelatorios == null) {
+                return;
+            }
+            RepositorioRelatorios.Relatorio relatorio = RepositorioRelatorios.Relatorio.interpretar(texto, nomeInspetor, localMonitorado);
+            try {
+                int id = repositorioRelatorios.adicionar(chaveLocal(relatorio.getLocal()), relatorio);
+                enviarMensagem("CHAT:MSG_DE:Sistema:Relatório #" + id + " recebido e arquivado.");
+            } catch (IOException e) {
+                registrarLog("Erro ao arquivar relatório de " + nomeInspetor + ": " + e.getMessage());
+                enviarMensagem("CHAT:MSG_DE:Sistema:Erro ao arquivar relatório no servidor.");
+            }
+        }
+
+        /**
+         * Formato: BUSCAR_RELATORIOS:termos|local|dd/MM/yyyy inicial|dd/MM/yyyy final|limite
+         * (campos vazios não filtram). Resposta: RELATORIOS_ENCONTRADOS:n seguido de n
+         * mensagens RELATORIO_ITEM:id|recebido|local|inspetor|texto
+         */
+        private void buscarRelatorios(String dados) {
+            if (repositorioRelatorios == null) {
+                enviarMensagem("CHAT:MSG_DE:Sistema:Busca de relatórios indisponível.");
+                return;
+            }
+            String[] partes = dados.split("\\|", -1);
+            String termos = partes.length > 0 ? partes[0] : "";
+            String local = partes.length > 1 && !partes[1].trim().isEmpty() ? chaveLocal(partes[1]) : null;
+            SimpleDateFormat formatoData = new SimpleDateFormat("dd/MM/yyyy");
+            formatoData.setLenient(false);
+            long inicio = Long.MIN_VALUE;
+            long fim = Long.MAX_VALUE;
+            int limite = 50;
+            try {
+                if (partes.length > 2 && !partes[2].trim().isEmpty()) {
+                    inicio = formatoData.parse(partes[2].trim()).getTime();
+                }
+                if (partes.length > 3 && !partes[3].trim().isEmpty()) {
+                    fim = formatoData.parse(partes[3].trim()).getTime() + 24L * 60 * 60 * 1000 - 1;
+                }
+                if (partes.length > 4 && !partes[4].trim().isEmpty()) {
+                    limite = Math.max(1, Math.min(500, Integer.parseInt(partes[4].trim())));
+                }
+            } catch (ParseException | NumberFormatException e) {
+                enviarMensagem("CHAT:MSG_DE:Sistema:Filtro de busca inválido (datas em dd/MM/yyyy).");
+                return;
+            }
+            long inicioBusca = System.nanoTime();
+            List<RepositorioRelatorios.Relatorio> encontrados;
+            try {
+                encontrados = repositorioRelatorios.buscar(termos, local, inicio, fim, limite);
+            } catch (IOException e) {
+                registrarLog("Erro na busca de relatórios: " + e.getMessage());
+                enviarMensagem("CHAT:MSG_DE:Sistema:Erro na busca de relatórios.");
+                return;
+            }
+            registrarLog("Busca de relatórios de " + nomeInspetor + " (" + dados + "): " + encontrados.size()
+                    + " resultado(s) em " + (System.nanoTime() - inicioBusca) / 1000 + " µs");
+            SimpleDateFormat formatoRecebido = new SimpleDateFormat("dd/MM/yyyy HH:mm");
+            enviarMensagem("RELATORIOS_ENCONTRADOS:" + encontrados.size());
+            for (RepositorioRelatorios.Relatorio relatorio : encontrados) {
+                enviarMensagem("RELATORIO_ITEM:" + relatorio.getId() + "|" + formatoRecebido.format(new Date(relatorio.getRecebido()))
+                        + "|" + relatorio.getLocal() + "|" + relatorio.getInspetor() + "|" + relatorio.getTexto());
+            }
+        }
+
+        /**
+         * Formato: ASSINAR:topico1,topico2 (nomes ou chaves de locais, "central" ou "*" para
+         * todos os locais). Substitui as assinaturas; avisos gerais ("todos") são sempre recebidos.
+         * Resposta: TOPICOS_ASSINADOS:topico1,topico2
+         */
+        private void assinarTopicos(String dados) {
+            List<String> topicos = new ArrayList<>();
+            for (String topico : dados.split(",")) {
+                String aparado = topico.trim();
+                if (aparado.isEmpty()) {
+                    continue;
+                }
+                topicos.add(aparado.equals(RoteadorTopicos.QUALQUER) ? aparado : chaveLocal(aparado));
+            }
+            Set<String> assinados = roteador.assinar(this, topicos);
+            // Grupos de tópicos abandonados voltam a não ter cópia alguma
+            topicosMulticast.removeIf(topico -> !topico.equals(RoteadorTopicos.TODOS)
+                    && !assinados.contains(topico) && !assinados.contains(RoteadorTopicos.QUALQUER));
+            registrarLog("Tópicos de " + nomeInspetor + ": " + assinados);
+            enviarMensagem("TOPICOS_ASSINADOS:" + String.join(",", assinados));
+        }
+
+        /**
+         * @return O primeiro dos tópicos que este cliente recebe por multicast, ou null
+         */
+        String grupoMulticast(String[] topicos) {
+            if (topicosMulticast.isEmpty()) {
+                return null;
+            }
+            for (String topico : topicos) {
+                if (topicosMulticast.contains(topico)) {
+                    return topico;
                 }
             }
             return null;
         }
 
+        /**
+         * Formato: MULTICAST_ATIVO:topico, enviado pelo cliente ao receber o primeiro datagrama do grupo.
+         * Resposta: MULTICAST_CONFIRMADO:topico:sequência (até ela as mensagens seguiram por TCP)
+         */
+        private void ativarMulticast(String topico) {
+            Set<String> assinados = roteador.getTopicos(this);
+            if (!ofereceMulticast() || !difusao.possuiGrupo(topico) || !(assinados.contains(topico)
+                    || assinados.contains(RoteadorTopicos.QUALQUER) || topico.equals(RoteadorTopicos.TODOS))) {
+                return;
+            }
+            long sequencia;
+            synchronized (difusao) {
+                topicosMulticast.add(topico);
+                sequencia = difusao.getSequencia(topico);
+            }
+            registrarLog("Multicast ativo para " + nomeInspetor + " no tópico " + topico);
+            enviarMensagem("MULTICAST_CONFIRMADO:" + topico + ":" + sequencia);
+        }
+
+        /**
+         * Formato: MULTICAST_PERDA:topico:primeira:última. Reenvia por TCP as mensagens ainda guardadas
+         * (MULTICAST_REENVIO:id:mensagem);
+         * se elas já foram descartadas ou as perdas passam do limite, o tópico volta para TCP
+         * (resposta MULTICAST_INATIVO:topico:última sequência enviada por multicast)
+         */
+        private void tratarPerdaMulticast(String dados) {
+            String[] partes = dados.split(":");
+            if (difusao == null || partes.length != 3 || !difusao.possuiGrupo(partes[0])) {
+                return;
+            }
+            String topico = partes[0];
+            long de;
+            long ate;
+            try {
+                de = Long.parseLong(partes[1]);
+                ate = Long.parseLong(partes[2]);
+            } catch (NumberFormatException e) {
+                return;
+            }
+            List<String> recuperadas = difusao.recuperar(topico, de, ate, nomeInspetor);
+            if (recuperadas != null) {
+                for (String mensagem : recuperadas) {
+                    enviarMensagem("MULTICAST_REENVIO:" + mensagem);
+                }
+            }
+            if (!topicosMulticast.contains(topico)) {
+                // Perda anterior à desativação, já tratada
+                return;
+            }
+            long agora = System.currentTimeMillis();
+            long[] janela = perdasMulticast.computeIfAbsent(topico, t -> new long[]{agora, 0});
+            if (agora - janela[0] > 60000) {
+                janela[0] = agora;
+                janela[1] = 0;
+            }
+            janela[1] += ate - de + 1;
+            if (recuperadas == null || janela[1] > LIMITE_PERDAS_MULTICAST_POR_MINUTO) {
+                long sequencia;
+                synchronized (difusao) {
+                    topicosMulticast.remove(topico);
+                    sequencia = difusao.getSequencia(topico);
+                }
+                registrarLog("Multicast desativado para " + nomeInspetor + " no tópico " + topico
+                        + " (" + janela[1] + " mensagem(ns) perdida(s) no último minuto)");
+                enviarMensagem("MULTICAST_INATIVO:" + topico + ":" + sequencia);
+            }
+        }
+
+        private void registrarHistorico(String destinatario, String texto) {
+            if (historicoChat == null) {
+                return;
+            }
+            try {
+                long registroReplicacao;
+                synchronized (historicoChat) {
+                    HistoricoChat.Mensagem mensagem = historicoChat.registrar(nomeInspetor, destinatario, chaveLocal(localMonitorado), texto);
+                    registroReplicacao = replicacao != null ? replicacao.registrarMensagem(mensagem) : 0;
+                }
+                // No modo semissíncrono a mensagem só é entregue depois que a réplica a registrou
+                if (replicacao != null) {
+                    replicacao.aguardar(registroReplicacao);
+                }
+            } catch (IOException e) {
+                registrarLog("Erro ao gravar histórico de chat: " + e.getMessage());
+            }
+        }
+
+        /**
+         * Formato: BUSCAR_HISTORICO:termos|local|dd/MM/yyyy inicial|dd/MM/yyyy final|página
+         * (campos vazios não filtram; página a partir de 0). Resposta: uma mensagem
+         * HISTORICO_ITEM:dd/MM/yyyy HH:mm|remetente|destinatário|local|texto por resultado,
+         * seguida de HISTORICO_FIM:página|quantidade|1 se há mais páginas|latência em µs
+         */
+        private void buscarHistorico(String dados) {
+            if (historicoChat == null) {
+                enviarMensagem("CHAT:MSG_DE:Sistema:Busca no histórico de chat indisponível.");
+                return;
+            }
+            String[] partes = dados.split("\\|", -1);
+            String termos = partes.length > 0 ? partes[0] : "";
+            String local = partes.length > 1 && !partes[1].trim().isEmpty() ? chaveLocal(partes[1]) : null;
+            SimpleDateFormat formatoData = new SimpleDateFormat("dd/MM/yyyy");
+            formatoData.setLenient(false);
+            long inicio = Long.MIN_VALUE;
+            long fim = Long.MAX_VALUE;
+            int pagina = 0;
+            try {
+                if (partes.length > 2 && !partes[2].trim().isEmpty()) {
+                    inicio = formatoData.parse(partes[2].trim()).getTime();
+                }
+                if (partes.length > 3 && !partes[3].trim().isEmpty()) {
+                    fim = formatoData.parse(partes[3].trim()).getTime() + 24L * 60 * 60 * 1000 - 1;
+                }
+                if (partes.length > 4 && !partes[4].trim().isEmpty()) {
+                    pagina = Math.max(0, Integer.parseInt(partes[4].trim()));
+                }
+            } catch (ParseException | NumberFormatException e) {
+                enviarMensagem("CHAT:MSG_DE:Sistema:Filtro de busca inválido (datas em dd/MM/yyyy).");
+                return;
+            }
+            HistoricoChat.Pagina resultado;
+            try {
+                resultado = historicoChat.consultar(termos, local, inicio, fim, nomeInspetor, pagina, TAMANHO_PAGINA_HISTORICO);
+            } catch (IOException e) {
+                registrarLog("Erro na busca do histórico de chat: " + e.getMessage());
+                enviarMensagem("CHAT:MSG_DE:Sistema:Erro na busca do histórico de chat.");
+                return;
+            }
+            registrarLog("Busca no histórico de " + nomeInspetor + " (" + dados + "): " + resultado.getMensagens().size()
+                    + " resultado(s) em " + resultado.getLatenciaMicros() + " µs [" + historicoChat.getEstatisticas() + "]");
+            SimpleDateFormat formatoInstante = new SimpleDateFormat("dd/MM/yyyy HH:mm");
+            for (HistoricoChat.Mensagem mensagem : resultado.getMensagens()) {
+                enviarMensagem("HISTORICO_ITEM:" + formatoInstante.format(new Date(mensagem.getInstante()))
+                        + "|" + mensagem.getRemetente() + "|" + mensagem.getDestinatario()
+                        + "|" + locaisMonitorados.getOrDefault(mensagem.getChaveLocal(), mensagem.getChaveLocal()) + "|" + mensagem.getTexto());
+            }
+            enviarMensagem("HISTORICO_FIM:" + pagina + "|" + resultado.getMensagens().size() + "|"
+                    + (resultado.isHaMais() ? 1 : 0) + "|" + resultado.getLatenciaMicros());
+        }
+
+        /**
+         * Formato: MEDICAO:ph=7.1;oxigenio=6.2;turbidez=14;temperatura=22.5[;ts=instanteMs]
+         * As medições são atribuídas ao local monitorado deste inspetor, que precisa ser um dos
+         * locaisMonitorados.
+         */
+        private void registrarMedicoes(String dados) {
+            long instante = System.currentTimeMillis();
+            Map<String, Double> leituras = new LinkedHashMap<>();
+            try {
+                for (String par : dados.split(";")) {
+                    String[] chaveValor = par.split("=", 2);
+                    if (chaveValor.length != 2) {
+                        continue;
+                    }
+                    String chave = chaveValor[0].trim().toLowerCase();
+                    if (chave.equals("ts")) {
+                        instante = Long.parseLong(chaveValor[1].trim());
+                    } else if (ArmazenamentoMedicoes.metricaValida(chave)) {
+                        leituras.put(chave, Double.parseDouble(chaveValor[1].trim().replace(',', '.')));
+                    }
+                }
+            } catch (NumberFormatException e) {
+                enviarMensagem("CHAT:MSG_DE:Sistema:Medição mal formada: " + dados);
+                return;
+            }
+            if (leituras.isEmpty()) {
+                enviarMensagem("CHAT:MSG_DE:Sistema:Nenhuma métrica reconhecida (use ph, oxigenio, turbidez, temperatura).");
+                return;
+            }
+            String local = chaveLocal(localMonitorado);
+            // Só locais monitorados ganham séries (pastas e arquivos abertos)
+            if (!locaisMonitorados.containsKey(local)) {
+                enviarMensagem("CHAT:MSG_DE:Sistema:Local " + localMonitorado + " não é monitorado; medições descartadas.");
+                return;
+            }
+            try {
+                for (Map.Entry<String, Double> leitura : leituras.entrySet()) {
+                    armazenamentoMedicoes.registrar(local, leitura.getKey(), instante, leitura.getValue());
+                    motorAlertas.avaliar(local, leitura.getKey(), instante, leitura.getValue());
+                }
+            } catch (IOException e) {
+                registrarLog("Erro ao gravar medições de " + nomeInspetor + ": " + e.getMessage());
+            }
+        }
+
+        /**
+         * Formato: CONSULTA_MEDICOES:local:metrica:inicioMs:fimMs
+         * Resposta: MEDICOES:local:metrica:quantidade:minimo:maximo:media
+         */
+        private void consultarMedicoes(String dados) {
+            String[] partes = dados.split(":");
+            if (partes.length < 4 || !ArmazenamentoMedicoes.metricaValida(partes[1])) {
+                enviarMensagem("CHAT:MSG_DE:Sistema:Consulta de medições mal formada.");
+                return;
+            }
+            try {
+                String local = chaveLocal(partes[0]);
+                ArmazenamentoMedicoes.Resumo resumo = armazenamentoMedicoes.consultar(local, partes[1],
+                        Long.parseLong(partes[2]), Long.parseLong(partes[3]));
+                enviarMensagem("MEDICOES:" + local + ":" + partes[1] + ":" + resumo.getQuantidade() + ":"
+                        + resumo.getMinimo() + ":" + resumo.getMaximo() + ":" + resumo.getMedia());
+            } catch (NumberFormatException e) {
+                enviarMensagem("CHAT:MSG_DE:Sistema:Intervalo de consulta inválido.");
+            } catch (IOException e) {
+                registrarLog("Erro ao consultar medições: " + e.getMessage());
+                enviarMensagem("CHAT:MSG_DE:Sistema:Erro ao consultar medições.");
+            }
+        }
+
         private ClienteHandler encontrarClientePorNomeOuCentral(String nomeOuCentral) {
             for (ClienteHandler cliente : clientes) {
                 if (cliente.getNomeInspetor() != null && cliente.getNomeInspetor().equals(nomeOuCentral)) {
@@ -426,17 +1899,13 @@ public class ServidorMonitoramento {
         }
 
         private void notificarOutrosClientesAlerta(String remetenteAlerta, String mensagemAlerta) {
-            synchronized (clientes) {
-                for (ClienteHandler cliente : clientes) {
-                    if (!cliente.getNomeInspetor().equals(remetenteAlerta)) {
-                        cliente.enviarMensagem("CHAT:ALERTA:" + remetenteAlerta + ":" + mensagemAlerta); // <--- Formato: CHAT:ALERTA:remetente:mensagem
-                    }
-                }
-            }
+            // Formato: CHAT:ALERTA:remetente:mensagem, para quem assina o local do remetente ou a central
+            publicar(rastrear("CHAT:ALERTA:" + remetenteAlerta + ":" + mensagemAlerta), this,
+                    chaveLocal(localMonitorado), RoteadorTopicos.CENTRAL);
         }
 
         private void enviarListaArquivosDisponiveis() {
-            StringBuilder lista = new StringBuilder();
+            String listaFinal;
             synchronized (ServidorMonitoramento.this.catalogoArquivos) {
                 registrarLog("DEBUG: Enviando lista de arquivos. Tamanho do catálogo: " + ServidorMonitoramento.this.catalogoArquivos.size());
                 registrarLog("DEBUG: Conteúdo do catálogo: " + ServidorMonitoramento.this.catalogoArquivos);
@@ -452,24 +1921,10 @@ public class ServidorMonitoramento {
                     return;
                 }
 
-                boolean first = true;
-                for (Map.Entry<String, String> entry : ServidorMonitoramento.this.catalogoArquivos.entrySet()) {
-                    if (!first) lista.append(";");
-                    String[] partes = entry.getValue().split("\\|");
-                    String nomeOriginal = partes[0];
-                    String remetente = partes.length > 1 ? partes[1] : "Desconhecido";
-                    lista.append(entry.getKey())
-                         .append("|")
-                         .append(nomeOriginal)
-                         .append("|")
-                         .append(remetente);
-                    first = false;
-                    registrarLog("DEBUG: Adicionando à lista - Nome Único: " + entry.getKey() + ", Nome Original: " + nomeOriginal + ", Remetente: " + remetente);
-                }
+                listaFinal = serializarCatalogo(ServidorMonitoramento.this.catalogoArquivos, miniaturas);
             }
 
             try {
-                String listaFinal = lista.toString();
                 registrarLog("DEBUG: Lista final a ser enviada: " + listaFinal);
                 dataOut.writeUTF(listaFinal);
                 dataOut.flush();
@@ -481,33 +1936,89 @@ public class ServidorMonitoramento {
         }
     }
 
-    private void notificarConexaoParaOutros(String nomeNovoInspetor) {
-        synchronized (clientes) {
-            for (ClienteHandler cliente : clientes) {
-                if (!cliente.getNomeInspetor().equals(nomeNovoInspetor)) {
-                    cliente.enviarMensagem("CHAT:CONECTADO:" + nomeNovoInspetor);
-                }
+    /**
+     * @param conteudoPara O que segue CHAT:PARA:, no formato destinatário:texto
+     * @return {destinatário, texto}, ou null se falta o separador
+     */
+    static String[] separarPara(String conteudoPara) {
+        int separador = conteudoPara.indexOf(':');
+        if (separador == -1) {
+            return null;
+        }
+        return new String[]{conteudoPara.substring(0, separador), conteudoPara.substring(separador + 1)};
+    }
+
+    /**
+     * Entrega a um destinatário, feita sob o bloqueio de escrita dele: guarda a mensagem na sessão,
+     * para um reenvio na retomada, e escreve o quadro na conexão
+     * @param sessao Sessão do destinatário, ou null antes do login
+     * @param saida Conexão atual, ou null com a sessão suspensa
+     * @return true se o quadro foi escrito
+     */
+    static boolean entregar(SessaoCliente sessao, DataOutputStream saida, String mensagem) throws IOException {
+        if (sessao != null) {
+            sessao.registrar(mensagem);
+        }
+        if (saida == null) {
+            return false;
+        }
+        saida.writeUTF(mensagem);
+        return true;
+    }
+
+    /**
+     * Resposta de LISTAR_ARQUIVOS: nomeÚnico|nomeOriginal|remetente[|variantes] separados por ';'
+     * (chamada com o catálogo travado)
+     * @param catalogo Nome único -> nomeOriginal|remetente
+     * @param miniaturas Gerador que descreve as variantes reduzidas já prontas de cada foto
+     */
+    static String serializarCatalogo(Map<String, String> catalogo, GeradorMiniaturas miniaturas) {
+        StringBuilder lista = new StringBuilder();
+        for (Map.Entry<String, String> entry : catalogo.entrySet()) {
+            if (lista.length() > 0) lista.append(";");
+            String[] partes = entry.getValue().split("\\|");
+            String nomeOriginal = partes[0];
+            String remetente = partes.length > 1 ? partes[1] : "Desconhecido";
+            lista.append(entry.getKey())
+                 .append("|")
+                 .append(nomeOriginal)
+                 .append("|")
+                 .append(remetente);
+            // Quarto campo opcional: variantes reduzidas já geradas, baixáveis como nomeÚnico~variante.jpg
+            String variantes = miniaturas.descreverVariantes(entry.getKey());
+            if (!variantes.isEmpty()) {
+                lista.append("|").append(variantes);
             }
         }
+        return lista.toString();
     }
 
     public void removerCliente(ClienteHandler clienteHandler) {
          synchronized (clientes) {
             if (clientes.remove(clienteHandler)) {
+                roteador.desconectar(clienteHandler);
+                if (cluster != null) {
+                    cluster.registrarSaida(clienteHandler.getNomeInspetor());
+                }
                 registrarLog("Cliente " + clienteHandler.getNomeInspetor() + " removido da lista.");
-                 notificarDesconexaoParaOutros(clienteHandler.getNomeInspetor());
+                presenca.saiu(clienteHandler.getNomeInspetor());
             } else {
                  registrarLog("Erro: Cliente " + clienteHandler.getNomeInspetor() + " não encontrado na lista para remover.");
             }
         }
     }
 
-    private void notificarDesconexaoParaOutros(String nomeInspetorDesconectado) {
-        synchronized (clientes) {
-            for (ClienteHandler cliente : clientes) {
-                 cliente.enviarMensagem("CHAT:DESCONECTADO:" + nomeInspetorDesconectado);
-            }
+    /**
+     * Envia um arquivo recebido para download, registrando bytes e duração se deu certo
+     */
+    private boolean enviarArquivoMedindo(Socket socket, String nomeUnico) {
+        long inicio = System.nanoTime();
+        boolean enviado = TransferenciaArquivos.enviarArquivoParaCliente(socket, nomeUnico, "arquivos_recebidos");
+        if (enviado) {
+            bytesArquivosEnviados.add(new File("arquivos_recebidos", nomeUnico).length());
+            metricas.histograma("tiete_transferencia_segundos{sentido=\"enviado\"}").registrar(System.nanoTime() - inicio);
         }
+        return enviado;
     }
 
     private void processarComandoArquivo(String comando, ClienteHandler clienteHandler) {
@@ -520,7 +2031,7 @@ public class ServidorMonitoramento {
                 registrarLog("Erro ao enviar confirmação de download: " + e.getMessage());
                 return;
             }
-            boolean enviado = TransferenciaArquivos.enviarArquivoParaCliente(clienteHandler.socket, nomeUnico, "arquivos_recebidos");
+            boolean enviado = enviarArquivoMedindo(clienteHandler.socket, nomeUnico);
             if (enviado) {
                 registrarLog("Arquivo enviado com sucesso: " + nomeUnico);
             } else {
@@ -0,0 +1,141 @@
+package tieteMonitor.server;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.security.SecureRandom;
+import java.util.*;
+
+/**
+ * Estado retomável da conexão de um inspetor. Cada mensagem enviada depois de SESSAO:token
+ * recebe uma sequência (1, 2, ...) contada dos dois lados; as últimas ficam guardadas até o
+ * cliente confirmá-las (ACK:sequência), para que uma reconexão com RETOMAR:token:sequência
+ * receba só o que se perdeu na queda.
+ */
+public class SessaoCliente {
+    public static final int MENSAGENS_GUARDADAS_PADRAO = 2000;
+    private static final SecureRandom ALEATORIO = new SecureRandom();
+
+    private final String token;
+    private final int limite;
+    private final ArrayDeque<String> pendentes = new ArrayDeque<>();
+    // Sequência da mensagem mais antiga em pendentes
+    private long primeira = 1;
+    private long enviadas;
+
+    public SessaoCliente() {
+        this(MENSAGENS_GUARDADAS_PADRAO);
+    }
+
+    /**
+     * @param limite Máximo de mensagens não confirmadas guardadas; as mais antigas são descartadas
+     */
+    public SessaoCliente(int limite) {
+        this(novoToken(), limite);
+    }
+
+    private SessaoCliente(String token, int limite) {
+        this.token = token;
+        this.limite = limite;
+    }
+
+    /**
+     * Grava token, sequências e mensagens não confirmadas, para a sessão sobreviver a um
+     * reinício do servidor (ver InstantaneosServidor)
+     */
+    synchronized void gravar(DataOutputStream saida) throws IOException {
+        saida.writeUTF(token);
+        saida.writeInt(limite);
+        saida.writeLong(primeira);
+        saida.writeLong(enviadas);
+        saida.writeInt(pendentes.size());
+        for (String mensagem : pendentes) {
+            saida.writeUTF(mensagem);
+        }
+    }
+
+    /**
+     * @return A sessão gravada por {@link #gravar}
+     */
+    static SessaoCliente ler(DataInputStream entrada) throws IOException {
+        SessaoCliente sessao = new SessaoCliente(entrada.readUTF(), entrada.readInt());
+        sessao.primeira = entrada.readLong();
+        sessao.enviadas = entrada.readLong();
+        int quantidade = entrada.readInt();
+        for (int i = 0; i < quantidade; i++) {
+            sessao.pendentes.addLast(entrada.readUTF());
+        }
+        return sessao;
+    }
+
+    public String getToken() {
+        return token;
+    }
+
+    /**
+     * @return Mensagens enviadas e ainda não confirmadas pelo cliente
+     */
+    public synchronized int getPendentes() {
+        return pendentes.size();
+    }
+
+    /**
+     * @param mensagem Mensagem enviada (ou que seria enviada, com a conexão caída) ao cliente
+     * @return Sequência atribuída à mensagem
+     */
+    public synchronized long registrar(String mensagem) {
+        pendentes.addLast(mensagem);
+        if (pendentes.size() > limite) {
+            pendentes.removeFirst();
+            primeira++;
+        }
+        return ++enviadas;
+    }
+
+    /**
+     * @param sequencia Última sequência recebida pelo cliente; as anteriores são descartadas
+     */
+    public synchronized void confirmar(long sequencia) {
+        while (primeira <= sequencia && !pendentes.isEmpty()) {
+            pendentes.removeFirst();
+            primeira++;
+        }
+    }
+
+    /**
+     * @param recebidas Última sequência recebida pelo cliente antes da queda
+     * @return Mensagens guardadas posteriores a ela, na ordem de envio
+     */
+    public synchronized List<String> posteriores(long recebidas) {
+        List<String> resultado = new ArrayList<>();
+        long sequencia = primeira;
+        for (String mensagem : pendentes) {
+            if (sequencia++ > recebidas) {
+                resultado.add(mensagem);
+            }
+        }
+        return resultado;
+    }
+
+    /**
+     * @param recebidas Última sequência recebida pelo cliente antes da queda
+     * @return true se mensagens posteriores a ela já foram descartadas
+     */
+    public synchronized boolean houvePerda(long recebidas) {
+        return recebidas + 1 < primeira;
+    }
+
+    public synchronized long getEnviadas() {
+        return enviadas;
+    }
+
+    private static String novoToken() {
+        byte[] bytes = new byte[16];
+        ALEATORIO.nextBytes(bytes);
+        StringBuilder texto = new StringBuilder();
+        for (byte b : bytes) {
+            texto.append(String.format("%02x", b));
+        }
+        return texto.toString();
+    }
+}
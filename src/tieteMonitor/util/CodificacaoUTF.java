@@ -0,0 +1,29 @@
+package tieteMonitor.util;
+
+/**
+ * Tamanho dos textos no formato de DataOutputStream.writeUTF, usado para reconstruir as
+ * posições dos registros nos arquivos do servidor e da caixa de saída sem relê-los
+ */
+public class CodificacaoUTF {
+    private CodificacaoUTF() {
+    }
+
+    /**
+     * @param texto Texto gravado com writeUTF
+     * @return Bytes gravados, incluindo os 2 do tamanho
+     */
+    public static int tamanho(String texto) {
+        int bytes = 2;
+        for (int i = 0; i < texto.length(); i++) {
+            char c = texto.charAt(i);
+            if (c >= 0x0001 && c <= 0x007F) {
+                bytes += 1;
+            } else if (c > 0x07FF) {
+                bytes += 3;
+            } else {
+                bytes += 2;
+            }
+        }
+        return bytes;
+    }
+}
@@ -1,14 +1,16 @@
 package tieteMonitor.util;
 import javax.mail.*;
 import javax.mail.internet.*;
+import java.io.File;
+import java.io.IOException;
 import java.util.Properties;
 
 /**
  * Utilitário para envio de e-mails no sistema de monitoramento do Rio Tietê
  */
 public class EmailSender {
-    private static final String HOST = "smtp.gmail.com";
-    private static final int PORT = 587;
+    static final String HOST = "smtp.gmail.com";
+    static final int PORT = 587;
     
     /**
      * @param remetente Email do remetente
@@ -19,26 +21,12 @@ public class EmailSender {
      * @return true se o envio foi bem sucedido, false caso contrário
      */
     public static boolean enviarEmail(String remetente, String senha, String destinatario, String assunto, String corpo) {
-        Properties props = new Properties();
-        props.put("mail.smtp.auth", "true");
-        props.put("mail.smtp.starttls.enable", "true");
-        props.put("mail.smtp.host", HOST);
-        props.put("mail.smtp.port", PORT);
-        Session session = Session.getInstance(props, new Authenticator() {
-            @Override
-            protected PasswordAuthentication getPasswordAuthentication() {
-                return new PasswordAuthentication(remetente, senha);
-            }
-        });
+        Session session = criarSessao(HOST, PORT, remetente, senha, true);
         try {
-            Message message = new MimeMessage(session);
-            message.setFrom(new InternetAddress(remetente));
-            message.setRecipients(Message.RecipientType.TO, InternetAddress.parse(destinatario));
-            message.setSubject(assunto);
-            message.setText(corpo);
+            Message message = montarMensagem(session, remetente, destinatario, assunto, corpo, null, null);
             Transport.send(message);
             return true;
-        } catch (MessagingException e) {
+        } catch (MessagingException | IOException e) {
             System.err.println("Erro ao enviar e-mail: " + e.getMessage());
             return false;
         }
@@ -56,31 +44,9 @@ public class EmailSender {
      */
     public static boolean enviarEmailComAnexo(String remetente, String senha, String destinatario, 
                                              String assunto, String corpo, String caminhoAnexo, String nomeAnexo) {
-        Properties props = new Properties();
-        props.put("mail.smtp.auth", "true");
-        props.put("mail.smtp.starttls.enable", "true");
-        props.put("mail.smtp.host", HOST);
-        props.put("mail.smtp.port", PORT);
-        Session session = Session.getInstance(props, new Authenticator() {
-            @Override
-            protected PasswordAuthentication getPasswordAuthentication() {
-                return new PasswordAuthentication(remetente, senha);
-            }
-        });
+        Session session = criarSessao(HOST, PORT, remetente, senha, true);
         try {
-            Message message = new MimeMessage(session);
-            message.setFrom(new InternetAddress(remetente));
-            message.setRecipients(Message.RecipientType.TO, InternetAddress.parse(destinatario));
-            message.setSubject(assunto);
-            BodyPart messageBodyPart = new MimeBodyPart();
-            messageBodyPart.setText(corpo);
-            MimeBodyPart attachmentPart = new MimeBodyPart();
-            attachmentPart.attachFile(caminhoAnexo);
-            attachmentPart.setFileName(nomeAnexo);
-            Multipart multipart = new MimeMultipart();
-            multipart.addBodyPart(messageBodyPart);
-            multipart.addBodyPart(attachmentPart);
-            message.setContent(multipart);
+            Message message = montarMensagem(session, remetente, destinatario, assunto, corpo, caminhoAnexo, nomeAnexo);
             Transport.send(message);
             return true;
         } catch (Exception e) {
@@ -88,4 +54,59 @@ public class EmailSender {
             return false;
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * @param host Servidor SMTP
+     * @param porta Porta do servidor SMTP
+     * @param remetente Usuário SMTP (null para servidor sem autenticação)
+     * @param senha Senha do usuário SMTP
+     * @param tls true para exigir STARTTLS
+     * @return Sessão JavaMail configurada
+     */
+    static Session criarSessao(String host, int porta, String remetente, String senha, boolean tls) {
+        Properties props = new Properties();
+        boolean autenticar = remetente != null && senha != null;
+        props.put("mail.smtp.auth", String.valueOf(autenticar));
+        props.put("mail.smtp.starttls.enable", String.valueOf(tls));
+        props.put("mail.smtp.host", host);
+        props.put("mail.smtp.port", String.valueOf(porta));
+        if (!autenticar) {
+            return Session.getInstance(props);
+        }
+        return Session.getInstance(props, new Authenticator() {
+            @Override
+            protected PasswordAuthentication getPasswordAuthentication() {
+                return new PasswordAuthentication(remetente, senha);
+            }
+        });
+    }
+
+    /**
+     * O anexo é lido do disco somente no momento da escrita na conexão SMTP.
+     * @param caminhoAnexo Caminho do anexo, ou null para mensagem só com texto
+     * @param nomeAnexo Nome exibido do anexo
+     * @return Mensagem pronta para envio
+     */
+    static MimeMessage montarMensagem(Session session, String remetente, String destinatario, String assunto,
+                                      String corpo, String caminhoAnexo, String nomeAnexo)
+            throws MessagingException, IOException {
+        MimeMessage message = new MimeMessage(session);
+        message.setFrom(new InternetAddress(remetente));
+        message.setRecipients(Message.RecipientType.TO, InternetAddress.parse(destinatario));
+        message.setSubject(assunto, "UTF-8");
+        if (caminhoAnexo == null) {
+            message.setText(corpo, "UTF-8");
+            return message;
+        }
+        MimeBodyPart messageBodyPart = new MimeBodyPart();
+        messageBodyPart.setText(corpo, "UTF-8");
+        MimeBodyPart attachmentPart = new MimeBodyPart();
+        attachmentPart.attachFile(new File(caminhoAnexo));
+        attachmentPart.setFileName(nomeAnexo != null ? nomeAnexo : new File(caminhoAnexo).getName());
+        Multipart multipart = new MimeMultipart();
+        multipart.addBodyPart(messageBodyPart);
+        multipart.addBodyPart(attachmentPart);
+        message.setContent(multipart);
+        return message;
+    }
+}
@@ -2,29 +2,97 @@ package tieteMonitor.util;
 
 import java.io.IOException;
 import java.net.*;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 
 public class MulticastManager {
     private static final String MULTICAST_ADDRESS = "230.0.0.1";
     private static final int MULTICAST_PORT = 4446;
-    private static final int BUFFER_SIZE = 1024;
+    public static final String DESCOBERTA_ADDRESS = "230.0.0.2";
+    public static final int DESCOBERTA_PORT = 4447;
+    private static final int BUFFER_SIZE = 8192;
     private MulticastSocket socket;
     private InetAddress group;
-    private boolean running;
+    // Interface dos grupos (-Dtiete.multicast.interface); null deixa a escolha para o sistema
+    private final NetworkInterface interfaceRede;
+    private final Set<InetAddress> gruposAdicionais = new HashSet<>();
+    private int port;
+    private volatile boolean running;
     private Thread receiveThread;
-    private Consumer<String> messageHandler;
+    private BiConsumer<String, InetAddress> messageHandler;
     
     /**
      * @param messageHandler
      * @throws IOException
      */
     public MulticastManager(Consumer<String> messageHandler) throws IOException {
+        this(MULTICAST_ADDRESS, MULTICAST_PORT, messageHandler);
+    }
+
+    /**
+     * @param endereco Endereço do grupo multicast
+     * @param porta Porta do grupo multicast
+     * @param messageHandler Tratador das mensagens recebidas
+     * @throws IOException
+     */
+    public MulticastManager(String endereco, int porta, Consumer<String> messageHandler) throws IOException {
+        this(endereco, porta, messageHandler != null ? (mensagem, origem) -> messageHandler.accept(mensagem) : null);
+    }
+
+    /**
+     * @param endereco Endereço do grupo multicast
+     * @param porta Porta do grupo multicast
+     * @param messageHandler Tratador que recebe a mensagem e o endereço de quem a enviou
+     * @throws IOException
+     */
+    public MulticastManager(String endereco, int porta, BiConsumer<String, InetAddress> messageHandler) throws IOException {
         this.messageHandler = messageHandler;
-        socket = new MulticastSocket(MULTICAST_PORT);
-        group = InetAddress.getByName(MULTICAST_ADDRESS);
-        socket.joinGroup(group);
+        this.port = porta;
+        socket = new MulticastSocket(porta);
+        // Rajadas de mensagens não devem ser perdidas enquanto o tratador está ocupado
+        socket.setReceiveBufferSize(1 << 20);
+        group = InetAddress.getByName(endereco);
+        interfaceRede = interfaceConfigurada();
+        socket.joinGroup(new InetSocketAddress(group, 0), interfaceRede);
     }
     
+    /**
+     * Passa a receber também um segundo grupo na mesma porta
+     * @param endereco Endereço do grupo multicast
+     * @throws IOException
+     */
+    public synchronized void entrarGrupo(String endereco) throws IOException {
+        InetAddress adicional = InetAddress.getByName(endereco);
+        if (!adicional.equals(group) && gruposAdicionais.add(adicional)) {
+            socket.joinGroup(new InetSocketAddress(adicional, 0), interfaceRede);
+        }
+    }
+
+    /**
+     * @param endereco Endereço de um grupo adicionado por {@link #entrarGrupo(String)}
+     * @throws IOException
+     */
+    public synchronized void sairGrupo(String endereco) throws IOException {
+        InetAddress adicional = InetAddress.getByName(endereco);
+        if (gruposAdicionais.remove(adicional)) {
+            socket.leaveGroup(new InetSocketAddress(adicional, 0), interfaceRede);
+        }
+    }
+
+    private static NetworkInterface interfaceConfigurada() throws SocketException {
+        String nome = System.getProperty("tiete.multicast.interface");
+        if (nome == null || nome.trim().isEmpty()) {
+            return null;
+        }
+        NetworkInterface interfaceRede = NetworkInterface.getByName(nome.trim());
+        if (interfaceRede == null) {
+            throw new SocketException("Interface de rede não encontrada: " + nome);
+        }
+        return interfaceRede;
+    }
+
     public void iniciarRecepcao() {
         if (receiveThread != null && receiveThread.isAlive()) {
             return;
@@ -42,9 +110,9 @@ public class MulticastManager {
             try {
                 DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
                 socket.receive(packet);
-                String message = new String(packet.getData(), 0, packet.getLength());
+                String message = new String(packet.getData(), 0, packet.getLength(), "UTF-8");
                 if (messageHandler != null) {
-                    messageHandler.accept(message);
+                    messageHandler.accept(message, packet.getAddress());
                 }
             } catch (IOException e) {
                 if (running) {
@@ -60,8 +128,8 @@ public class MulticastManager {
      */
     public boolean enviarMensagem(String message) {
         try {
-            byte[] buffer = message.getBytes();
-            DatagramPacket packet = new DatagramPacket(buffer, buffer.length, group, MULTICAST_PORT);
+            byte[] buffer = message.getBytes("UTF-8");
+            DatagramPacket packet = new DatagramPacket(buffer, buffer.length, group, port);
             socket.send(packet);
             return true;
         } catch (IOException e) {
@@ -73,7 +141,13 @@ public class MulticastManager {
         running = false;
         if (socket != null) {
             try {
-                socket.leaveGroup(group);
+                synchronized (this) {
+                    for (InetAddress adicional : gruposAdicionais) {
+                        socket.leaveGroup(new InetSocketAddress(adicional, 0), interfaceRede);
+                    }
+                    gruposAdicionais.clear();
+                }
+                socket.leaveGroup(new InetSocketAddress(group, 0), interfaceRede);
                 socket.close();
             } catch (IOException e) {
                 System.err.println("Erro ao fechar socket multicast: " + e.getMessage());
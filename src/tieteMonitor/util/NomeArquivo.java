@@ -0,0 +1,19 @@
+package tieteMonitor.util;
+
+/**
+ * Conferência dos nomes de arquivo recebidos de outros servidores (réplica ou nó do cluster),
+ * que são gravados na pasta de arquivos recebidos com o nome informado por eles
+ */
+public class NomeArquivo {
+    private NomeArquivo() {
+    }
+
+    /**
+     * @return true se o nome é de um arquivo dentro da pasta (sem separadores, "." ou "..")
+     */
+    public static boolean isSeguro(String nome) {
+        return !nome.isEmpty() && !nome.equals(".") && !nome.equals("..")
+                && nome.indexOf('/') < 0 && nome.indexOf('\\') < 0 && nome.indexOf(':') < 0
+                && nome.indexOf('\0') < 0;
+    }
+}
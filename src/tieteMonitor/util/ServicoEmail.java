@@ -0,0 +1,266 @@
+package tieteMonitor.util;
+
+import com.sun.mail.smtp.SMTPSendFailedException;
+import javax.mail.*;
+import javax.mail.internet.AddressException;
+import javax.mail.internet.MimeMessage;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Serviço assíncrono de envio de e-mails.
+ * As mensagens entram numa fila limitada e são enviadas em lotes por um pequeno
+ * conjunto de threads, cada uma mantendo sua própria conexão SMTP aberta entre envios.
+ * Falhas transitórias (conexão, respostas 4xx) são reenviadas com espera exponencial; as
+ * permanentes (endereço inválido, anexo inexistente, respostas 5xx) falham na hora.
+ */
+public class ServicoEmail {
+    private static final int CONEXOES_PADRAO = 2;
+    private static final int CAPACIDADE_FILA_PADRAO = 500;
+    private static final int TAMANHO_LOTE = 20;
+    private static final int MAX_TENTATIVAS = 4;
+    private static final long ESPERA_INICIAL_MS = 1000;
+    private static final long OCIOSIDADE_MAXIMA_MS = 60000;
+    // Conexões usadas há menos tempo que isso não são testadas com NOOP antes do envio
+    private static final long VERIFICAR_CONEXAO_APOS_MS = 10000;
+
+    private final String host;
+    private final int porta;
+    private final String remetente;
+    private final String senha;
+    private final Session session;
+    private final BlockingQueue<Envio> fila;
+    private final List<Thread> trabalhadores = new ArrayList<>();
+    private final ScheduledExecutorService agendadorReenvio;
+    private volatile boolean ativo = true;
+
+    private static class Envio {
+        final String destinatario;
+        final String assunto;
+        final String corpo;
+        final String caminhoAnexo;
+        final String nomeAnexo;
+        final CompletableFuture<Boolean> resultado = new CompletableFuture<>();
+        int tentativas;
+
+        Envio(String destinatario, String assunto, String corpo, String caminhoAnexo, String nomeAnexo) {
+            this.destinatario = destinatario;
+            this.assunto = assunto;
+            this.corpo = corpo;
+            this.caminhoAnexo = caminhoAnexo;
+            this.nomeAnexo = nomeAnexo;
+        }
+    }
+
+    /**
+     * Serviço para o servidor SMTP padrão (Gmail, porta 587 com STARTTLS)
+     * @param remetente Email do remetente
+     * @param senha Senha do remetente (ou senha de app para Gmail)
+     */
+    public ServicoEmail(String remetente, String senha) {
+        this(EmailSender.HOST, EmailSender.PORT, remetente, senha, true, CONEXOES_PADRAO, CAPACIDADE_FILA_PADRAO);
+    }
+
+    /**
+     * @param host Servidor SMTP
+     * @param porta Porta do servidor SMTP
+     * @param remetente Email do remetente (também usado como usuário SMTP)
+     * @param senha Senha do remetente, ou null para servidor sem autenticação
+     * @param tls true para exigir STARTTLS
+     * @param conexoes Quantidade de conexões SMTP mantidas abertas
+     * @param capacidadeFila Máximo de e-mails aguardando envio
+     */
+    public ServicoEmail(String host, int porta, String remetente, String senha, boolean tls,
+                        int conexoes, int capacidadeFila) {
+        this.host = host;
+        this.porta = porta;
+        this.remetente = remetente;
+        this.senha = senha;
+        this.session = EmailSender.criarSessao(host, porta, remetente, senha, tls);
+        this.fila = new ArrayBlockingQueue<>(capacidadeFila);
+        this.agendadorReenvio = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "email-reenvio");
+            t.setDaemon(true);
+            return t;
+        });
+        for (int i = 0; i < conexoes; i++) {
+            Thread t = new Thread(this::executarEnvios, "email-" + i);
+            t.setDaemon(true);
+            trabalhadores.add(t);
+            t.start();
+        }
+    }
+
+    /**
+     * @param destinatario Email do destinatário
+     * @param assunto Assunto do e-mail
+     * @param corpo Corpo do e-mail
+     * @return Futuro concluído com true quando o e-mail for aceito pelo servidor SMTP,
+     *         ou false se a fila estiver cheia ou as tentativas se esgotarem
+     */
+    public CompletableFuture<Boolean> enviar(String destinatario, String assunto, String corpo) {
+        return enfileirar(new Envio(destinatario, assunto, corpo, null, null));
+    }
+
+    /**
+     * @param destinatario Email do destinatário
+     * @param assunto Assunto do e-mail
+     * @param corpo Corpo do e-mail
+     * @param caminhoAnexo Caminho do arquivo a ser anexado (lido do disco durante o envio)
+     * @param nomeAnexo Nome do anexo
+     * @return Futuro com o resultado do envio
+     */
+    public CompletableFuture<Boolean> enviarComAnexo(String destinatario, String assunto, String corpo,
+                                                     String caminhoAnexo, String nomeAnexo) {
+        return enfileirar(new Envio(destinatario, assunto, corpo, caminhoAnexo, nomeAnexo));
+    }
+
+    /**
+     * @return Quantidade de e-mails aguardando envio
+     */
+    public int getPendentes() {
+        return fila.size();
+    }
+
+    private CompletableFuture<Boolean> enfileirar(Envio envio) {
+        if (!ativo || !fila.offer(envio)) {
+            System.err.println("Fila de e-mails cheia ou serviço encerrado, descartando e-mail para " + envio.destinatario);
+            envio.resultado.complete(false);
+        }
+        return envio.resultado;
+    }
+
+    private void executarEnvios() {
+        Transport transport = null;
+        long ultimoUso = System.currentTimeMillis();
+        List<Envio> lote = new ArrayList<>(TAMANHO_LOTE);
+        while (ativo) {
+            try {
+                Envio primeiro = fila.poll(1, TimeUnit.SECONDS);
+                if (primeiro == null) {
+                    if (transport != null && System.currentTimeMillis() - ultimoUso > OCIOSIDADE_MAXIMA_MS) {
+                        transport = fecharTransport(transport);
+                    }
+                    continue;
+                }
+                lote.clear();
+                lote.add(primeiro);
+                fila.drainTo(lote, TAMANHO_LOTE - 1);
+                for (Envio envio : lote) {
+                    try {
+                        transport = garantirConexao(transport, ultimoUso);
+                        MimeMessage message = EmailSender.montarMensagem(session, remetente, envio.destinatario,
+                                envio.assunto, envio.corpo, envio.caminhoAnexo, envio.nomeAnexo);
+                        message.saveChanges();
+                        transport.sendMessage(message, message.getAllRecipients());
+                        envio.resultado.complete(true);
+                    } catch (MessagingException | IOException e) {
+                        boolean transitoria = isTransitoria(e);
+                        System.err.println("Erro " + (transitoria ? "" : "permanente ") + "ao enviar e-mail para "
+                                + envio.destinatario + ": " + e.getMessage());
+                        // Recusas de destinatário deixam a conexão utilizável (o transporte envia RSET)
+                        if (!(e instanceof SendFailedException)) {
+                            transport = fecharTransport(transport);
+                        }
+                        if (transitoria) {
+                            agendarReenvio(envio);
+                        } else {
+                            envio.resultado.complete(false);
+                        }
+                    }
+                    ultimoUso = System.currentTimeMillis();
+                }
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+        fecharTransport(transport);
+    }
+
+    /**
+     * isConnected custa uma ida e volta (NOOP) no SMTP, então só é chamado depois de
+     * {@link #VERIFICAR_CONEXAO_APOS_MS} sem uso; uma conexão que caiu antes disso falha
+     * no envio e a mensagem é reenviada por uma nova.
+     */
+    private Transport garantirConexao(Transport transport, long ultimoUso) throws MessagingException {
+        if (transport != null && (System.currentTimeMillis() - ultimoUso < VERIFICAR_CONEXAO_APOS_MS
+                || transport.isConnected())) {
+            return transport;
+        }
+        fecharTransport(transport);
+        Transport novo = session.getTransport("smtp");
+        if (senha != null) {
+            novo.connect(host, porta, remetente, senha);
+        } else {
+            novo.connect(host, porta, null, null);
+        }
+        return novo;
+    }
+
+    private Transport fecharTransport(Transport transport) {
+        if (transport != null) {
+            try {
+                transport.close();
+            } catch (MessagingException e) {
+                System.err.println("Erro ao fechar conexão SMTP: " + e.getMessage());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return false para falhas que se repetiriam em qualquer nova tentativa
+     */
+    static boolean isTransitoria(Exception e) {
+        if (e instanceof IOException || e instanceof AddressException || e instanceof AuthenticationFailedException) {
+            return false;
+        }
+        for (Throwable causa = e; causa != null; causa = causa.getCause()) {
+            if (causa instanceof FileNotFoundException) {
+                return false;
+            }
+        }
+        if (e instanceof SMTPSendFailedException) {
+            int codigo = ((SMTPSendFailedException) e).getReturnCode();
+            return codigo < 500 || codigo >= 600;
+        }
+        if (e instanceof SendFailedException) {
+            // Recusas 4xx deixam o endereço em "válido não enviado"; as 5xx, em "inválido"
+            Address[] naoEnviados = ((SendFailedException) e).getValidUnsentAddresses();
+            return naoEnviados != null && naoEnviados.length > 0;
+        }
+        return true;
+    }
+
+    private void agendarReenvio(Envio envio) {
+        envio.tentativas++;
+        if (envio.tentativas >= MAX_TENTATIVAS || !ativo) {
+            envio.resultado.complete(false);
+            return;
+        }
+        long espera = ESPERA_INICIAL_MS << (envio.tentativas - 1);
+        agendadorReenvio.schedule(() -> {
+            if (!fila.offer(envio)) {
+                envio.resultado.complete(false);
+            }
+        }, espera, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Interrompe as threads de envio; e-mails ainda na fila são concluídos com false.
+     */
+    public void encerrar() {
+        ativo = false;
+        agendadorReenvio.shutdownNow();
+        for (Thread t : trabalhadores) {
+            t.interrupt();
+        }
+        Envio pendente;
+        while ((pendente = fila.poll()) != null) {
+            pendente.resultado.complete(false);
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package tieteMonitor.server;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AgregadorAlertasTest {
+    private final List<AgregadorAlertas.AlertaAgregado> resumos = new ArrayList<>();
+    private AgregadorAlertas agregador;
+
+    @Before
+    public void criar() {
+        agregador = new AgregadorAlertas(60000, resumos::add);
+    }
+
+    @After
+    public void encerrar() {
+        agregador.encerrar();
+    }
+
+    @Test
+    public void relatosQuaseIdenticosSaoAgregados() {
+        assertTrue(agregador.registrar("Ponte Grande", "ana", "Espuma na margem do rio!"));
+        assertFalse(agregador.registrar("ponte grande", "bruno", "espuma na MARGEM do rio"));
+    }
+
+    @Test
+    public void alertasQueDiferemSoNoValorNaoSaoAgregados() {
+        assertTrue(agregador.registrar("Ponte Grande", "ana", "Turbidez 35 NTU"));
+        assertTrue(agregador.registrar("Ponte Grande", "bruno", "Turbidez 90 NTU"));
+        assertTrue(agregador.registrar("Ponte Grande", "ana", "pH 4"));
+        assertTrue(agregador.registrar("Ponte Grande", "bruno", "pH 9"));
+        assertFalse(agregador.registrar("Ponte Grande", "carla", "ph 9"));
+    }
+
+    @Test
+    public void impressaoDigitalMantemNumerosCurtos() {
+        assertNotEquals(AgregadorAlertas.impressaoDigital("pH 4"), AgregadorAlertas.impressaoDigital("pH 9"));
+        assertEquals(AgregadorAlertas.impressaoDigital("Óleo no rio"), AgregadorAlertas.impressaoDigital("oleo no RIO."));
+    }
+
+    @Test
+    public void locaisDiferentesNaoSaoAgregados() {
+        assertTrue(agregador.registrar("Ponte Grande", "ana", "Peixes mortos"));
+        assertTrue(agregador.registrar("Barueri", "bruno", "Peixes mortos"));
+    }
+}
@@ -0,0 +1,99 @@
+package tieteMonitor.server;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ArmazenamentoMedicoesTest {
+    @Rule
+    public TemporaryFolder pasta = new TemporaryFolder();
+    private ArmazenamentoMedicoes armazenamento;
+
+    @Before
+    public void abrir() {
+        armazenamento = new ArmazenamentoMedicoes(pasta.getRoot());
+    }
+
+    @After
+    public void fechar() {
+        armazenamento.fechar();
+    }
+
+    @Test
+    public void consultaDeSerieInexistenteNaoCriaNada() throws IOException {
+        ArmazenamentoMedicoes.Resumo resumo = armazenamento.consultar("qualquercoisa", "ph", 0, Long.MAX_VALUE);
+        assertEquals(0, resumo.getQuantidade());
+        assertTrue(Double.isNaN(resumo.getMedia()));
+        assertFalse(new File(pasta.getRoot(), "qualquercoisa").exists());
+    }
+
+    @Test
+    public void consultaAgregaOQueFoiRegistrado() throws IOException {
+        for (int i = 0; i < 10; i++) {
+            armazenamento.registrar("mogi", "ph", 1000 + i, 6 + i * 0.1);
+        }
+        ArmazenamentoMedicoes.Resumo resumo = armazenamento.consultar("mogi", "ph", 1000, 1004);
+        assertEquals(5, resumo.getQuantidade());
+        assertEquals(6.0, resumo.getMinimo(), 1e-9);
+        assertEquals(6.4, resumo.getMaximo(), 1e-9);
+    }
+
+    @Test
+    public void consultaReabreSerieGravadaAntes() throws IOException {
+        armazenamento.registrar("mogi", "turbidez", 5000, 35);
+        armazenamento.fechar();
+        armazenamento = new ArmazenamentoMedicoes(pasta.getRoot());
+        assertEquals(1, armazenamento.consultar("mogi", "turbidez", 0, 10000).getQuantidade());
+    }
+
+    @Test
+    public void quedaAntesDeEsvaziarACabecaNaoDuplicaPontos() throws IOException {
+        File cabeca = new File(pasta.getRoot(), "mogi/ph/cabeca.wal");
+        for (int i = 0; i < 16383; i++) {
+            armazenamento.registrar("mogi", "ph", 1000 + i, 7);
+        }
+        byte[] antesDaConsolidacao = Files.readAllBytes(cabeca.toPath());
+        // O ponto seguinte completa o segmento, que é gravado e registrado no índice
+        armazenamento.registrar("mogi", "ph", 1000 + 16383, 7);
+        byte[] ultimoPonto = new byte[16];
+        ByteBuffer.wrap(ultimoPonto).putLong(1000 + 16383).putDouble(7);
+        // Cabeça como estava se o processo caísse antes de esvaziá-la
+        Files.write(cabeca.toPath(), antesDaConsolidacao);
+        Files.write(cabeca.toPath(), ultimoPonto, StandardOpenOption.APPEND);
+
+        ArmazenamentoMedicoes reaberto = new ArmazenamentoMedicoes(pasta.getRoot());
+        try {
+            assertEquals(16384, reaberto.consultar("mogi", "ph", 0, Long.MAX_VALUE).getQuantidade());
+            reaberto.registrar("mogi", "ph", 50000, 8);
+            assertEquals(16385, reaberto.consultar("mogi", "ph", 0, Long.MAX_VALUE).getQuantidade());
+        } finally {
+            reaberto.fechar();
+        }
+    }
+
+    @Test
+    public void cabecaSemCabecalhoDeVersaoAnteriorEhReaplicada() throws IOException {
+        File serie = new File(pasta.getRoot(), "suzano/ph");
+        serie.mkdirs();
+        byte[] pontos = new byte[3 * 16 + 5];
+        ByteBuffer buffer = ByteBuffer.wrap(pontos);
+        for (int i = 0; i < 3; i++) {
+            buffer.putLong(1700000000000L + i).putDouble(6.5);
+        }
+        Files.write(new File(serie, "cabeca.wal").toPath(), pontos);
+        assertEquals(3, armazenamento.consultar("suzano", "ph", 0, Long.MAX_VALUE).getQuantidade());
+        armazenamento.registrar("suzano", "ph", 1700000000010L, 6.6);
+        armazenamento.fechar();
+        armazenamento = new ArmazenamentoMedicoes(pasta.getRoot());
+        assertEquals(4, armazenamento.consultar("suzano", "ph", 0, Long.MAX_VALUE).getQuantidade());
+    }
+}
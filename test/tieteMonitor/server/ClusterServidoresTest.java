@@ -0,0 +1,184 @@
+package tieteMonitor.server;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.*;
+import java.util.function.BooleanSupplier;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ClusterServidoresTest {
+    @Rule
+    public TemporaryFolder pasta = new TemporaryFolder();
+    private final List<ClusterServidores> nos = new ArrayList<>();
+    private final List<Socket> sockets = new ArrayList<>();
+
+    /**
+     * Servidor local que só anota o que o cluster lhe entregou
+     */
+    private static class OuvinteTeste implements ClusterServidores.Ouvinte {
+        final List<String> eventos = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public void entregar(String destinatario, String mensagem) {
+            eventos.add("entregar " + destinatario);
+        }
+
+        @Override
+        public void publicar(String[] topicos, String mensagem) {
+            eventos.add("publicar " + String.join(",", topicos));
+        }
+
+        @Override
+        public void avisarJusante(List<String> locais, String mensagem) {
+            eventos.add("jusante " + String.join(",", locais));
+        }
+
+        @Override
+        public void presencaAlterada(String nome, boolean conectado) {
+            eventos.add((conectado ? "entrou " : "saiu ") + nome);
+        }
+
+        @Override
+        public void nomeEmConflito(String nome) {
+            eventos.add("conflito " + nome);
+        }
+
+        @Override
+        public void arquivoDisponivel(String nomeUnico, String nomeOriginal, String remetente) {
+            eventos.add("arquivo " + nomeUnico);
+        }
+    }
+
+    @After
+    public void fechar() throws IOException {
+        for (ClusterServidores no : nos) {
+            no.fechar();
+        }
+        for (Socket socket : sockets) {
+            socket.close();
+        }
+    }
+
+    @Test
+    public void nosComOMesmoSegredoTrocamPresencas() throws Exception {
+        String a = "127.0.0.1:" + portaLivre();
+        String b = "127.0.0.1:" + portaLivre();
+        OuvinteTeste ouvinteA = new OuvinteTeste();
+        OuvinteTeste ouvinteB = new OuvinteTeste();
+        iniciar(a, Arrays.asList(a, b), ouvinteA, "segredo");
+        ClusterServidores noB = iniciar(b, Arrays.asList(a, b), ouvinteB, "segredo");
+        aguardar(() -> nos.get(0).getEstatisticas().contains("1/1") && noB.getEstatisticas().contains("1/1"));
+        assertTrue(noB.registrarEntrada("bruno", "mogi"));
+        aguardar(() -> ouvinteA.eventos.contains("entrou bruno"));
+        assertEquals(b, nos.get(0).getNo("bruno"));
+    }
+
+    @Test
+    public void noSemOSegredoNaoInjetaQuadros() throws Exception {
+        String a = "127.0.0.1:" + portaLivre();
+        String b = "127.0.0.1:" + portaLivre();
+        OuvinteTeste ouvinteA = new OuvinteTeste();
+        ClusterServidores noA = iniciar(a, Arrays.asList(a, b), ouvinteA, "segredo");
+        noA.registrarEntrada("ana", "mogi");
+        Socket intruso = conectar(a);
+        DataOutputStream out = new DataOutputStream(intruso.getOutputStream());
+        DataInputStream in = new DataInputStream(intruso.getInputStream());
+        out.writeUTF("NO:" + b);
+        in.readFully(new byte[32]);
+        out.write(new byte[64]);
+        escrever(out, "ENTRA", "ana", "mogi", "0");
+        escrever(out, "PRIVADA", "ana", "CHAT:MSG_DE:Central:oi");
+        assertEquals(-1, in.read());
+        assertTrue(ouvinteA.eventos.isEmpty());
+        assertEquals(a, noA.getNo("ana"));
+    }
+
+    @Test
+    public void arquivoComNomeForaDaPastaEhIgnorado() throws Exception {
+        String a = "127.0.0.1:" + portaLivre();
+        String b = "127.0.0.1:" + portaLivre();
+        OuvinteTeste ouvinteA = new OuvinteTeste();
+        ClusterServidores noA = iniciar(a, Arrays.asList(a, b), ouvinteA, "segredo");
+        DataOutputStream out = conectarAutenticado(a, b, "segredo");
+        escrever(out, "ARQUIVO", "../../estado/sessoes.txt", "sessoes.txt", "bruno");
+        escrever(out, "ARQUIVO", "1_leitura.txt", "leitura.txt", "bruno");
+        aguardar(() -> ouvinteA.eventos.contains("arquivo 1_leitura.txt"));
+        assertEquals(Collections.singletonList("arquivo 1_leitura.txt"), ouvinteA.eventos);
+        assertFalse(noA.buscarArquivo("../../estado/sessoes.txt", pasta.getRoot()));
+    }
+
+    @Test
+    public void quadroIncompletoEncerraALigacao() throws Exception {
+        String a = "127.0.0.1:" + portaLivre();
+        String b = "127.0.0.1:" + portaLivre();
+        OuvinteTeste ouvinteA = new OuvinteTeste();
+        iniciar(a, Arrays.asList(a, b), ouvinteA, "segredo");
+        DataOutputStream out = conectarAutenticado(a, b, "segredo");
+        escrever(out, "ENTRA", "bruno", "mogi", "0");
+        escrever(out, "ENTRA", "carla");
+        DataInputStream in = new DataInputStream(sockets.get(0).getInputStream());
+        assertEquals(-1, in.read());
+        // Com a ligação encerrada, as presenças do nó saem da tabela
+        aguardar(() -> ouvinteA.eventos.contains("saiu bruno"));
+        assertEquals(Arrays.asList("entrou bruno", "saiu bruno"), ouvinteA.eventos);
+    }
+
+    private ClusterServidores iniciar(String id, List<String> membros, OuvinteTeste ouvinte, String segredo)
+            throws IOException {
+        ClusterServidores no = new ClusterServidores(id, membros, ouvinte, segredo, null);
+        nos.add(no);
+        no.iniciar();
+        return no;
+    }
+
+    private Socket conectar(String no) throws IOException {
+        int porta = Integer.parseInt(no.substring(no.lastIndexOf(':') + 1)) + ClusterServidores.DESLOCAMENTO_PORTA;
+        Socket socket = new Socket("127.0.0.1", porta);
+        socket.setSoTimeout(10000);
+        sockets.add(socket);
+        return socket;
+    }
+
+    /**
+     * Abre uma ligação como o nó informado, comprovando o segredo como ClusterServidores faz
+     */
+    private DataOutputStream conectarAutenticado(String destino, String comoNo, String segredo) throws IOException {
+        Socket socket = conectar(destino);
+        DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+        DataInputStream in = new DataInputStream(socket.getInputStream());
+        out.writeUTF("NO:" + comoNo);
+        assertTrue(new AutenticacaoSegredo(segredo).conferirQuemAceitou(out, in, "no:" + comoNo, "no:" + destino));
+        return out;
+    }
+
+    private static void escrever(DataOutputStream out, String... quadro) throws IOException {
+        out.writeByte(quadro.length);
+        for (String campo : quadro) {
+            out.writeUTF(campo);
+        }
+        out.flush();
+    }
+
+    private static void aguardar(BooleanSupplier condicao) throws InterruptedException {
+        long limite = System.currentTimeMillis() + 5000;
+        while (!condicao.getAsBoolean() && System.currentTimeMillis() < limite) {
+            Thread.sleep(20);
+        }
+        assertTrue(condicao.getAsBoolean());
+    }
+
+    /**
+     * @return Porta dos clientes cuja porta do cluster está livre
+     */
+    private static int portaLivre() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort() - ClusterServidores.DESLOCAMENTO_PORTA;
+        }
+    }
+}
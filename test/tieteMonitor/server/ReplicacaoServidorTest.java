@@ -0,0 +1,124 @@
+package tieteMonitor.server;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.util.*;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ReplicacaoServidorTest {
+    @Rule
+    public TemporaryFolder pasta = new TemporaryFolder();
+    private final List<ReplicacaoServidor> servidores = new ArrayList<>();
+
+    /**
+     * Catálogo em memória; guarda o que chegou por replicação
+     */
+    private static class CatalogoTeste implements ReplicacaoServidor.Catalogo {
+        final Map<String, String[]> entradas = new LinkedHashMap<>();
+        final List<String> replicados = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public Object bloqueio() {
+            return this;
+        }
+
+        @Override
+        public synchronized Map<String, String[]> entradas() {
+            return new LinkedHashMap<>(entradas);
+        }
+
+        @Override
+        public synchronized void arquivoReplicado(String nomeUnico, String nomeOriginal, String remetente) {
+            entradas.put(nomeUnico, new String[]{nomeOriginal, remetente});
+            replicados.add(nomeUnico);
+        }
+    }
+
+    @After
+    public void fechar() {
+        for (ReplicacaoServidor servidor : servidores) {
+            servidor.fechar();
+        }
+    }
+
+    @Test
+    public void replicaComOSegredoRecebeOsArquivos() throws Exception {
+        int porta = portaLivre();
+        CatalogoTeste catalogoPrimario = primarioComUmArquivo(porta, "segredo");
+        CatalogoTeste catalogoReplica = acompanhar(porta, "segredo");
+        aguardar(catalogoReplica, 1);
+        assertEquals(catalogoPrimario.entradas.keySet(), new HashSet<>(catalogoReplica.replicados));
+    }
+
+    @Test
+    public void replicaComSegredoErradoNaoRecebeNada() throws Exception {
+        int porta = portaLivre();
+        primarioComUmArquivo(porta, "segredo");
+        CatalogoTeste catalogoReplica = acompanhar(porta, "outro");
+        Thread.sleep(1500);
+        assertTrue(catalogoReplica.replicados.isEmpty());
+    }
+
+    @Test
+    public void replicaAtivaNaoEhDesalojada() throws Exception {
+        int porta = portaLivre();
+        CatalogoTeste catalogoPrimario = primarioComUmArquivo(porta, "segredo");
+        ReplicacaoServidor primario = servidores.get(0);
+        CatalogoTeste primeira = acompanhar(porta, "segredo");
+        aguardar(primeira, 1);
+        CatalogoTeste segunda = acompanhar(porta, "segredo");
+        Thread.sleep(1500);
+        synchronized (catalogoPrimario) {
+            primario.registrarArquivo("2_novo.txt", "novo.txt", "ana");
+        }
+        aguardar(primeira, 2);
+        assertTrue(segunda.replicados.isEmpty());
+    }
+
+    private CatalogoTeste primarioComUmArquivo(int porta, String segredo) throws IOException {
+        File arquivos = pasta.newFolder();
+        Files.write(new File(arquivos, "1_leitura.txt").toPath(), "pH 7,1".getBytes("UTF-8"));
+        CatalogoTeste catalogo = new CatalogoTeste();
+        catalogo.entradas.put("1_leitura.txt", new String[]{"leitura.txt", "ana"});
+        ReplicacaoServidor primario = new ReplicacaoServidor(ReplicacaoServidor.Modo.ASSINCRONO, null, porta, arquivos,
+                null, catalogo, 1000, 3000, segredo, null);
+        servidores.add(primario);
+        primario.aceitarReplicas();
+        return catalogo;
+    }
+
+    private CatalogoTeste acompanhar(int portaPrimario, String segredo) throws IOException {
+        CatalogoTeste catalogo = new CatalogoTeste();
+        ReplicacaoServidor replica = new ReplicacaoServidor(ReplicacaoServidor.Modo.ASSINCRONO,
+                "127.0.0.1:" + portaPrimario, portaLivre(), pasta.newFolder(), null, catalogo, 1000, 3000, segredo, null);
+        servidores.add(replica);
+        Thread thread = new Thread(replica::acompanharPrimario);
+        thread.setDaemon(true);
+        thread.start();
+        return catalogo;
+    }
+
+    private static void aguardar(CatalogoTeste catalogo, int quantidade) throws InterruptedException {
+        long limite = System.currentTimeMillis() + 5000;
+        while (catalogo.replicados.size() < quantidade && System.currentTimeMillis() < limite) {
+            Thread.sleep(20);
+        }
+        assertEquals(quantidade, catalogo.replicados.size());
+    }
+
+    /**
+     * @return Porta dos clientes cuja porta de replicação está livre
+     */
+    private static int portaLivre() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort() - ReplicacaoServidor.DESLOCAMENTO_PORTA;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package tieteMonitor.server;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.Test;
+
+public class RoteadorTopicosTest {
+    private final RoteadorTopicos<String> roteador = new RoteadorTopicos<>();
+
+    @Test
+    public void novoAssinanteRecebeTodosOsTopicos() {
+        roteador.conectar("ana");
+        assertEquals(Collections.singletonList("ana"), roteador.assinantes("mogi"));
+        assertEquals(Collections.singletonList("ana"), roteador.assinantes(RoteadorTopicos.TODOS));
+    }
+
+    @Test
+    public void listasSeguemAOrdemDeConexao() {
+        roteador.conectar("ana");
+        roteador.conectar("bruno");
+        roteador.conectar("carla");
+        roteador.assinar("ana", Collections.singleton("mogi"));
+        roteador.assinar("carla", Arrays.asList("suzano", RoteadorTopicos.CENTRAL));
+        // bruno continua com QUALQUER
+        assertEquals(Arrays.asList("ana", "bruno"), roteador.assinantes("mogi"));
+        assertEquals(Arrays.asList("bruno", "carla"), roteador.assinantes("suzano"));
+        assertEquals(Collections.singletonList("bruno"), roteador.assinantes("poa"));
+        assertEquals(Arrays.asList("ana", "bruno", "carla"), roteador.assinantes("mogi", RoteadorTopicos.CENTRAL));
+        assertEquals(Arrays.asList("ana", "bruno", "carla"), roteador.assinantes(RoteadorTopicos.TODOS));
+    }
+
+    @Test
+    public void mudancasInvalidamAsListasMontadas() {
+        roteador.conectar("ana");
+        roteador.conectar("bruno");
+        roteador.assinar("ana", Collections.singleton("mogi"));
+        roteador.assinar("bruno", Collections.singleton("suzano"));
+        assertEquals(Collections.singletonList("ana"), roteador.assinantes("mogi"));
+        assertEquals(Arrays.asList("ana", "bruno"), roteador.assinantes("mogi", "suzano"));
+
+        roteador.assinar("ana", Collections.singleton("suzano"));
+        assertTrue(roteador.assinantes("mogi").isEmpty());
+        assertEquals(Arrays.asList("ana", "bruno"), roteador.assinantes("suzano"));
+
+        roteador.desconectar("ana");
+        assertEquals(Collections.singletonList("bruno"), roteador.assinantes("mogi", "suzano"));
+        assertEquals(Collections.singletonList("bruno"), roteador.assinantes(RoteadorTopicos.TODOS));
+
+        roteador.assinar("bruno", Collections.singleton(RoteadorTopicos.QUALQUER));
+        assertEquals(Collections.singletonList("bruno"), roteador.assinantes("mogi"));
+    }
+
+    @Test
+    public void assinanteComTopicoECuringaApareceUmaVez() {
+        roteador.conectar("ana");
+        roteador.assinar("ana", Arrays.asList("mogi", RoteadorTopicos.QUALQUER));
+        assertEquals(Collections.singletonList("ana"), roteador.assinantes("mogi"));
+    }
+}
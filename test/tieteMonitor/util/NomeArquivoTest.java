@@ -0,0 +1,18 @@
+package tieteMonitor.util;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class NomeArquivoTest {
+    @Test
+    public void nomesForaDaPastaSaoRecusados() {
+        assertTrue(NomeArquivo.isSeguro("1718000000000_relatorio..final.pdf"));
+        assertFalse(NomeArquivo.isSeguro("../estado/sessoes.txt"));
+        assertFalse(NomeArquivo.isSeguro(".."));
+        assertFalse(NomeArquivo.isSeguro("sub/arquivo.txt"));
+        assertFalse(NomeArquivo.isSeguro("..\\..\\arquivo.txt"));
+        assertFalse(NomeArquivo.isSeguro("C:arquivo.txt"));
+        assertFalse(NomeArquivo.isSeguro(""));
+    }
+}
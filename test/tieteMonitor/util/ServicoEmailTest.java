@@ -0,0 +1,170 @@
+package tieteMonitor.util;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ServicoEmailTest {
+    private ServidorSmtp smtp;
+    private ServicoEmail servico;
+
+    @Before
+    public void iniciar() throws IOException {
+        smtp = new ServidorSmtp();
+        servico = new ServicoEmail("localhost", smtp.getPorta(), "monitor@tiete.test", null, false, 1, 50);
+    }
+
+    @After
+    public void encerrar() throws IOException {
+        servico.encerrar();
+        smtp.fechar();
+    }
+
+    @Test
+    public void enviaVariosEmailsPelaMesmaConexao() throws Exception {
+        List<CompletableFuture<Boolean>> resultados = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            resultados.add(servico.enviar("inspetor" + i + "@tiete.test", "Alerta " + i, "Corpo " + i));
+        }
+        for (CompletableFuture<Boolean> resultado : resultados) {
+            assertTrue(resultado.get(10, TimeUnit.SECONDS));
+        }
+        assertEquals(5, smtp.mensagens.size());
+        assertEquals(1, smtp.conexoes.get());
+        assertEquals("Conexão recente não deve ser testada com NOOP", 0, smtp.noops.get());
+        assertTrue(smtp.mensagens.get(0).contains("Subject: Alerta 0"));
+    }
+
+    @Test
+    public void recusaPermanenteNaoEhReenviada() throws Exception {
+        assertFalse(servico.enviar("rejeitado@tiete.test", "Alerta", "Corpo").get(10, TimeUnit.SECONDS));
+        assertEquals(1, smtp.destinatarios.get());
+        // A conexão continua utilizável depois da recusa
+        assertTrue(servico.enviar("ana@tiete.test", "Alerta", "Corpo").get(10, TimeUnit.SECONDS));
+        assertEquals(1, smtp.conexoes.get());
+    }
+
+    @Test
+    public void falhaTransitoriaEhReenviada() throws Exception {
+        smtp.recusasTemporarias.set(1);
+        assertTrue(servico.enviar("ana@tiete.test", "Alerta", "Corpo").get(10, TimeUnit.SECONDS));
+        assertEquals(2, smtp.destinatarios.get());
+        assertEquals(1, smtp.mensagens.size());
+    }
+
+    @Test
+    public void anexoInexistenteFalhaSemReenvio() throws Exception {
+        long inicio = System.currentTimeMillis();
+        assertFalse(servico.enviarComAnexo("ana@tiete.test", "Relatório", "Segue", "/nao/existe.pdf", "r.pdf")
+                .get(10, TimeUnit.SECONDS));
+        assertTrue("Não deve esperar pelos reenvios", System.currentTimeMillis() - inicio < 1000);
+        assertEquals(0, smtp.mensagens.size());
+    }
+
+    @Test
+    public void enderecoInvalidoFalhaSemReenvio() throws Exception {
+        assertFalse(servico.enviar("sem arroba", "Alerta", "Corpo").get(10, TimeUnit.SECONDS));
+        assertEquals(0, smtp.destinatarios.get());
+    }
+
+    /**
+     * Servidor SMTP mínimo: recusa com 550 destinatários começando com "rejeitado" e com 451
+     * os próximos {@code recusasTemporarias} destinatários
+     */
+    private static class ServidorSmtp {
+        final ServerSocket escuta = new ServerSocket(0);
+        final AtomicInteger conexoes = new AtomicInteger();
+        final AtomicInteger noops = new AtomicInteger();
+        final AtomicInteger destinatarios = new AtomicInteger();
+        final AtomicInteger recusasTemporarias = new AtomicInteger();
+        final List<String> mensagens = Collections.synchronizedList(new ArrayList<>());
+
+        ServidorSmtp() throws IOException {
+            Thread thread = new Thread(() -> {
+                try {
+                    while (true) {
+                        Socket conexao = escuta.accept();
+                        conexoes.incrementAndGet();
+                        Thread sessao = new Thread(() -> atender(conexao));
+                        sessao.setDaemon(true);
+                        sessao.start();
+                    }
+                } catch (IOException e) {
+                    // Escuta fechada
+                }
+            });
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        int getPorta() {
+            return escuta.getLocalPort();
+        }
+
+        void fechar() throws IOException {
+            escuta.close();
+        }
+
+        private void atender(Socket conexao) {
+            try (Socket fechar = conexao) {
+                BufferedReader entrada = new BufferedReader(new InputStreamReader(conexao.getInputStream(), StandardCharsets.US_ASCII));
+                Writer saida = new OutputStreamWriter(conexao.getOutputStream(), StandardCharsets.US_ASCII);
+                responder(saida, "220 localhost SMTP");
+                String linha;
+                while ((linha = entrada.readLine()) != null) {
+                    String comando = linha.toUpperCase();
+                    if (comando.startsWith("EHLO") || comando.startsWith("HELO")) {
+                        responder(saida, "250 localhost");
+                    } else if (comando.startsWith("RCPT TO")) {
+                        destinatarios.incrementAndGet();
+                        if (comando.contains("<REJEITADO")) {
+                            responder(saida, "550 5.1.1 Usuario desconhecido");
+                        } else if (recusasTemporarias.getAndUpdate(n -> Math.max(0, n - 1)) > 0) {
+                            responder(saida, "451 4.3.0 Tente mais tarde");
+                        } else {
+                            responder(saida, "250 OK");
+                        }
+                    } else if (comando.startsWith("DATA")) {
+                        responder(saida, "354 Fim com .");
+                        StringBuilder mensagem = new StringBuilder();
+                        while (!".".equals(linha = entrada.readLine())) {
+                            if (linha == null) {
+                                return;
+                            }
+                            mensagem.append(linha).append('\n');
+                        }
+                        mensagens.add(mensagem.toString());
+                        responder(saida, "250 OK");
+                    } else if (comando.startsWith("NOOP")) {
+                        noops.incrementAndGet();
+                        responder(saida, "250 OK");
+                    } else if (comando.startsWith("QUIT")) {
+                        responder(saida, "221 Tchau");
+                        return;
+                    } else {
+                        responder(saida, "250 OK");
+                    }
+                }
+            } catch (IOException e) {
+                // Cliente desconectou
+            }
+        }
+
+        private static void responder(Writer saida, String linha) throws IOException {
+            saida.write(linha + "\r\n");
+            saida.flush();
+        }
+    }
+}